@@ -0,0 +1,269 @@
+package com.leacox.sandbox.security;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rules for which classes user code may load, by class name and by package.
+ *
+ * <p>A class rule applies to exactly one class and takes precedence over package rules. A package
+ * rule applies to the package and all of its subpackages, and the rule of the most specific package
+ * wins, so a package can be denied while one of its subpackages is allowed. Names that no rule
+ * applies to get the default verdict.
+ *
+ * <p>The rules are compiled into a trie of package name segments when they are built. Checking a
+ * name hashes and compares the segments in place, so it does not allocate.
+ *
+ * @author John Leacox
+ */
+public final class ClassNameRules {
+  private static final byte NONE = 0;
+  private static final byte ALLOW = 1;
+  private static final byte DENY = 2;
+
+  private static final ClassNameRules DEFAULTS = builder()
+      .denyClass("java.io.ObjectInputStream")
+      .denyClass("java.io.ObjectOutputStream")
+      .denyClass("java.io.ObjectStreamField")
+      .denyClass("java.io.ObjectStreamClass")
+      .denyClass("java.util.logging.Logger")
+      .denyClass("java.sql.DriverManager")
+      .denyClass("javax.sql.rowset.serial.SerialJavaObject")
+      .denyClass("java.lang.ClassLoader")
+      .denyClass("java.lang.Thread$Builder")
+      .denyClass("java.lang.Thread$Builder$OfVirtual")
+      .denyPackage("com.leacox.sandbox.runtime.security")
+      .denyPackage("net.bytebuddy")
+      .build();
+
+  private final boolean allowedByDefault;
+  private final Map<String, Boolean> classRules;
+  private final Map<String, Boolean> packageRules;
+  private final PackageNode root;
+
+  private ClassNameRules(Builder builder) {
+    this.allowedByDefault = builder.allowedByDefault;
+    this.classRules = new HashMap<>(builder.classRules);
+    this.packageRules = Collections.unmodifiableMap(new LinkedHashMap<>(builder.packageRules));
+    this.root = builder.root.compile();
+  }
+
+  /**
+   * Returns the rules user class loaders use unless they are given others, which deny the classes
+   * and packages that could be used to escape the sandbox.
+   */
+  public static ClassNameRules defaults() {
+    return DEFAULTS;
+  }
+
+  /**
+   * Returns a new builder with no rules that allows every class by default.
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns true if user code may load the class with the binary name.
+   */
+  public boolean isAllowed(String className) {
+    Boolean classRule = classRules.get(className);
+    if (classRule != null) {
+      return classRule;
+    }
+
+    byte verdict = NONE;
+    PackageNode node = root;
+    int start = 0;
+    int end;
+    // The segment after the last dot is the simple name of the class, not a package
+    while (node != null && (end = className.indexOf('.', start)) >= 0) {
+      node = node.child(className, start, end);
+      if (node != null && node.verdict != NONE) {
+        verdict = node.verdict;
+      }
+      start = end + 1;
+    }
+
+    return verdict == NONE ? allowedByDefault : verdict == ALLOW;
+  }
+
+  /**
+   * Returns whether classes that no rule applies to are allowed.
+   */
+  public boolean isAllowedByDefault() {
+    return allowedByDefault;
+  }
+
+  /**
+   * Returns the class rules, mapping each class name to whether it is allowed.
+   */
+  public Map<String, Boolean> getClassRules() {
+    return Collections.unmodifiableMap(classRules);
+  }
+
+  /**
+   * Returns the package rules, mapping each package name to whether its classes are allowed.
+   */
+  public Map<String, Boolean> getPackageRules() {
+    return packageRules;
+  }
+
+  private static int hash(String name, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + name.charAt(i);
+    }
+
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * A compiled node of the package trie. Children are kept in an open addressing table keyed by
+   * their segment, so they can be found by a region of the class name without a substring.
+   */
+  private static final class PackageNode {
+    private final byte verdict;
+    private final String[] segments;
+    private final int[] hashes;
+    private final PackageNode[] children;
+    private final int mask;
+
+    private PackageNode(byte verdict, Map<String, PackageNode> children) {
+      this.verdict = verdict;
+
+      int capacity = Integer.highestOneBit(Math.max(1, children.size()) * 2 - 1) << 1;
+      this.segments = new String[capacity];
+      this.hashes = new int[capacity];
+      this.children = new PackageNode[capacity];
+      this.mask = capacity - 1;
+
+      for (Map.Entry<String, PackageNode> child : children.entrySet()) {
+        String segment = child.getKey();
+        int hash = hash(segment, 0, segment.length());
+        int index = hash & mask;
+        while (segments[index] != null) {
+          index = (index + 1) & mask;
+        }
+
+        segments[index] = segment;
+        hashes[index] = hash;
+        this.children[index] = child.getValue();
+      }
+    }
+
+    private PackageNode child(String name, int start, int end) {
+      int length = end - start;
+      int hash = hash(name, start, end);
+      int index = hash & mask;
+      String segment;
+      while ((segment = segments[index]) != null) {
+        if (hashes[index] == hash && segment.length() == length
+            && name.regionMatches(start, segment, 0, length)) {
+          return children[index];
+        }
+        index = (index + 1) & mask;
+      }
+
+      return null;
+    }
+  }
+
+  private static final class BuilderNode {
+    private byte verdict = NONE;
+    private final Map<String, BuilderNode> children = new HashMap<>();
+
+    private PackageNode compile() {
+      Map<String, PackageNode> compiled = new HashMap<>();
+      for (Map.Entry<String, BuilderNode> child : children.entrySet()) {
+        compiled.put(child.getKey(), child.getValue().compile());
+      }
+
+      return new PackageNode(verdict, compiled);
+    }
+  }
+
+  /**
+   * A builder for {@link ClassNameRules}. When several rules are added for the same class or
+   * package, the last one wins.
+   */
+  public static class Builder {
+    private boolean allowedByDefault = true;
+    private final Map<String, Boolean> classRules = new HashMap<>();
+    private final Map<String, Boolean> packageRules = new LinkedHashMap<>();
+    private final BuilderNode root = new BuilderNode();
+
+    private Builder() {}
+
+    /**
+     * Sets whether classes that no rule applies to are allowed. Defaults to true.
+     */
+    public Builder allowedByDefault(boolean allowedByDefault) {
+      this.allowedByDefault = allowedByDefault;
+      return this;
+    }
+
+    /**
+     * Allows the class with the binary name.
+     */
+    public Builder allowClass(String className) {
+      classRules.put(checkName("className", className), true);
+      return this;
+    }
+
+    /**
+     * Denies the class with the binary name.
+     */
+    public Builder denyClass(String className) {
+      classRules.put(checkName("className", className), false);
+      return this;
+    }
+
+    /**
+     * Allows the classes of the package and its subpackages.
+     */
+    public Builder allowPackage(String packageName) {
+      node(checkName("packageName", packageName)).verdict = ALLOW;
+      packageRules.put(packageName, true);
+      return this;
+    }
+
+    /**
+     * Denies the classes of the package and its subpackages.
+     */
+    public Builder denyPackage(String packageName) {
+      node(checkName("packageName", packageName)).verdict = DENY;
+      packageRules.put(packageName, false);
+      return this;
+    }
+
+    /**
+     * Compiles the rules.
+     */
+    public ClassNameRules build() {
+      return new ClassNameRules(this);
+    }
+
+    private BuilderNode node(String packageName) {
+      BuilderNode node = root;
+      for (String segment : packageName.split("\\.")) {
+        node = node.children.computeIfAbsent(segment, s -> new BuilderNode());
+      }
+
+      return node;
+    }
+
+    private static String checkName(String parameter, String name) {
+      if (name == null) {
+        throw new NullPointerException(parameter + ":null");
+      } else if (name.isEmpty() || name.startsWith(".") || name.endsWith(".")
+          || name.contains("..")) {
+        throw new IllegalArgumentException(parameter + ":Must be a dot separated name");
+      }
+
+      return name;
+    }
+  }
+}
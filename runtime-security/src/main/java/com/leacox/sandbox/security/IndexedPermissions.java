@@ -0,0 +1,122 @@
+package com.leacox.sandbox.security;
+
+import java.security.AllPermission;
+import java.security.Permission;
+import java.security.PermissionCollection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * A read-only collection of permissions indexed by permission type.
+ *
+ * <p>The permissions are grouped by their class when the collection is created, and each group is
+ * kept in the homogeneous collection its permission type provides, so that for example file
+ * permissions are matched with the path logic of {@code FilePermission}. Checking a permission
+ * looks up the group of its class in a hash map that never changes after construction, and only
+ * consults that group, so the cost does not grow with the number of other permission types.
+ *
+ * <p>Like {@link java.security.Permissions}, a permission is only implied by permissions of exactly
+ * its class, unless the collection contains {@link AllPermission}.
+ *
+ * @author John Leacox
+ */
+final class IndexedPermissions extends PermissionCollection {
+  private static final long serialVersionUID = 1L;
+
+  private final boolean allPermission;
+  private final Map<Class<?>, PermissionCollection> byType;
+  private final List<Permission> permissions;
+
+  /**
+   * Creates a new instance of {@code IndexedPermissions}.
+   *
+   * @param permissions the permissions of the collection
+   */
+  IndexedPermissions(List<Permission> permissions) {
+    Map<Class<?>, PermissionCollection> byType = new HashMap<>();
+    boolean allPermission = false;
+    for (Permission permission : permissions) {
+      if (permission instanceof AllPermission) {
+        allPermission = true;
+      }
+
+      byType.computeIfAbsent(permission.getClass(), type -> newCollection(permission))
+          .add(permission);
+    }
+
+    for (PermissionCollection collection : byType.values()) {
+      collection.setReadOnly();
+    }
+
+    this.allPermission = allPermission;
+    this.byType = byType;
+    this.permissions = Collections.unmodifiableList(new ArrayList<>(permissions));
+    setReadOnly();
+  }
+
+  private static PermissionCollection newCollection(Permission permission) {
+    PermissionCollection collection = permission.newPermissionCollection();
+    return collection != null ? collection : new ListPermissionCollection();
+  }
+
+  @Override
+  public void add(Permission permission) {
+    throw new SecurityException("Attempt to add a Permission to a readonly PermissionCollection");
+  }
+
+  @Override
+  public boolean implies(Permission permission) {
+    if (allPermission) {
+      return true;
+    }
+
+    PermissionCollection collection = byType.get(permission.getClass());
+    return collection != null && collection.implies(permission);
+  }
+
+  @Override
+  public Enumeration<Permission> elements() {
+    return Collections.enumeration(permissions);
+  }
+
+  /**
+   * The collection of a permission type that does not provide its own, which checks each of its
+   * permissions in turn.
+   */
+  private static final class ListPermissionCollection extends PermissionCollection {
+    private static final long serialVersionUID = 1L;
+
+    private final Vector<Permission> permissions = new Vector<>();
+
+    @Override
+    public void add(Permission permission) {
+      if (isReadOnly()) {
+        throw new SecurityException(
+            "Attempt to add a Permission to a readonly PermissionCollection");
+      }
+
+      permissions.add(permission);
+    }
+
+    @Override
+    public boolean implies(Permission permission) {
+      for (Permission granted : permissions) {
+        if (granted.implies(permission)) {
+          return true;
+        }
+      }
+
+      return false;
+    }
+
+    @Override
+    public Enumeration<Permission> elements() {
+      return permissions.elements();
+    }
+  }
+}
@@ -0,0 +1,194 @@
+package com.leacox.sandbox.security;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A cache of indexed, memory-mapped jars that {@link UserClassLoader}s share.
+ *
+ * <p>Each jar is indexed once per version, where a version is identified by the jar's path,
+ * modification time and size. Versions are further deduplicated by the SHA-256 hash of their
+ * contents, so the same jar copied to several paths is only mapped once. A jar that has changed on
+ * disk is indexed again the next time a loader is created for it.
+ *
+ * <p>Each version is mapped from a private copy taken when it is indexed, in a temporary directory
+ * that only the user running the runtime can write to, so loaders created before a change keep
+ * defining the classes they started with even if the jar is rewritten in place. Resources other
+ * than classes are still read from the jar itself, so jars should be deployed by writing a new file
+ * and renaming it over the old one rather than by rewriting them.
+ *
+ * <p>Loaders only share the bytes of their classes, never the classes themselves, so every loader
+ * still defines its own classes.
+ *
+ * @author John Leacox
+ */
+public class JarContentCache {
+  private static final Logger logger = LoggerFactory.getLogger(JarContentCache.class);
+
+  private final Map<Path, PathEntry> entriesByPath = new ConcurrentHashMap<>();
+  private final Map<String, JarIndex> indexesBySha256 = new HashMap<>();
+  private Path snapshotDirectory;
+
+  /**
+   * Creates a new instance of {@code JarContentCache}.
+   */
+  public JarContentCache() {}
+
+  /**
+   * Returns the number of distinct jar contents currently indexed.
+   */
+  public int getIndexedJarCount() {
+    synchronized (indexesBySha256) {
+      return indexesBySha256.size();
+    }
+  }
+
+  /**
+   * Drops every index. Loaders that already have an index keep using it.
+   */
+  public void clear() {
+    synchronized (indexesBySha256) {
+      entriesByPath.clear();
+      indexesBySha256.clear();
+    }
+  }
+
+  /**
+   * Forgets the jar at the URL, dropping its index unless another path has the same contents.
+   * This should be called once no new loaders will be created for the jar, such as when it has
+   * been deleted, so the cache does not keep its mapping reachable. Loaders that already have the
+   * index keep using it.
+   */
+  public void invalidate(URL jarUrl) {
+    Path path = toPath(jarUrl);
+    if (path == null) {
+      return;
+    }
+
+    synchronized (indexesBySha256) {
+      PathEntry entry = entriesByPath.remove(path);
+      if (entry != null && !isReferenced(entry.index)) {
+        indexesBySha256.remove(entry.index.getSha256());
+      }
+    }
+  }
+
+  /**
+   * Returns the hex encoded SHA-256 hash of the current contents of the jar at the URL, indexing
+   * the jar first if its current version has not been indexed yet.
+   *
+   * @return the hash, or null if the URL is not a local jar this cache can index
+   */
+  public String getSha256(URL jarUrl) {
+    JarIndex index = getIndex(jarUrl);
+    return index == null ? null : index.getSha256();
+  }
+
+  /**
+   * Returns the index of the jar at the URL, indexing it first if the current version of the jar
+   * has not been indexed yet.
+   *
+   * @return the index, or null if the URL is not a local jar this cache can index
+   */
+  JarIndex getIndex(URL jarUrl) {
+    Path path = toPath(jarUrl);
+    if (path == null) {
+      return null;
+    }
+
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+      long lastModifiedMillis = attributes.lastModifiedTime().toMillis();
+
+      PathEntry entry = entriesByPath.get(path);
+      if (entry != null && entry.isVersion(lastModifiedMillis, attributes.size())) {
+        return entry.index;
+      }
+
+      return index(path, lastModifiedMillis, attributes.size());
+    } catch (IOException e) {
+      logger.debug("Unable to index jar {}, it will be read directly", jarUrl, e);
+      return null;
+    }
+  }
+
+  private static Path toPath(URL jarUrl) {
+    if (!"file".equals(jarUrl.getProtocol())) {
+      return null;
+    }
+
+    try {
+      return Paths.get(jarUrl.toURI()).toAbsolutePath().normalize();
+    } catch (URISyntaxException | IllegalArgumentException e) {
+      logger.debug("Unable to index jar {}, it will be read directly", jarUrl, e);
+      return null;
+    }
+  }
+
+  private JarIndex index(Path path, long lastModifiedMillis, long size) throws IOException {
+    synchronized (indexesBySha256) {
+      // Another loader may have indexed this version while this one was waiting
+      PathEntry entry = entriesByPath.get(path);
+      if (entry != null && entry.isVersion(lastModifiedMillis, size)) {
+        return entry.index;
+      }
+
+      if (snapshotDirectory == null) {
+        snapshotDirectory = PrivateDirectories.createTemporary("sandbox-jar-index-");
+        snapshotDirectory.toFile().deleteOnExit();
+      }
+
+      JarIndex index = JarIndex.open(path, snapshotDirectory);
+      JarIndex existing = indexesBySha256.putIfAbsent(index.getSha256(), index);
+      if (existing != null) {
+        index = existing;
+      }
+
+      PathEntry previous = entriesByPath.put(path, new PathEntry(lastModifiedMillis, size, index));
+      if (previous != null && !isReferenced(previous.index)) {
+        indexesBySha256.remove(previous.index.getSha256());
+      }
+
+      logger.debug("Indexed {} classes of jar {} with SHA-256 {}", index.getClassCount(), path,
+          index.getSha256());
+      return index;
+    }
+  }
+
+  private boolean isReferenced(JarIndex index) {
+    for (PathEntry entry : entriesByPath.values()) {
+      if (entry.index == index) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static final class PathEntry {
+    private final long lastModifiedMillis;
+    private final long size;
+    private final JarIndex index;
+
+    private PathEntry(long lastModifiedMillis, long size, JarIndex index) {
+      this.lastModifiedMillis = lastModifiedMillis;
+      this.size = size;
+      this.index = index;
+    }
+
+    private boolean isVersion(long lastModifiedMillis, long size) {
+      return this.lastModifiedMillis == lastModifiedMillis && this.size == size;
+    }
+  }
+}
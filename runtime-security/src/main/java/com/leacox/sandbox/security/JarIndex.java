@@ -0,0 +1,360 @@
+package com.leacox.sandbox.security;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * An index of the classes in a jar, served from a read-only memory mapping of a private copy of the
+ * jar.
+ *
+ * <p>A mapping is a live view of its file, so a jar that is rewritten in place would change under
+ * the loaders reading from it, and one that is truncated would fault them. The jar is therefore
+ * copied to a new file in a private directory first, and the copy is mapped and then deleted, so
+ * that nothing can change the bytes the index serves. A jar that changes while it is being copied
+ * is rejected.
+ *
+ * <p>The central directory of the jar is parsed once when the index is created, and only the
+ * location of each class entry is kept. Class bytes are read straight out of the mapping when they
+ * are requested: stored entries are returned as a view of the mapping without copying, and deflated
+ * entries are inflated into a new buffer. Nothing is cached on the heap beyond the index itself and
+ * the jar's manifest, which is parsed once for the loaders to define packages with, so any number
+ * of loaders can share one index.
+ *
+ * <p>Only plain jars are indexed. ZIP64 jars, jars with encrypted entries, and signed jars, whose
+ * signatures only a {@code JarFile} verifies, are rejected with an {@code IOException}, as are jars
+ * whose central directory points outside of the jar.
+ *
+ * @author John Leacox
+ */
+final class JarIndex {
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xffff;
+  private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+  private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int LOCAL_HEADER_SIZE = 30;
+
+  private static final int METHOD_STORED = 0;
+  private static final int METHOD_DEFLATED = 8;
+  private static final int FLAG_ENCRYPTED = 0x1;
+
+  private final Path path;
+  private final String sha256;
+  private final ByteBuffer mapping;
+  private final Map<String, Entry> classEntries;
+  private final Manifest manifest;
+
+  private JarIndex(
+      Path path, String sha256, ByteBuffer mapping, Map<String, Entry> classEntries,
+      Entry manifestEntry) throws IOException {
+    this.path = path;
+    this.sha256 = sha256;
+    this.mapping = mapping;
+    this.classEntries = classEntries;
+    this.manifest = manifestEntry == null ? null : readManifest(manifestEntry);
+  }
+
+  /**
+   * Copies the jar at the path to the snapshot directory, then maps and indexes the copy.
+   *
+   * @param path the jar
+   * @param snapshotDirectory a directory that only the user running the runtime can write to
+   * @throws IOException if the jar cannot be read, changes while it is being copied, or is not a
+   *     jar this index supports
+   */
+  static JarIndex open(Path path, Path snapshotDirectory) throws IOException {
+    BasicFileAttributes before = Files.readAttributes(path, BasicFileAttributes.class);
+    if (before.size() > Integer.MAX_VALUE) {
+      throw new IOException("Jar is too large to map: " + path);
+    }
+
+    Path snapshot = Files.createTempFile(snapshotDirectory, "jar-index-", ".jar");
+    MappedByteBuffer mapping;
+    try {
+      Files.copy(path, snapshot, StandardCopyOption.REPLACE_EXISTING);
+      BasicFileAttributes after = Files.readAttributes(path, BasicFileAttributes.class);
+      if (!after.lastModifiedTime().equals(before.lastModifiedTime())
+          || after.size() != before.size()) {
+        throw new IOException("Jar changed while it was being copied: " + path);
+      }
+
+      try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+        if (channel.size() != before.size()) {
+          throw new IOException("Jar changed while it was being copied: " + path);
+        }
+        mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+    } finally {
+      deleteSnapshot(snapshot);
+    }
+    mapping.order(ByteOrder.LITTLE_ENDIAN);
+
+    Map<String, Entry> classEntries = new HashMap<>();
+    Entry manifestEntry = readCentralDirectory(path, mapping, classEntries);
+    return new JarIndex(path, sha256(mapping), mapping, classEntries, manifestEntry);
+  }
+
+  private static void deleteSnapshot(Path snapshot) {
+    try {
+      // The mapping stays valid once the file is unlinked, where the file system allows it
+      Files.delete(snapshot);
+    } catch (IOException e) {
+      // Mapped files cannot be deleted on some platforms
+      snapshot.toFile().deleteOnExit();
+    }
+  }
+
+  /**
+   * Returns the hex encoded SHA-256 hash of the jar's contents.
+   */
+  String getSha256() {
+    return sha256;
+  }
+
+  /**
+   * Returns the number of classes in the jar.
+   */
+  int getClassCount() {
+    return classEntries.size();
+  }
+
+  /**
+   * Returns the jar's manifest, or null if it does not have one. The manifest is shared by every
+   * user of the index and must not be modified.
+   */
+  Manifest getManifest() {
+    return manifest;
+  }
+
+  /**
+   * Returns the bytes of the class with the binary name, or null if the jar does not contain it.
+   * The returned buffer is read-only for stored entries and must not be modified otherwise.
+   *
+   * @throws IOException if the entry is corrupt
+   */
+  ByteBuffer getClassBytes(String className) throws IOException {
+    Entry entry = classEntries.get(className);
+    if (entry == null) {
+      return null;
+    }
+
+    return entryBytes(className, entry);
+  }
+
+  private Manifest readManifest(Entry entry) throws IOException {
+    ByteBuffer bytes = entryBytes(JarFile.MANIFEST_NAME, entry);
+    byte[] manifestBytes = new byte[bytes.remaining()];
+    bytes.get(manifestBytes);
+    try {
+      return new Manifest(new ByteArrayInputStream(manifestBytes));
+    } catch (IOException | RuntimeException e) {
+      throw new IOException("Corrupt manifest in " + path, e);
+    }
+  }
+
+  private ByteBuffer entryBytes(String entryName, Entry entry) throws IOException {
+    ByteBuffer view = mapping.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    if (view.getInt(entry.localHeaderOffset) != LOCAL_HEADER_SIGNATURE) {
+      throw new IOException("Corrupt local header for " + entryName + " in " + path);
+    }
+
+    long dataOffset = (long) entry.localHeaderOffset + LOCAL_HEADER_SIZE
+        + unsignedShort(view, entry.localHeaderOffset + 26)
+        + unsignedShort(view, entry.localHeaderOffset + 28);
+    if (dataOffset + entry.compressedSize > view.capacity()) {
+      throw new IOException("Corrupt entry for " + entryName + " in " + path);
+    }
+    view.limit((int) dataOffset + entry.compressedSize).position((int) dataOffset);
+    ByteBuffer data = view.slice();
+
+    if (entry.method == METHOD_STORED) {
+      return data.asReadOnlyBuffer();
+    }
+
+    return inflate(entryName, data, entry.uncompressedSize);
+  }
+
+  private ByteBuffer inflate(String entryName, ByteBuffer data, int uncompressedSize)
+      throws IOException {
+    // Java 8's Inflater only reads from arrays
+    byte[] compressed = new byte[data.remaining()];
+    data.get(compressed);
+
+    byte[] bytes = new byte[uncompressedSize];
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(compressed);
+      int length = 0;
+      while (length < bytes.length && !inflater.finished()) {
+        int inflated = inflater.inflate(bytes, length, bytes.length - length);
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        length += inflated;
+      }
+
+      if (length != bytes.length) {
+        throw new IOException("Truncated entry for " + entryName + " in " + path);
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt entry for " + entryName + " in " + path, e);
+    } finally {
+      inflater.end();
+    }
+
+    return ByteBuffer.wrap(bytes);
+  }
+
+  /**
+   * Adds the class entries of the central directory to the map.
+   *
+   * @return the entry of the manifest, or null if the jar does not have one
+   */
+  private static Entry readCentralDirectory(
+      Path path, ByteBuffer mapping, Map<String, Entry> classEntries) throws IOException {
+    int end = findEndOfCentralDirectory(path, mapping);
+    int entryCount = unsignedShort(mapping, end + 10);
+    long directoryOffset = mapping.getInt(end + 16) & 0xffffffffL;
+    if (entryCount == 0xffff || directoryOffset == 0xffffffffL) {
+      throw new IOException("ZIP64 jars are not supported: " + path);
+    } else if (directoryOffset > end) {
+      throw new IOException("Corrupt central directory in " + path);
+    }
+
+    Entry manifestEntry = null;
+    int offset = (int) directoryOffset;
+    for (int i = 0; i < entryCount; i++) {
+      // The central directory ends where the end of central directory record starts
+      if (offset > end - CENTRAL_DIRECTORY_HEADER_SIZE
+          || mapping.getInt(offset) != CENTRAL_DIRECTORY_SIGNATURE) {
+        throw new IOException("Corrupt central directory in " + path);
+      }
+
+      int flags = unsignedShort(mapping, offset + 8);
+      int method = unsignedShort(mapping, offset + 10);
+      int compressedSize = mapping.getInt(offset + 20);
+      int uncompressedSize = mapping.getInt(offset + 24);
+      int nameLength = unsignedShort(mapping, offset + 28);
+      int extraLength = unsignedShort(mapping, offset + 30);
+      int commentLength = unsignedShort(mapping, offset + 32);
+      int localHeaderOffset = mapping.getInt(offset + 42);
+      if (offset + CENTRAL_DIRECTORY_HEADER_SIZE + nameLength > end) {
+        throw new IOException("Corrupt central directory in " + path);
+      }
+      String name = readName(mapping, offset + CENTRAL_DIRECTORY_HEADER_SIZE, nameLength);
+      offset += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+
+      if ((flags & FLAG_ENCRYPTED) != 0) {
+        throw new IOException("Encrypted jars are not supported: " + path);
+      } else if (isSignatureFile(name)) {
+        throw new IOException("Signed jars are not supported: " + path);
+      } else if (!name.endsWith(".class") && !name.equalsIgnoreCase(JarFile.MANIFEST_NAME)) {
+        continue;
+      } else if (method != METHOD_STORED && method != METHOD_DEFLATED) {
+        throw new IOException("Unsupported compression method " + method + " in " + path);
+      } else if (compressedSize < 0 || uncompressedSize < 0 || localHeaderOffset < 0
+          || localHeaderOffset > (int) directoryOffset - LOCAL_HEADER_SIZE
+          || (method == METHOD_STORED && compressedSize != uncompressedSize)) {
+        // Sizes of 2GB and more can only come from ZIP64 or a corrupt jar
+        throw new IOException("Corrupt central directory entry " + name + " in " + path);
+      }
+
+      Entry entry = new Entry(method, compressedSize, uncompressedSize, localHeaderOffset);
+      if (!name.endsWith(".class")) {
+        manifestEntry = entry;
+        continue;
+      }
+
+      String className = name.substring(0, name.length() - ".class".length()).replace('/', '.');
+      classEntries.put(className, entry);
+    }
+
+    return manifestEntry;
+  }
+
+  private static int findEndOfCentralDirectory(Path path, ByteBuffer mapping) throws IOException {
+    int last = mapping.capacity() - END_OF_CENTRAL_DIRECTORY_SIZE;
+    int first = Math.max(0, last - MAX_COMMENT_SIZE);
+    for (int offset = last; offset >= first; offset--) {
+      if (mapping.getInt(offset) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+        return offset;
+      }
+    }
+
+    throw new IOException("Not a jar: " + path);
+  }
+
+  private static boolean isSignatureFile(String name) {
+    if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) >= 0) {
+      return false;
+    }
+
+    return name.endsWith(".SF") || name.endsWith(".DSA") || name.endsWith(".RSA")
+        || name.endsWith(".EC");
+  }
+
+  private static String readName(ByteBuffer mapping, int offset, int length) {
+    byte[] bytes = new byte[length];
+    ByteBuffer view = mapping.duplicate();
+    view.position(offset);
+    view.get(bytes);
+    // Class names are ASCII, which UTF-8 and the legacy zip encoding agree on
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int unsignedShort(ByteBuffer buffer, int offset) {
+    return buffer.getShort(offset) & 0xffff;
+  }
+
+  private static String sha256(ByteBuffer mapping) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every JVM is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+
+    digest.update(mapping.duplicate());
+    StringBuilder hex = new StringBuilder(64);
+    for (byte b : digest.digest()) {
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+
+    return hex.toString();
+  }
+
+  private static final class Entry {
+    private final int method;
+    private final int compressedSize;
+    private final int uncompressedSize;
+    private final int localHeaderOffset;
+
+    private Entry(
+        int method, int compressedSize, int uncompressedSize, int localHeaderOffset) {
+      this.method = method;
+      this.compressedSize = compressedSize;
+      this.uncompressedSize = uncompressedSize;
+      this.localHeaderOffset = localHeaderOffset;
+    }
+  }
+}
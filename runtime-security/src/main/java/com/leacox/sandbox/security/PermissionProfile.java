@@ -0,0 +1,100 @@
+package com.leacox.sandbox.security;
+
+import java.security.Permission;
+import java.security.PermissionCollection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A named set of permissions granted to user code, in addition to the permissions every
+ * {@link UserClassLoader} grants its own code.
+ *
+ * <p>A profile is attached to a user class loader when the loader is created, and the
+ * {@link RuntimePolicy} grants the profile's permissions to all of the loader's classes. The
+ * permissions are compiled into a read-only collection indexed by permission type when the profile
+ * is built, which is shared by every loader with the profile, so the policy never copies or scans
+ * the grants of a profile when it checks a permission.
+ *
+ * @author John Leacox
+ */
+public final class PermissionProfile {
+  private static final PermissionProfile NONE = builder("none").build();
+
+  private final String name;
+  private final PermissionCollection permissions;
+
+  private PermissionProfile(Builder builder) {
+    this.name = builder.name;
+    this.permissions = new IndexedPermissions(builder.permissions);
+  }
+
+  /**
+   * Returns a profile that grants no permissions.
+   */
+  public static PermissionProfile none() {
+    return NONE;
+  }
+
+  /**
+   * Returns a new builder for a profile with no permissions.
+   *
+   * @param name the name of the profile
+   */
+  public static Builder builder(String name) {
+    return new Builder(name);
+  }
+
+  /**
+   * Returns the name of the profile.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the permissions of the profile, as a read-only collection.
+   */
+  public PermissionCollection getPermissions() {
+    return permissions;
+  }
+
+  @Override
+  public String toString() {
+    return "PermissionProfile{name=" + name + '}';
+  }
+
+  /**
+   * A builder for {@link PermissionProfile}.
+   */
+  public static class Builder {
+    private final String name;
+    private final List<Permission> permissions = new ArrayList<>();
+
+    private Builder(String name) {
+      if (name == null) {
+        throw new NullPointerException("name:null");
+      }
+
+      this.name = name;
+    }
+
+    /**
+     * Grants the permission.
+     */
+    public Builder grant(Permission permission) {
+      if (permission == null) {
+        throw new NullPointerException("permission:null");
+      }
+
+      permissions.add(permission);
+      return this;
+    }
+
+    /**
+     * Compiles the profile.
+     */
+    public PermissionProfile build() {
+      return new PermissionProfile(this);
+    }
+  }
+}
@@ -0,0 +1,334 @@
+package com.leacox.sandbox.security;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link PermissionProfile}s of a runtime and the tenants they are assigned to.
+ *
+ * <p>Tenants without a profile of their own get the default profile, which grants nothing unless
+ * another default is configured.
+ *
+ * <p>Profiles can be loaded from a file with one directive per line:
+ *
+ * <pre>
+ * # Comments start with a hash
+ * profile reports
+ * grant java.io.FilePermission "/srv/reports/-" read
+ * grant java.util.PropertyPermission "user.timezone" read
+ *
+ * tenant acme reports
+ * default none
+ * </pre>
+ *
+ * <p>A {@code grant} adds a permission to the last {@code profile}. It names the permission class,
+ * which must be visible to the class loader of this class, followed by the permission's name and
+ * actions if it takes them. Values that contain spaces are quoted. The profile {@code none} always
+ * exists and grants nothing.
+ *
+ * @author John Leacox
+ */
+public final class PermissionProfiles {
+  private static final PermissionProfiles NONE = builder().build();
+
+  private final Map<String, PermissionProfile> profiles;
+  private final Map<String, PermissionProfile> tenantProfiles;
+  private final PermissionProfile defaultProfile;
+
+  private PermissionProfiles(Builder builder) {
+    Map<String, PermissionProfile> tenantProfiles = new HashMap<>();
+    for (Map.Entry<String, String> assignment : builder.assignments.entrySet()) {
+      tenantProfiles.put(assignment.getKey(), profile(builder.profiles, assignment.getValue()));
+    }
+
+    this.profiles = Collections.unmodifiableMap(new LinkedHashMap<>(builder.profiles));
+    this.tenantProfiles = tenantProfiles;
+    this.defaultProfile = profile(builder.profiles, builder.defaultProfile);
+  }
+
+  private static PermissionProfile profile(Map<String, PermissionProfile> profiles, String name) {
+    PermissionProfile profile = profiles.get(name);
+    if (profile == null) {
+      throw new IllegalArgumentException("profile:Must be defined [" + name + "]");
+    }
+
+    return profile;
+  }
+
+  /**
+   * Returns profiles that grant no tenant any permissions.
+   */
+  public static PermissionProfiles none() {
+    return NONE;
+  }
+
+  /**
+   * Returns a new builder with only the {@code none} profile, which is the default.
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Loads the profiles from a file in the format described above.
+   *
+   * @throws IOException if the file cannot be read
+   * @throws IllegalArgumentException if the file is not valid
+   */
+  public static PermissionProfiles load(Path path) throws IOException {
+    Builder builder = builder();
+    PermissionProfile.Builder profile = null;
+    int lineNumber = 0;
+    for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+      lineNumber++;
+      try {
+        List<String> tokens = tokenize(line);
+        if (tokens.isEmpty()) {
+          continue;
+        }
+
+        String directive = tokens.get(0);
+        if (directive.equals("profile") && tokens.size() == 2) {
+          if (tokens.get(1).equals(PermissionProfile.none().getName())) {
+            throw new IllegalArgumentException("profile:Must not replace the none profile");
+          } else if (profile != null) {
+            builder.profile(profile.build());
+          }
+          profile = PermissionProfile.builder(tokens.get(1));
+        } else if (directive.equals("grant") && tokens.size() >= 2 && tokens.size() <= 4) {
+          if (profile == null) {
+            throw new IllegalArgumentException("grant:Must follow a profile");
+          }
+          profile.grant(newPermission(tokens.subList(1, tokens.size())));
+        } else if (directive.equals("tenant") && tokens.size() == 3) {
+          builder.assign(tokens.get(1), tokens.get(2));
+        } else if (directive.equals("default") && tokens.size() == 2) {
+          builder.defaultProfile(tokens.get(1));
+        } else {
+          throw new IllegalArgumentException("Unknown directive [" + line.trim() + "]");
+        }
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException(path + ":" + lineNumber + ": " + e.getMessage(), e);
+      }
+    }
+
+    if (profile != null) {
+      builder.profile(profile.build());
+    }
+
+    try {
+      return builder.build();
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException(path + ": " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Writes the profiles to a file in the format described above, from which {@link #load} reads
+   * back the same profiles. Each permission is written as its class, name and actions, so it must
+   * be created by a public constructor that takes them.
+   *
+   * @throws IOException if the file cannot be written
+   * @throws IllegalArgumentException if a value that has to be quoted contains a quote
+   */
+  public void store(Path path) throws IOException {
+    List<String> lines = new ArrayList<>();
+    for (PermissionProfile profile : profiles.values()) {
+      if (profile == PermissionProfile.none()) {
+        continue;
+      }
+
+      lines.add("profile " + token(profile.getName()));
+      for (Permission permission : Collections.list(profile.getPermissions().elements())) {
+        StringBuilder line = new StringBuilder("grant ")
+            .append(permission.getClass().getName())
+            .append(' ')
+            .append(token(permission.getName()));
+        String actions = permission.getActions();
+        if (actions != null && !actions.isEmpty()) {
+          line.append(' ').append(token(actions));
+        }
+        lines.add(line.toString());
+      }
+    }
+
+    for (Map.Entry<String, PermissionProfile> tenant : tenantProfiles.entrySet()) {
+      lines.add("tenant " + token(tenant.getKey()) + " " + token(tenant.getValue().getName()));
+    }
+    lines.add("default " + token(defaultProfile.getName()));
+
+    Files.write(path, lines, StandardCharsets.UTF_8);
+  }
+
+  private static String token(String value) {
+    boolean quote = value.isEmpty() || value.charAt(0) == '#' || value.charAt(0) == '"';
+    for (int i = 0; i < value.length() && !quote; i++) {
+      quote = Character.isWhitespace(value.charAt(i));
+    }
+
+    if (!quote) {
+      return value;
+    } else if (value.indexOf('"') >= 0) {
+      throw new IllegalArgumentException("Must not quote a value that contains a quote [" + value
+          + "]");
+    }
+
+    return '"' + value + '"';
+  }
+
+  private static List<String> tokenize(String line) {
+    List<String> tokens = new ArrayList<>();
+    int i = 0;
+    while (i < line.length()) {
+      char c = line.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (c == '#') {
+        break;
+      } else if (c == '"') {
+        int end = line.indexOf('"', i + 1);
+        if (end < 0) {
+          throw new IllegalArgumentException("Unterminated quote");
+        }
+        tokens.add(line.substring(i + 1, end));
+        i = end + 1;
+      } else {
+        int end = i;
+        while (end < line.length() && !Character.isWhitespace(line.charAt(end))) {
+          end++;
+        }
+        tokens.add(line.substring(i, end));
+        i = end;
+      }
+    }
+
+    return tokens;
+  }
+
+  private static Permission newPermission(List<String> tokens) {
+    String className = tokens.get(0);
+    int argumentCount = tokens.size() - 1;
+    Class<?>[] parameterTypes = new Class<?>[argumentCount];
+    for (int i = 0; i < argumentCount; i++) {
+      parameterTypes[i] = String.class;
+    }
+
+    try {
+      Class<? extends Permission> type = Class.forName(
+          className, false, PermissionProfiles.class.getClassLoader()).asSubclass(Permission.class);
+      Constructor<? extends Permission> constructor = type.getConstructor(parameterTypes);
+      return constructor.newInstance(tokens.subList(1, tokens.size()).toArray());
+    } catch (ClassNotFoundException | ClassCastException e) {
+      throw new IllegalArgumentException("grant:Must name a permission class [" + className + "]");
+    } catch (NoSuchMethodException e) {
+      throw new IllegalArgumentException("grant:Must match a public constructor of [" + className
+          + "] taking " + argumentCount + " strings");
+    } catch (InvocationTargetException e) {
+      throw new IllegalArgumentException(
+          "grant:Invalid permission [" + e.getCause().getMessage() + "]");
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalArgumentException("grant:Unable to create [" + className + "]");
+    }
+  }
+
+  /**
+   * Returns the profile of the tenant, or the default profile if it has none of its own.
+   */
+  public PermissionProfile forTenant(String tenantId) {
+    PermissionProfile profile = tenantProfiles.get(tenantId);
+    return profile != null ? profile : defaultProfile;
+  }
+
+  /**
+   * Returns the profile with the name, or null if there is none.
+   */
+  public PermissionProfile getProfile(String name) {
+    return profiles.get(name);
+  }
+
+  /**
+   * Returns the default profile.
+   */
+  public PermissionProfile getDefaultProfile() {
+    return defaultProfile;
+  }
+
+  /**
+   * A builder for {@link PermissionProfiles}.
+   */
+  public static class Builder {
+    private final Map<String, PermissionProfile> profiles = new LinkedHashMap<>();
+    private final Map<String, String> assignments = new HashMap<>();
+    private String defaultProfile;
+
+    private Builder() {
+      PermissionProfile none = PermissionProfile.none();
+      profiles.put(none.getName(), none);
+      defaultProfile = none.getName();
+    }
+
+    /**
+     * Adds a profile, replacing any profile with the same name other than {@code none}.
+     */
+    public Builder profile(PermissionProfile profile) {
+      if (profile == null) {
+        throw new NullPointerException("profile:null");
+      } else if (profile != PermissionProfile.none()
+          && profile.getName().equals(PermissionProfile.none().getName())) {
+        throw new IllegalArgumentException("profile:Must not replace the none profile");
+      }
+
+      profiles.put(profile.getName(), profile);
+      return this;
+    }
+
+    /**
+     * Assigns the profile with the name to the tenant. The profile must be added by the time the
+     * profiles are built.
+     */
+    public Builder assign(String tenantId, String profileName) {
+      if (tenantId == null) {
+        throw new NullPointerException("tenantId:null");
+      } else if (profileName == null) {
+        throw new NullPointerException("profileName:null");
+      }
+
+      assignments.put(tenantId, profileName);
+      return this;
+    }
+
+    /**
+     * Sets the profile of tenants that are not assigned one. The profile must be added by the time
+     * the profiles are built.
+     */
+    public Builder defaultProfile(String profileName) {
+      if (profileName == null) {
+        throw new NullPointerException("profileName:null");
+      }
+
+      defaultProfile = profileName;
+      return this;
+    }
+
+    /**
+     * Builds the profiles.
+     *
+     * @throws IllegalArgumentException if a tenant or the default is assigned a profile that was
+     *     not added
+     */
+    public PermissionProfiles build() {
+      return new PermissionProfiles(this);
+    }
+  }
+}
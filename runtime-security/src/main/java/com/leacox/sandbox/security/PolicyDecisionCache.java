@@ -0,0 +1,144 @@
+package com.leacox.sandbox.security;
+
+import java.security.Permission;
+import java.security.PermissionCollection;
+import java.security.ProtectionDomain;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded, concurrent cache of the policy decisions made for user protection domains.
+ *
+ * <p>Each cached domain holds the permission collection that was built for it along with the
+ * results of the {@code implies} checks made against it. Entries are tagged with the cache epoch of
+ * the domain's {@link UserClassLoader} at the time they were created. Once the loader is closed its
+ * epoch changes and any entry tagged with the old epoch is treated as stale and dropped on the next
+ * lookup, so cached decisions never outlive the loader they were made for.
+ *
+ * @author John Leacox
+ */
+final class PolicyDecisionCache {
+  static final int DEFAULT_MAX_DOMAINS = 1024;
+  static final int DEFAULT_MAX_DECISIONS_PER_DOMAIN = 256;
+
+  private final int maxDomains;
+  private final int maxDecisionsPerDomain;
+  private final ConcurrentHashMap<ProtectionDomain, DomainDecisions> decisionsByDomain =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Creates a new instance of {@code PolicyDecisionCache}.
+   *
+   * @param maxDomains the maximum number of protection domains to cache decisions for
+   * @param maxDecisionsPerDomain the maximum number of {@code implies} results cached per domain
+   */
+  PolicyDecisionCache(int maxDomains, int maxDecisionsPerDomain) {
+    if (maxDomains < 1) {
+      throw new IllegalArgumentException("maxDomains:Must be greater than 0");
+    } else if (maxDecisionsPerDomain < 0) {
+      throw new IllegalArgumentException("maxDecisionsPerDomain:Must not be negative");
+    }
+
+    this.maxDomains = maxDomains;
+    this.maxDecisionsPerDomain = maxDecisionsPerDomain;
+  }
+
+  /**
+   * Returns the cached decisions for the domain, or {@code null} if there are none or the cached
+   * decisions were made for a different epoch of the domain's loader.
+   */
+  DomainDecisions get(ProtectionDomain domain, long epoch) {
+    DomainDecisions decisions = decisionsByDomain.get(domain);
+    if (decisions != null && decisions.epoch != epoch) {
+      decisionsByDomain.remove(domain, decisions);
+      return null;
+    }
+
+    return decisions;
+  }
+
+  /**
+   * Caches a new set of decisions for the domain and returns the decisions that should be used.
+   * If another thread cached decisions for the same epoch first, those are returned instead.
+   */
+  DomainDecisions put(ProtectionDomain domain, long epoch, PermissionCollection permissions) {
+    if (decisionsByDomain.size() >= maxDomains) {
+      evict();
+    }
+
+    DomainDecisions created = new DomainDecisions(epoch, permissions, maxDecisionsPerDomain);
+    DomainDecisions existing = decisionsByDomain.putIfAbsent(domain, created);
+    if (existing == null) {
+      return created;
+    } else if (existing.epoch == epoch) {
+      return existing;
+    }
+
+    decisionsByDomain.replace(domain, existing, created);
+    return created;
+  }
+
+  /**
+   * Removes all of the cached decisions for domains belonging to the loader.
+   */
+  void invalidate(ClassLoader loader) {
+    decisionsByDomain.keySet().removeIf(domain -> domain.getClassLoader() == loader);
+  }
+
+  /**
+   * Makes room for a new domain by first dropping the domains of closed loaders and, if that is not
+   * enough, all cached domains. The cache is expected to be sized well above the number of live
+   * user loaders, so clearing it should be rare.
+   */
+  private void evict() {
+    decisionsByDomain.entrySet().removeIf(entry -> {
+      ClassLoader loader = entry.getKey().getClassLoader();
+      return !(loader instanceof UserClassLoader)
+          || ((UserClassLoader) loader).getCacheEpoch() != entry.getValue().epoch;
+    });
+
+    if (decisionsByDomain.size() >= maxDomains) {
+      decisionsByDomain.clear();
+    }
+  }
+
+  /**
+   * The permissions and {@code implies} results cached for a single protection domain.
+   */
+  static final class DomainDecisions {
+    private final long epoch;
+    private final PermissionCollection permissions;
+    private final int maxDecisions;
+    private final ConcurrentHashMap<Permission, Boolean> impliesByPermission;
+
+    private DomainDecisions(long epoch, PermissionCollection permissions, int maxDecisions) {
+      this.epoch = epoch;
+      this.permissions = permissions;
+      this.maxDecisions = maxDecisions;
+      this.impliesByPermission = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the permissions granted to the domain.
+     */
+    PermissionCollection getPermissions() {
+      return permissions;
+    }
+
+    /**
+     * Returns the cached result of {@code implies} for the permission, or {@code null} if the
+     * result has not been cached.
+     */
+    Boolean implies(Permission permission) {
+      return impliesByPermission.get(permission);
+    }
+
+    /**
+     * Caches the result of {@code implies} for the permission if there is room left.
+     */
+    void record(Permission permission, boolean implies) {
+      if (impliesByPermission.size() < maxDecisions) {
+        impliesByPermission.putIfAbsent(permission, implies);
+      }
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package com.leacox.sandbox.security;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileOwnerAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Set;
+
+/**
+ * Static utility methods for directories that only the user running the runtime can write to.
+ *
+ * <p>The runtime writes files that it later trusts, such as the stubs jar it appends to the
+ * bootstrap class path and the snapshots of user jars it defines classes from. A file in a
+ * directory that another local user owns or can write to could be replaced between being written
+ * and being read, so such directories and files are refused. Directories that are created here are
+ * created with owner-only permissions where the file system supports POSIX permissions.
+ *
+ * @author John Leacox
+ */
+public final class PrivateDirectories {
+  private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY =
+      PosixFilePermissions.fromString("rwx------");
+
+  private static volatile UserPrincipal currentUser;
+
+  private PrivateDirectories() {
+  }
+
+  /**
+   * Creates a new, empty directory in the system's temporary directory that only the current user
+   * can access.
+   *
+   * @param prefix the prefix of the directory's name
+   * @throws IOException if the directory cannot be created
+   */
+  public static Path createTemporary(String prefix) throws IOException {
+    // Temporary directories are created with owner-only permissions on POSIX file systems
+    Path directory = Files.createTempDirectory(prefix);
+    checkPrivate(directory, true);
+    return directory;
+  }
+
+  /**
+   * Creates the directory with owner-only permissions if it does not exist, and checks that it is
+   * a directory that no other user owns or can write to.
+   *
+   * @throws IOException if the directory cannot be created or its attributes cannot be read
+   * @throws SecurityException if the directory is a symbolic link, or another user owns it or can
+   *     write to it
+   */
+  public static Path ensurePrivate(Path directory) throws IOException {
+    if (!Files.exists(directory, LinkOption.NOFOLLOW_LINKS)) {
+      Files.createDirectories(directory.toAbsolutePath().getParent());
+      try {
+        if (isPosix(directory)) {
+          Files.createDirectory(
+              directory, PosixFilePermissions.asFileAttribute(OWNER_ONLY_DIRECTORY));
+        } else {
+          Files.createDirectory(directory);
+        }
+      } catch (FileAlreadyExistsException e) {
+        // Created by someone else in the meantime, which the check below decides about
+      }
+    }
+
+    checkPrivate(directory, true);
+    return directory;
+  }
+
+  /**
+   * Checks that the file is a regular file that no other user owns or can write to.
+   *
+   * @throws IOException if the file's attributes cannot be read
+   * @throws SecurityException if the file is not a regular file, or another user owns it or can
+   *     write to it
+   */
+  public static void checkPrivateFile(Path file) throws IOException {
+    checkPrivate(file, false);
+  }
+
+  private static void checkPrivate(Path path, boolean directory) throws IOException {
+    BasicFileAttributes attributes =
+        Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    if (directory ? !attributes.isDirectory() : !attributes.isRegularFile()) {
+      throw new SecurityException(path + " is not a " + (directory ? "directory" : "regular file"));
+    }
+
+    UserPrincipal owner = Files.getOwner(path, LinkOption.NOFOLLOW_LINKS);
+    if (owner != null && !owner.equals(currentUser())) {
+      throw new SecurityException(path + " is owned by " + owner.getName()
+          + " rather than the user running the runtime");
+    }
+
+    if (isPosix(path)) {
+      Set<PosixFilePermission> permissions = Files.readAttributes(
+          path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS).permissions();
+      if (permissions.contains(PosixFilePermission.GROUP_WRITE)
+          || permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+        throw new SecurityException(path + " can be written by other users");
+      }
+    }
+  }
+
+  private static boolean isPosix(Path path) {
+    return path.getFileSystem().supportedFileAttributeViews().contains("posix");
+  }
+
+  /**
+   * Returns the user that owns the files this process creates, which is not always the user named
+   * by the {@code user.name} system property.
+   */
+  private static UserPrincipal currentUser() throws IOException {
+    UserPrincipal user = currentUser;
+    if (user == null) {
+      Path probe = Files.createTempFile("sandbox-owner-", ".tmp");
+      try {
+        user = Files.getFileAttributeView(probe, FileOwnerAttributeView.class).getOwner();
+      } finally {
+        Files.deleteIfExists(probe);
+      }
+      currentUser = user;
+    }
+
+    return user;
+  }
+}
@@ -1,5 +1,10 @@
 package com.leacox.sandbox.security;
 
+import com.leacox.sandbox.security.audit.SecurityAuditor;
+import com.leacox.sandbox.security.audit.Slf4jAuditSink;
+import com.leacox.sandbox.security.metrics.Counter;
+import com.leacox.sandbox.security.metrics.RuntimeMetrics;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Marker;
@@ -7,7 +12,6 @@ import org.slf4j.MarkerFactory;
 
 import java.security.AccessController;
 import java.security.AllPermission;
-import java.security.CodeSource;
 import java.security.Permission;
 import java.security.PermissionCollection;
 import java.security.Permissions;
@@ -19,6 +23,11 @@ import java.security.ProtectionDomain;
  * A policy that grants {@code AllPermission} to the application/runtime class loader and a limited
  * set of permissions to the {@link UserClassLoader}.
  *
+ * <p>The classes of a user class loader are granted the permissions of the loader's
+ * {@link PermissionProfile}, which are compiled into a read-only collection indexed by permission
+ * type when the profile is built. The policy looks the collection up on the loader, and never
+ * builds or copies one for a check.
+ *
  * <p>In order to apply different permissions to user code vs application code the classes must be
  * isolated in different class loaders.
  *
@@ -28,6 +37,18 @@ import java.security.ProtectionDomain;
  * a bootstrapping class that creates a separate isolated application classloader by loading
  * additional jars at runtime and then a separate user classloader that loaders the users jar.
  *
+ * <p>Decisions are audited through a {@link SecurityAuditor} rather than logged directly, so that
+ * no strings are built and no log I/O happens on the thread performing the permission check.
+ *
+ * <p>The decisions for user domains are also counted in the {@link RuntimeMetrics}, by permission
+ * type, as {@code policy.user.checks.<type>} and {@code policy.user.denials.<type>}. Only the
+ * permission types of the JDK and the runtime, those loaded by the runtime's class loader or one of
+ * its ancestors, are counted by name. Permission types defined by tenants are counted together as
+ * {@code policy.user.checks.other} and {@code policy.user.denials.other}, so that tenants cannot
+ * add metrics without bound. A check is counted and audited as a denial only if neither the
+ * profile nor the permissions the domain was created with imply it, in which case the domain as a
+ * whole denies it.
+ *
  * @author John Leacox
  */
 public class RuntimePolicy extends Policy {
@@ -36,11 +57,100 @@ public class RuntimePolicy extends Policy {
 
   private final ProtectionDomain providerDomain;
   private final Permissions allPermissions;
+  private final PolicyDecisionCache decisionCache;
+  private final SecurityAuditor auditor;
+  private final RuntimeMetrics metrics;
+  private final PermissionCounters otherPermissionCounters;
+
+  /**
+   * The check and denial counters of each permission type, so that counting a decision does not
+   * build a metric name.
+   */
+  private final ClassValue<PermissionCounters> permissionCounters =
+      new ClassValue<PermissionCounters>() {
+        @Override
+        protected PermissionCounters computeValue(Class<?> type) {
+          if (!isRuntimeType(type)) {
+            return otherPermissionCounters;
+          }
+
+          return new PermissionCounters(
+              metrics.counter("policy.user.checks." + type.getName()),
+              metrics.counter("policy.user.denials." + type.getName()));
+        }
+      };
 
   /**
    * Creates a new instance of {@code RuntimePolicy}.
+   *
+   * <p>Decisions are audited to this class's logger under the {@code SECURITY} marker if INFO
+   * logging is enabled for it, and not audited otherwise.
    */
   public RuntimePolicy() {
+    this(PolicyDecisionCache.DEFAULT_MAX_DOMAINS,
+        PolicyDecisionCache.DEFAULT_MAX_DECISIONS_PER_DOMAIN);
+  }
+
+  /**
+   * Creates a new instance of {@code RuntimePolicy} that audits decisions with the auditor.
+   */
+  public RuntimePolicy(SecurityAuditor auditor) {
+    this(auditor, PolicyDecisionCache.DEFAULT_MAX_DOMAINS,
+        PolicyDecisionCache.DEFAULT_MAX_DECISIONS_PER_DOMAIN);
+  }
+
+  /**
+   * Creates a new instance of {@code RuntimePolicy} with a bounded decision cache.
+   *
+   * @param maxCachedDomains the maximum number of user protection domains to cache permissions for
+   * @param maxCachedDecisionsPerDomain the maximum number of {@code implies} results to cache per
+   *     user protection domain
+   */
+  public RuntimePolicy(int maxCachedDomains, int maxCachedDecisionsPerDomain) {
+    this(defaultAuditor(), maxCachedDomains, maxCachedDecisionsPerDomain);
+  }
+
+  /**
+   * Creates a new instance of {@code RuntimePolicy} with an auditor and a bounded decision cache.
+   *
+   * @param auditor the auditor to record decisions with
+   * @param maxCachedDomains the maximum number of user protection domains to cache permissions for
+   * @param maxCachedDecisionsPerDomain the maximum number of {@code implies} results to cache per
+   *     user protection domain
+   */
+  public RuntimePolicy(
+      SecurityAuditor auditor, int maxCachedDomains, int maxCachedDecisionsPerDomain) {
+    this(auditor, RuntimeMetrics.disabled(), maxCachedDomains, maxCachedDecisionsPerDomain);
+  }
+
+  /**
+   * Creates a new instance of {@code RuntimePolicy} that counts the decisions for user domains in
+   * the metrics. Decisions are audited the same way as with {@link #RuntimePolicy()}.
+   */
+  public RuntimePolicy(RuntimeMetrics metrics) {
+    this(defaultAuditor(), metrics, PolicyDecisionCache.DEFAULT_MAX_DOMAINS,
+        PolicyDecisionCache.DEFAULT_MAX_DECISIONS_PER_DOMAIN);
+  }
+
+  /**
+   * Creates a new instance of {@code RuntimePolicy} with an auditor, metrics and a bounded
+   * decision cache.
+   *
+   * @param auditor the auditor to record decisions with
+   * @param metrics the metrics to count the decisions for user domains in
+   * @param maxCachedDomains the maximum number of user protection domains to cache permissions for
+   * @param maxCachedDecisionsPerDomain the maximum number of {@code implies} results to cache per
+   *     user protection domain
+   */
+  public RuntimePolicy(
+      SecurityAuditor auditor, RuntimeMetrics metrics, int maxCachedDomains,
+      int maxCachedDecisionsPerDomain) {
+    if (auditor == null) {
+      throw new NullPointerException("auditor:null");
+    } else if (metrics == null) {
+      throw new NullPointerException("metrics:null");
+    }
+
     // Determine this policies domain. This is necessary to avoid a chicken-and-egg problem.
     Policy thisPolicy = this;
     this.providerDomain = AccessController.doPrivileged(
@@ -50,6 +160,35 @@ public class RuntimePolicy extends Policy {
     permissions.add(new AllPermission());
     permissions.setReadOnly();
     this.allPermissions = permissions;
+
+    this.decisionCache = new PolicyDecisionCache(maxCachedDomains, maxCachedDecisionsPerDomain);
+    this.auditor = auditor;
+    this.metrics = metrics;
+    this.otherPermissionCounters = new PermissionCounters(
+        metrics.counter("policy.user.checks.other"), metrics.counter("policy.user.denials.other"));
+  }
+
+  private static SecurityAuditor defaultAuditor() {
+    if (!logger.isInfoEnabled(securityMarker)) {
+      return SecurityAuditor.disabled();
+    }
+
+    return SecurityAuditor.builder(new Slf4jAuditSink(logger, securityMarker)).build();
+  }
+
+  /**
+   * Returns the auditor that records the decisions of this policy.
+   */
+  public SecurityAuditor getAuditor() {
+    return auditor;
+  }
+
+  /**
+   * Discards any cached decisions for the loader. This should be called once a user class loader
+   * is no longer in use so the cache does not keep its protection domains reachable.
+   */
+  public void discard(ClassLoader loader) {
+    decisionCache.invalidate(loader);
   }
 
   private boolean isPolicy(ProtectionDomain domain) {
@@ -65,23 +204,14 @@ public class RuntimePolicy extends Policy {
     boolean isPolicy = isPolicy(domain);
     boolean isUser = isUser(domain);
 
-    String sourceLocation = codeSourceLocation(domain);
-    String classLoaderName = classLoaderName(domain);
-    logger.info(securityMarker,
-        "getPermissions, codeSource = {}, classLoader = {}, isUser = {}",
-        sourceLocation, classLoaderName, isPolicy, isUser);
-
-    Permissions permissions;
+    PermissionCollection permissions;
     if (isPolicy || !isUser) {
       permissions = allPermissions;
     } else {
-      permissions = userPermissions();
+      permissions = userDecisions(domain).getPermissions();
     }
 
-    logger
-        .info(securityMarker,
-            "getPermissions, codeSource = {}, classLoader = {}, isUser = {}, permissions = {}",
-            sourceLocation, classLoaderName, isUser, permissions);
+    auditor.recordGetPermissions(domain, permissions, isUser);
 
     return permissions;
   }
@@ -90,46 +220,89 @@ public class RuntimePolicy extends Policy {
   public boolean implies(ProtectionDomain domain, Permission permission) {
     boolean isUser = isUser(domain);
 
-    String sourceLocation = codeSourceLocation(domain);
-    String classLoaderName = classLoaderName(domain);
-    logger.info(securityMarker,
-        "implies, codeSource = {}, classLoader = {}, permission = {}, isUser = {}",
-        sourceLocation, classLoaderName, permission, isUser);
-
     boolean implies;
     if (isPolicy(domain)) {
       implies = true;
+    } else if (isUser) {
+      implies = userImplies(domain, permission);
+      if (metrics.isEnabled()) {
+        countUserDecision(permission, implies);
+      }
     } else {
-      implies = super.implies(domain, permission);
+      implies = allPermissions.implies(permission);
     }
 
-    logger.info(securityMarker,
-        "implies, codeSource = {}, classLoader = {}, permission = {}, isUser = {}, result = {}",
-        sourceLocation, classLoaderName, permission, isUser, implies);
+    auditor.recordImplies(domain, permission, isUser, implies);
 
     return implies;
   }
 
-  private String codeSourceLocation(ProtectionDomain domain) {
-    CodeSource source = domain.getCodeSource();
-    if (source == null) {
-      return "null";
+  private void countUserDecision(Permission permission, boolean implies) {
+    PermissionCounters counters = permissionCounters.get(permission.getClass());
+    counters.checks.increment();
+    if (!implies) {
+      counters.denials.increment();
     }
+  }
 
-    return source.getLocation().getPath();
+  private boolean userImplies(ProtectionDomain domain, Permission permission) {
+    PolicyDecisionCache.DomainDecisions decisions = userDecisions(domain);
+    Boolean cached = decisions.implies(permission);
+    if (cached != null) {
+      return cached;
+    }
+
+    // ProtectionDomain asks the policy before its static permissions, so fold those in here or the
+    // permissions the loader grants statically would be audited and counted as denials
+    PermissionCollection staticPermissions = domain.getPermissions();
+    boolean implies = decisions.getPermissions().implies(permission)
+        || (staticPermissions != null && staticPermissions.implies(permission));
+    decisions.record(permission, implies);
+    return implies;
   }
 
-  private String classLoaderName(ProtectionDomain domain) {
-    ClassLoader loader = domain.getClassLoader();
-    if (loader == null) {
-      return "null";
+  private PolicyDecisionCache.DomainDecisions userDecisions(ProtectionDomain domain) {
+    UserClassLoader loader = (UserClassLoader) domain.getClassLoader();
+    long epoch = loader.getCacheEpoch();
+    PolicyDecisionCache.DomainDecisions decisions = decisionCache.get(domain, epoch);
+    if (decisions == null) {
+      // Compiled once per profile and shared by all of its loaders
+      decisions = decisionCache.put(domain, epoch, loader.getPermissionProfile().getPermissions());
     }
 
-    return loader.getClass().getName();
+    return decisions;
+  }
+
+  /**
+   * Returns {@code true} if the type was loaded by the bootstrap class loader or by the runtime's
+   * class loader or one of its ancestors, {@code false} if it was defined by a tenant.
+   */
+  private static boolean isRuntimeType(Class<?> type) {
+    // Counted during the checks of user code, which may not get class loaders itself
+    return AccessController.doPrivileged((PrivilegedAction<Boolean>) () -> {
+      ClassLoader typeLoader = type.getClassLoader();
+      if (typeLoader == null) {
+        return true;
+      }
+
+      for (ClassLoader loader = RuntimePolicy.class.getClassLoader(); loader != null;
+          loader = loader.getParent()) {
+        if (loader == typeLoader) {
+          return true;
+        }
+      }
+
+      return false;
+    });
   }
 
-  private Permissions userPermissions() {
-    // No permissions
-    return new Permissions();
+  private static final class PermissionCounters {
+    private final Counter checks;
+    private final Counter denials;
+
+    private PermissionCounters(Counter checks, Counter denials) {
+      this.checks = checks;
+      this.denials = denials;
+    }
   }
 }
@@ -3,6 +3,12 @@ package com.leacox.sandbox.security;
 /**
  * A security manager that adds additional restrictions around the creation of threads.
  *
+ * <p>Threads in a {@link SandboxThreadGroup} run user code. Modifying one of them, other than the
+ * current thread, or modifying a sandbox thread group additionally requires the
+ * {@code modifySandboxThread} or {@code modifySandboxThreadGroup} runtime permission, which is
+ * never granted to user code. Threads adopted by a sandbox thread group, such as the virtual
+ * threads that run user code, are treated the same way.
+ *
  * @author John Leacox
  */
 public class RuntimeSecurityManager extends SecurityManager {
@@ -10,12 +16,20 @@ public class RuntimeSecurityManager extends SecurityManager {
       new RuntimePermission("modifyThread");
   private static final RuntimePermission modifyThreadGroupPermission =
       new RuntimePermission("modifyThreadGroup");
+  private static final RuntimePermission modifySandboxThreadPermission =
+      new RuntimePermission("modifySandboxThread");
+  private static final RuntimePermission modifySandboxThreadGroupPermission =
+      new RuntimePermission("modifySandboxThreadGroup");
 
   @Override
   public void checkAccess(Thread t) {
     super.checkAccess(t);
 
     checkPermission(modifyThreadPermission);
+
+    if (t != Thread.currentThread() && SandboxThreadGroup.isSandboxThread(t)) {
+      checkPermission(modifySandboxThreadPermission);
+    }
   }
 
   @Override
@@ -23,5 +37,21 @@ public class RuntimeSecurityManager extends SecurityManager {
     super.checkAccess(g);
 
     checkPermission(modifyThreadGroupPermission);
+
+    if (g instanceof SandboxThreadGroup) {
+      checkPermission(modifySandboxThreadGroupPermission);
+    }
+  }
+
+  @Override
+  public ThreadGroup getThreadGroup() {
+    // Keep any thread created from a sandbox thread inside the sandbox, including threads created
+    // from adopted threads, whose own group is not a sandbox thread group.
+    SandboxThreadGroup group = SandboxThreadGroup.of(Thread.currentThread());
+    if (group != null) {
+      return group;
+    }
+
+    return super.getThreadGroup();
   }
 }
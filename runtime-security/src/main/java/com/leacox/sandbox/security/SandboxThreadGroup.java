@@ -0,0 +1,125 @@
+package com.leacox.sandbox.security;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A thread group for the threads that run user code.
+ *
+ * <p>The {@link RuntimeSecurityManager} recognizes threads in a sandbox thread group and requires
+ * additional permissions to modify them or the group, so that user code that has been granted the
+ * standard thread permissions still cannot interfere with the threads running other user code.
+ * Threads created from a sandbox thread are placed in the same sandbox thread group.
+ *
+ * <p>Threads that cannot be created in a thread group of their own, such as virtual threads, which
+ * all belong to a single group of the JVM, are instead adopted by a sandbox thread group for as
+ * long as they run user code. An adopted thread is treated exactly like a thread in the group.
+ *
+ * <p>The security manager is not consulted when a virtual thread is created, so a virtual thread
+ * started by user code would belong to no sandbox thread group. Creating a thread that inherits
+ * the inheritable thread locals of a thread adopted from within it, which virtual threads do by
+ * default, therefore requires the {@code modifySandboxThreadGroup} runtime permission, just like
+ * creating a thread in a sandbox thread group does. User code cannot start threads of its own
+ * either way; the {@link ClassNameRules#defaults() default class name rules} deny the thread
+ * builders, with which user code could opt out of inheriting thread locals.
+ *
+ * @author John Leacox
+ */
+public class SandboxThreadGroup extends ThreadGroup {
+  private static final RuntimePermission modifySandboxThreadGroupPermission =
+      new RuntimePermission("modifySandboxThreadGroup");
+
+  // Keyed by identity, Thread does not override equals
+  private static final Map<Thread, SandboxThreadGroup> adoptedThreads = new ConcurrentHashMap<>();
+
+  // Set on threads that adopted themselves. The JDK calls childValue on the creating thread while
+  // it constructs a thread that inherits thread locals, before the new thread can run anything.
+  private static final InheritableThreadLocal<SandboxThreadGroup> adoptingGroup =
+      new InheritableThreadLocal<SandboxThreadGroup>() {
+        @Override
+        protected SandboxThreadGroup childValue(SandboxThreadGroup parentValue) {
+          checkModifyPermission();
+          return parentValue;
+        }
+      };
+
+  /**
+   * Creates a new instance of {@code SandboxThreadGroup}. The group is a daemon group and threads
+   * in it are limited to normal priority.
+   *
+   * @param name the name of the thread group
+   */
+  public SandboxThreadGroup(String name) {
+    super(name);
+
+    setDaemon(true);
+    setMaxPriority(Thread.NORM_PRIORITY);
+  }
+
+  /**
+   * Returns {@code true} if the thread belongs to a sandbox thread group, {@code false} otherwise.
+   */
+  public static boolean isSandboxThread(Thread thread) {
+    return of(thread) != null;
+  }
+
+  /**
+   * Returns the sandbox thread group the thread belongs to or has been adopted by, or {@code null}
+   * if it is not a sandbox thread.
+   */
+  public static SandboxThreadGroup of(Thread thread) {
+    ThreadGroup group = thread.getThreadGroup();
+    if (group instanceof SandboxThreadGroup) {
+      return (SandboxThreadGroup) group;
+    }
+
+    return adoptedThreads.isEmpty() ? null : adoptedThreads.get(thread);
+  }
+
+  /**
+   * Adopts a thread that is not in this group, so that it is treated as a sandbox thread until it
+   * is {@link #release released}. Requires the {@code modifySandboxThreadGroup} runtime
+   * permission.
+   *
+   * <p>A thread should adopt itself, from the code that runs user code on it, so that the threads
+   * created from it are refused to code without the permission as well.
+   *
+   * @param thread the thread to adopt
+   */
+  public void adopt(Thread thread) {
+    if (thread == null) {
+      throw new NullPointerException("thread:null");
+    }
+
+    checkModifyPermission();
+    adoptedThreads.put(thread, this);
+    if (thread == Thread.currentThread()) {
+      adoptingGroup.set(this);
+    }
+  }
+
+  /**
+   * Releases a thread adopted by this group. Requires the {@code modifySandboxThreadGroup} runtime
+   * permission.
+   *
+   * @param thread the thread to release
+   */
+  public void release(Thread thread) {
+    if (thread == null) {
+      throw new NullPointerException("thread:null");
+    }
+
+    checkModifyPermission();
+    adoptedThreads.remove(thread, this);
+    if (thread == Thread.currentThread()) {
+      adoptingGroup.remove();
+    }
+  }
+
+  private static void checkModifyPermission() {
+    SecurityManager securityManager = System.getSecurityManager();
+    if (securityManager != null) {
+      securityManager.checkPermission(modifySandboxThreadGroupPermission);
+    }
+  }
+}
@@ -2,54 +2,169 @@ package com.leacox.sandbox.security;
 
 import com.leacox.sandbox.security.permission.UserSetAccessiblePermission;
 
+import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.security.CodeSigner;
 import java.security.CodeSource;
 import java.security.PermissionCollection;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.Manifest;
 
 /**
  * A class loader for loading runtime user jars.
  *
  * <p>This classloader allows isolating user code from runtime code and other user code.
  *
+ * <p>When created with a {@link JarContentCache}, classes are defined from the cache's shared,
+ * memory-mapped index of the jar instead of from a jar file opened by this loader. Their packages
+ * are defined with the manifest the index read, so package versions and sealing are the same as
+ * with the {@code URLClassLoader}. Resources are still read through the {@code URLClassLoader}.
+ *
+ * <p>Each loader registers itself with {@link UserClassLoaders} when it is created, which is how
+ * the bootstrap stubs and {@link UserSetAccessiblePermission} recognize user loaders.
+ *
  * @author John Leacox
  */
 public class UserClassLoader extends URLClassLoader {
+  static {
+    registerAsParallelCapable();
+  }
+
+  private static final AtomicLong cacheEpochs = new AtomicLong();
+  private static final int MAX_CHECKED_NAMES = 8192;
+
+  private final CodeSource codeSource;
+  private final JarIndex jarIndex;
+  private final Manifest manifest;
+  private final ClassNameRules classNameRules;
+  private final String tenantId;
+  private final PermissionProfile permissionProfile;
+  private final Map<String, Boolean> checkedNames = new ConcurrentHashMap<>();
+  private final AtomicInteger definedClassCount = new AtomicInteger();
+  private volatile long cacheEpoch = cacheEpochs.incrementAndGet();
+
   public UserClassLoader(URL userJarPath, ClassLoader parent) {
+    this(userJarPath, parent, null);
+  }
+
+  /**
+   * Creates a new instance of {@code UserClassLoader} that defines its classes from the jar's
+   * index in the cache.
+   *
+   * @param userJarPath the URL of the user's jar
+   * @param parent the parent class loader
+   * @param jarContentCache the cache to get the jar's index from, or null to read the jar directly
+   */
+  public UserClassLoader(URL userJarPath, ClassLoader parent, JarContentCache jarContentCache) {
+    this(userJarPath, parent, jarContentCache, ClassNameRules.defaults());
+  }
+
+  /**
+   * Creates a new instance of {@code UserClassLoader} that only loads the classes allowed by the
+   * rules.
+   *
+   * @param userJarPath the URL of the user's jar
+   * @param parent the parent class loader
+   * @param jarContentCache the cache to get the jar's index from, or null to read the jar directly
+   * @param classNameRules the rules for which classes the user's code may load
+   */
+  public UserClassLoader(
+      URL userJarPath, ClassLoader parent, JarContentCache jarContentCache,
+      ClassNameRules classNameRules) {
+    this(userJarPath, parent, jarContentCache, classNameRules, null, PermissionProfile.none());
+  }
+
+  /**
+   * Creates a new instance of {@code UserClassLoader} whose classes are granted the permissions of
+   * the profile by the {@link RuntimePolicy}.
+   *
+   * @param userJarPath the URL of the user's jar
+   * @param parent the parent class loader
+   * @param jarContentCache the cache to get the jar's index from, or null to read the jar directly
+   * @param classNameRules the rules for which classes the user's code may load
+   * @param tenantId the id of the tenant the user's code belongs to, or null if it is not known
+   * @param permissionProfile the profile of permissions granted to the user's code
+   */
+  public UserClassLoader(
+      URL userJarPath, ClassLoader parent, JarContentCache jarContentCache,
+      ClassNameRules classNameRules, String tenantId, PermissionProfile permissionProfile) {
     super(new URL[] {userJarPath}, parent);
+
+    if (classNameRules == null) {
+      throw new NullPointerException("classNameRules:null");
+    } else if (permissionProfile == null) {
+      throw new NullPointerException("permissionProfile:null");
+    }
+
+    this.classNameRules = classNameRules;
+    this.permissionProfile = permissionProfile;
+    this.codeSource = new CodeSource(userJarPath, (CodeSigner[]) null);
+    this.jarIndex = jarContentCache == null ? null : jarContentCache.getIndex(userJarPath);
+    this.manifest = jarIndex == null ? null : jarIndex.getManifest();
+    this.tenantId = tenantId;
+
+    // Published before any class is defined, since defining one checks for a user loader
+    UserClassLoaders.register(this, new UserClassLoaderInfo(tenantId, permissionProfile.getName()));
   }
 
-  private static final Set<String> forbiddenClasses = newHashSet(
-      "java.io.ObjectInputStream",
-      "java.io.ObjectOutputStream",
-      "java.io.ObjectStreamField",
-      "java.io.ObjectStreamClass",
-      "java.util.logging.Logger",
-      "java.sql.DriverManager",
-      "javax.sql.rowset.serial.SerialJavaObject",
-      "java.lang.ClassLoader"
-  );
-
-  private static final Set<String> forbiddenPackages = newHashSet(
-      "com.leacox.sandbox.runtime.security",
-      "net.bytebuddy"
-  );
-
-  private static Set<String> newHashSet(String... args) {
-    Set<String> set = new HashSet<>(args.length);
-    Collections.addAll(set, args);
-    return set;
+  /**
+   * Returns the cache epoch of this loader. Caches of decisions made for this loader should be
+   * tagged with the epoch and treat their entries as stale once the epoch changes. The epoch is
+   * unique across all loaders and changes when this loader is closed.
+   */
+  public long getCacheEpoch() {
+    return cacheEpoch;
   }
 
   /**
-   * Checks if the class name is in the forbiddenClasses or forbiddenPackages sets and throws a
-   * {@code SecurityException} if it is.
+   * Returns the id of the tenant this loader loads code for, or null if it is not known.
+   */
+  public String getTenantId() {
+    return tenantId;
+  }
+
+  /**
+   * Returns the profile of permissions granted to the classes of this loader.
+   */
+  public PermissionProfile getPermissionProfile() {
+    return permissionProfile;
+  }
+
+  /**
+   * Returns the number of classes this loader has defined.
+   */
+  public int getDefinedClassCount() {
+    return definedClassCount.get();
+  }
+
+  @Override
+  public void close() throws IOException {
+    cacheEpoch = cacheEpochs.incrementAndGet();
+
+    super.close();
+  }
+
+  /**
+   * Checks the class name against the loader's {@link ClassNameRules} and throws a
+   * {@code SecurityException} if it is not allowed. The verdicts of names that were already checked
+   * are cached, up to a limit that keeps callers probing for random names from growing the cache
+   * without bound.
    */
   private void checkForbiddenClass(String name) {
-    if (forbiddenClasses.contains(name) || forbiddenPackages.stream().anyMatch(name::startsWith)) {
+    Boolean allowed = checkedNames.get(name);
+    if (allowed == null) {
+      allowed = classNameRules.isAllowed(name);
+      if (checkedNames.size() < MAX_CHECKED_NAMES) {
+        checkedNames.put(name, allowed);
+      }
+    }
+
+    if (!allowed) {
       throw new SecurityException("This class [" + name + "] is disabled.");
     }
   }
@@ -58,7 +173,51 @@ public class UserClassLoader extends URLClassLoader {
   protected Class<?> findClass(String name) throws ClassNotFoundException {
     checkForbiddenClass(name);
 
-    return super.findClass(name);
+    if (jarIndex == null) {
+      Class<?> definedClass = super.findClass(name);
+      definedClassCount.incrementAndGet();
+      return definedClass;
+    }
+
+    ByteBuffer bytes;
+    try {
+      bytes = jarIndex.getClassBytes(name);
+    } catch (IOException e) {
+      throw new ClassNotFoundException(name, e);
+    }
+
+    if (bytes == null) {
+      throw new ClassNotFoundException(name);
+    }
+
+    definePackageIfNeeded(name);
+    Class<?> definedClass = defineClass(name, bytes, codeSource);
+    definedClassCount.incrementAndGet();
+    return definedClass;
+  }
+
+  private void definePackageIfNeeded(String className) {
+    int lastDot = className.lastIndexOf('.');
+    if (lastDot < 0) {
+      return;
+    }
+
+    String packageName = className.substring(0, lastDot);
+    URL url = codeSource.getLocation();
+    Package definedPackage = getPackage(packageName);
+    if (definedPackage == null) {
+      try {
+        if (manifest != null) {
+          definePackage(packageName, manifest, url);
+        } else {
+          definePackage(packageName, null, null, null, null, null, null, null);
+        }
+      } catch (IllegalArgumentException e) {
+        // Another thread defined the package first
+      }
+    } else if (definedPackage.isSealed() && !definedPackage.isSealed(url)) {
+      throw new SecurityException("sealing violation: package " + packageName + " is sealed");
+    }
   }
 
   @Override
@@ -75,7 +234,8 @@ public class UserClassLoader extends URLClassLoader {
     // permission. These user permissions could be initialized other ways (a one time use setter,
     // some sort of factory), but since the UserSetAccessiblePermission requires a reference to this
     // classloader we can't simply pass a collection of permissions to the constructor of this
-    // loader. For simplicity sake the permissions are hardcoded for now.
+    // loader. These permissions are granted to every user loader, and the policy adds the
+    // permissions of the loader's profile.
     permissions.add(new UserSetAccessiblePermission(this));
     permissions.add(new RuntimePermission("accessDeclaredMembers"));
     return permissions;
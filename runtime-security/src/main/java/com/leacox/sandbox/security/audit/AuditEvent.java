@@ -0,0 +1,106 @@
+package com.leacox.sandbox.security.audit;
+
+/**
+ * A single security decision made by the runtime policy, as delivered to an {@link AuditSink}.
+ *
+ * <p>Events are built by the audit drainer from the raw records in the ring buffer, so none of the
+ * string building happens on the thread that made the decision.
+ *
+ * @author John Leacox
+ */
+public final class AuditEvent {
+  /**
+   * The type of policy call that made the decision.
+   */
+  public enum Type {
+    GET_PERMISSIONS,
+    IMPLIES
+  }
+
+  private final long timestampMillis;
+  private final Type type;
+  private final String codeSource;
+  private final String classLoader;
+  private final String permission;
+  private final boolean user;
+  private final boolean granted;
+
+  /**
+   * Creates a new instance of {@code AuditEvent}.
+   */
+  public AuditEvent(
+      long timestampMillis, Type type, String codeSource, String classLoader, String permission,
+      boolean user, boolean granted) {
+    this.timestampMillis = timestampMillis;
+    this.type = type;
+    this.codeSource = codeSource;
+    this.classLoader = classLoader;
+    this.permission = permission;
+    this.user = user;
+    this.granted = granted;
+  }
+
+  /**
+   * Returns the time the decision was made, in milliseconds since the epoch.
+   */
+  public long getTimestampMillis() {
+    return timestampMillis;
+  }
+
+  /**
+   * Returns the type of policy call that made the decision.
+   */
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * Returns the code source location of the protection domain, or {@code "null"} if it has none.
+   */
+  public String getCodeSource() {
+    return codeSource;
+  }
+
+  /**
+   * Returns the class name of the protection domain's class loader, or {@code "null"} if it has
+   * none.
+   */
+  public String getClassLoader() {
+    return classLoader;
+  }
+
+  /**
+   * Returns the permission that was checked, or the permissions that were granted for
+   * {@link Type#GET_PERMISSIONS} events.
+   */
+  public String getPermission() {
+    return permission;
+  }
+
+  /**
+   * Returns {@code true} if the protection domain belongs to user code, {@code false} otherwise.
+   */
+  public boolean isUser() {
+    return user;
+  }
+
+  /**
+   * Returns {@code true} if the permission was granted, {@code false} if it was denied.
+   */
+  public boolean isGranted() {
+    return granted;
+  }
+
+  @Override
+  public String toString() {
+    return "AuditEvent{"
+        + "timestampMillis=" + timestampMillis
+        + ", type=" + type
+        + ", codeSource=" + codeSource
+        + ", classLoader=" + classLoader
+        + ", permission=" + permission
+        + ", user=" + user
+        + ", granted=" + granted
+        + '}';
+  }
+}
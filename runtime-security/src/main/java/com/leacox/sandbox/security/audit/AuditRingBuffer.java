@@ -0,0 +1,134 @@
+package com.leacox.sandbox.security.audit;
+
+import java.security.ProtectionDomain;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free, multi-producer single-consumer ring buffer of fixed-size audit records.
+ *
+ * <p>Records are stored in preallocated parallel arrays, so publishing a record does not allocate.
+ * Each slot carries a sequence number that tells producers when the slot is free and the consumer
+ * when the slot has been published. When the buffer is full the record is rejected rather than
+ * blocking the producer.
+ *
+ * @author John Leacox
+ */
+final class AuditRingBuffer {
+  private static final byte FLAG_USER = 1;
+  private static final byte FLAG_GRANTED = 2;
+  private static final byte FLAG_GET_PERMISSIONS = 4;
+
+  private final int mask;
+  private final AtomicLongArray sequences;
+  private final long[] timestamps;
+  private final byte[] flags;
+  private final ProtectionDomain[] domains;
+  private final Object[] permissions;
+
+  private final AtomicLong tail = new AtomicLong();
+  private long head = 0;
+
+  /**
+   * Creates a new instance of {@code AuditRingBuffer}.
+   *
+   * @param capacity the number of records the buffer can hold, rounded up to a power of two
+   */
+  AuditRingBuffer(int capacity) {
+    if (capacity < 1 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("capacity:Must be between 1 and 2^30");
+    }
+
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+
+    this.mask = size - 1;
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+    this.timestamps = new long[size];
+    this.flags = new byte[size];
+    this.domains = new ProtectionDomain[size];
+    this.permissions = new Object[size];
+  }
+
+  /**
+   * Publishes a record, returning {@code false} if the buffer is full.
+   *
+   * @param permission the checked {@code Permission}, or the granted {@code PermissionCollection}
+   *     for {@code getPermissions} records
+   */
+  boolean offer(
+      long timestampMillis, boolean getPermissions, ProtectionDomain domain, Object permission,
+      boolean user, boolean granted) {
+    long position;
+    int index;
+    while (true) {
+      position = tail.get();
+      index = (int) position & mask;
+      long available = sequences.get(index) - position;
+      if (available == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          break;
+        }
+      } else if (available < 0) {
+        return false;
+      }
+    }
+
+    timestamps[index] = timestampMillis;
+    flags[index] = (byte) ((user ? FLAG_USER : 0)
+        | (granted ? FLAG_GRANTED : 0)
+        | (getPermissions ? FLAG_GET_PERMISSIONS : 0));
+    domains[index] = domain;
+    permissions[index] = permission;
+    sequences.lazySet(index, position + 1);
+    return true;
+  }
+
+  /**
+   * Takes the next published record and converts it to an event, or returns {@code null} if there
+   * is none. Must only be called from the single consumer thread.
+   */
+  AuditEvent poll() {
+    int index = (int) head & mask;
+    if (sequences.get(index) != head + 1) {
+      return null;
+    }
+
+    byte recordFlags = flags[index];
+    ProtectionDomain domain = domains[index];
+    Object permission = permissions[index];
+    long timestamp = timestamps[index];
+    domains[index] = null;
+    permissions[index] = null;
+    sequences.lazySet(index, head + mask + 1);
+    head++;
+
+    AuditEvent.Type type = (recordFlags & FLAG_GET_PERMISSIONS) != 0
+        ? AuditEvent.Type.GET_PERMISSIONS : AuditEvent.Type.IMPLIES;
+    return new AuditEvent(timestamp, type, codeSourceLocation(domain), classLoaderName(domain),
+        String.valueOf(permission), (recordFlags & FLAG_USER) != 0,
+        (recordFlags & FLAG_GRANTED) != 0);
+  }
+
+  private static String codeSourceLocation(ProtectionDomain domain) {
+    if (domain == null || domain.getCodeSource() == null
+        || domain.getCodeSource().getLocation() == null) {
+      return "null";
+    }
+
+    return domain.getCodeSource().getLocation().getPath();
+  }
+
+  private static String classLoaderName(ProtectionDomain domain) {
+    if (domain == null || domain.getClassLoader() == null) {
+      return "null";
+    }
+
+    return domain.getClassLoader().getClass().getName();
+  }
+}
@@ -0,0 +1,30 @@
+package com.leacox.sandbox.security.audit;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A destination for security audit events.
+ *
+ * <p>Sinks are only ever called from the single audit drainer thread, so implementations do not
+ * need to be thread safe.
+ *
+ * @author John Leacox
+ */
+public interface AuditSink {
+  /**
+   * Writes a batch of audit events. The list is reused by the caller and must not be retained.
+   *
+   * @param events the events to write, in the order the decisions were recorded
+   * @throws IOException if the events could not be written
+   */
+  void write(List<AuditEvent> events) throws IOException;
+
+  /**
+   * Releases any resources held by the sink. No more events will be written after this is called.
+   *
+   * @throws IOException if the sink could not be closed cleanly
+   */
+  default void close() throws IOException {
+  }
+}
@@ -0,0 +1,81 @@
+package com.leacox.sandbox.security.audit;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * An {@link AuditSink} that appends events to a file as JSON lines, one event per line.
+ *
+ * <p>The file is flushed after each batch so a batch is either fully visible or not at all from the
+ * point of view of tools tailing the file.
+ *
+ * @author John Leacox
+ */
+public class FileAuditSink implements AuditSink {
+  private final Writer writer;
+
+  /**
+   * Creates a new instance of {@code FileAuditSink}, creating the file if it does not exist.
+   *
+   * @param path the file to append events to
+   * @throws IOException if the file could not be opened
+   */
+  public FileAuditSink(Path path) throws IOException {
+    this.writer = new BufferedWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE));
+  }
+
+  @Override
+  public void write(List<AuditEvent> events) throws IOException {
+    StringBuilder line = new StringBuilder(256);
+    for (AuditEvent event : events) {
+      line.setLength(0);
+      line.append("{\"timestamp\":").append(event.getTimestampMillis());
+      line.append(",\"type\":\"").append(event.getType()).append('"');
+      line.append(",\"codeSource\":");
+      appendString(line, event.getCodeSource());
+      line.append(",\"classLoader\":");
+      appendString(line, event.getClassLoader());
+      line.append(",\"permission\":");
+      appendString(line, event.getPermission());
+      line.append(",\"user\":").append(event.isUser());
+      line.append(",\"granted\":").append(event.isGranted());
+      line.append("}\n");
+      writer.append(line);
+    }
+
+    writer.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    writer.close();
+  }
+
+  private static void appendString(StringBuilder builder, String value) {
+    builder.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        builder.append('\\').append(c);
+      } else if (c == '\n') {
+        builder.append("\\n");
+      } else if (c == '\r') {
+        builder.append("\\r");
+      } else if (c == '\t') {
+        builder.append("\\t");
+      } else if (c < 0x20) {
+        builder.append(String.format("\\u%04x", (int) c));
+      } else {
+        builder.append(c);
+      }
+    }
+    builder.append('"');
+  }
+}
@@ -0,0 +1,290 @@
+package com.leacox.sandbox.security.audit;
+
+import java.io.IOException;
+import java.security.Permission;
+import java.security.PermissionCollection;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records the security decisions of the runtime policy without slowing down the decision path.
+ *
+ * <p>Recording a decision only copies the timestamp, flags and references into a preallocated slot
+ * of a lock-free ring buffer. A single background drainer thread turns the records into
+ * {@link AuditEvent}s and writes them in batches to the configured {@link AuditSink}. If the buffer
+ * is full the record is dropped and counted instead of blocking the caller.
+ *
+ * <p>Granted decisions can be sampled so that only one in every N is recorded, or skipped entirely
+ * with the denials only mode. Denials are never sampled.
+ *
+ * @author John Leacox
+ */
+public class SecurityAuditor implements AutoCloseable {
+  private static final SecurityAuditor DISABLED = new SecurityAuditor();
+
+  private final boolean enabled;
+  private final AuditSink sink;
+  private final AuditRingBuffer buffer;
+  private final int sampleEvery;
+  private final boolean denialsOnly;
+  private final int batchSize;
+  private final long drainIntervalNanos;
+  private final Thread drainer;
+
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private volatile boolean running = true;
+
+  private SecurityAuditor() {
+    this.enabled = false;
+    this.sink = null;
+    this.buffer = null;
+    this.sampleEvery = 1;
+    this.denialsOnly = false;
+    this.batchSize = 0;
+    this.drainIntervalNanos = 0;
+    this.drainer = null;
+  }
+
+  private SecurityAuditor(Builder builder) {
+    this.enabled = true;
+    this.sink = builder.sink;
+    this.buffer = new AuditRingBuffer(builder.bufferCapacity);
+    this.sampleEvery = builder.sampleEvery;
+    this.denialsOnly = builder.denialsOnly;
+    this.batchSize = builder.batchSize;
+    this.drainIntervalNanos = builder.drainIntervalNanos;
+
+    this.drainer = new Thread(this::drain, "security-audit-drainer");
+    this.drainer.setDaemon(true);
+    this.drainer.start();
+  }
+
+  /**
+   * Returns an auditor that does not record anything.
+   */
+  public static SecurityAuditor disabled() {
+    return DISABLED;
+  }
+
+  /**
+   * Returns a builder for an auditor that writes to the sink.
+   */
+  public static Builder builder(AuditSink sink) {
+    return new Builder(sink);
+  }
+
+  /**
+   * Returns {@code true} if this auditor records decisions, {@code false} otherwise.
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Records the result of an {@code implies} decision.
+   */
+  public void recordImplies(
+      ProtectionDomain domain, Permission permission, boolean user, boolean granted) {
+    if (shouldRecord(granted)) {
+      offer(false, domain, permission, user, granted);
+    }
+  }
+
+  /**
+   * Records the permissions granted by a {@code getPermissions} decision.
+   */
+  public void recordGetPermissions(
+      ProtectionDomain domain, PermissionCollection permissions, boolean user) {
+    if (shouldRecord(true)) {
+      offer(true, domain, permissions, user, true);
+    }
+  }
+
+  private boolean shouldRecord(boolean granted) {
+    if (!enabled || Thread.currentThread() == drainer) {
+      // Never audit the checks made while writing the audit log, or the drainer would feed itself.
+      return false;
+    } else if (!granted) {
+      return true;
+    } else if (denialsOnly) {
+      return false;
+    }
+
+    return sampleEvery == 1 || ThreadLocalRandom.current().nextInt(sampleEvery) == 0;
+  }
+
+  private void offer(
+      boolean getPermissions, ProtectionDomain domain, Object permission, boolean user,
+      boolean granted) {
+    if (!buffer.offer(
+        System.currentTimeMillis(), getPermissions, domain, permission, user, granted)) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  /**
+   * Returns the number of records dropped because the buffer was full.
+   */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  /**
+   * Returns the number of events written to the sink.
+   */
+  public long getWrittenCount() {
+    return written.get();
+  }
+
+  /**
+   * Returns the number of events that the sink failed to write.
+   */
+  public long getFailedCount() {
+    return failed.get();
+  }
+
+  /**
+   * Stops the drainer after writing any records still in the buffer and closes the sink.
+   */
+  @Override
+  public void close() throws IOException {
+    if (!enabled || !running) {
+      return;
+    }
+
+    running = false;
+    LockSupport.unpark(drainer);
+    try {
+      drainer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    sink.close();
+  }
+
+  private void drain() {
+    List<AuditEvent> batch = new ArrayList<>(batchSize);
+    while (running) {
+      if (drainBatch(batch) == 0) {
+        LockSupport.parkNanos(this, drainIntervalNanos);
+      }
+    }
+
+    while (drainBatch(batch) > 0) {
+      // Write out whatever was recorded before closing
+    }
+  }
+
+  private int drainBatch(List<AuditEvent> batch) {
+    batch.clear();
+    AuditEvent event;
+    while (batch.size() < batchSize && (event = buffer.poll()) != null) {
+      batch.add(event);
+    }
+
+    if (batch.isEmpty()) {
+      return 0;
+    }
+
+    try {
+      sink.write(batch);
+      written.addAndGet(batch.size());
+    } catch (IOException | RuntimeException e) {
+      failed.addAndGet(batch.size());
+    }
+
+    return batch.size();
+  }
+
+  /**
+   * A builder for {@link SecurityAuditor}.
+   */
+  public static class Builder {
+    private final AuditSink sink;
+    private int bufferCapacity = 8192;
+    private int sampleEvery = 1;
+    private boolean denialsOnly = false;
+    private int batchSize = 256;
+    private long drainIntervalNanos = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private Builder(AuditSink sink) {
+      if (sink == null) {
+        throw new NullPointerException("sink:null");
+      }
+
+      this.sink = sink;
+    }
+
+    /**
+     * Sets the number of records the ring buffer can hold before records are dropped. The capacity
+     * is rounded up to a power of two.
+     */
+    public Builder bufferCapacity(int bufferCapacity) {
+      if (bufferCapacity < 1) {
+        throw new IllegalArgumentException("bufferCapacity:Must be greater than 0");
+      }
+
+      this.bufferCapacity = bufferCapacity;
+      return this;
+    }
+
+    /**
+     * Records only one in every {@code sampleEvery} granted decisions. Denials are always recorded.
+     */
+    public Builder sampleEvery(int sampleEvery) {
+      if (sampleEvery < 1) {
+        throw new IllegalArgumentException("sampleEvery:Must be greater than 0");
+      }
+
+      this.sampleEvery = sampleEvery;
+      return this;
+    }
+
+    /**
+     * Records only denied decisions.
+     */
+    public Builder denialsOnly(boolean denialsOnly) {
+      this.denialsOnly = denialsOnly;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of events written to the sink in a single batch.
+     */
+    public Builder batchSize(int batchSize) {
+      if (batchSize < 1) {
+        throw new IllegalArgumentException("batchSize:Must be greater than 0");
+      }
+
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * Sets how long the drainer waits for new records once the buffer is empty.
+     */
+    public Builder drainInterval(long duration, TimeUnit unit) {
+      if (duration < 1) {
+        throw new IllegalArgumentException("duration:Must be greater than 0");
+      }
+
+      this.drainIntervalNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    /**
+     * Creates the auditor and starts its drainer thread.
+     */
+    public SecurityAuditor build() {
+      return new SecurityAuditor(this);
+    }
+  }
+}
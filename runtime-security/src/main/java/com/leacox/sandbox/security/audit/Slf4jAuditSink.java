@@ -0,0 +1,47 @@
+package com.leacox.sandbox.security.audit;
+
+import org.slf4j.Logger;
+import org.slf4j.Marker;
+
+import java.util.List;
+
+/**
+ * An {@link AuditSink} that writes each event to an SLF4J logger at INFO.
+ *
+ * @author John Leacox
+ */
+public class Slf4jAuditSink implements AuditSink {
+  private final Logger logger;
+  private final Marker marker;
+
+  /**
+   * Creates a new instance of {@code Slf4jAuditSink}.
+   *
+   * @param logger the logger to write events to
+   * @param marker the marker to log events with, may be null
+   */
+  public Slf4jAuditSink(Logger logger, Marker marker) {
+    if (logger == null) {
+      throw new NullPointerException("logger:null");
+    }
+
+    this.logger = logger;
+    this.marker = marker;
+  }
+
+  @Override
+  public void write(List<AuditEvent> events) {
+    for (AuditEvent event : events) {
+      if (event.getType() == AuditEvent.Type.GET_PERMISSIONS) {
+        logger.info(marker,
+            "getPermissions, codeSource = {}, classLoader = {}, isUser = {}, permissions = {}",
+            event.getCodeSource(), event.getClassLoader(), event.isUser(), event.getPermission());
+      } else {
+        logger.info(marker,
+            "implies, codeSource = {}, classLoader = {}, permission = {}, isUser = {}, result = {}",
+            event.getCodeSource(), event.getClassLoader(), event.getPermission(), event.isUser(),
+            event.isGranted());
+      }
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package com.leacox.sandbox.security.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count.
+ *
+ * <p>The count is striped across cells by a {@link LongAdder}, so threads incrementing it at the
+ * same time rarely contend. The counters of disabled metrics do nothing.
+ *
+ * @author John Leacox
+ */
+public final class Counter {
+  static final Counter DISABLED = new Counter(null);
+
+  private final LongAdder adder;
+
+  Counter(LongAdder adder) {
+    this.adder = adder;
+  }
+
+  /**
+   * Adds one to the count.
+   */
+  public void increment() {
+    if (adder != null) {
+      adder.increment();
+    }
+  }
+
+  /**
+   * Adds {@code delta} to the count.
+   */
+  public void add(long delta) {
+    if (adder != null) {
+      adder.add(delta);
+    }
+  }
+
+  /**
+   * Returns the current count. Increments made while this runs may or may not be included.
+   */
+  public long get() {
+    return adder == null ? 0 : adder.sum();
+  }
+}
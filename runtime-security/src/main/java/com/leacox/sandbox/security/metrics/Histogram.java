@@ -0,0 +1,96 @@
+package com.leacox.sandbox.security.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values, usually latencies in nanoseconds.
+ *
+ * <p>Like an HDR histogram the buckets are log-linear: every power of two range is split into 32
+ * equal buckets, so any recorded value is reported within about 3% of its real value while the
+ * whole range of a {@code long} fits in a fixed array of 1888 buckets. Recording a value is a
+ * single atomic increment of its bucket and never allocates or locks. The histograms of disabled
+ * metrics do nothing.
+ *
+ * @author John Leacox
+ */
+public final class Histogram {
+  static final Histogram DISABLED = new Histogram(false);
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+  private final AtomicLongArray counts;
+  private final LongAdder sum;
+  private final AtomicLong max;
+
+  Histogram() {
+    this(true);
+  }
+
+  private Histogram(boolean enabled) {
+    this.counts = enabled ? new AtomicLongArray(BUCKET_COUNT) : null;
+    this.sum = enabled ? new LongAdder() : null;
+    this.max = enabled ? new AtomicLong() : null;
+  }
+
+  /**
+   * Records a value. Negative values are recorded as zero.
+   */
+  public void record(long value) {
+    if (counts == null) {
+      return;
+    }
+
+    long recorded = Math.max(value, 0);
+    counts.incrementAndGet(bucketIndex(recorded));
+    sum.add(recorded);
+
+    long currentMax;
+    while (recorded > (currentMax = max.get()) && !max.compareAndSet(currentMax, recorded)) {
+      // Retry until this value is recorded or a larger one has been
+    }
+  }
+
+  /**
+   * Returns a snapshot of the recorded values. Values recorded while the snapshot is taken may or
+   * may not be included.
+   */
+  public HistogramSnapshot snapshot() {
+    if (counts == null) {
+      return new HistogramSnapshot(new long[0], 0, 0);
+    }
+
+    long[] copy = new long[BUCKET_COUNT];
+    for (int i = 0; i < copy.length; i++) {
+      copy[i] = counts.get(i);
+    }
+
+    return new HistogramSnapshot(copy, sum.sum(), max.get());
+  }
+
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+
+    int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+    return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+  }
+
+  /**
+   * Returns the largest value that is recorded in the bucket.
+   */
+  static long bucketUpperBound(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+
+    int shift = (index >>> SUB_BUCKET_BITS) - 1;
+    long subBucket = SUB_BUCKET_COUNT + (index & (SUB_BUCKET_COUNT - 1));
+    // Overflows to Long.MAX_VALUE for the last bucket
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,85 @@
+package com.leacox.sandbox.security.metrics;
+
+/**
+ * The values recorded by a {@link Histogram} at some point in time.
+ *
+ * @author John Leacox
+ */
+public final class HistogramSnapshot {
+  private final long[] counts;
+  private final long count;
+  private final long sum;
+  private final long max;
+
+  HistogramSnapshot(long[] counts, long sum, long max) {
+    long count = 0;
+    for (long bucketCount : counts) {
+      count += bucketCount;
+    }
+
+    this.counts = counts;
+    this.count = count;
+    this.sum = sum;
+    this.max = max;
+  }
+
+  /**
+   * Returns the number of recorded values.
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Returns the mean of the recorded values, or {@code 0} if none were recorded.
+   */
+  public double getMean() {
+    return count == 0 ? 0 : (double) sum / count;
+  }
+
+  /**
+   * Returns the largest recorded value, or {@code 0} if none were recorded.
+   */
+  public long getMax() {
+    return max;
+  }
+
+  /**
+   * Returns the value that the given percentage of the recorded values are less than or equal to,
+   * within the precision of the histogram's buckets.
+   *
+   * @param percentile the percentile, between 0 and 100
+   * @return the value at the percentile, or {@code 0} if no values were recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("percentile:Must be between 0 and 100");
+    }
+
+    if (count == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(Histogram.bucketUpperBound(i), max);
+      }
+    }
+
+    return max;
+  }
+
+  @Override
+  public String toString() {
+    return "HistogramSnapshot{"
+        + "count=" + count
+        + ", mean=" + getMean()
+        + ", p50=" + getValueAtPercentile(50)
+        + ", p99=" + getValueAtPercentile(99)
+        + ", max=" + max
+        + '}';
+  }
+}
@@ -0,0 +1,30 @@
+package com.leacox.sandbox.security.metrics;
+
+import java.io.IOException;
+
+/**
+ * A destination for snapshots of the runtime metrics, such as a monitoring system.
+ *
+ * <p>Exporters are only ever called from the single metrics exporter thread, so implementations do
+ * not need to be thread safe.
+ *
+ * @author John Leacox
+ */
+public interface MetricsExporter {
+  /**
+   * Exports a snapshot of the metrics.
+   *
+   * @param snapshot the snapshot to export
+   * @throws IOException if the snapshot could not be exported
+   */
+  void export(MetricsSnapshot snapshot) throws IOException;
+
+  /**
+   * Releases any resources held by the exporter. No more snapshots will be exported after this is
+   * called.
+   *
+   * @throws IOException if the exporter could not be closed cleanly
+   */
+  default void close() throws IOException {
+  }
+}
@@ -0,0 +1,131 @@
+package com.leacox.sandbox.security.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+
+/**
+ * A read-only MBean that exposes the current values of {@link RuntimeMetrics}.
+ *
+ * <p>Metrics are created as the runtime runs, so the attributes are listed again from a fresh
+ * snapshot every time the MBean's info is asked for.
+ *
+ * @author John Leacox
+ */
+final class MetricsMBean implements DynamicMBean {
+  private static final String[] HISTOGRAM_SUFFIXES = {
+      ".count", ".mean", ".p50", ".p90", ".p99", ".p999", ".max"
+  };
+
+  private final RuntimeMetrics metrics;
+
+  MetricsMBean(RuntimeMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public Object getAttribute(String attribute) throws AttributeNotFoundException {
+    Object value = getValue(metrics.snapshot(), attribute);
+    if (value == null) {
+      throw new AttributeNotFoundException(attribute);
+    }
+
+    return value;
+  }
+
+  @Override
+  public AttributeList getAttributes(String[] attributes) {
+    MetricsSnapshot snapshot = metrics.snapshot();
+    AttributeList values = new AttributeList();
+    for (String attribute : attributes) {
+      Object value = getValue(snapshot, attribute);
+      if (value != null) {
+        values.add(new Attribute(attribute, value));
+      }
+    }
+
+    return values;
+  }
+
+  private static Object getValue(MetricsSnapshot snapshot, String attribute) {
+    Long count = snapshot.getCounters().get(attribute);
+    if (count != null) {
+      return count;
+    }
+
+    int lastDot = attribute.lastIndexOf('.');
+    if (lastDot < 0) {
+      return null;
+    }
+
+    HistogramSnapshot histogram = snapshot.getHistograms().get(attribute.substring(0, lastDot));
+    if (histogram == null) {
+      return null;
+    }
+
+    switch (attribute.substring(lastDot)) {
+      case ".count":
+        return histogram.getCount();
+      case ".mean":
+        return histogram.getMean();
+      case ".p50":
+        return histogram.getValueAtPercentile(50);
+      case ".p90":
+        return histogram.getValueAtPercentile(90);
+      case ".p99":
+        return histogram.getValueAtPercentile(99);
+      case ".p999":
+        return histogram.getValueAtPercentile(99.9);
+      case ".max":
+        return histogram.getMax();
+      default:
+        return null;
+    }
+  }
+
+  @Override
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+  }
+
+  @Override
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  @Override
+  public Object invoke(String actionName, Object[] params, String[] signature) {
+    throw new UnsupportedOperationException(actionName);
+  }
+
+  @Override
+  public MBeanInfo getMBeanInfo() {
+    MetricsSnapshot snapshot = metrics.snapshot();
+    List<MBeanAttributeInfo> attributes = new ArrayList<>();
+    for (String counter : snapshot.getCounters().keySet()) {
+      attributes.add(attribute(counter, Long.class, "Counter " + counter));
+    }
+
+    for (Map.Entry<String, HistogramSnapshot> histogram : snapshot.getHistograms().entrySet()) {
+      for (String suffix : HISTOGRAM_SUFFIXES) {
+        Class<?> type = suffix.equals(".mean") ? Double.class : Long.class;
+        attributes.add(
+            attribute(histogram.getKey() + suffix, type, "Histogram " + histogram.getKey()));
+      }
+    }
+
+    return new MBeanInfo(RuntimeMetrics.class.getName(), "Sandbox runtime metrics",
+        attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+  }
+
+  private static MBeanAttributeInfo attribute(String name, Class<?> type, String description) {
+    return new MBeanAttributeInfo(name, type.getName(), description, true, false, false);
+  }
+}
@@ -0,0 +1,44 @@
+package com.leacox.sandbox.security.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The values of all of the metrics of a {@link RuntimeMetrics} at some point in time.
+ *
+ * @author John Leacox
+ */
+public final class MetricsSnapshot {
+  private final long timestampMillis;
+  private final Map<String, Long> counters;
+  private final Map<String, HistogramSnapshot> histograms;
+
+  MetricsSnapshot(
+      long timestampMillis, Map<String, Long> counters,
+      Map<String, HistogramSnapshot> histograms) {
+    this.timestampMillis = timestampMillis;
+    this.counters = Collections.unmodifiableMap(counters);
+    this.histograms = Collections.unmodifiableMap(histograms);
+  }
+
+  /**
+   * Returns when the snapshot was taken, in milliseconds since the epoch.
+   */
+  public long getTimestampMillis() {
+    return timestampMillis;
+  }
+
+  /**
+   * Returns the count of each counter, keyed and sorted by name.
+   */
+  public Map<String, Long> getCounters() {
+    return counters;
+  }
+
+  /**
+   * Returns a snapshot of each histogram, keyed and sorted by name.
+   */
+  public Map<String, HistogramSnapshot> getHistograms() {
+    return histograms;
+  }
+}
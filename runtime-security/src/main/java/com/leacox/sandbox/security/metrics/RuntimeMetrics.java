@@ -0,0 +1,283 @@
+package com.leacox.sandbox.security.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * The counters and latency histograms of a runtime.
+ *
+ * <p>Metrics are created by name the first time they are asked for, and the callers on hot paths
+ * are expected to keep the returned {@link Counter} or {@link Histogram} rather than look it up
+ * each time. Updating either never locks or allocates.
+ *
+ * <p>The metrics can be read with {@link #snapshot()}, through a JMX MBean if an object name is
+ * configured, and by a {@link MetricsExporter} that a background thread hands a snapshot to
+ * periodically.
+ *
+ * <p>The {@link #disabled()} metrics hand out shared counters and histograms that do nothing, so
+ * instrumented code costs no more than a null check when metrics are turned off.
+ *
+ * @author John Leacox
+ */
+public class RuntimeMetrics implements AutoCloseable {
+  private static final Logger logger = LoggerFactory.getLogger(RuntimeMetrics.class);
+  private static final RuntimeMetrics DISABLED = new RuntimeMetrics();
+
+  private final boolean enabled;
+  private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+  private final ObjectName objectName;
+  private final MetricsExporter exporter;
+  private final long exportIntervalNanos;
+  private final Thread exporterThread;
+
+  private final AtomicLong failedExports = new AtomicLong();
+  private volatile boolean running = true;
+
+  private RuntimeMetrics() {
+    this.enabled = false;
+    this.objectName = null;
+    this.exporter = null;
+    this.exportIntervalNanos = 0;
+    this.exporterThread = null;
+  }
+
+  private RuntimeMetrics(Builder builder) {
+    this.enabled = true;
+    this.objectName = register(builder.objectName);
+    this.exporter = builder.exporter;
+    this.exportIntervalNanos = builder.exportIntervalNanos;
+
+    if (exporter != null) {
+      this.exporterThread = new Thread(this::export, "runtime-metrics-exporter");
+      this.exporterThread.setDaemon(true);
+      this.exporterThread.start();
+    } else {
+      this.exporterThread = null;
+    }
+  }
+
+  /**
+   * Returns metrics that do not record anything.
+   */
+  public static RuntimeMetrics disabled() {
+    return DISABLED;
+  }
+
+  /**
+   * Returns a builder for metrics that record.
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns {@code true} if these metrics record, {@code false} otherwise.
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Returns the JMX object name the metrics are registered under, or null if they are not
+   * registered.
+   */
+  public String getJmxObjectName() {
+    return objectName != null ? objectName.toString() : null;
+  }
+
+  /**
+   * Returns the counter with the name, creating it if it does not exist yet.
+   */
+  public Counter counter(String name) {
+    if (!enabled) {
+      return Counter.DISABLED;
+    }
+
+    return counters.computeIfAbsent(checkName(name), key -> new Counter(new LongAdder()));
+  }
+
+  /**
+   * Returns the histogram with the name, creating it if it does not exist yet.
+   */
+  public Histogram histogram(String name) {
+    if (!enabled) {
+      return Histogram.DISABLED;
+    }
+
+    return histograms.computeIfAbsent(checkName(name), key -> new Histogram());
+  }
+
+  private static String checkName(String name) {
+    if (name == null) {
+      throw new NullPointerException("name:null");
+    } else if (name.isEmpty()) {
+      throw new IllegalArgumentException("name:Must not be empty");
+    }
+
+    return name;
+  }
+
+  /**
+   * Returns a snapshot of every metric.
+   */
+  public MetricsSnapshot snapshot() {
+    Map<String, Long> counterValues = new TreeMap<>();
+    for (Map.Entry<String, Counter> counter : counters.entrySet()) {
+      counterValues.put(counter.getKey(), counter.getValue().get());
+    }
+
+    Map<String, HistogramSnapshot> histogramSnapshots = new TreeMap<>();
+    for (Map.Entry<String, Histogram> histogram : histograms.entrySet()) {
+      histogramSnapshots.put(histogram.getKey(), histogram.getValue().snapshot());
+    }
+
+    return new MetricsSnapshot(System.currentTimeMillis(), counterValues, histogramSnapshots);
+  }
+
+  /**
+   * Returns the number of exports that the exporter failed.
+   */
+  public long getFailedExportCount() {
+    return failedExports.get();
+  }
+
+  /**
+   * Stops the exporter after a final export and closes it, and unregisters the MBean.
+   */
+  @Override
+  public void close() throws IOException {
+    if (!enabled || !running) {
+      return;
+    }
+
+    running = false;
+    unregister();
+
+    if (exporterThread == null) {
+      return;
+    }
+
+    LockSupport.unpark(exporterThread);
+    try {
+      exporterThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    exporter.close();
+  }
+
+  private void export() {
+    while (running) {
+      LockSupport.parkNanos(this, exportIntervalNanos);
+      exportSnapshot();
+    }
+  }
+
+  private void exportSnapshot() {
+    try {
+      exporter.export(snapshot());
+    } catch (IOException | RuntimeException e) {
+      failedExports.incrementAndGet();
+      logger.debug("Failed to export runtime metrics", e);
+    }
+  }
+
+  private ObjectName register(ObjectName name) {
+    if (name == null) {
+      return null;
+    }
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      server.registerMBean(new MetricsMBean(this), name);
+      return name;
+    } catch (JMException e) {
+      // Metrics are still recorded and exported without the MBean
+      logger.warn("Unable to register the runtime metrics MBean {}", name, e);
+      return null;
+    }
+  }
+
+  private void unregister() {
+    if (objectName == null) {
+      return;
+    }
+
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    } catch (JMException e) {
+      logger.debug("Unable to unregister the runtime metrics MBean {}", objectName, e);
+    }
+  }
+
+  /**
+   * A builder for {@link RuntimeMetrics}.
+   */
+  public static class Builder {
+    private ObjectName objectName = null;
+    private MetricsExporter exporter = null;
+    private long exportIntervalNanos = TimeUnit.MINUTES.toNanos(1);
+
+    private Builder() {}
+
+    /**
+     * Registers the metrics as an MBean with the platform MBean server under the object name, for
+     * example {@code com.leacox.sandbox:type=RuntimeMetrics}. Counters are exposed as attributes
+     * named after the counter, and histograms as attributes named after the histogram with a
+     * {@code .count}, {@code .mean}, {@code .p50}, {@code .p90}, {@code .p99}, {@code .p999} or
+     * {@code .max} suffix. Defaults to not registering an MBean.
+     */
+    public Builder jmxObjectName(String objectName) {
+      if (objectName == null) {
+        throw new NullPointerException("objectName:null");
+      }
+
+      try {
+        this.objectName = new ObjectName(objectName);
+      } catch (MalformedObjectNameException e) {
+        throw new IllegalArgumentException("objectName:Must be a valid JMX object name", e);
+      }
+      return this;
+    }
+
+    /**
+     * Exports a snapshot of the metrics to the exporter at a fixed interval, and once more when
+     * the metrics are closed. Defaults to no exporter.
+     */
+    public Builder exporter(MetricsExporter exporter, long interval, TimeUnit unit) {
+      if (exporter == null) {
+        throw new NullPointerException("exporter:null");
+      } else if (interval < 1) {
+        throw new IllegalArgumentException("interval:Must be greater than 0");
+      }
+
+      this.exporter = exporter;
+      this.exportIntervalNanos = unit.toNanos(interval);
+      return this;
+    }
+
+    /**
+     * Creates the metrics, registering the MBean and starting the exporter thread if configured.
+     */
+    public RuntimeMetrics build() {
+      return new RuntimeMetrics(this);
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package com.leacox.sandbox.security.metrics;
+
+import org.slf4j.Logger;
+
+import java.util.Map;
+
+/**
+ * A {@link MetricsExporter} that writes each metric to an SLF4J logger at INFO.
+ *
+ * @author John Leacox
+ */
+public class Slf4jMetricsExporter implements MetricsExporter {
+  private final Logger logger;
+
+  /**
+   * Creates a new instance of {@code Slf4jMetricsExporter}.
+   *
+   * @param logger the logger to write metrics to
+   */
+  public Slf4jMetricsExporter(Logger logger) {
+    if (logger == null) {
+      throw new NullPointerException("logger:null");
+    }
+
+    this.logger = logger;
+  }
+
+  @Override
+  public void export(MetricsSnapshot snapshot) {
+    if (!logger.isInfoEnabled()) {
+      return;
+    }
+
+    for (Map.Entry<String, Long> counter : snapshot.getCounters().entrySet()) {
+      logger.info("{} = {}", counter.getKey(), counter.getValue());
+    }
+
+    for (Map.Entry<String, HistogramSnapshot> histogram : snapshot.getHistograms().entrySet()) {
+      logger.info("{} = {}", histogram.getKey(), histogram.getValue());
+    }
+  }
+}
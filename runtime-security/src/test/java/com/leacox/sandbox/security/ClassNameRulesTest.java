@@ -0,0 +1,173 @@
+package com.leacox.sandbox.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+/**
+ * @author John Leacox
+ */
+public class ClassNameRulesTest {
+  @Test
+  public void defaultsDenySandboxEscapes() {
+    ClassNameRules rules = ClassNameRules.defaults();
+
+    assertFalse(rules.isAllowed("java.io.ObjectInputStream"));
+    assertFalse(rules.isAllowed("java.lang.ClassLoader"));
+    assertFalse(rules.isAllowed("java.lang.Thread$Builder$OfVirtual"));
+    assertFalse(rules.isAllowed("net.bytebuddy.ByteBuddy"));
+    assertFalse(rules.isAllowed("com.leacox.sandbox.runtime.security.transform.Anything"));
+    assertTrue(rules.isAllowed("java.lang.String"));
+    assertTrue(rules.isAllowed("java.io.InputStream"));
+    assertTrue(rules.isAllowed("com.leacox.sandbox.security.UserClassLoader"));
+  }
+
+  @Test
+  public void namesWithoutRulesGetDefaultVerdict() {
+    assertTrue(ClassNameRules.builder().build().isAllowed("com.example.Foo"));
+    assertFalse(ClassNameRules.builder().allowedByDefault(false).build()
+        .isAllowed("com.example.Foo"));
+  }
+
+  @Test
+  public void packageRuleAppliesToSubpackages() {
+    ClassNameRules rules = ClassNameRules.builder().denyPackage("com.example").build();
+
+    assertFalse(rules.isAllowed("com.example.Foo"));
+    assertFalse(rules.isAllowed("com.example.deep.nested.Foo"));
+    assertTrue(rules.isAllowed("com.Foo"));
+    assertTrue(rules.isAllowed("com.other.Foo"));
+  }
+
+  @Test
+  public void packageRuleMatchesWholeSegments() {
+    ClassNameRules rules = ClassNameRules.builder().denyPackage("com.example").build();
+
+    assertTrue(rules.isAllowed("com.exampl.Foo"));
+    assertTrue(rules.isAllowed("com.examples.Foo"));
+    // The last segment is the class name, not a package
+    assertTrue(rules.isAllowed("com.example"));
+  }
+
+  @Test
+  public void mostSpecificPackageRuleWins() {
+    ClassNameRules rules = ClassNameRules.builder()
+        .denyPackage("com.example")
+        .allowPackage("com.example.api")
+        .denyPackage("com.example.api.internal")
+        .build();
+
+    assertFalse(rules.isAllowed("com.example.Foo"));
+    assertTrue(rules.isAllowed("com.example.api.Foo"));
+    assertTrue(rules.isAllowed("com.example.api.v1.Foo"));
+    assertFalse(rules.isAllowed("com.example.api.internal.Foo"));
+  }
+
+  @Test
+  public void classRuleTakesPrecedenceOverPackageRule() {
+    ClassNameRules rules = ClassNameRules.builder()
+        .denyPackage("com.example")
+        .allowClass("com.example.Allowed")
+        .denyClass("com.other.Denied")
+        .build();
+
+    assertTrue(rules.isAllowed("com.example.Allowed"));
+    assertFalse(rules.isAllowed("com.example.Other"));
+    assertFalse(rules.isAllowed("com.other.Denied"));
+    assertTrue(rules.isAllowed("com.other.Other"));
+  }
+
+  @Test
+  public void lastRuleForSameNameWins() {
+    ClassNameRules rules = ClassNameRules.builder()
+        .denyPackage("com.example")
+        .allowPackage("com.example")
+        .allowClass("com.other.Foo")
+        .denyClass("com.other.Foo")
+        .build();
+
+    assertTrue(rules.isAllowed("com.example.Foo"));
+    assertFalse(rules.isAllowed("com.other.Foo"));
+  }
+
+  @Test
+  public void classesInDefaultPackageOnlyMatchClassRules() {
+    ClassNameRules rules = ClassNameRules.builder()
+        .denyPackage("Foo")
+        .denyClass("Bar")
+        .build();
+
+    assertTrue(rules.isAllowed("Foo"));
+    assertFalse(rules.isAllowed("Bar"));
+  }
+
+  @Test
+  public void findsEverySiblingInLargeTable() {
+    ClassNameRules.Builder builder = ClassNameRules.builder();
+    for (int i = 0; i < 500; i += 2) {
+      builder.denyPackage("com.p" + i);
+    }
+    ClassNameRules rules = builder.build();
+
+    for (int i = 0; i < 500; i++) {
+      // Odd packages probe past the denied ones that share their slots
+      boolean denied = i % 2 == 0;
+      assertTrue("com.p" + i, rules.isAllowed("com.p" + i + ".Foo") != denied);
+    }
+  }
+
+  @Test
+  public void findsSegmentsWithCollidingHashes() {
+    // "Aa" and "BB" have the same String hash code
+    ClassNameRules rules = ClassNameRules.builder()
+        .denyPackage("com.Aa")
+        .allowPackage("com.BB")
+        .allowedByDefault(false)
+        .build();
+
+    assertFalse(rules.isAllowed("com.Aa.Foo"));
+    assertTrue(rules.isAllowed("com.BB.Foo"));
+    assertFalse(rules.isAllowed("com.AaBB.Foo"));
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void rejectsNullPackage() {
+    ClassNameRules.builder().denyPackage(null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsEmptyPackage() {
+    ClassNameRules.builder().denyPackage("");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsPackageWithEmptySegment() {
+    ClassNameRules.builder().denyPackage("com..example");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsClassEndingWithDot() {
+    ClassNameRules.builder().denyClass("com.example.");
+  }
+
+  @Test
+  public void exposesRulesAsBuilt() {
+    ClassNameRules rules = ClassNameRules.builder()
+        .allowedByDefault(false)
+        .allowClass("com.example.Allowed")
+        .denyPackage("com.example")
+        .allowPackage("com.example.api")
+        .denyPackage("com.example.api")
+        .build();
+
+    assertFalse(rules.isAllowedByDefault());
+    assertEquals(Collections.singletonMap("com.example.Allowed", true), rules.getClassRules());
+    assertEquals(2, rules.getPackageRules().size());
+    assertEquals(false, rules.getPackageRules().get("com.example"));
+    assertEquals(false, rules.getPackageRules().get("com.example.api"));
+  }
+}
@@ -0,0 +1,151 @@
+package com.leacox.sandbox.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.FilePermission;
+import java.security.AllPermission;
+import java.security.BasicPermission;
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PropertyPermission;
+
+/**
+ * @author John Leacox
+ */
+public class IndexedPermissionsTest {
+  @Test
+  public void impliesNothingWhenEmpty() {
+    IndexedPermissions permissions = new IndexedPermissions(Collections.emptyList());
+
+    assertFalse(permissions.implies(new RuntimePermission("exitVM")));
+    assertFalse(permissions.elements().hasMoreElements());
+  }
+
+  @Test
+  public void impliesWithLogicOfPermissionType() {
+    IndexedPermissions permissions = new IndexedPermissions(Arrays.asList(
+        new FilePermission("/srv/reports/-", "read"),
+        new PropertyPermission("user.*", "read"),
+        new RuntimePermission("accessClassInPackage.sun.*")));
+
+    assertTrue(permissions.implies(new FilePermission("/srv/reports/2017/q1.csv", "read")));
+    assertFalse(permissions.implies(new FilePermission("/srv/reports/q1.csv", "write")));
+    assertFalse(permissions.implies(new FilePermission("/srv/other", "read")));
+    assertTrue(permissions.implies(new PropertyPermission("user.timezone", "read")));
+    assertFalse(permissions.implies(new PropertyPermission("java.home", "read")));
+    assertTrue(permissions.implies(new RuntimePermission("accessClassInPackage.sun.misc")));
+    assertFalse(permissions.implies(new RuntimePermission("exitVM")));
+  }
+
+  @Test
+  public void combinesActionsOfSameTarget() {
+    IndexedPermissions permissions = new IndexedPermissions(Arrays.asList(
+        new FilePermission("/tmp/file", "read"),
+        new FilePermission("/tmp/file", "write")));
+
+    assertTrue(permissions.implies(new FilePermission("/tmp/file", "read,write")));
+  }
+
+  @Test
+  public void onlyImpliesPermissionsOfExactlyTheSameClass() {
+    IndexedPermissions permissions =
+        new IndexedPermissions(Collections.singletonList(new TestPermission("a")));
+
+    assertTrue(permissions.implies(new TestPermission("a")));
+    assertFalse(permissions.implies(new TestPermissionSubclass("a")));
+  }
+
+  @Test
+  public void checksEachPermissionOfTypeWithoutOwnCollection() {
+    IndexedPermissions permissions = new IndexedPermissions(Arrays.asList(
+        new ListedPermission("a"), new ListedPermission("b")));
+
+    assertTrue(permissions.implies(new ListedPermission("a")));
+    assertTrue(permissions.implies(new ListedPermission("b")));
+    assertFalse(permissions.implies(new ListedPermission("c")));
+  }
+
+  @Test
+  public void allPermissionImpliesEverything() {
+    IndexedPermissions permissions =
+        new IndexedPermissions(Collections.singletonList(new AllPermission()));
+
+    assertTrue(permissions.implies(new RuntimePermission("exitVM")));
+    assertTrue(permissions.implies(new FilePermission("/etc/passwd", "write")));
+  }
+
+  @Test
+  public void isReadOnly() {
+    IndexedPermissions permissions = new IndexedPermissions(new ArrayList<>());
+
+    assertTrue(permissions.isReadOnly());
+    try {
+      permissions.add(new RuntimePermission("exitVM"));
+      fail("Expected SecurityException");
+    } catch (SecurityException e) {
+      // Expected
+    }
+    assertFalse(permissions.implies(new RuntimePermission("exitVM")));
+  }
+
+  @Test
+  public void doesNotChangeWithListItWasCreatedFrom() {
+    List<Permission> granted = new ArrayList<>();
+    granted.add(new RuntimePermission("exitVM"));
+    IndexedPermissions permissions = new IndexedPermissions(granted);
+
+    granted.add(new RuntimePermission("setIO"));
+
+    assertFalse(permissions.implies(new RuntimePermission("setIO")));
+    assertEquals(1, Collections.list(permissions.elements()).size());
+  }
+
+  private static class TestPermission extends BasicPermission {
+    TestPermission(String name) {
+      super(name);
+    }
+  }
+
+  private static final class TestPermissionSubclass extends TestPermission {
+    TestPermissionSubclass(String name) {
+      super(name);
+    }
+  }
+
+  /**
+   * A permission type that does not provide its own collection.
+   */
+  private static final class ListedPermission extends Permission {
+    ListedPermission(String name) {
+      super(name);
+    }
+
+    @Override
+    public boolean implies(Permission permission) {
+      return permission instanceof ListedPermission && permission.getName().equals(getName());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof ListedPermission && ((ListedPermission) o).getName().equals(getName());
+    }
+
+    @Override
+    public int hashCode() {
+      return getName().hashCode();
+    }
+
+    @Override
+    public String getActions() {
+      return "";
+    }
+  }
+}
@@ -0,0 +1,365 @@
+package com.leacox.sandbox.security;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.jar.Attributes;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * @author John Leacox
+ */
+public class JarIndexTest {
+  private static final byte[] CLASS_BYTES = classBytes(1000);
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Path snapshots;
+
+  @Before
+  public void setUp() throws IOException {
+    snapshots = temporaryFolder.newFolder("snapshots").toPath();
+  }
+
+  @Test
+  public void readsStoredAndDeflatedClasses() throws IOException {
+    Path jar = jar(zip(
+        entry("com/example/Stored.class", CLASS_BYTES, ZipEntry.STORED),
+        entry("com/example/Deflated.class", CLASS_BYTES, ZipEntry.DEFLATED),
+        entry("com/example/resource.txt", new byte[] {1, 2, 3}, ZipEntry.DEFLATED)));
+
+    JarIndex index = JarIndex.open(jar, snapshots);
+
+    assertEquals(2, index.getClassCount());
+    assertArrayEquals(CLASS_BYTES, bytes(index.getClassBytes("com.example.Stored")));
+    assertArrayEquals(CLASS_BYTES, bytes(index.getClassBytes("com.example.Deflated")));
+    assertNull(index.getClassBytes("com.example.resource"));
+    assertNull(index.getClassBytes("com.example.Missing"));
+  }
+
+  @Test
+  public void readsManifest() throws IOException {
+    byte[] manifest = ("Manifest-Version: 1.0\r\nImplementation-Version: 2.1\r\n\r\n")
+        .getBytes(StandardCharsets.UTF_8);
+    Path jar = jar(zip(
+        entry("META-INF/MANIFEST.MF", manifest, ZipEntry.DEFLATED),
+        entry("com/example/A.class", CLASS_BYTES, ZipEntry.STORED)));
+
+    JarIndex index = JarIndex.open(jar, snapshots);
+
+    assertEquals(1, index.getClassCount());
+    assertEquals("2.1",
+        index.getManifest().getMainAttributes().getValue(Attributes.Name.IMPLEMENTATION_VERSION));
+  }
+
+  @Test
+  public void jarWithoutManifestHasNone() throws IOException {
+    Path jar = jar(zip(entry("com/example/A.class", CLASS_BYTES, ZipEntry.STORED)));
+
+    assertNull(JarIndex.open(jar, snapshots).getManifest());
+  }
+
+  @Test
+  public void storedClassesAreReadOnly() throws IOException {
+    Path jar = jar(zip(entry("Stored.class", CLASS_BYTES, ZipEntry.STORED)));
+
+    assertTrue(JarIndex.open(jar, snapshots).getClassBytes("Stored").isReadOnly());
+  }
+
+  @Test
+  public void indexesEmptyJar() throws IOException {
+    JarIndex index = JarIndex.open(jar(zip()), snapshots);
+
+    assertEquals(0, index.getClassCount());
+  }
+
+  @Test
+  public void findsEndOfCentralDirectoryBeforeComment() throws IOException {
+    byte[] zip = zip(entry("A.class", CLASS_BYTES, ZipEntry.DEFLATED));
+    int end = endOfCentralDirectory(zip);
+    byte[] comment = new byte[300];
+    // A comment that looks like the start of an end of central directory record
+    comment[10] = 0x50;
+    comment[11] = 0x4b;
+    byte[] commented = Arrays.copyOf(zip, zip.length + comment.length);
+    System.arraycopy(comment, 0, commented, zip.length, comment.length);
+    ByteBuffer.wrap(commented).order(ByteOrder.LITTLE_ENDIAN)
+        .putShort(end + 20, (short) comment.length);
+
+    JarIndex index = JarIndex.open(jar(commented), snapshots);
+
+    assertArrayEquals(CLASS_BYTES, bytes(index.getClassBytes("A")));
+  }
+
+  @Test
+  public void hashesContents() throws IOException {
+    byte[] zip = zip(entry("A.class", CLASS_BYTES, ZipEntry.DEFLATED));
+
+    String first = JarIndex.open(jar(zip), snapshots).getSha256();
+    String copy = JarIndex.open(jar(zip), snapshots).getSha256();
+    String other = JarIndex.open(jar(zip(entry("B.class", CLASS_BYTES, ZipEntry.DEFLATED))),
+        snapshots).getSha256();
+
+    assertEquals(64, first.length());
+    assertEquals(first, copy);
+    assertNotEquals(first, other);
+  }
+
+  @Test
+  public void servesCopyTakenWhenOpened() throws IOException {
+    Path jar = jar(zip(entry("A.class", CLASS_BYTES, ZipEntry.STORED)));
+    JarIndex index = JarIndex.open(jar, snapshots);
+
+    // Rewritten in place, and truncated
+    Files.write(jar, new byte[10]);
+
+    assertArrayEquals(CLASS_BYTES, bytes(index.getClassBytes("A")));
+    try (Stream<Path> files = Files.list(snapshots)) {
+      assertEquals(0, files.count());
+    }
+  }
+
+  @Test
+  public void rejectsFileThatIsNotAJar() throws IOException {
+    assertRejected(jar(new byte[100]));
+  }
+
+  @Test
+  public void rejectsFileShorterThanEndOfCentralDirectory() throws IOException {
+    assertRejected(jar(new byte[] {0x50, 0x4b, 0x05, 0x06}));
+  }
+
+  @Test
+  public void rejectsSignedJar() throws IOException {
+    assertRejected(jar(zip(
+        entry("META-INF/SIGNER.SF", new byte[] {1}, ZipEntry.DEFLATED),
+        entry("A.class", CLASS_BYTES, ZipEntry.DEFLATED))));
+  }
+
+  @Test
+  public void acceptsSignatureLikeNamesOutsideMetaInf() throws IOException {
+    JarIndex index = JarIndex.open(jar(zip(
+        entry("META-INF/sub/SIGNER.SF", new byte[] {1}, ZipEntry.DEFLATED),
+        entry("A.class", CLASS_BYTES, ZipEntry.DEFLATED))), snapshots);
+
+    assertEquals(1, index.getClassCount());
+  }
+
+  @Test
+  public void rejectsEncryptedEntry() throws IOException {
+    byte[] zip = zip(entry("A.class", CLASS_BYTES, ZipEntry.DEFLATED));
+    int header = centralDirectory(zip);
+    ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN).putShort(header + 8, (short) 1);
+
+    assertRejected(jar(zip));
+  }
+
+  @Test
+  public void rejectsUnsupportedCompressionMethod() throws IOException {
+    byte[] zip = zip(entry("A.class", CLASS_BYTES, ZipEntry.DEFLATED));
+    int header = centralDirectory(zip);
+    ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN).putShort(header + 10, (short) 12);
+
+    assertRejected(jar(zip));
+  }
+
+  @Test
+  public void rejectsZip64EntryCount() throws IOException {
+    byte[] zip = zip(entry("A.class", CLASS_BYTES, ZipEntry.DEFLATED));
+    int end = endOfCentralDirectory(zip);
+    ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN).putShort(end + 10, (short) 0xffff);
+
+    assertRejected(jar(zip));
+  }
+
+  @Test
+  public void rejectsCentralDirectoryOffsetPastEnd() throws IOException {
+    byte[] zip = zip(entry("A.class", CLASS_BYTES, ZipEntry.DEFLATED));
+    int end = endOfCentralDirectory(zip);
+    ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN).putInt(end + 16, zip.length + 100);
+
+    assertRejected(jar(zip));
+  }
+
+  @Test
+  public void rejectsEntryCountLargerThanCentralDirectory() throws IOException {
+    byte[] zip = zip(entry("A.class", CLASS_BYTES, ZipEntry.DEFLATED));
+    int end = endOfCentralDirectory(zip);
+    ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN).putShort(end + 10, (short) 5);
+
+    assertRejected(jar(zip));
+  }
+
+  @Test
+  public void rejectsNameLongerThanCentralDirectory() throws IOException {
+    byte[] zip = zip(entry("A.class", CLASS_BYTES, ZipEntry.DEFLATED));
+    int header = centralDirectory(zip);
+    ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN).putShort(header + 28, (short) 0xfff0);
+
+    assertRejected(jar(zip));
+  }
+
+  @Test
+  public void rejectsLocalHeaderOffsetOutsideJar() throws IOException {
+    byte[] zip = zip(entry("A.class", CLASS_BYTES, ZipEntry.DEFLATED));
+    int header = centralDirectory(zip);
+    ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN).putInt(header + 42, -1);
+
+    assertRejected(jar(zip));
+  }
+
+  @Test
+  public void rejectsNegativeSize() throws IOException {
+    byte[] zip = zip(entry("A.class", CLASS_BYTES, ZipEntry.DEFLATED));
+    int header = centralDirectory(zip);
+    ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN).putInt(header + 24, -1);
+
+    assertRejected(jar(zip));
+  }
+
+  @Test
+  public void failsReadOfEntryExtendingPastJar() throws IOException {
+    byte[] zip = zip(entry("A.class", CLASS_BYTES, ZipEntry.STORED));
+    int header = centralDirectory(zip);
+    ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN)
+        .putInt(header + 20, zip.length)
+        .putInt(header + 24, zip.length);
+    JarIndex index = JarIndex.open(jar(zip), snapshots);
+
+    try {
+      index.getClassBytes("A");
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void failsReadOfCorruptLocalHeader() throws IOException {
+    byte[] zip = zip(entry("A.class", CLASS_BYTES, ZipEntry.DEFLATED));
+    zip[0] = 0;
+    JarIndex index = JarIndex.open(jar(zip), snapshots);
+
+    try {
+      index.getClassBytes("A");
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void failsReadOfTruncatedDeflatedEntry() throws IOException {
+    byte[] zip = zip(entry("A.class", CLASS_BYTES, ZipEntry.DEFLATED));
+    int header = centralDirectory(zip);
+    ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN).putInt(header + 24, CLASS_BYTES.length * 2);
+    JarIndex index = JarIndex.open(jar(zip), snapshots);
+
+    try {
+      index.getClassBytes("A");
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  private void assertRejected(Path jar) {
+    try {
+      JarIndex.open(jar, snapshots);
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  private Path jar(byte[] bytes) throws IOException {
+    Path jar = temporaryFolder.newFile().toPath();
+    Files.write(jar, bytes);
+    return jar;
+  }
+
+  private static Entry entry(String name, byte[] contents, int method) {
+    ZipEntry entry = new ZipEntry(name);
+    entry.setMethod(method);
+    if (method == ZipEntry.STORED) {
+      CRC32 crc = new CRC32();
+      crc.update(contents);
+      entry.setSize(contents.length);
+      entry.setCompressedSize(contents.length);
+      entry.setCrc(crc.getValue());
+    }
+    return new Entry(entry, contents);
+  }
+
+  private static byte[] zip(Entry... entries) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+      for (Entry entry : entries) {
+        out.putNextEntry(entry.zipEntry);
+        out.write(entry.contents);
+        out.closeEntry();
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  private static int endOfCentralDirectory(byte[] zip) {
+    ByteBuffer buffer = ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN);
+    for (int offset = zip.length - 22; offset >= 0; offset--) {
+      if (buffer.getInt(offset) == 0x06054b50) {
+        return offset;
+      }
+    }
+    throw new AssertionError("No end of central directory");
+  }
+
+  private static int centralDirectory(byte[] zip) {
+    return ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN)
+        .getInt(endOfCentralDirectory(zip) + 16);
+  }
+
+  private static byte[] bytes(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
+  private static byte[] classBytes(int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte) (i % 7);
+    }
+    return bytes;
+  }
+
+  private static final class Entry {
+    private final ZipEntry zipEntry;
+    private final byte[] contents;
+
+    private Entry(ZipEntry zipEntry, byte[] contents) {
+      this.zipEntry = zipEntry;
+      this.contents = contents;
+    }
+  }
+}
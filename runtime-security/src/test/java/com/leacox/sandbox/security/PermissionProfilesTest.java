@@ -0,0 +1,284 @@
+package com.leacox.sandbox.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.FilePermission;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.PermissionCollection;
+import java.util.Arrays;
+import java.util.PropertyPermission;
+
+/**
+ * @author John Leacox
+ */
+public class PermissionProfilesTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void noneGrantsNothingToAnyTenant() {
+    PermissionProfiles profiles = PermissionProfiles.none();
+
+    assertSame(PermissionProfile.none(), profiles.forTenant("acme"));
+    assertSame(PermissionProfile.none(), profiles.getDefaultProfile());
+    assertSame(PermissionProfile.none(), profiles.getProfile("none"));
+    assertFalse(profiles.forTenant("acme").getPermissions().elements().hasMoreElements());
+  }
+
+  @Test
+  public void assignsProfilesToTenants() {
+    PermissionProfile reports = PermissionProfile.builder("reports")
+        .grant(new PropertyPermission("user.timezone", "read"))
+        .build();
+    PermissionProfiles profiles = PermissionProfiles.builder()
+        .profile(reports)
+        .assign("acme", "reports")
+        .build();
+
+    assertSame(reports, profiles.forTenant("acme"));
+    assertSame(PermissionProfile.none(), profiles.forTenant("globex"));
+    assertSame(reports, profiles.getProfile("reports"));
+    assertNull(profiles.getProfile("missing"));
+  }
+
+  @Test
+  public void usesDefaultProfileForTenantsWithoutOne() {
+    PermissionProfile reports = PermissionProfile.builder("reports").build();
+    PermissionProfiles profiles = PermissionProfiles.builder()
+        .profile(reports)
+        .assign("acme", "none")
+        .defaultProfile("reports")
+        .build();
+
+    assertSame(PermissionProfile.none(), profiles.forTenant("acme"));
+    assertSame(reports, profiles.forTenant("globex"));
+    assertSame(reports, profiles.getDefaultProfile());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void buildFailsWhenTenantIsAssignedUndefinedProfile() {
+    PermissionProfiles.builder().assign("acme", "reports").build();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void buildFailsWhenDefaultIsUndefinedProfile() {
+    PermissionProfiles.builder().defaultProfile("reports").build();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void profileCannotReplaceNone() {
+    PermissionProfiles.builder().profile(PermissionProfile.builder("none")
+        .grant(new RuntimePermission("exitVM"))
+        .build());
+  }
+
+  @Test
+  public void loadsProfilesFromFile() throws IOException {
+    PermissionProfiles profiles = load(
+        "# Comments start with a hash",
+        "profile reports",
+        "grant java.io.FilePermission \"/srv/my reports/-\" read  # trailing comment",
+        "grant java.util.PropertyPermission user.timezone read",
+        "",
+        "profile exit",
+        "grant java.lang.RuntimePermission exitVM",
+        "  ",
+        "tenant acme reports",
+        "tenant globex exit",
+        "default none");
+
+    PermissionCollection reports = profiles.forTenant("acme").getPermissions();
+    assertEquals("reports", profiles.forTenant("acme").getName());
+    assertTrue(reports.implies(new FilePermission("/srv/my reports/q1.csv", "read")));
+    assertFalse(reports.implies(new FilePermission("/srv/my reports/q1.csv", "write")));
+    assertTrue(reports.implies(new PropertyPermission("user.timezone", "read")));
+    assertFalse(reports.implies(new RuntimePermission("exitVM")));
+
+    assertTrue(profiles.forTenant("globex").getPermissions()
+        .implies(new RuntimePermission("exitVM")));
+    assertSame(PermissionProfile.none(), profiles.forTenant("initech"));
+  }
+
+  @Test
+  public void loadsDefaultProfileFromFile() throws IOException {
+    PermissionProfiles profiles = load(
+        "default exit",
+        "profile exit",
+        "grant java.lang.RuntimePermission exitVM");
+
+    assertEquals("exit", profiles.forTenant("acme").getName());
+  }
+
+  @Test
+  public void loadsEmptyFile() throws IOException {
+    PermissionProfiles profiles = load();
+
+    assertSame(PermissionProfile.none(), profiles.getDefaultProfile());
+  }
+
+  @Test
+  public void loadFailsWhenGrantDoesNotFollowProfile() throws IOException {
+    assertInvalid(1, "grant:Must follow a profile",
+        "grant java.lang.RuntimePermission exitVM");
+  }
+
+  @Test
+  public void loadFailsOnUnknownDirective() throws IOException {
+    assertInvalid(2, "Unknown directive [permit everything]",
+        "profile reports",
+        "permit everything");
+  }
+
+  @Test
+  public void loadFailsOnDirectiveWithWrongNumberOfTokens() throws IOException {
+    assertInvalid(1, "Unknown directive [profile]", "profile");
+    assertInvalid(1, "Unknown directive [tenant acme]", "tenant acme");
+    assertInvalid(1, "Unknown directive [default a b]", "default a b");
+    assertInvalid(2, "Unknown directive [grant]", "profile reports", "grant");
+    assertInvalid(2, "Unknown directive [grant java.io.FilePermission a read extra]",
+        "profile reports",
+        "grant java.io.FilePermission a read extra");
+  }
+
+  @Test
+  public void loadFailsOnUnterminatedQuote() throws IOException {
+    assertInvalid(2, "Unterminated quote",
+        "profile reports",
+        "grant java.io.FilePermission \"/srv/reports/- read");
+  }
+
+  @Test
+  public void loadFailsOnUnknownClass() throws IOException {
+    assertInvalid(2, "grant:Must name a permission class [com.example.MissingPermission]",
+        "profile reports",
+        "grant com.example.MissingPermission");
+  }
+
+  @Test
+  public void loadFailsOnClassThatIsNotPermission() throws IOException {
+    assertInvalid(2, "grant:Must name a permission class [java.lang.String]",
+        "profile reports",
+        "grant java.lang.String value");
+  }
+
+  @Test
+  public void loadFailsWhenNoConstructorTakesArguments() throws IOException {
+    assertInvalid(2, "grant:Must match a public constructor of [java.io.FilePermission] taking 1 "
+            + "strings",
+        "profile reports",
+        "grant java.io.FilePermission /srv/reports/-");
+  }
+
+  @Test
+  public void loadFailsOnInvalidPermission() throws IOException {
+    assertInvalid(2, "grant:Invalid permission [",
+        "profile reports",
+        "grant java.io.FilePermission /srv/reports/- explode");
+  }
+
+  @Test
+  public void loadFailsWhenProfileReplacesNone() throws IOException {
+    assertInvalid(1, "profile:Must not replace the none profile",
+        "profile none",
+        "grant java.lang.RuntimePermission exitVM");
+  }
+
+  @Test
+  public void loadFailsWhenTenantIsAssignedUndefinedProfile() throws IOException {
+    Path file = write("tenant acme reports");
+    try {
+      PermissionProfiles.load(file);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertEquals(file + ": profile:Must be defined [reports]", e.getMessage());
+    }
+  }
+
+  @Test
+  public void loadFailsWhenDefaultIsUndefinedProfile() throws IOException {
+    Path file = write("default reports");
+    try {
+      PermissionProfiles.load(file);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertEquals(file + ": profile:Must be defined [reports]", e.getMessage());
+    }
+  }
+
+  @Test
+  public void storeWritesProfilesThatLoadReadsBack() throws IOException {
+    PermissionProfiles profiles = PermissionProfiles.builder()
+        .profile(PermissionProfile.builder("my reports")
+            .grant(new FilePermission("/srv/my reports/-", "read"))
+            .grant(new PropertyPermission("user.timezone", "read"))
+            .grant(new RuntimePermission("exitVM"))
+            .build())
+        .profile(PermissionProfile.builder("empty").build())
+        .assign("acme corp", "my reports")
+        .assign("globex", "none")
+        .defaultProfile("empty")
+        .build();
+    Path file = folder.newFile().toPath();
+
+    profiles.store(file);
+    PermissionProfiles loaded = PermissionProfiles.load(file);
+
+    PermissionCollection reports = loaded.forTenant("acme corp").getPermissions();
+    assertEquals("my reports", loaded.forTenant("acme corp").getName());
+    assertTrue(reports.implies(new FilePermission("/srv/my reports/q1.csv", "read")));
+    assertFalse(reports.implies(new FilePermission("/srv/my reports/q1.csv", "write")));
+    assertTrue(reports.implies(new PropertyPermission("user.timezone", "read")));
+    assertTrue(reports.implies(new RuntimePermission("exitVM")));
+    assertSame(PermissionProfile.none(), loaded.forTenant("globex"));
+    assertEquals("empty", loaded.forTenant("initech").getName());
+    assertFalse(loaded.getProfile("empty").getPermissions().elements().hasMoreElements());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void storeFailsOnValueThatCannotBeQuoted() throws IOException {
+    PermissionProfiles.builder()
+        .profile(PermissionProfile.builder("reports")
+            .grant(new FilePermission("/srv/\"my reports\"/-", "read"))
+            .build())
+        .build()
+        .store(folder.newFile().toPath());
+  }
+
+  @Test(expected = IOException.class)
+  public void loadFailsWhenFileIsMissing() throws IOException {
+    PermissionProfiles.load(folder.getRoot().toPath().resolve("missing.profiles"));
+  }
+
+  private PermissionProfiles load(String... lines) throws IOException {
+    return PermissionProfiles.load(write(lines));
+  }
+
+  private Path write(String... lines) throws IOException {
+    Path file = folder.newFile().toPath();
+    Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+    return file;
+  }
+
+  private void assertInvalid(int lineNumber, String message, String... lines) throws IOException {
+    Path file = write(lines);
+    try {
+      PermissionProfiles.load(file);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      String prefix = file + ":" + lineNumber + ": " + message;
+      assertTrue(e.getMessage(), e.getMessage().startsWith(prefix));
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package com.leacox.sandbox.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * @author John Leacox
+ */
+public class UserClassLoaderTest {
+  private static final String SAMPLE = Sample.class.getName();
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void definesPackageWithTheManifestOfAnIndexedJar() throws Exception {
+    Manifest manifest = new Manifest();
+    Attributes attributes = manifest.getMainAttributes();
+    attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    attributes.put(Attributes.Name.IMPLEMENTATION_TITLE, "sample");
+    attributes.put(Attributes.Name.IMPLEMENTATION_VERSION, "2.1");
+    attributes.put(Attributes.Name.SEALED, "true");
+    URL jarUrl = jar(manifest);
+
+    try (UserClassLoader loader = new UserClassLoader(jarUrl, null, new JarContentCache())) {
+      Class<?> sample = loader.loadClass(SAMPLE);
+
+      Package samplePackage = sample.getPackage();
+      assertSame(loader, sample.getClassLoader());
+      assertEquals("sample", samplePackage.getImplementationTitle());
+      assertEquals("2.1", samplePackage.getImplementationVersion());
+      assertTrue(samplePackage.isSealed(jarUrl));
+    }
+  }
+
+  @Test
+  public void definesPlainPackageForAnIndexedJarWithoutManifest() throws Exception {
+    URL jarUrl = jar(null);
+
+    try (UserClassLoader loader = new UserClassLoader(jarUrl, null, new JarContentCache())) {
+      Package samplePackage = loader.loadClass(SAMPLE).getPackage();
+
+      assertNull(samplePackage.getImplementationVersion());
+      assertFalse(samplePackage.isSealed());
+    }
+  }
+
+  private URL jar(Manifest manifest) throws IOException {
+    Path jar = folder.newFile("sample.jar").toPath();
+    String entryName = SAMPLE.replace('.', '/') + ".class";
+    try (OutputStream out = Files.newOutputStream(jar);
+        JarOutputStream jarOut = manifest == null
+            ? new JarOutputStream(out) : new JarOutputStream(out, manifest);
+        InputStream sample = UserClassLoaderTest.class.getResourceAsStream("/" + entryName)) {
+      jarOut.putNextEntry(new JarEntry(entryName));
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = sample.read(buffer)) != -1) {
+        jarOut.write(buffer, 0, read);
+      }
+      jarOut.closeEntry();
+    }
+
+    return jar.toUri().toURL();
+  }
+
+  public static final class Sample {
+  }
+}
@@ -0,0 +1,150 @@
+package com.leacox.sandbox.security.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.security.Permission;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * @author John Leacox
+ */
+public class AuditRingBufferTest {
+  private static final Permission PERMISSION = new RuntimePermission("exitVM");
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsZeroCapacity() {
+    new AuditRingBuffer(0);
+  }
+
+  @Test
+  public void pollReturnsNullWhenEmpty() {
+    AuditRingBuffer buffer = new AuditRingBuffer(4);
+
+    assertNull(buffer.poll());
+  }
+
+  @Test
+  public void pollReturnsRecordsInOrder() {
+    AuditRingBuffer buffer = new AuditRingBuffer(4);
+
+    assertTrue(buffer.offer(1, false, null, PERMISSION, true, false));
+    assertTrue(buffer.offer(2, true, null, "collection", false, true));
+
+    AuditEvent first = buffer.poll();
+    assertNotNull(first);
+    assertEquals(1, first.getTimestampMillis());
+    assertEquals(AuditEvent.Type.IMPLIES, first.getType());
+    assertEquals(PERMISSION.toString(), first.getPermission());
+    assertTrue(first.isUser());
+    assertFalse(first.isGranted());
+    assertEquals("null", first.getCodeSource());
+    assertEquals("null", first.getClassLoader());
+
+    AuditEvent second = buffer.poll();
+    assertNotNull(second);
+    assertEquals(2, second.getTimestampMillis());
+    assertEquals(AuditEvent.Type.GET_PERMISSIONS, second.getType());
+    assertFalse(second.isUser());
+    assertTrue(second.isGranted());
+
+    assertNull(buffer.poll());
+  }
+
+  @Test
+  public void capacityIsRoundedUpToPowerOfTwo() {
+    AuditRingBuffer buffer = new AuditRingBuffer(3);
+
+    for (int i = 0; i < 4; i++) {
+      assertTrue(buffer.offer(i, false, null, PERMISSION, true, true));
+    }
+    assertFalse(buffer.offer(4, false, null, PERMISSION, true, true));
+  }
+
+  @Test
+  public void offerRejectsWhenFullAndAcceptsOnceSpaceIsFreed() {
+    AuditRingBuffer buffer = new AuditRingBuffer(2);
+
+    assertTrue(buffer.offer(1, false, null, PERMISSION, true, true));
+    assertTrue(buffer.offer(2, false, null, PERMISSION, true, true));
+    assertFalse(buffer.offer(3, false, null, PERMISSION, true, true));
+
+    assertEquals(1, buffer.poll().getTimestampMillis());
+    assertTrue(buffer.offer(4, false, null, PERMISSION, true, true));
+    assertEquals(2, buffer.poll().getTimestampMillis());
+    assertEquals(4, buffer.poll().getTimestampMillis());
+    assertNull(buffer.poll());
+  }
+
+  @Test
+  public void wrapsAroundManyTimes() {
+    AuditRingBuffer buffer = new AuditRingBuffer(4);
+
+    for (int i = 0; i < 100; i++) {
+      assertTrue(buffer.offer(i, false, null, PERMISSION, true, true));
+      assertTrue(buffer.offer(i + 1000, false, null, PERMISSION, true, true));
+      assertEquals(i, buffer.poll().getTimestampMillis());
+      assertEquals(i + 1000, buffer.poll().getTimestampMillis());
+    }
+    assertNull(buffer.poll());
+  }
+
+  @Test
+  public void concurrentProducersPublishEveryAcceptedRecordOnce() throws InterruptedException {
+    int producers = 4;
+    int recordsPerProducer = 10000;
+    AuditRingBuffer buffer = new AuditRingBuffer(64);
+    CountDownLatch start = new CountDownLatch(1);
+
+    Thread[] threads = new Thread[producers];
+    for (int p = 0; p < producers; p++) {
+      int producer = p;
+      threads[p] = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int i = 0; i < recordsPerProducer; i++) {
+          long record = (long) producer * recordsPerProducer + i;
+          while (!buffer.offer(record, false, null, PERMISSION, true, true)) {
+            Thread.yield();
+          }
+        }
+      });
+      threads[p].start();
+    }
+
+    start.countDown();
+    Set<Long> seen = new HashSet<>();
+    long[] lastByProducer = new long[producers];
+    Arrays.fill(lastByProducer, -1);
+    while (seen.size() < producers * recordsPerProducer) {
+      AuditEvent event = buffer.poll();
+      if (event == null) {
+        Thread.yield();
+        continue;
+      }
+
+      long record = event.getTimestampMillis();
+      assertTrue("Duplicate record " + record, seen.add(record));
+      // Records of one producer are published in the order it offered them
+      int producer = (int) (record / recordsPerProducer);
+      assertTrue(record > lastByProducer[producer]);
+      lastByProducer[producer] = record;
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(buffer.poll());
+  }
+}
@@ -15,6 +15,8 @@ import net.bytebuddy.utility.JavaModule;
 import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Method;
 import java.security.ProtectionDomain;
+import java.util.Collections;
+import java.util.Set;
 
 /**
  * A bootstrap transformer for the {@link AccessibleObject} class.
@@ -22,6 +24,11 @@ import java.security.ProtectionDomain;
  * @author John Leacox
  */
 public class AccessibleObjectTransformer implements BootstrapTransformationDefinition {
+  @Override
+  public Set<String> getTargetTypeNames() {
+    return Collections.singleton("java.lang.reflect.AccessibleObject");
+  }
+
   @Override
   public AgentBuilder.RawMatcher getRawMatcher(BootstrapTransformationContext context) {
     return new AgentBuilder.RawMatcher() {
@@ -55,14 +62,18 @@ public class AccessibleObjectTransformer implements BootstrapTransformationDefin
       public DynamicType.Builder<?> transform(
           DynamicType.Builder<?> builder, TypeDescription typeDescription,
           ClassLoader classLoader) {
-        return builder.method(
-            ElementMatchers.named("setAccessible")
+        TypeDescription stubType = typePool.describe(
+            "com.leacox.sandbox.security.stub.java.lang.reflect.AccessibleObjectStub").resolve();
+
+        return builder
+            .method(ElementMatchers.named("setAccessible")
                 .and(ElementMatchers.takesArguments(boolean.class)))
-            .intercept(MethodDelegation.to(
-                typePool.describe(
-                    "com.leacox.sandbox.security.stub.java.lang.reflect.AccessibleObjectStub")
-                    .resolve()
-            ).andThen(MethodCall.invoke(setAccessible0Method).withThis().withAllArguments()));
+            .intercept(MethodDelegation.to(stubType)
+                .andThen(MethodCall.invoke(setAccessible0Method).withThis().withAllArguments()))
+            // The stub sets the flags of the array itself, once all of the checks have passed
+            .method(ElementMatchers.named("setAccessible")
+                .and(ElementMatchers.takesArguments(AccessibleObject[].class, boolean.class)))
+            .intercept(MethodDelegation.to(stubType));
       }
     };
   }
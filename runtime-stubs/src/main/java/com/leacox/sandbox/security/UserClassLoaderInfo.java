@@ -0,0 +1,49 @@
+package com.leacox.sandbox.security;
+
+/**
+ * What the runtime published about a user class loader when it created it.
+ *
+ * <p>This is visible from the bootstrap class path, so that the stubs and any cache or accounting
+ * code can tell which tenant a loader belongs to without depending on the runtime's classes.
+ *
+ * @author John Leacox
+ */
+public final class UserClassLoaderInfo {
+  private final String tenantId;
+  private final String permissionProfileName;
+
+  /**
+   * Creates a new instance of {@code UserClassLoaderInfo}.
+   *
+   * @param tenantId the id of the tenant the loader loads code for, or null if it is not known
+   * @param permissionProfileName the name of the permission profile granted to the loader's code
+   */
+  public UserClassLoaderInfo(String tenantId, String permissionProfileName) {
+    if (permissionProfileName == null) {
+      throw new NullPointerException("permissionProfileName:null");
+    }
+
+    this.tenantId = tenantId;
+    this.permissionProfileName = permissionProfileName;
+  }
+
+  /**
+   * Returns the id of the tenant the loader loads code for, or null if it is not known.
+   */
+  public String getTenantId() {
+    return tenantId;
+  }
+
+  /**
+   * Returns the name of the permission profile granted to the loader's code.
+   */
+  public String getPermissionProfileName() {
+    return permissionProfileName;
+  }
+
+  @Override
+  public String toString() {
+    return "UserClassLoaderInfo{tenantId=" + tenantId + ", permissionProfile="
+        + permissionProfileName + '}';
+  }
+}
@@ -1,20 +1,124 @@
 package com.leacox.sandbox.security;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Static utility methods for working with a user class loader.
  *
+ * <p>The runtime registers each user class loader here when it creates it, together with a
+ * {@link UserClassLoaderInfo}. Loaders are held weakly and compared by identity, so telling whether
+ * a loader is a user class loader is a hash lookup of the loader reference, with no class name
+ * comparison and no lock. Registering copies the table, which is cheap next to creating a class
+ * loader, and drops the loaders that have been reclaimed since the last registration.
+ *
  * @author John Leacox
  */
 public class UserClassLoaders {
   private UserClassLoaders() {}
 
-  private static final String USER_CLASS_LOADER_CLASS_NAME =
-      "com.leacox.sandbox.security.UserClassLoader";
+  private static final RuntimePermission registerUserClassLoaderPermission =
+      new RuntimePermission("registerUserClassLoader");
+  private static final int MIN_CAPACITY = 16;
+  private static final Object lock = new Object();
+
+  /**
+   * An open addressing table, with linear probing, that is never modified once published and is
+   * always less than half full.
+   */
+  private static volatile Registration[] registrations = new Registration[MIN_CAPACITY];
+
+  /**
+   * Registers a user class loader. Requires the {@code registerUserClassLoader} runtime
+   * permission.
+   *
+   * @param loader the user class loader
+   * @param info what is known about the loader, replacing anything registered for it before
+   */
+  public static void register(ClassLoader loader, UserClassLoaderInfo info) {
+    if (loader == null) {
+      throw new NullPointerException("loader:null");
+    } else if (info == null) {
+      throw new NullPointerException("info:null");
+    }
+
+    SecurityManager securityManager = System.getSecurityManager();
+    if (securityManager != null) {
+      securityManager.checkPermission(registerUserClassLoaderPermission);
+    }
+
+    synchronized (lock) {
+      List<Registration> live = new ArrayList<>();
+      for (Registration registration : registrations) {
+        if (registration != null) {
+          ClassLoader registered = registration.get();
+          if (registered != null && registered != loader) {
+            live.add(registration);
+          }
+        }
+      }
+      live.add(new Registration(loader, info));
+
+      int capacity = MIN_CAPACITY;
+      while (capacity < live.size() * 2 + 1) {
+        capacity *= 2;
+      }
+
+      Registration[] table = new Registration[capacity];
+      for (Registration registration : live) {
+        int i = registration.hash & (capacity - 1);
+        while (table[i] != null) {
+          i = (i + 1) & (capacity - 1);
+        }
+        table[i] = registration;
+      }
+
+      registrations = table;
+    }
+  }
+
+  /**
+   * Returns what was registered for the loader, or null if it is not a registered user class
+   * loader.
+   */
+  public static UserClassLoaderInfo getInfo(ClassLoader loader) {
+    if (loader == null) {
+      return null;
+    }
+
+    Registration[] table = registrations;
+    int mask = table.length - 1;
+    for (int i = hash(loader) & mask; ; i = (i + 1) & mask) {
+      Registration registration = table[i];
+      if (registration == null) {
+        return null;
+      } else if (registration.get() == loader) {
+        return registration.info;
+      }
+    }
+  }
 
   /**
-   * Returns true if loader is a {@code UserClassLoader}, false otherwise.
+   * Returns true if loader is a registered {@code UserClassLoader}, false otherwise.
    */
   public static boolean isUserClassLoader(ClassLoader loader) {
-    return loader.getClass().getName().equals(USER_CLASS_LOADER_CLASS_NAME);
+    return getInfo(loader) != null;
+  }
+
+  private static int hash(ClassLoader loader) {
+    int h = System.identityHashCode(loader);
+    return h ^ (h >>> 16);
+  }
+
+  private static final class Registration extends WeakReference<ClassLoader> {
+    private final int hash;
+    private final UserClassLoaderInfo info;
+
+    private Registration(ClassLoader loader, UserClassLoaderInfo info) {
+      super(loader);
+      this.hash = hash(loader);
+      this.info = info;
+    }
   }
 }
@@ -0,0 +1,59 @@
+package com.leacox.sandbox.security.accounting;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The heap allocations charged to a single run of user code, along with its allocation budget.
+ *
+ * <p>Allocations are first counted in thread-local counters by the {@link AllocationRecorder} and
+ * merged into the account periodically, so the allocated bytes seen from other threads can lag
+ * behind the bytes actually allocated by up to the recorder's flush threshold.
+ *
+ * @author John Leacox
+ */
+public final class AllocationAccount {
+  private final long budgetBytes;
+  private final AtomicLong allocatedBytes = new AtomicLong();
+  private volatile boolean exceeded = false;
+
+  /**
+   * Creates a new instance of {@code AllocationAccount}.
+   *
+   * @param budgetBytes the number of bytes that may be allocated before the budget is exceeded
+   * @throws IllegalArgumentException if the budget is negative
+   */
+  public AllocationAccount(long budgetBytes) {
+    if (budgetBytes < 0) {
+      throw new IllegalArgumentException("budgetBytes:Must not be negative");
+    }
+
+    this.budgetBytes = budgetBytes;
+  }
+
+  /**
+   * Returns the number of bytes that may be allocated before the budget is exceeded.
+   */
+  public long getBudgetBytes() {
+    return budgetBytes;
+  }
+
+  /**
+   * Returns the number of bytes charged to this account so far.
+   */
+  public long getAllocatedBytes() {
+    return allocatedBytes.get();
+  }
+
+  /**
+   * Returns {@code true} if more bytes than the budget have been charged to this account.
+   */
+  public boolean isExceeded() {
+    return exceeded;
+  }
+
+  void charge(long bytes) {
+    if (allocatedBytes.addAndGet(bytes) > budgetBytes) {
+      exceeded = true;
+    }
+  }
+}
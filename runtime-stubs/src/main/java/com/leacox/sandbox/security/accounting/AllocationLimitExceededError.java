@@ -0,0 +1,20 @@
+package com.leacox.sandbox.security.accounting;
+
+/**
+ * Thrown to user code when it allocates after exceeding the budget of its
+ * {@link AllocationAccount}.
+ *
+ * <p>User code can catch this error, but every further allocation it makes throws it again.
+ *
+ * @author John Leacox
+ */
+public class AllocationLimitExceededError extends Error {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Creates a new instance of {@code AllocationLimitExceededError}.
+   */
+  public AllocationLimitExceededError(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,237 @@
+package com.leacox.sandbox.security.accounting;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Array;
+import java.security.Permission;
+
+/**
+ * Records heap allocations made by instrumented user code and charges them to the
+ * {@link AllocationAccount} bound to the current thread.
+ *
+ * <p>The {@code record...} methods are called from the bytecode of user classes for every object
+ * and array they allocate. Allocations are counted in a thread-local counter and merged into the
+ * account once the counter passes a flush threshold, so the common path is a thread-local lookup
+ * and an addition. Allocations on threads without a bound account are ignored.
+ *
+ * <p>Object sizes are measured with {@link Instrumentation#getObjectSize(Object)} the first time
+ * an instance of a class is recorded and cached per class after that. Array sizes are computed from
+ * the length and element size. Until {@link #install(Instrumentation)} is called a fixed estimate
+ * is used for objects.
+ *
+ * <p>These methods are public so that instrumented code in any class loader can call them. Calling
+ * them directly can only ever increase the allocations charged to the caller.
+ *
+ * @author John Leacox
+ */
+public final class AllocationRecorder {
+  private AllocationRecorder() {}
+
+  private static final Permission INSTALL_PERMISSION =
+      new RuntimePermission("installAllocationRecorder");
+  private static final Permission BIND_PERMISSION =
+      new RuntimePermission("bindAllocationAccount");
+
+  private static final long FLUSH_THRESHOLD_BYTES = 64 * 1024;
+  private static final long DEFAULT_OBJECT_SIZE = 16;
+
+  private static final ThreadLocal<ThreadCounter> counters =
+      ThreadLocal.withInitial(ThreadCounter::new);
+  private static final ClassValue<InstanceSize> instanceSizes = new ClassValue<InstanceSize>() {
+    @Override
+    protected InstanceSize computeValue(Class<?> type) {
+      return new InstanceSize();
+    }
+  };
+
+  private static volatile Instrumentation instrumentation;
+  private static volatile int arrayHeaderSize = 16;
+  private static volatile int referenceSize = 4;
+
+  /**
+   * Installs the instrumentation used to measure object sizes.
+   *
+   * @throws SecurityException if the caller does not have permission to install the recorder
+   */
+  public static void install(Instrumentation instrumentation) {
+    checkPermission(INSTALL_PERMISSION);
+
+    // Object[8] is large enough that alignment padding cannot hide the size of a reference
+    long emptyArraySize = instrumentation.getObjectSize(new Object[0]);
+    referenceSize = (int) ((instrumentation.getObjectSize(new Object[8]) - emptyArraySize) / 8);
+    arrayHeaderSize = (int) instrumentation.getObjectSize(new byte[0]);
+    AllocationRecorder.instrumentation = instrumentation;
+  }
+
+  /**
+   * Binds the account to the current thread so that allocations made on the thread are charged to
+   * it.
+   *
+   * @throws SecurityException if the caller does not have permission to bind accounts
+   */
+  public static void bind(AllocationAccount account) {
+    if (account == null) {
+      throw new NullPointerException("account:null");
+    }
+    checkPermission(BIND_PERMISSION);
+
+    ThreadCounter counter = counters.get();
+    counter.account = account;
+    counter.pending = 0;
+  }
+
+  /**
+   * Charges any pending allocations of the current thread to its account and unbinds the account
+   * from the thread.
+   *
+   * @return the account that was bound, or null if there was none
+   * @throws SecurityException if the caller does not have permission to bind accounts
+   */
+  public static AllocationAccount unbind() {
+    checkPermission(BIND_PERMISSION);
+
+    ThreadCounter counter = counters.get();
+    AllocationAccount account = counter.account;
+    if (account != null) {
+      account.charge(counter.pending);
+    }
+
+    counter.account = null;
+    counter.pending = 0;
+    return account;
+  }
+
+  /**
+   * Records the allocation of a newly constructed object.
+   */
+  public static void recordObject(Object object) {
+    if (object == null) {
+      return;
+    }
+
+    InstanceSize instanceSize = instanceSizes.get(object.getClass());
+    long size = instanceSize.bytes;
+    if (size == 0) {
+      Instrumentation currentInstrumentation = instrumentation;
+      if (currentInstrumentation == null) {
+        size = DEFAULT_OBJECT_SIZE;
+      } else {
+        size = currentInstrumentation.getObjectSize(object);
+        instanceSize.bytes = size;
+      }
+    }
+
+    record(size);
+  }
+
+  /**
+   * Records the allocation of a primitive array.
+   *
+   * @param length the length of the array
+   * @param elementSize the size of each element in bytes
+   */
+  public static void recordArray(int length, int elementSize) {
+    if (length < 0 || elementSize < 1 || elementSize > 8) {
+      return;
+    }
+
+    record(arraySize(length, elementSize));
+  }
+
+  /**
+   * Records the allocation of an array of references.
+   *
+   * @param length the length of the array
+   */
+  public static void recordReferenceArray(int length) {
+    if (length < 0) {
+      return;
+    }
+
+    record(arraySize(length, referenceSize));
+  }
+
+  /**
+   * Records the allocation of a multi-dimensional array and all of the arrays nested in it.
+   */
+  public static void recordMultiArray(Object array) {
+    if (array == null) {
+      return;
+    }
+
+    record(deepArraySize(array));
+  }
+
+  private static long deepArraySize(Object array) {
+    Class<?> componentType = array.getClass().getComponentType();
+    int length = Array.getLength(array);
+    if (componentType.isPrimitive()) {
+      return arraySize(length, primitiveSize(componentType));
+    }
+
+    long size = arraySize(length, referenceSize);
+    if (componentType.isArray()) {
+      for (int i = 0; i < length; i++) {
+        Object element = Array.get(array, i);
+        if (element != null) {
+          size += deepArraySize(element);
+        }
+      }
+    }
+
+    return size;
+  }
+
+  private static int primitiveSize(Class<?> type) {
+    if (type == long.class || type == double.class) {
+      return 8;
+    } else if (type == int.class || type == float.class) {
+      return 4;
+    } else if (type == short.class || type == char.class) {
+      return 2;
+    }
+
+    return 1;
+  }
+
+  private static long arraySize(int length, int elementSize) {
+    // Objects are 8 byte aligned
+    return (arrayHeaderSize + (long) length * elementSize + 7) & ~7L;
+  }
+
+  private static void record(long bytes) {
+    ThreadCounter counter = counters.get();
+    AllocationAccount account = counter.account;
+    if (account == null) {
+      return;
+    }
+
+    long pending = counter.pending + bytes;
+    if (pending < FLUSH_THRESHOLD_BYTES && !account.isExceeded()) {
+      counter.pending = pending;
+      return;
+    }
+
+    counter.pending = 0;
+    account.charge(pending);
+    if (account.isExceeded()) {
+      throw new AllocationLimitExceededError(
+          "Allocation budget of " + account.getBudgetBytes() + " bytes exceeded");
+    }
+  }
+
+  private static void checkPermission(Permission permission) {
+    SecurityManager sm = System.getSecurityManager();
+    if (sm != null) {
+      sm.checkPermission(permission);
+    }
+  }
+
+  private static final class ThreadCounter {
+    private AllocationAccount account;
+    private long pending;
+  }
+
+  private static final class InstanceSize {
+    private volatile long bytes;
+  }
+}
@@ -61,7 +61,7 @@ public class UserSetAccessiblePermission extends Permission {
 
   @Override
   public int hashCode() {
-    return Objects.hash(loader);
+    return Objects.hashCode(loader);
   }
 
   @Override
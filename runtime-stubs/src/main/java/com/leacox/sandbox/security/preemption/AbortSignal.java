@@ -0,0 +1,112 @@
+package com.leacox.sandbox.security.preemption;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A request to abort a single run of user code, observed by the {@link Checkpoint}s compiled into
+ * the user's classes.
+ *
+ * <p>A signal is bound to the thread running the user code with {@link Checkpoint#bind}. Once it is
+ * aborted, the next checkpoint reached on that thread throws an {@link ExecutionAbortedError}, and
+ * so does every checkpoint after that, so user code that catches the error cannot keep running for
+ * long. Closing the signal, which {@link Checkpoint#unbind} does, makes any later abort a no-op.
+ *
+ * <p>Anyone can create and abort a signal, but an aborted signal only slows the checkpoints down
+ * while it is bound, which requires permission. A signal aborted before it is bound is counted when
+ * it is bound.
+ *
+ * @author John Leacox
+ */
+public final class AbortSignal {
+  private static final int UNBOUND = 0;
+  private static final int ABORTED_UNBOUND = 1;
+  private static final int BOUND = 2;
+  private static final int ABORTED = 3;
+  private static final int CLOSED = 4;
+
+  private final AtomicInteger state = new AtomicInteger(UNBOUND);
+  private final AtomicReference<String> reason = new AtomicReference<>();
+
+  /**
+   * Creates a new instance of {@code AbortSignal}.
+   */
+  public AbortSignal() {}
+
+  /**
+   * Aborts the run of user code this signal is bound to.
+   *
+   * @param reason why the run was aborted, used as the message of the thrown error
+   * @return {@code true} if this call aborted the run, {@code false} if it was already aborted or
+   *     the signal has been closed
+   */
+  public boolean abort(String reason) {
+    if (reason == null) {
+      throw new NullPointerException("reason:null");
+    }
+
+    // The first reason wins, and is published before the signal is seen as aborted
+    if (!this.reason.compareAndSet(null, reason)) {
+      return false;
+    }
+
+    while (true) {
+      int current = state.get();
+      if (current == UNBOUND) {
+        if (state.compareAndSet(UNBOUND, ABORTED_UNBOUND)) {
+          return true;
+        }
+      } else if (current == BOUND) {
+        if (state.compareAndSet(BOUND, ABORTED)) {
+          Checkpoint.abortRequested();
+          return true;
+        }
+      } else {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Returns {@code true} if the run of user code this signal is bound to has been aborted.
+   */
+  public boolean isAborted() {
+    int current = state.get();
+    return current == ABORTED || current == ABORTED_UNBOUND;
+  }
+
+  /**
+   * Returns why the run was aborted, or {@code null} if it has not been.
+   */
+  public String getReason() {
+    return isAborted() ? reason.get() : null;
+  }
+
+  /**
+   * Marks the signal as bound, counting it as an outstanding abort if it was aborted before.
+   * Called by {@link Checkpoint#bind} once the caller's permission has been checked.
+   */
+  void bound() {
+    while (true) {
+      int current = state.get();
+      if (current == UNBOUND) {
+        if (state.compareAndSet(UNBOUND, BOUND)) {
+          return;
+        }
+      } else if (current == ABORTED_UNBOUND) {
+        if (state.compareAndSet(ABORTED_UNBOUND, ABORTED)) {
+          Checkpoint.abortRequested();
+          return;
+        }
+      } else {
+        return;
+      }
+    }
+  }
+
+  void close() {
+    if (state.getAndSet(CLOSED) == ABORTED) {
+      Checkpoint.abortCleared();
+    }
+  }
+}
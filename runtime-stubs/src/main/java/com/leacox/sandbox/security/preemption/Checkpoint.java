@@ -0,0 +1,93 @@
+package com.leacox.sandbox.security.preemption;
+
+import java.security.Permission;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The preemption checks that are compiled into user classes at every method entry and loop
+ * back-edge.
+ *
+ * <p>{@link #check()} runs in the hottest paths of user code, so its common path is a single read
+ * of a shared counter of outstanding aborts. Only while some run has been aborted does it look up
+ * the {@link AbortSignal} bound to the current thread, and it only throws if that signal is the one
+ * that was aborted.
+ *
+ * <p>{@code check} is public so that instrumented code in any class loader can call it. Calling it
+ * directly can only ever stop the caller sooner.
+ *
+ * @author John Leacox
+ */
+public final class Checkpoint {
+  private Checkpoint() {}
+
+  private static final Permission BIND_PERMISSION = new RuntimePermission("bindAbortSignal");
+
+  private static final AtomicInteger outstandingAborts = new AtomicInteger();
+  private static final ThreadLocal<AbortSignal> signals = new ThreadLocal<>();
+
+  /**
+   * Throws an {@link ExecutionAbortedError} if the signal bound to the current thread has been
+   * aborted.
+   */
+  public static void check() {
+    if (outstandingAborts.get() != 0) {
+      checkSignal();
+    }
+  }
+
+  private static void checkSignal() {
+    AbortSignal signal = signals.get();
+    if (signal != null && signal.isAborted()) {
+      throw new ExecutionAbortedError(signal.getReason());
+    }
+  }
+
+  /**
+   * Binds the signal to the current thread so that the checkpoints reached on the thread observe
+   * it.
+   *
+   * @throws SecurityException if the caller does not have permission to bind signals
+   */
+  public static void bind(AbortSignal signal) {
+    if (signal == null) {
+      throw new NullPointerException("signal:null");
+    }
+    checkPermission();
+
+    signal.bound();
+    signals.set(signal);
+  }
+
+  /**
+   * Unbinds and closes the signal bound to the current thread.
+   *
+   * @return the signal that was bound, or null if there was none
+   * @throws SecurityException if the caller does not have permission to bind signals
+   */
+  public static AbortSignal unbind() {
+    checkPermission();
+
+    AbortSignal signal = signals.get();
+    signals.remove();
+    if (signal != null) {
+      signal.close();
+    }
+
+    return signal;
+  }
+
+  static void abortRequested() {
+    outstandingAborts.incrementAndGet();
+  }
+
+  static void abortCleared() {
+    outstandingAborts.decrementAndGet();
+  }
+
+  private static void checkPermission() {
+    SecurityManager sm = System.getSecurityManager();
+    if (sm != null) {
+      sm.checkPermission(BIND_PERMISSION);
+    }
+  }
+}
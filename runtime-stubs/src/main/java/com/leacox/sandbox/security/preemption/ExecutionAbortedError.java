@@ -0,0 +1,19 @@
+package com.leacox.sandbox.security.preemption;
+
+/**
+ * Thrown to user code from a {@link Checkpoint} once its {@link AbortSignal} has been aborted.
+ *
+ * <p>User code can catch this error, but every further checkpoint it reaches throws it again.
+ *
+ * @author John Leacox
+ */
+public class ExecutionAbortedError extends Error {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Creates a new instance of {@code ExecutionAbortedError}.
+   */
+  public ExecutionAbortedError(String message) {
+    super(message);
+  }
+}
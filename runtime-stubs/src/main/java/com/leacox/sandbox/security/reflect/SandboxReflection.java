@@ -0,0 +1,233 @@
+package com.leacox.sandbox.security.reflect;
+
+import com.leacox.sandbox.security.UserClassLoaders;
+import com.leacox.sandbox.security.permission.UserSetAccessiblePermission;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Method handles for members of user classes, for user code that reflects on its own classes
+ * over and over.
+ *
+ * <p>Reflecting on a private member of a class of the same user class loader means calling the
+ * intercepted {@code setAccessible}, which checks the loader's {@link UserSetAccessiblePermission}
+ * against the whole stack, and then invoking the member reflectively. The methods of this class
+ * check the same permission the first time a member is asked for, and cache a method handle for it
+ * that later requests of code from the same loader get without any security check. A method handle
+ * is invoked at close to the speed of a direct call once the JIT compiles the caller, so the
+ * handle should be kept and reused rather than asked for on every call.
+ *
+ * <p>The caller identifies itself with its own {@link MethodHandles#lookup() lookup}, which only
+ * the caller's class can create. Members of classes that are not from the caller's user class
+ * loader are not cached, and are unreflected with the caller's lookup, so only the normal Java
+ * access rules apply to them.
+ *
+ * <p>The handles of a class are cached on the class itself, so they are reclaimed together with
+ * the class and its loader.
+ *
+ * @author John Leacox
+ */
+public final class SandboxReflection {
+  private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+  private static final ClassValue<MemberHandles> memberHandles = new ClassValue<MemberHandles>() {
+    @Override
+    protected MemberHandles computeValue(Class<?> type) {
+      return new MemberHandles();
+    }
+  };
+
+  private SandboxReflection() {
+  }
+
+  /**
+   * Returns a method handle for the method, as {@link MethodHandles.Lookup#unreflect(Method)}.
+   *
+   * @param caller the lookup of the calling class, from {@link MethodHandles#lookup()}
+   * @param method the method
+   * @throws IllegalAccessException if the caller may not access the method
+   * @throws SecurityException if the caller's loader is denied access to its own members
+   */
+  public static MethodHandle unreflect(MethodHandles.Lookup caller, Method method)
+      throws IllegalAccessException {
+    if (!isSameUserLoader(caller, method)) {
+      return caller.unreflect(method);
+    }
+
+    Map<Member, MethodHandle> handles = memberHandles.get(method.getDeclaringClass()).methods;
+    MethodHandle handle = handles.get(method);
+    if (handle == null) {
+      Method accessible = accessibleCopy(method, () -> {
+        for (Method declared : method.getDeclaringClass().getDeclaredMethods()) {
+          if (declared.equals(method)) {
+            return declared;
+          }
+        }
+        throw new NoSuchMethodException(method.toString());
+      });
+      handle = cache(handles, method, lookup.unreflect(accessible));
+    }
+
+    return handle;
+  }
+
+  /**
+   * Returns a method handle for the constructor, as
+   * {@link MethodHandles.Lookup#unreflectConstructor(Constructor)}.
+   *
+   * @param caller the lookup of the calling class, from {@link MethodHandles#lookup()}
+   * @param constructor the constructor
+   * @throws IllegalAccessException if the caller may not access the constructor
+   * @throws SecurityException if the caller's loader is denied access to its own members
+   */
+  public static MethodHandle unreflectConstructor(
+      MethodHandles.Lookup caller, Constructor<?> constructor) throws IllegalAccessException {
+    if (!isSameUserLoader(caller, constructor)) {
+      return caller.unreflectConstructor(constructor);
+    }
+
+    Map<Member, MethodHandle> handles =
+        memberHandles.get(constructor.getDeclaringClass()).methods;
+    MethodHandle handle = handles.get(constructor);
+    if (handle == null) {
+      Constructor<?> accessible = accessibleCopy(constructor, () ->
+          constructor.getDeclaringClass().getDeclaredConstructor(constructor.getParameterTypes()));
+      handle = cache(handles, constructor, lookup.unreflectConstructor(accessible));
+    }
+
+    return handle;
+  }
+
+  /**
+   * Returns a method handle that reads the field, as
+   * {@link MethodHandles.Lookup#unreflectGetter(Field)}.
+   *
+   * @param caller the lookup of the calling class, from {@link MethodHandles#lookup()}
+   * @param field the field
+   * @throws IllegalAccessException if the caller may not access the field
+   * @throws SecurityException if the caller's loader is denied access to its own members
+   */
+  public static MethodHandle unreflectGetter(MethodHandles.Lookup caller, Field field)
+      throws IllegalAccessException {
+    if (!isSameUserLoader(caller, field)) {
+      return caller.unreflectGetter(field);
+    }
+
+    Map<Member, MethodHandle> handles = memberHandles.get(field.getDeclaringClass()).getters;
+    MethodHandle handle = handles.get(field);
+    if (handle == null) {
+      handle = cache(handles, field, lookup.unreflectGetter(accessibleCopy(field)));
+    }
+
+    return handle;
+  }
+
+  /**
+   * Returns a method handle that writes the field, as
+   * {@link MethodHandles.Lookup#unreflectSetter(Field)}. Final fields cannot be written.
+   *
+   * @param caller the lookup of the calling class, from {@link MethodHandles#lookup()}
+   * @param field the field
+   * @throws IllegalAccessException if the caller may not access the field, or it is final
+   * @throws SecurityException if the caller's loader is denied access to its own members
+   */
+  public static MethodHandle unreflectSetter(MethodHandles.Lookup caller, Field field)
+      throws IllegalAccessException {
+    if (!isSameUserLoader(caller, field)) {
+      return caller.unreflectSetter(field);
+    }
+
+    Map<Member, MethodHandle> handles = memberHandles.get(field.getDeclaringClass()).setters;
+    MethodHandle handle = handles.get(field);
+    if (handle == null) {
+      // Lookups only write final fields that were made accessible, which this never allows
+      if (Modifier.isFinal(field.getModifiers())) {
+        throw new IllegalAccessException("Final field cannot be written: " + field);
+      }
+      handle = cache(handles, field, lookup.unreflectSetter(accessibleCopy(field)));
+    }
+
+    return handle;
+  }
+
+  /**
+   * Returns true if the caller is a class of the user class loader that loaded the member. The
+   * caller's lookup must have private access, which only the lookup class itself can create, so
+   * it cannot stand in for a class of another loader.
+   */
+  private static boolean isSameUserLoader(MethodHandles.Lookup caller, Member member) {
+    if (caller == null) {
+      throw new NullPointerException("caller:null");
+    } else if (member == null) {
+      throw new NullPointerException("member:null");
+    } else if ((caller.lookupModes() & MethodHandles.Lookup.PRIVATE) == 0) {
+      return false;
+    }
+
+    ClassLoader loader = loaderOf(member.getDeclaringClass());
+    return loader != null && loader == loaderOf(caller.lookupClass())
+        && UserClassLoaders.isUserClassLoader(loader);
+  }
+
+  private static ClassLoader loaderOf(Class<?> type) {
+    return AccessController.doPrivileged((PrivilegedAction<ClassLoader>) type::getClassLoader);
+  }
+
+  private static Field accessibleCopy(Field field) {
+    return accessibleCopy(field, () -> field.getDeclaringClass().getDeclaredField(field.getName()));
+  }
+
+  /**
+   * Checks that the code on the stack may make the members of the member's loader accessible,
+   * and returns an accessible copy of the member, so that the caller's own reflection object is
+   * left as it was.
+   */
+  private static <T extends AccessibleObject & Member> T accessibleCopy(
+      T member, PrivilegedExceptionAction<T> copy) {
+    SecurityManager securityManager = System.getSecurityManager();
+    if (securityManager != null) {
+      securityManager.checkPermission(
+          new UserSetAccessiblePermission(loaderOf(member.getDeclaringClass())));
+    }
+
+    try {
+      return AccessController.doPrivileged((PrivilegedExceptionAction<T>) () -> {
+        T accessible = copy.run();
+        accessible.setAccessible(true);
+        return accessible;
+      });
+    } catch (PrivilegedActionException e) {
+      // The member was reflected from the class, so the class has it
+      throw new IllegalStateException(e.getException());
+    }
+  }
+
+  private static MethodHandle cache(
+      Map<Member, MethodHandle> handles, Member member, MethodHandle handle) {
+    MethodHandle cached = handles.putIfAbsent(member, handle);
+    return cached != null ? cached : handle;
+  }
+
+  /**
+   * The cached handles of the members of a class. Methods and constructors never equal each other,
+   * so they share a map.
+   */
+  private static final class MemberHandles {
+    private final Map<Member, MethodHandle> methods = new ConcurrentHashMap<>();
+    private final Map<Member, MethodHandle> getters = new ConcurrentHashMap<>();
+    private final Map<Member, MethodHandle> setters = new ConcurrentHashMap<>();
+  }
+}
@@ -5,14 +5,19 @@ import com.leacox.sandbox.security.permission.UserSetAccessiblePermission;
 
 import net.bytebuddy.implementation.bind.annotation.This;
 
+import java.lang.ref.WeakReference;
 import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Executable;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.lang.reflect.ReflectPermission;
 import java.security.AccessController;
 import java.security.Permission;
 import java.security.PrivilegedAction;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * A stub class for the {@link AccessibleObject} class.
@@ -27,6 +32,27 @@ public class AccessibleObjectStub {
   //private static final Logger logger = Logger.getLogger(AccessibleObjectStub.class.getName());
   private final static Permission STANDARD_ACCESS_PERMISSION = new ReflectPermission("suppressAccessChecks");
 
+  /**
+   * The permission to check for {@code setAccessible} on the members of each class. A class never
+   * changes loaders, so this is resolved once per class, keeping the hot path free of allocations
+   * and privileged actions.
+   */
+  private static final ClassValue<Permission> accessPermissions = new ClassValue<Permission>() {
+    @Override
+    protected Permission computeValue(Class<?> type) {
+      return computeAccessPermission(type);
+    }
+  };
+
+  /**
+   * Shares a single {@link UserSetAccessiblePermission} between all of the classes of a user class
+   * loader. The permission references its loader, so it is only weakly referenced here to let the
+   * loader be collected; the classes of the loader hold it strongly through
+   * {@code accessPermissions}.
+   */
+  private static final Map<ClassLoader, WeakReference<Permission>> userAccessPermissions =
+      new WeakHashMap<>();
+
   /**
    * A stub replacement method for {@link AccessibleObject#setAccessible(boolean)} that adds an
    * additional permission check for
@@ -48,56 +74,137 @@ public class AccessibleObjectStub {
       throws SecurityException {
     SecurityManager sm = System.getSecurityManager();
     if (sm != null) {
-      Permission permission = STANDARD_ACCESS_PERMISSION;
-      if (isFromUserLoader(ao)) {
-        try {
-          permission = getUserAccessPermission(ao);
-        } catch (Exception e) {
-          // Ignore. Use standard permission.
-          //logger.log(Level.INFO,
-          //    "Unable to create user permission. Fall back to standard permission.", e);
-        }
+      sm.checkPermission(getAccessPermission(ao));
+    }
+  }
+
+  /**
+   * A stub replacement method for
+   * {@link AccessibleObject#setAccessible(AccessibleObject[], boolean)} that checks the same
+   * permissions as {@link #setAccessible(AccessibleObject, boolean)} for each object in the array.
+   *
+   * <p>The objects of an array usually come from only one or a few classes, so each distinct
+   * permission is checked once for the whole array rather than once per object. The flags are only
+   * set once every check has passed, so a denied request leaves all of the objects unchanged.
+   *
+   * @param array the array of AccessibleObjects
+   * @param flag the new value for the {@code accessible} flag in each object
+   * @throws SecurityException if the request is denied
+   */
+  public static void setAccessible(AccessibleObject[] array, boolean flag)
+      throws SecurityException {
+    SecurityManager sm = System.getSecurityManager();
+    if (sm != null) {
+      checkPermissions(sm, array);
+    }
+
+    for (AccessibleObject ao : array) {
+      setAccessible0(ao, flag);
+    }
+  }
+
+  private static void checkPermissions(SecurityManager sm, AccessibleObject[] array) {
+    Permission[] checked = new Permission[Math.min(array.length, 4)];
+    int checkedCount = 0;
+    for (AccessibleObject ao : array) {
+      Permission permission = getAccessPermission(ao);
+      if (contains(checked, checkedCount, permission)) {
+        continue;
       }
 
       sm.checkPermission(permission);
+      if (checkedCount == checked.length) {
+        checked = Arrays.copyOf(checked, checked.length * 2);
+      }
+      checked[checkedCount++] = permission;
     }
   }
 
-  public static void setAccessible(AccessibleObject[] array, boolean flag) {
-    for (AccessibleObject ao : array) {
-      setAccessible(ao, flag);
+  private static boolean contains(Permission[] permissions, int count, Permission permission) {
+    // Permissions are shared per loader, so identity is enough to find the ones already checked
+    for (int i = 0; i < count; i++) {
+      if (permissions[i] == permission) {
+        return true;
+      }
     }
+
+    return false;
   }
 
-  private static Permission getUserAccessPermission(AccessibleObject ao)
-      throws IllegalAccessException, InvocationTargetException, InstantiationException,
-      NoSuchMethodException, ClassNotFoundException {
-    ClassLoader aoClassLoader = getAccessibleObjectLoader(ao);
-    return new UserSetAccessiblePermission(aoClassLoader);
+  private static void setAccessible0(AccessibleObject ao, boolean flag) {
+    try {
+      SetAccessible0.method.invoke(null, ao, flag);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    } catch (InvocationTargetException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  private static Permission getAccessPermission(AccessibleObject ao) {
+    if (ao instanceof Executable) {
+      return accessPermissions.get(((Executable) ao).getDeclaringClass());
+    } else if (ao instanceof Field) {
+      return accessPermissions.get(((Field) ao).getDeclaringClass());
+    }
+
+    throw new IllegalStateException("Unknown AccessibleObject type: " + ao.getClass());
   }
 
-  private static ClassLoader getAccessibleObjectLoader(AccessibleObject ao) {
-    return AccessController.doPrivileged(new PrivilegedAction<ClassLoader>() {
+  private static Permission computeAccessPermission(Class<?> declaringClass) {
+    ClassLoader loader = AccessController.doPrivileged(new PrivilegedAction<ClassLoader>() {
       @Override
       public ClassLoader run() {
-        if (ao instanceof Executable) {
-          return ((Executable) ao).getDeclaringClass().getClassLoader();
-        } else if (ao instanceof Field) {
-          return ((Field) ao).getDeclaringClass().getClassLoader();
-        }
-
-        throw new IllegalStateException("Unknown AccessibleObject type: " + ao.getClass());
+        return declaringClass.getClassLoader();
       }
     });
-  }
+    if (loader == null || !UserClassLoaders.isUserClassLoader(loader)) {
+      return STANDARD_ACCESS_PERMISSION;
+    }
 
-  private static boolean isFromUserLoader(AccessibleObject ao) {
-    ClassLoader loader = getAccessibleObjectLoader(ao);
+    synchronized (userAccessPermissions) {
+      WeakReference<Permission> reference = userAccessPermissions.get(loader);
+      Permission permission = reference == null ? null : reference.get();
+      if (permission == null) {
+        try {
+          permission = new UserSetAccessiblePermission(loader);
+        } catch (Exception e) {
+          // Ignore. Use standard permission.
+          return STANDARD_ACCESS_PERMISSION;
+        }
+        userAccessPermissions.put(loader, new WeakReference<>(permission));
+      }
 
-    if (loader == null) {
-      return false;
+      return permission;
     }
+  }
 
-    return UserClassLoaders.isUserClassLoader(loader);
+  /**
+   * Holds the private {@code AccessibleObject.setAccessible0} method, which sets the flag without
+   * any checks. It is looked up and made accessible with the stub's own privileges the first time
+   * an array is made accessible.
+   */
+  private static final class SetAccessible0 {
+    private static final Method method = AccessController.doPrivileged(
+        new PrivilegedAction<Method>() {
+          @Override
+          public Method run() {
+            try {
+              Method method = AccessibleObject.class.getDeclaredMethod(
+                  "setAccessible0", AccessibleObject.class, boolean.class);
+              method.setAccessible(true);
+              return method;
+            } catch (NoSuchMethodException e) {
+              throw new IllegalStateException(e);
+            }
+          }
+        });
   }
 }
@@ -0,0 +1,161 @@
+package com.leacox.sandbox.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author John Leacox
+ */
+public class UserClassLoadersTest {
+  private static final int COLLIDING_BITS = 10;
+
+  @Test
+  public void registeredLoaderIsUserClassLoader() {
+    ClassLoader loader = newLoader();
+    UserClassLoaderInfo info = new UserClassLoaderInfo("acme", "reports");
+
+    UserClassLoaders.register(loader, info);
+
+    assertTrue(UserClassLoaders.isUserClassLoader(loader));
+    assertSame(info, UserClassLoaders.getInfo(loader));
+  }
+
+  @Test
+  public void unregisteredLoaderIsNotUserClassLoader() {
+    assertFalse(UserClassLoaders.isUserClassLoader(newLoader()));
+    assertNull(UserClassLoaders.getInfo(newLoader()));
+    assertFalse(UserClassLoaders.isUserClassLoader(getClass().getClassLoader()));
+  }
+
+  @Test
+  public void nullLoaderIsNotUserClassLoader() {
+    assertFalse(UserClassLoaders.isUserClassLoader(null));
+    assertNull(UserClassLoaders.getInfo(null));
+  }
+
+  @Test
+  public void registeringAgainReplacesInfo() {
+    ClassLoader loader = newLoader();
+    UserClassLoaders.register(loader, new UserClassLoaderInfo("acme", "reports"));
+    UserClassLoaderInfo info = new UserClassLoaderInfo("acme", "none");
+
+    UserClassLoaders.register(loader, info);
+
+    assertSame(info, UserClassLoaders.getInfo(loader));
+  }
+
+  @Test
+  public void findsEveryLoaderAsTableGrows() {
+    List<ClassLoader> loaders = new ArrayList<>();
+    List<UserClassLoaderInfo> infos = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      ClassLoader loader = newLoader();
+      UserClassLoaderInfo info = new UserClassLoaderInfo("tenant-" + i, "none");
+      UserClassLoaders.register(loader, info);
+      loaders.add(loader);
+      infos.add(info);
+    }
+
+    for (int i = 0; i < loaders.size(); i++) {
+      assertSame(infos.get(i), UserClassLoaders.getInfo(loaders.get(i)));
+    }
+    assertNull(UserClassLoaders.getInfo(newLoader()));
+  }
+
+  @Test
+  public void findsLoadersThatCollide() {
+    List<ClassLoader> loaders = collidingLoaders(4);
+    for (int i = 0; i < loaders.size(); i++) {
+      UserClassLoaders.register(loaders.get(i), new UserClassLoaderInfo("tenant-" + i, "none"));
+    }
+
+    for (int i = 0; i < loaders.size(); i++) {
+      assertEquals("tenant-" + i, UserClassLoaders.getInfo(loaders.get(i)).getTenantId());
+    }
+  }
+
+  @Test
+  public void probesPastReclaimedLoaders() throws InterruptedException {
+    List<ClassLoader> loaders = collidingLoaders(5);
+    ClassLoader survivor = loaders.remove(loaders.size() - 1);
+    ClassLoader unregistered = loaders.remove(loaders.size() - 1);
+    List<WeakReference<ClassLoader>> reclaimed = new ArrayList<>();
+    for (ClassLoader loader : loaders) {
+      UserClassLoaders.register(loader, new UserClassLoaderInfo("reclaimed", "none"));
+      reclaimed.add(new WeakReference<>(loader));
+    }
+    UserClassLoaderInfo info = new UserClassLoaderInfo("survivor", "none");
+    UserClassLoaders.register(survivor, info);
+    loaders.clear();
+
+    awaitReclaimed(reclaimed);
+
+    // The reclaimed registrations stay in the table until the next registration
+    assertSame(info, UserClassLoaders.getInfo(survivor));
+    assertNull(UserClassLoaders.getInfo(unregistered));
+
+    UserClassLoaders.register(unregistered, new UserClassLoaderInfo("late", "none"));
+
+    assertSame(info, UserClassLoaders.getInfo(survivor));
+    assertEquals("late", UserClassLoaders.getInfo(unregistered).getTenantId());
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void registerFailsOnNullLoader() {
+    UserClassLoaders.register(null, new UserClassLoaderInfo("acme", "none"));
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void registerFailsOnNullInfo() {
+    UserClassLoaders.register(newLoader(), null);
+  }
+
+  private static ClassLoader newLoader() {
+    return new ClassLoader(null) {
+    };
+  }
+
+  /**
+   * Returns loaders whose hashes share their low bits, so that they probe the same run of slots in
+   * any table of up to {@code 2^COLLIDING_BITS} slots.
+   */
+  private static List<ClassLoader> collidingLoaders(int count) {
+    int mask = (1 << COLLIDING_BITS) - 1;
+    List<List<ClassLoader>> buckets = new ArrayList<>();
+    for (int i = 0; i <= mask; i++) {
+      buckets.add(new ArrayList<ClassLoader>());
+    }
+
+    while (true) {
+      ClassLoader loader = newLoader();
+      int h = System.identityHashCode(loader);
+      List<ClassLoader> bucket = buckets.get((h ^ (h >>> 16)) & mask);
+      bucket.add(loader);
+      if (bucket.size() == count) {
+        return bucket;
+      }
+    }
+  }
+
+  private static void awaitReclaimed(List<WeakReference<ClassLoader>> references)
+      throws InterruptedException {
+    for (WeakReference<ClassLoader> reference : references) {
+      for (int attempt = 0; reference.get() != null; attempt++) {
+        if (attempt == 100) {
+          throw new AssertionError("Loader was not reclaimed");
+        }
+        System.gc();
+        Thread.sleep(10);
+      }
+    }
+  }
+}
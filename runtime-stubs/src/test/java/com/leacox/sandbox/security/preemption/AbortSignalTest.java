@@ -0,0 +1,102 @@
+package com.leacox.sandbox.security.preemption;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author John Leacox
+ */
+public class AbortSignalTest {
+  @After
+  public void unbind() {
+    Checkpoint.unbind();
+  }
+
+  @Test
+  public void checkPassesWhileSignalIsNotAborted() {
+    Checkpoint.bind(new AbortSignal());
+
+    Checkpoint.check();
+  }
+
+  @Test
+  public void checkThrowsOnceBoundSignalIsAborted() {
+    AbortSignal signal = new AbortSignal();
+    Checkpoint.bind(signal);
+
+    assertTrue(signal.abort("timed out"));
+
+    assertCheckThrows("timed out");
+    assertCheckThrows("timed out");
+  }
+
+  @Test
+  public void checkThrowsWhenSignalIsAbortedBeforeItIsBound() {
+    AbortSignal signal = new AbortSignal();
+    assertTrue(signal.abort("timed out"));
+
+    Checkpoint.bind(signal);
+
+    assertCheckThrows("timed out");
+  }
+
+  @Test
+  public void abortingUnboundSignalDoesNotAffectBoundSignal() {
+    AbortSignal signal = new AbortSignal();
+    Checkpoint.bind(signal);
+    assertTrue(new AbortSignal().abort("not bound"));
+
+    Checkpoint.check();
+  }
+
+  @Test
+  public void firstReasonWins() {
+    AbortSignal signal = new AbortSignal();
+
+    assertTrue(signal.abort("first"));
+    assertFalse(signal.abort("second"));
+
+    assertTrue(signal.isAborted());
+    assertEquals("first", signal.getReason());
+  }
+
+  @Test
+  public void unbindClosesSignal() {
+    AbortSignal signal = new AbortSignal();
+    Checkpoint.bind(signal);
+    signal.abort("timed out");
+
+    assertSame(signal, Checkpoint.unbind());
+
+    assertFalse(signal.isAborted());
+    assertNull(signal.getReason());
+    assertFalse(signal.abort("again"));
+    Checkpoint.check();
+  }
+
+  @Test
+  public void unbindReturnsNullWhenNothingIsBound() {
+    assertNull(Checkpoint.unbind());
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void abortFailsOnNullReason() {
+    new AbortSignal().abort(null);
+  }
+
+  private static void assertCheckThrows(String reason) {
+    try {
+      Checkpoint.check();
+      fail("Expected ExecutionAbortedError");
+    } catch (ExecutionAbortedError e) {
+      assertEquals(reason, e.getMessage());
+    }
+  }
+}
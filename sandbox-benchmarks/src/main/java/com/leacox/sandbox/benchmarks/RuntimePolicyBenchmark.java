@@ -0,0 +1,80 @@
+package com.leacox.sandbox.benchmarks;
+
+import com.leacox.sandbox.security.RuntimePolicy;
+import com.leacox.sandbox.security.UserClassLoader;
+import com.leacox.sandbox.security.audit.SecurityAuditor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.security.Permission;
+import java.security.ProtectionDomain;
+import java.util.PropertyPermission;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link RuntimePolicy#implies(ProtectionDomain, Permission)} for the protection domain
+ * of a user class loader and for a domain of runtime code.
+ *
+ * <p>The policy is not installed and no security manager is used, so only the policy's own decision
+ * is measured. Auditing is disabled so the numbers do not depend on the logging configuration.
+ *
+ * @author John Leacox
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RuntimePolicyBenchmark {
+  private final Permission permission = new PropertyPermission("user.home", "read");
+
+  private RuntimePolicy policy;
+  private UserClassLoader userLoader;
+  private ProtectionDomain userDomain;
+  private ProtectionDomain runtimeDomain;
+
+  @Setup
+  public void setUp() throws IOException {
+    policy = new RuntimePolicy(SecurityAuditor.disabled());
+
+    URL userJar = UserJar.url();
+    CodeSource codeSource = new CodeSource(userJar, (CodeSigner[]) null);
+    userLoader = new UserClassLoader(userJar, new URLClassLoader(new URL[] {}, null));
+    userDomain = new ProtectionDomain(codeSource, null, userLoader, null);
+    runtimeDomain = new ProtectionDomain(
+        RuntimePolicyBenchmark.class.getProtectionDomain().getCodeSource(), null,
+        RuntimePolicyBenchmark.class.getClassLoader(), null);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    policy.discard(userLoader);
+    userLoader.close();
+  }
+
+  @Benchmark
+  public boolean userDomain() {
+    return policy.implies(userDomain, permission);
+  }
+
+  @Benchmark
+  public boolean runtimeDomain() {
+    return policy.implies(runtimeDomain, permission);
+  }
+}
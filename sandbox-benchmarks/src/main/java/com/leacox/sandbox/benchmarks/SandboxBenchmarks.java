@@ -0,0 +1,28 @@
+package com.leacox.sandbox.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The main method of the benchmarks jar.
+ *
+ * <p>Accepts the usual JMH command line options and always adds the GC profiler, so that every run
+ * reports the allocation rate per operation ({@code gc.alloc.rate.norm}) next to the timings.
+ *
+ * @author John Leacox
+ */
+public class SandboxBenchmarks {
+  public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+    Options options = new OptionsBuilder()
+        .parent(new CommandLineOptions(args))
+        .addProfiler(GCProfiler.class)
+        .build();
+
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,67 @@
+package com.leacox.sandbox.benchmarks;
+
+import com.leacox.sandbox.runtime.simple.SimpleRuntime;
+import com.leacox.sandbox.runtime.simple.SimpleRuntimeConfig;
+import com.leacox.sandbox.security.UserClassLoader;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * A started {@link SimpleRuntime} shared by the benchmarks of a forked JVM.
+ *
+ * <p>Starting the runtime installs the security manager, the policy and the bootstrap
+ * transformations for the rest of the JVM's life, so it is started at most once per fork. The
+ * runtime must be started before any stub classes are loaded from the classpath, so that they are
+ * resolved from the bootstrap class path like they are in the runtime.
+ *
+ * @author John Leacox
+ */
+final class SandboxFixture {
+  private static SandboxFixture instance;
+
+  private final ClassLoader commonLoader;
+  private final SimpleRuntime runtime;
+
+  private SandboxFixture(SimpleRuntimeConfig config) {
+    this.commonLoader = new URLClassLoader(new URL[] {}, null);
+    this.runtime = new SimpleRuntime(config);
+    runtime.start(commonLoader);
+  }
+
+  /**
+   * Returns the fixture, starting the runtime with the default configuration the first time this
+   * is called.
+   */
+  static SandboxFixture get() {
+    return get(SimpleRuntimeConfig.defaults());
+  }
+
+  /**
+   * Returns the fixture, starting the runtime with the configuration the first time this is
+   * called. The configuration is ignored once the runtime has been started.
+   */
+  static synchronized SandboxFixture get(SimpleRuntimeConfig config) {
+    if (instance == null) {
+      instance = new SandboxFixture(config);
+    }
+
+    return instance;
+  }
+
+  /**
+   * Returns the runtime.
+   */
+  SimpleRuntime getRuntime() {
+    return runtime;
+  }
+
+  /**
+   * Creates a new user class loader for the {@link UserJar}, with the same parent the runtime gives
+   * its user class loaders.
+   */
+  UserClassLoader newUserClassLoader() throws IOException {
+    return new UserClassLoader(UserJar.url(), commonLoader);
+  }
+}
@@ -0,0 +1,88 @@
+package com.leacox.sandbox.benchmarks;
+
+import com.leacox.sandbox.benchmarks.user.HandleInvokeProbe;
+import com.leacox.sandbox.benchmarks.user.ReflectiveInvokeProbe;
+import com.leacox.sandbox.benchmarks.user.SetAccessibleProbe;
+import com.leacox.sandbox.benchmarks.user.Target;
+import com.leacox.sandbox.security.UserClassLoader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the intercepted {@link java.lang.reflect.AccessibleObject#setAccessible(boolean)}
+ * with the runtime's security manager and policy installed.
+ *
+ * <p>In the same-loader case user code makes a member of its own class accessible and is checked
+ * for the {@code UserSetAccessiblePermission} of its loader. In the cross-loader case runtime code
+ * makes a member of a user class accessible.
+ *
+ * <p>The invoke cases call a private method of a user class from user code of the same loader,
+ * reflectively after making it accessible each time, and through the method handle cached by
+ * {@link com.leacox.sandbox.security.reflect.SandboxReflection}.
+ *
+ * @author John Leacox
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SetAccessibleBenchmark {
+  private UserClassLoader userLoader;
+  private Runnable sameLoaderProbe;
+  private Field crossLoaderField;
+  private Runnable reflectiveInvokeProbe;
+  private Runnable handleInvokeProbe;
+
+  @Setup
+  public void setUp() throws Exception {
+    userLoader = SandboxFixture.get().newUserClassLoader();
+    sameLoaderProbe =
+        (Runnable) userLoader.loadClass(SetAccessibleProbe.class.getName()).newInstance();
+    crossLoaderField = userLoader.loadClass(Target.class.getName()).getDeclaredField("value");
+    reflectiveInvokeProbe =
+        (Runnable) userLoader.loadClass(ReflectiveInvokeProbe.class.getName()).newInstance();
+    handleInvokeProbe =
+        (Runnable) userLoader.loadClass(HandleInvokeProbe.class.getName()).newInstance();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    userLoader.close();
+  }
+
+  @Benchmark
+  public void sameLoader() {
+    sameLoaderProbe.run();
+  }
+
+  @Benchmark
+  public void crossLoader() {
+    crossLoaderField.setAccessible(true);
+  }
+
+  @Benchmark
+  public void reflectiveInvoke() {
+    reflectiveInvokeProbe.run();
+  }
+
+  @Benchmark
+  public void cachedHandleInvoke() {
+    handleInvokeProbe.run();
+  }
+}
@@ -0,0 +1,57 @@
+package com.leacox.sandbox.benchmarks;
+
+import com.leacox.sandbox.benchmarks.user.TrivialRunner;
+import com.leacox.sandbox.runtime.simple.RunnerOptions;
+import com.leacox.sandbox.runtime.simple.RunnerResult;
+import com.leacox.sandbox.runtime.simple.SimpleRuntime;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the latency of a trivial runner from {@link SimpleRuntime#submit} until its result is
+ * complete, which covers creating the user class loader, loading and instrumenting the runner,
+ * queueing it on the sandbox executor and running it.
+ *
+ * @author John Leacox
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SimpleRuntimeBenchmark {
+  private static final String RUNNER_CLASS_NAME = TrivialRunner.class.getName();
+
+  private SimpleRuntime runtime;
+  private String jarPath;
+
+  @Setup
+  public void setUp() throws IOException {
+    runtime = SandboxFixture.get().getRuntime();
+    jarPath = UserJar.path().toString();
+  }
+
+  @Benchmark
+  public RunnerResult submitToCompletion() {
+    RunnerResult result =
+        runtime.submit(RUNNER_CLASS_NAME, jarPath, RunnerOptions.defaults()).join();
+    if (result.getStatus() != RunnerResult.Status.COMPLETED) {
+      throw new IllegalStateException("Runner did not complete: " + result);
+    }
+
+    return result;
+  }
+}
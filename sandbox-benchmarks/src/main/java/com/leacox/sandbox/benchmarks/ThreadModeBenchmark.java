@@ -0,0 +1,157 @@
+package com.leacox.sandbox.benchmarks;
+
+import com.leacox.sandbox.benchmarks.user.WaitingRunner;
+import com.leacox.sandbox.runtime.simple.RunnerOptions;
+import com.leacox.sandbox.runtime.simple.RunnerResult;
+import com.leacox.sandbox.runtime.simple.SandboxExecutor;
+import com.leacox.sandbox.runtime.simple.SimpleRuntime;
+import com.leacox.sandbox.runtime.simple.SimpleRuntimeConfig;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares running many waiting runners at once on the platform worker threads and on virtual
+ * threads of the {@link SimpleRuntime}.
+ *
+ * <p>Each invocation submits {@value #IN_FLIGHT} runners that each wait for 10 ms and then waits
+ * for all of their results, so the score is the number of runners completed per second. The runtime
+ * has as many worker threads as runners in flight and a warm pool as large, so neither thread mode
+ * queues runners or loads classes once warmed up.
+ *
+ * <p>While all of the runners are in flight the memory of the JVM is sampled, and the growth since
+ * the start of the iteration is reported per runner in flight as the {@code heapBytesPerRunner} and
+ * {@code rssBytesPerRunner} counters. The heap growth includes garbage, and the resident set size,
+ * which includes the stacks of platform threads, is only available on Linux.
+ *
+ * <p>The virtual thread mode requires Java 21 to 23, and a JVM that allows a security manager to
+ * be installed ({@code -Djava.security.manager=allow}). Java 24 and later cannot install one.
+ *
+ * @author John Leacox
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ThreadModeBenchmark {
+  private static final int IN_FLIGHT = 1000;
+  private static final String RUNNER_CLASS_NAME = WaitingRunner.class.getName();
+
+  @Param({"PLATFORM", "VIRTUAL"})
+  public SandboxExecutor.ThreadMode threadMode;
+
+  private SimpleRuntime runtime;
+  private String jarPath;
+
+  @Setup
+  public void setUp() throws Exception {
+    runtime = SandboxFixture.get(SimpleRuntimeConfig.builder()
+        .threadMode(threadMode)
+        .workerThreads(IN_FLIGHT)
+        .warmPoolSize(IN_FLIGHT)
+        .build()).getRuntime();
+    jarPath = UserJar.path().toString();
+    runtime.prewarm(RUNNER_CLASS_NAME, jarPath, RunnerOptions.defaults());
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(IN_FLIGHT)
+  public void runInFlight(MemoryCounters memory) {
+    List<CompletableFuture<RunnerResult>> results = new ArrayList<>(IN_FLIGHT);
+    for (int i = 0; i < IN_FLIGHT; i++) {
+      results.add(runtime.submit(RUNNER_CLASS_NAME, jarPath, RunnerOptions.defaults()));
+    }
+
+    memory.sample(IN_FLIGHT);
+
+    for (CompletableFuture<RunnerResult> result : results) {
+      if (result.join().getStatus() != RunnerResult.Status.COMPLETED) {
+        throw new IllegalStateException("Runner did not complete: " + result.join());
+      }
+    }
+  }
+
+  /**
+   * The memory used per runner in flight, averaged over the invocations of an iteration.
+   */
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class MemoryCounters {
+    private static final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+    private static final Path procStatus = Paths.get("/proc/self/status");
+
+    private long baselineHeapBytes;
+    private long baselineRssBytes;
+    private long heapBytes;
+    private long rssBytes;
+    private long samples;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+      System.gc();
+      baselineHeapBytes = memoryBean.getHeapMemoryUsage().getUsed();
+      baselineRssBytes = rssBytes();
+      heapBytes = 0;
+      rssBytes = 0;
+      samples = 0;
+    }
+
+    public long heapBytesPerRunner() {
+      return samples == 0 ? 0 : heapBytes / samples;
+    }
+
+    public long rssBytesPerRunner() {
+      return samples == 0 || baselineRssBytes < 0 ? 0 : rssBytes / samples;
+    }
+
+    private void sample(int runners) {
+      heapBytes += (memoryBean.getHeapMemoryUsage().getUsed() - baselineHeapBytes) / runners;
+      rssBytes += (rssBytes() - baselineRssBytes) / runners;
+      samples++;
+    }
+
+    /**
+     * Returns the resident set size of the JVM, or {@code -1} if it is not known.
+     */
+    private static long rssBytes() {
+      try {
+        for (String line : Files.readAllLines(procStatus, StandardCharsets.UTF_8)) {
+          if (line.startsWith("VmRSS:")) {
+            // For example "VmRSS:    123456 kB"
+            return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        // Not Linux
+      }
+
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package com.leacox.sandbox.benchmarks;
+
+import com.leacox.sandbox.benchmarks.user.TrivialRunner;
+import com.leacox.sandbox.security.JarContentCache;
+import com.leacox.sandbox.security.UserClassLoader;
+import com.leacox.sandbox.security.UserClassLoaders;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link UserClassLoader#loadClass(String)}, which checks every name against the
+ * loader's forbidden class rules before loading it.
+ *
+ * <p>The benchmarks cover a user class that was already loaded, a class delegated to the parent
+ * loader, a forbidden class, and defining a user class in a new loader from the shared
+ * {@link JarContentCache}. The last creates a loader for every invocation, so its numbers include
+ * some of the benchmark harness's own overhead.
+ *
+ * <p>Recognizing a user class loader, which the intercepted {@code setAccessible} does for the
+ * declaring class of each member, is benchmarked for a user loader and for another loader.
+ *
+ * @author John Leacox
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserClassLoaderBenchmark {
+  private static final String USER_CLASS_NAME = TrivialRunner.class.getName();
+  private static final String PARENT_CLASS_NAME = "java.util.ArrayList";
+  private static final String FORBIDDEN_CLASS_NAME = "java.lang.ClassLoader";
+
+  private final ClassLoader commonLoader = new URLClassLoader(new URL[] {}, null);
+  private final JarContentCache jarContentCache = new JarContentCache();
+
+  private UserClassLoader userLoader;
+
+  @Setup
+  public void setUp() throws Exception {
+    userLoader = new UserClassLoader(UserJar.url(), commonLoader, jarContentCache);
+    userLoader.loadClass(USER_CLASS_NAME);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    userLoader.close();
+    jarContentCache.clear();
+  }
+
+  @Benchmark
+  public Class<?> loadedUserClass() throws ClassNotFoundException {
+    return userLoader.loadClass(USER_CLASS_NAME);
+  }
+
+  @Benchmark
+  public Class<?> parentClass() throws ClassNotFoundException {
+    return userLoader.loadClass(PARENT_CLASS_NAME);
+  }
+
+  @Benchmark
+  public Object forbiddenClass() throws ClassNotFoundException {
+    try {
+      return userLoader.loadClass(FORBIDDEN_CLASS_NAME);
+    } catch (SecurityException e) {
+      return e;
+    }
+  }
+
+  @Benchmark
+  public boolean isUserClassLoader() {
+    return UserClassLoaders.isUserClassLoader(userLoader);
+  }
+
+  @Benchmark
+  public boolean isNotUserClassLoader() {
+    return UserClassLoaders.isUserClassLoader(commonLoader);
+  }
+
+  @Benchmark
+  public Class<?> defineUserClass(FreshLoader freshLoader) throws ClassNotFoundException {
+    return freshLoader.loader.loadClass(USER_CLASS_NAME);
+  }
+
+  /**
+   * A user class loader that has not loaded any classes yet.
+   */
+  @State(Scope.Thread)
+  public static class FreshLoader {
+    private UserClassLoader loader;
+
+    @Setup(Level.Invocation)
+    public void setUp(UserClassLoaderBenchmark benchmark) throws IOException {
+      loader = new UserClassLoader(
+          UserJar.url(), benchmark.commonLoader, benchmark.jarContentCache);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws IOException {
+      loader.close();
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package com.leacox.sandbox.benchmarks;
+
+import com.leacox.sandbox.benchmarks.user.HandleInvokeProbe;
+import com.leacox.sandbox.benchmarks.user.ReflectiveInvokeProbe;
+import com.leacox.sandbox.benchmarks.user.SetAccessibleProbe;
+import com.leacox.sandbox.benchmarks.user.Target;
+import com.leacox.sandbox.benchmarks.user.TrivialRunner;
+import com.leacox.sandbox.benchmarks.user.WaitingRunner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * A jar of the classes in the {@code user} package, written to a temporary file so that the
+ * benchmarks can load them through a {@link com.leacox.sandbox.security.UserClassLoader} the same
+ * way the runtime loads a user's jar.
+ *
+ * <p>The user class loaders of the benchmarks must not have the application class loader as a
+ * parent, otherwise the classes would be found on the classpath instead of in the jar.
+ *
+ * @author John Leacox
+ */
+final class UserJar {
+  private static final Class<?>[] userClasses = {
+      HandleInvokeProbe.class, ReflectiveInvokeProbe.class, SetAccessibleProbe.class, Target.class,
+      TrivialRunner.class, WaitingRunner.class
+  };
+
+  private static Path path;
+
+  private UserJar() {
+  }
+
+  /**
+   * Returns the path of the jar, writing it the first time this is called.
+   */
+  static synchronized Path path() throws IOException {
+    if (path == null) {
+      path = write();
+    }
+
+    return path;
+  }
+
+  /**
+   * Returns the URL of the jar, writing it the first time this is called.
+   */
+  static URL url() throws IOException {
+    return path().toUri().toURL();
+  }
+
+  private static Path write() throws IOException {
+    Path jar = Files.createTempFile("sandbox-benchmarks-user", ".jar");
+    jar.toFile().deleteOnExit();
+
+    try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+      for (Class<?> userClass : userClasses) {
+        String entryName = userClass.getName().replace('.', '/') + ".class";
+        out.putNextEntry(new JarEntry(entryName));
+        try (InputStream in = UserJar.class.getClassLoader().getResourceAsStream(entryName)) {
+          copy(in, out);
+        }
+        out.closeEntry();
+      }
+    }
+
+    return jar;
+  }
+
+  private static void copy(InputStream in, OutputStream out) throws IOException {
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+  }
+}
@@ -0,0 +1,37 @@
+package com.leacox.sandbox.benchmarks.user;
+
+import com.leacox.sandbox.security.reflect.SandboxReflection;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+
+/**
+ * Invokes a private method of {@link Target} through the handle cached by
+ * {@link SandboxReflection} each time it is run. The handle is asked for on every run, so this
+ * includes the cache lookup.
+ *
+ * @author John Leacox
+ */
+public class HandleInvokeProbe implements Runnable {
+  private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+  private final Target target = new Target();
+  private final Method method;
+
+  /**
+   * Creates a new instance of {@code HandleInvokeProbe}.
+   */
+  public HandleInvokeProbe() throws NoSuchMethodException {
+    this.method = Target.class.getDeclaredMethod("increment");
+  }
+
+  @Override
+  public void run() {
+    try {
+      int value = (int) SandboxReflection.unreflect(lookup, method).invokeExact(target);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+}
@@ -0,0 +1,31 @@
+package com.leacox.sandbox.benchmarks.user;
+
+import java.lang.reflect.Method;
+
+/**
+ * Invokes a private method of {@link Target} reflectively each time it is run, making it
+ * accessible first the way libraries that reflect on their own classes usually do.
+ *
+ * @author John Leacox
+ */
+public class ReflectiveInvokeProbe implements Runnable {
+  private final Target target = new Target();
+  private final Method method;
+
+  /**
+   * Creates a new instance of {@code ReflectiveInvokeProbe}.
+   */
+  public ReflectiveInvokeProbe() throws NoSuchMethodException {
+    this.method = Target.class.getDeclaredMethod("increment");
+  }
+
+  @Override
+  public void run() {
+    try {
+      method.setAccessible(true);
+      method.invoke(target);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
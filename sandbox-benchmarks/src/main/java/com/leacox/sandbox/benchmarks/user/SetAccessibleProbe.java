@@ -0,0 +1,26 @@
+package com.leacox.sandbox.benchmarks.user;
+
+import java.lang.reflect.Field;
+
+/**
+ * Makes a private field of {@link Target} accessible from user code each time it is run. Since
+ * both classes are loaded by the same user class loader, this is the same-loader case of the
+ * intercepted {@code setAccessible}.
+ *
+ * @author John Leacox
+ */
+public class SetAccessibleProbe implements Runnable {
+  private final Field field;
+
+  /**
+   * Creates a new instance of {@code SetAccessibleProbe}.
+   */
+  public SetAccessibleProbe() throws NoSuchFieldException {
+    this.field = Target.class.getDeclaredField("value");
+  }
+
+  @Override
+  public void run() {
+    field.setAccessible(true);
+  }
+}
@@ -0,0 +1,14 @@
+package com.leacox.sandbox.benchmarks.user;
+
+/**
+ * A class with private members for the reflection benchmarks to make accessible and invoke.
+ *
+ * @author John Leacox
+ */
+public class Target {
+  private int value;
+
+  private int increment() {
+    return ++value;
+  }
+}
@@ -0,0 +1,12 @@
+package com.leacox.sandbox.benchmarks.user;
+
+/**
+ * A runner that does nothing, so that running it measures only the overhead of the runtime.
+ *
+ * @author John Leacox
+ */
+public class TrivialRunner implements Runnable {
+  @Override
+  public void run() {
+  }
+}
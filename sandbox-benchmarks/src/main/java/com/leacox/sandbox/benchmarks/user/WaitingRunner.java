@@ -0,0 +1,19 @@
+package com.leacox.sandbox.benchmarks.user;
+
+/**
+ * A runner that spends its time waiting rather than computing, like a runner waiting on I/O.
+ *
+ * @author John Leacox
+ */
+public class WaitingRunner implements Runnable {
+  private static final long WAIT_MILLIS = 10;
+
+  @Override
+  public void run() {
+    try {
+      Thread.sleep(WAIT_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
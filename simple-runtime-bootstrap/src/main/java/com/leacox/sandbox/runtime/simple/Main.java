@@ -55,7 +55,8 @@ public class Main {
 
       String runMethodName = "run";
       Method runMethod = runtimeClass.getMethod(runMethodName, Map.class);
-      runMethod.invoke(runtimeInstance, runners);
+      Object results = runMethod.invoke(runtimeInstance, runners);
+      System.out.println(results);
     } catch (Exception e) {
       System.out.println(e);
       throw new RuntimeException(e);
@@ -0,0 +1,173 @@
+package com.leacox.sandbox.runtime.simple;
+
+import net.bytebuddy.ClassFileVersion;
+import net.bytebuddy.asm.AsmVisitorWrapper;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.jar.asm.MethodVisitor;
+import net.bytebuddy.jar.asm.Opcodes;
+import net.bytebuddy.matcher.ElementMatchers;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Instruments user classes to charge every object and array they allocate to the
+ * {@code AllocationRecorder}.
+ *
+ * <p>Arrays are recorded just before they are allocated, using the length already on the operand
+ * stack. Objects are recorded right after their constructor returns, since an uninitialized object
+ * cannot be passed to a method. This relies on the {@code new; dup; ...; invokespecial <init>}
+ * sequence that Java compilers emit; allocations that do not follow it are not recorded.
+ *
+ * @author John Leacox
+ */
+class AllocationInstrumentation
+    implements AsmVisitorWrapper.ForDeclaredMethods.MethodVisitorWrapper {
+  private static final String RECORDER_TYPE =
+      "com/leacox/sandbox/security/accounting/AllocationRecorder";
+
+  /**
+   * Returns a visitor wrapper that instruments all of the methods declared by a type.
+   */
+  static AsmVisitorWrapper asmVisitorWrapper() {
+    return new AsmVisitorWrapper.ForDeclaredMethods()
+        .method(ElementMatchers.any(), new AllocationInstrumentation());
+  }
+
+  @Override
+  public MethodVisitor wrap(
+      TypeDescription instrumentedType, MethodDescription.InDefinedShape methodDescription,
+      MethodVisitor methodVisitor, ClassFileVersion classFileVersion, int writerFlags,
+      int readerFlags) {
+    return new AllocationMethodVisitor(methodVisitor);
+  }
+
+  private static final class AllocationMethodVisitor extends MethodVisitor {
+    /**
+     * The objects allocated with {@code new} whose constructors have not been called yet.
+     */
+    private final Deque<PendingObject> pendingObjects = new ArrayDeque<>();
+    private PendingObject lastAllocated = null;
+
+    private AllocationMethodVisitor(MethodVisitor methodVisitor) {
+      super(Opcodes.ASM5, methodVisitor);
+    }
+
+    @Override
+    public void visitTypeInsn(int opcode, String type) {
+      lastAllocated = null;
+      if (opcode == Opcodes.NEW) {
+        super.visitTypeInsn(opcode, type);
+        PendingObject pending = new PendingObject(type);
+        pendingObjects.push(pending);
+        lastAllocated = pending;
+        return;
+      } else if (opcode == Opcodes.ANEWARRAY) {
+        super.visitInsn(Opcodes.DUP);
+        super.visitMethodInsn(
+            Opcodes.INVOKESTATIC, RECORDER_TYPE, "recordReferenceArray", "(I)V", false);
+      }
+
+      super.visitTypeInsn(opcode, type);
+    }
+
+    @Override
+    public void visitIntInsn(int opcode, int operand) {
+      lastAllocated = null;
+      if (opcode == Opcodes.NEWARRAY) {
+        super.visitInsn(Opcodes.DUP);
+        super.visitIntInsn(Opcodes.BIPUSH, primitiveSize(operand));
+        super.visitMethodInsn(
+            Opcodes.INVOKESTATIC, RECORDER_TYPE, "recordArray", "(II)V", false);
+      }
+
+      super.visitIntInsn(opcode, operand);
+    }
+
+    @Override
+    public void visitMultiANewArrayInsn(String descriptor, int dimensions) {
+      lastAllocated = null;
+      super.visitMultiANewArrayInsn(descriptor, dimensions);
+      super.visitInsn(Opcodes.DUP);
+      super.visitMethodInsn(Opcodes.INVOKESTATIC, RECORDER_TYPE, "recordMultiArray",
+          "(Ljava/lang/Object;)V", false);
+    }
+
+    @Override
+    public void visitInsn(int opcode) {
+      if (opcode == Opcodes.DUP && lastAllocated != null) {
+        lastAllocated.duplicated = true;
+      }
+      lastAllocated = null;
+
+      super.visitInsn(opcode);
+    }
+
+    @Override
+    public void visitMethodInsn(
+        int opcode, String owner, String name, String descriptor, boolean isInterface) {
+      lastAllocated = null;
+      super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+
+      if (opcode == Opcodes.INVOKESPECIAL && name.equals("<init>") && !pendingObjects.isEmpty()
+          && pendingObjects.peek().type.equals(owner)) {
+        // The duplicate of the new object is left on the stack once the constructor returns
+        if (pendingObjects.pop().duplicated) {
+          super.visitInsn(Opcodes.DUP);
+          super.visitMethodInsn(Opcodes.INVOKESTATIC, RECORDER_TYPE, "recordObject",
+              "(Ljava/lang/Object;)V", false);
+        }
+      }
+    }
+
+    @Override
+    public void visitVarInsn(int opcode, int var) {
+      lastAllocated = null;
+      super.visitVarInsn(opcode, var);
+    }
+
+    @Override
+    public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+      lastAllocated = null;
+      super.visitFieldInsn(opcode, owner, name, descriptor);
+    }
+
+    @Override
+    public void visitLdcInsn(Object value) {
+      lastAllocated = null;
+      super.visitLdcInsn(value);
+    }
+
+    @Override
+    public void visitMaxs(int maxStack, int maxLocals) {
+      // Each recording pushes at most two extra values on top of what the method already needs
+      super.visitMaxs(maxStack + 2, maxLocals);
+    }
+
+    private static int primitiveSize(int arrayType) {
+      switch (arrayType) {
+        case Opcodes.T_LONG:
+        case Opcodes.T_DOUBLE:
+          return 8;
+        case Opcodes.T_INT:
+        case Opcodes.T_FLOAT:
+          return 4;
+        case Opcodes.T_SHORT:
+        case Opcodes.T_CHAR:
+          return 2;
+        default:
+          return 1;
+      }
+    }
+  }
+
+  private static final class PendingObject {
+    private final String type;
+    private boolean duplicated = false;
+
+    private PendingObject(String type) {
+      this.type = type;
+    }
+  }
+}
@@ -0,0 +1,44 @@
+package com.leacox.sandbox.runtime.simple;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a thread waits for a {@link JobChannel} ring buffer that it polls. It spins at first, so a
+ * busy channel is served with the lowest latency, then yields, and then parks for longer and longer
+ * up to a millisecond, so an idle channel costs almost no CPU.
+ *
+ * @author John Leacox
+ */
+final class Backoff {
+  private static final int SPINS = 100;
+  private static final int YIELDS = 100;
+  private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private int idleCount = 0;
+  private long parkNanos = MIN_PARK_NANOS;
+
+  /**
+   * Waits after a poll that found nothing.
+   */
+  void idle() {
+    if (idleCount < SPINS) {
+      idleCount++;
+    } else if (idleCount < SPINS + YIELDS) {
+      idleCount++;
+      Thread.yield();
+    } else {
+      LockSupport.parkNanos(parkNanos);
+      parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+    }
+  }
+
+  /**
+   * Starts over after a poll that found something.
+   */
+  void reset() {
+    idleCount = 0;
+    parkNanos = MIN_PARK_NANOS;
+  }
+}
@@ -0,0 +1,116 @@
+package com.leacox.sandbox.runtime.simple;
+
+import net.bytebuddy.ClassFileVersion;
+import net.bytebuddy.asm.AsmVisitorWrapper;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.jar.asm.Label;
+import net.bytebuddy.jar.asm.MethodVisitor;
+import net.bytebuddy.jar.asm.Opcodes;
+import net.bytebuddy.matcher.ElementMatchers;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Instruments user classes with a {@code Checkpoint.check()} call at the entry of every method and
+ * before every loop back-edge, so that user code that has been aborted stops at the next
+ * checkpoint it reaches.
+ *
+ * <p>A back-edge is any jump or switch to a label that has already been visited, which covers
+ * every loop and every {@code goto}-based retry that Java compilers emit. Together with the method
+ * entries this bounds how long user code can run between two checkpoints, short of a call into a
+ * long running JDK method.
+ *
+ * @author John Leacox
+ */
+class CheckpointInstrumentation
+    implements AsmVisitorWrapper.ForDeclaredMethods.MethodVisitorWrapper {
+  private static final String CHECKPOINT_TYPE =
+      "com/leacox/sandbox/security/preemption/Checkpoint";
+
+  /**
+   * Returns a visitor wrapper that instruments all of the methods declared by a type.
+   */
+  static AsmVisitorWrapper asmVisitorWrapper() {
+    return new AsmVisitorWrapper.ForDeclaredMethods()
+        .method(ElementMatchers.any(), new CheckpointInstrumentation());
+  }
+
+  @Override
+  public MethodVisitor wrap(
+      TypeDescription instrumentedType, MethodDescription.InDefinedShape methodDescription,
+      MethodVisitor methodVisitor, ClassFileVersion classFileVersion, int writerFlags,
+      int readerFlags) {
+    return new CheckpointMethodVisitor(methodVisitor);
+  }
+
+  private static final class CheckpointMethodVisitor extends MethodVisitor {
+    private final Set<Label> visitedLabels = new HashSet<>();
+
+    private CheckpointMethodVisitor(MethodVisitor methodVisitor) {
+      super(Opcodes.ASM5, methodVisitor);
+    }
+
+    @Override
+    public void visitCode() {
+      super.visitCode();
+      // Calling a static method before the super constructor call is allowed, so this is safe
+      // in constructors too
+      checkpoint();
+    }
+
+    @Override
+    public void visitLabel(Label label) {
+      visitedLabels.add(label);
+      super.visitLabel(label);
+    }
+
+    @Override
+    public void visitJumpInsn(int opcode, Label label) {
+      if (visitedLabels.contains(label)) {
+        checkpoint();
+      }
+
+      super.visitJumpInsn(opcode, label);
+    }
+
+    @Override
+    public void visitTableSwitchInsn(int min, int max, Label defaultLabel, Label... labels) {
+      if (isBackEdge(defaultLabel, labels)) {
+        checkpoint();
+      }
+
+      super.visitTableSwitchInsn(min, max, defaultLabel, labels);
+    }
+
+    @Override
+    public void visitLookupSwitchInsn(Label defaultLabel, int[] keys, Label[] labels) {
+      if (isBackEdge(defaultLabel, labels)) {
+        checkpoint();
+      }
+
+      super.visitLookupSwitchInsn(defaultLabel, keys, labels);
+    }
+
+    private boolean isBackEdge(Label defaultLabel, Label[] labels) {
+      if (visitedLabels.contains(defaultLabel)) {
+        return true;
+      }
+
+      for (Label label : labels) {
+        if (visitedLabels.contains(label)) {
+          return true;
+        }
+      }
+
+      return false;
+    }
+
+    private void checkpoint() {
+      // The call takes no arguments and returns nothing, so the operand stack of the jump that
+      // follows it is left as it was
+      super.visitMethodInsn(Opcodes.INVOKESTATIC, CHECKPOINT_TYPE, "check", "()V", false);
+    }
+  }
+}
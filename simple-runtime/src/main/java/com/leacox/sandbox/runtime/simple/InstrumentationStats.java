@@ -0,0 +1,83 @@
+package com.leacox.sandbox.runtime.simple;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Statistics of the instrumentation the runtime performed when it started.
+ *
+ * @author John Leacox
+ */
+public class InstrumentationStats {
+  private final int loadedClassesScanned;
+  private final int classesRetransformed;
+  private final int classesFromCache;
+  private final int classesTransformed;
+  private final long elapsedNanos;
+
+  /**
+   * Creates a new instance of {@code InstrumentationStats}.
+   *
+   * @param loadedClassesScanned how many already loaded classes were checked against the targets
+   * @param classesRetransformed how many already loaded classes were retransformed
+   * @param classesFromCache how many already loaded classes were redefined from the
+   *     transformation cache
+   * @param classesTransformed how many classes ByteBuddy transformed
+   * @param elapsedNanos how long the instrumentation took
+   */
+  public InstrumentationStats(
+      int loadedClassesScanned, int classesRetransformed, int classesFromCache,
+      int classesTransformed, long elapsedNanos) {
+    this.loadedClassesScanned = loadedClassesScanned;
+    this.classesRetransformed = classesRetransformed;
+    this.classesFromCache = classesFromCache;
+    this.classesTransformed = classesTransformed;
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  /**
+   * Returns how many already loaded classes were checked against the targeted type names.
+   */
+  public int getLoadedClassesScanned() {
+    return loadedClassesScanned;
+  }
+
+  /**
+   * Returns how many already loaded classes were retransformed.
+   */
+  public int getClassesRetransformed() {
+    return classesRetransformed;
+  }
+
+  /**
+   * Returns how many already loaded classes were redefined with bytes from the transformation
+   * cache instead of being transformed again.
+   */
+  public int getClassesFromCache() {
+    return classesFromCache;
+  }
+
+  /**
+   * Returns how many classes ByteBuddy transformed while the runtime started.
+   */
+  public int getClassesTransformed() {
+    return classesTransformed;
+  }
+
+  /**
+   * Returns how long the instrumentation took.
+   */
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  @Override
+  public String toString() {
+    return "InstrumentationStats{"
+        + "loadedClassesScanned=" + loadedClassesScanned
+        + ", classesRetransformed=" + classesRetransformed
+        + ", classesFromCache=" + classesFromCache
+        + ", classesTransformed=" + classesTransformed
+        + ", elapsedMillis=" + TimeUnit.NANOSECONDS.toMillis(elapsedNanos)
+        + '}';
+  }
+}
@@ -0,0 +1,552 @@
+package com.leacox.sandbox.runtime.simple;
+
+import com.leacox.sandbox.security.PrivateDirectories;
+import com.leacox.sandbox.security.metrics.Counter;
+import com.leacox.sandbox.security.metrics.RuntimeMetrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.jar.JarFile;
+
+/**
+ * The current jar of each tenant, switched to new versions of the jar as they are deployed, without
+ * restarting the {@link SimpleRuntime}.
+ *
+ * <p>The directory of each registered jar is watched with a {@link WatchService}. Once a jar has
+ * changed and then not changed again for a quiet period, so that a jar that is still being written
+ * is not picked up, the new version is copied to a snapshot and warmed up in the background: the
+ * runner classes of the tenant are loaded into the runtime's warm pool from the snapshot. Only then
+ * are new submissions of the tenant switched to the new version, atomically, so the first runs of
+ * a new version do not pay for class loading. A version that is not a readable jar, or whose
+ * runners cannot be loaded, is rejected and the tenant keeps running the version it has.
+ *
+ * <p>Runners always run from a snapshot rather than from the deployed jar, since the class loaders
+ * of the runtime map their jar and read it lazily, and a jar overwritten in place would change
+ * under runners that are still running. Runners that are in flight when a new version is switched
+ * to finish on the loaders of their own version. Once the last runner of a superseded version has
+ * finished, its snapshot is deleted and the runtime's warm loaders and cached index of it are
+ * dropped. Snapshots are written to a directory that only the user running the runtime can write
+ * to.
+ *
+ * <p>The runners warmed for a version are the ones named when the tenant is registered and the ones
+ * the tenant has submitted since. Warming needs the runtime's warm pool; with the pool disabled a
+ * new version is only checked to be a readable jar before it is switched to.
+ *
+ * @author John Leacox
+ */
+public final class JarRegistry {
+  private static final Logger logger = LoggerFactory.getLogger(JarRegistry.class);
+  private static final int MAX_WARMED_RUNNERS = 16;
+
+  private final SimpleRuntime runtime;
+  private final Path configuredSnapshotDirectory;
+  private final long quietPeriodNanos;
+  private final Counter swaps;
+  private final Counter rejectedVersions;
+  private final Map<String, Tenant> tenants = new ConcurrentHashMap<>();
+  private final Map<Path, WatchKey> watchedDirectories = new ConcurrentHashMap<>();
+
+  private volatile boolean isStarted = false;
+  private volatile boolean isShutdown = false;
+  private Path snapshotDirectory;
+  private WatchService watchService;
+  private ScheduledThreadPoolExecutor scheduler;
+  private Thread watcher;
+
+  private JarRegistry(Builder builder) {
+    this.runtime = builder.runtime;
+    this.configuredSnapshotDirectory = builder.snapshotDirectory;
+    this.quietPeriodNanos = builder.quietPeriodNanos;
+
+    RuntimeMetrics metrics = runtime.getMetrics();
+    this.swaps = metrics.counter("jar.registry.swaps");
+    this.rejectedVersions = metrics.counter("jar.registry.rejectedVersions");
+  }
+
+  /**
+   * Returns a new builder for a registry of the runtime, initialized with the default values.
+   *
+   * @param runtime the runtime to run and warm the tenants' runners in, which must be started
+   *     before jars are registered
+   */
+  public static Builder builder(SimpleRuntime runtime) {
+    return new Builder(runtime);
+  }
+
+  /**
+   * Starts watching for new versions of registered jars.
+   *
+   * @throws IOException if the snapshot directory or the watch service cannot be created
+   * @throws SecurityException if the snapshot directory is owned or can be written by another user
+   */
+  public synchronized void start() throws IOException {
+    if (isStarted) {
+      throw new IllegalStateException("The jar registry has already been started");
+    }
+
+    if (configuredSnapshotDirectory == null) {
+      snapshotDirectory = PrivateDirectories.createTemporary("sandbox-jar-snapshots-");
+      snapshotDirectory.toFile().deleteOnExit();
+    } else {
+      snapshotDirectory = PrivateDirectories.ensurePrivate(configuredSnapshotDirectory);
+    }
+    watchService = FileSystems.getDefault().newWatchService();
+    scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+      Thread thread = new Thread(runnable, "jar-registry-loader");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.setRemoveOnCancelPolicy(true);
+
+    watcher = new Thread(this::watch, "jar-registry-watcher");
+    watcher.setDaemon(true);
+    watcher.start();
+    isStarted = true;
+  }
+
+  /**
+   * Registers the jar of a tenant, deploying its current version right away and every new version
+   * once it has been warmed up.
+   *
+   * @param tenantId the tenant, which runners are submitted for and run as
+   * @param jarPath the path the tenant's jar is deployed to
+   * @param runnerClassNames the runners of the tenant to warm up for each version
+   * @throws IOException if the jar cannot be copied or its directory cannot be watched
+   */
+  public void register(String tenantId, Path jarPath, String... runnerClassNames)
+      throws IOException {
+    if (tenantId == null) {
+      throw new NullPointerException("tenantId:null");
+    } else if (jarPath == null) {
+      throw new NullPointerException("jarPath:null");
+    }
+    checkStarted();
+
+    Tenant tenant = new Tenant(tenantId, jarPath.toAbsolutePath().normalize());
+    for (String runnerClassName : runnerClassNames) {
+      tenant.runnerClassNames.add(runnerClassName);
+    }
+
+    if (tenants.containsKey(tenantId)) {
+      throw alreadyRegistered(tenantId);
+    }
+
+    Deployment deployment = snapshot(tenant, 1);
+    try {
+      warm(tenant, deployment);
+    } catch (ClassNotFoundException | RuntimeException e) {
+      // There is no earlier version to keep, so runs fail the same way they would without it
+      logger.warn("Unable to warm up the first version of the jar of tenant {}", tenantId, e);
+    }
+    tenant.current.set(deployment);
+
+    if (tenants.putIfAbsent(tenantId, tenant) != null) {
+      deployment.supersede();
+      throw alreadyRegistered(tenantId);
+    }
+
+    try {
+      watch(tenant.source.getParent());
+    } catch (IOException | RuntimeException e) {
+      unregister(tenantId);
+      throw e;
+    }
+  }
+
+  private static IllegalArgumentException alreadyRegistered(String tenantId) {
+    return new IllegalArgumentException(
+        "tenantId:Must not already be registered [" + tenantId + "]");
+  }
+
+  /**
+   * Stops watching the jar of a tenant. Runners of the tenant that are in flight finish on the
+   * version they started with.
+   */
+  public void unregister(String tenantId) {
+    Tenant tenant = tenants.remove(tenantId);
+    if (tenant == null) {
+      return;
+    }
+
+    synchronized (tenant) {
+      if (tenant.pendingReload != null) {
+        tenant.pendingReload.cancel(false);
+      }
+    }
+
+    tenant.current.get().supersede();
+
+    Path directory = tenant.source.getParent();
+    boolean watched = false;
+    for (Tenant other : tenants.values()) {
+      watched |= other.source.getParent().equals(directory);
+    }
+    if (!watched) {
+      WatchKey key = watchedDirectories.remove(directory);
+      if (key != null) {
+        key.cancel();
+      }
+    }
+  }
+
+  /**
+   * Submits a runner of a tenant, which runs from the tenant's current version. Like
+   * {@link SimpleRuntime#submit}, the returned future always completes with a result.
+   *
+   * @param tenantId the tenant
+   * @param runnerClassName the class name of the runner, which must implement {@link Runnable}
+   * @param options the options for this run, whose tenant must be unset or the same tenant
+   * @return a future of the runner's result
+   */
+  public CompletableFuture<RunnerResult> submit(
+      String tenantId, String runnerClassName, RunnerOptions options) {
+    checkStarted();
+    Tenant tenant = tenants.get(tenantId);
+    if (tenant == null) {
+      throw new IllegalArgumentException("tenantId:Must be registered [" + tenantId + "]");
+    } else if (options.getTenantId() != null && !options.getTenantId().equals(tenantId)) {
+      throw new IllegalArgumentException("options:Must be for tenant [" + tenantId + "]");
+    }
+
+    if (tenant.runnerClassNames.size() < MAX_WARMED_RUNNERS) {
+      tenant.runnerClassNames.add(runnerClassName);
+    }
+
+    Deployment deployment;
+    do {
+      // Only fails if a new version was switched to after it was read
+      deployment = tenant.current.get();
+    } while (!deployment.acquire());
+
+    Deployment acquired = deployment;
+    CompletableFuture<RunnerResult> result;
+    try {
+      result = runtime.submit(runnerClassName, deployment.jarPath, options.withTenantId(tenantId));
+    } catch (RuntimeException | Error e) {
+      acquired.release();
+      throw e;
+    }
+
+    return result.whenComplete((runnerResult, failure) -> acquired.release());
+  }
+
+  /**
+   * Returns the number of the version of the tenant's jar that new submissions run, counting from
+   * 1 for the version the tenant was registered with, or 0 if the tenant is not registered.
+   */
+  public long getVersion(String tenantId) {
+    Tenant tenant = tenants.get(tenantId);
+    return tenant == null ? 0 : tenant.current.get().version;
+  }
+
+  /**
+   * Stops watching for new versions. Runners that are in flight finish, and the snapshots of the
+   * current versions are deleted once they have.
+   */
+  public synchronized void shutdown() {
+    if (!isStarted || isShutdown) {
+      return;
+    }
+    isShutdown = true;
+
+    try {
+      watchService.close();
+    } catch (IOException e) {
+      logger.debug("Unable to close the jar registry's watch service", e);
+    }
+    scheduler.shutdownNow();
+
+    for (String tenantId : new ArrayList<>(tenants.keySet())) {
+      unregister(tenantId);
+    }
+  }
+
+  private void checkStarted() {
+    if (!isStarted) {
+      throw new IllegalStateException("The jar registry has not been started");
+    } else if (isShutdown) {
+      throw new IllegalStateException("The jar registry has been shut down");
+    }
+  }
+
+  private void watch(Path directory) throws IOException {
+    synchronized (watchedDirectories) {
+      if (!watchedDirectories.containsKey(directory)) {
+        watchedDirectories.put(directory, directory.register(watchService,
+            StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY));
+      }
+    }
+  }
+
+  private void watch() {
+    try {
+      while (true) {
+        WatchKey key = watchService.take();
+        Path directory = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+          // An overflow lost events, so any jar in the directory may have changed
+          Path changed = event.kind() == StandardWatchEventKinds.OVERFLOW
+              ? null : directory.resolve((Path) event.context());
+          for (Tenant tenant : tenants.values()) {
+            if (changed == null ? tenant.source.getParent().equals(directory)
+                : tenant.source.equals(changed)) {
+              scheduleReload(tenant);
+            }
+          }
+        }
+        key.reset();
+      }
+    } catch (ClosedWatchServiceException e) {
+      // Shut down
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Reloads the tenant's jar once it has not changed for the quiet period, restarting the period
+   * if a reload is already pending.
+   */
+  private void scheduleReload(Tenant tenant) {
+    synchronized (tenant) {
+      if (tenant.pendingReload != null) {
+        tenant.pendingReload.cancel(false);
+      }
+
+      try {
+        tenant.pendingReload =
+            scheduler.schedule(() -> reload(tenant), quietPeriodNanos, TimeUnit.NANOSECONDS);
+      } catch (RejectedExecutionException e) {
+        // Shut down
+      }
+    }
+  }
+
+  private void reload(Tenant tenant) {
+    Deployment current = tenant.current.get();
+    if (tenants.get(tenant.tenantId) != tenant) {
+      return;
+    }
+
+    Deployment next;
+    try {
+      BasicFileAttributes attributes =
+          Files.readAttributes(tenant.source, BasicFileAttributes.class);
+      if (current.isVersion(attributes)) {
+        return;
+      }
+
+      next = snapshot(tenant, current.version + 1);
+    } catch (IOException e) {
+      // Removed, or replaced by a rename that has not finished
+      logger.debug("Unable to read the jar of tenant {}", tenant.tenantId, e);
+      return;
+    }
+
+    try {
+      warm(tenant, next);
+    } catch (ClassNotFoundException | RuntimeException e) {
+      rejectedVersions.increment();
+      logger.warn("Rejected version {} of the jar of tenant {}, still running version {}",
+          next.version, tenant.tenantId, current.version, e);
+      next.supersede();
+      return;
+    }
+
+    if (tenants.get(tenant.tenantId) != tenant || !tenant.current.compareAndSet(current, next)) {
+      next.supersede();
+      return;
+    }
+
+    current.supersede();
+    if (tenants.get(tenant.tenantId) != tenant) {
+      // Unregistered while switching, after it superseded the version it saw
+      next.supersede();
+      return;
+    }
+    swaps.increment();
+    logger.info("Switched tenant {} to version {} of its jar", tenant.tenantId, next.version);
+  }
+
+  private Deployment snapshot(Tenant tenant, long version) throws IOException {
+    BasicFileAttributes attributes =
+        Files.readAttributes(tenant.source, BasicFileAttributes.class);
+    Path snapshot = Files.createTempFile(snapshotDirectory, "tenant-", ".jar");
+    try {
+      Files.copy(tenant.source, snapshot, StandardCopyOption.REPLACE_EXISTING);
+      // Reject a jar that was only partly written before it is switched to
+      new JarFile(snapshot.toFile()).close();
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(snapshot);
+      throw e;
+    }
+
+    return new Deployment(runtime, version, snapshot, attributes);
+  }
+
+  private void warm(Tenant tenant, Deployment deployment) throws ClassNotFoundException {
+    RunnerOptions options = RunnerOptions.builder().tenantId(tenant.tenantId).build();
+    for (String runnerClassName : tenant.runnerClassNames) {
+      try {
+        runtime.prewarm(runnerClassName, deployment.jarPath, options);
+      } catch (MalformedURLException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  private static final class Tenant {
+    private final String tenantId;
+    private final Path source;
+    private final Set<String> runnerClassNames = ConcurrentHashMap.newKeySet();
+    private final AtomicReference<Deployment> current = new AtomicReference<>();
+    private ScheduledFuture<?> pendingReload;
+
+    private Tenant(String tenantId, Path source) {
+      this.tenantId = tenantId;
+      this.source = source;
+    }
+  }
+
+  /**
+   * A version of a tenant's jar. The number of runners in flight on it is {@code -1} once it has
+   * been superseded and its last runner has finished, after which it cannot be acquired again, its
+   * snapshot is deleted and the runtime forgets it.
+   */
+  private static final class Deployment {
+    private final SimpleRuntime runtime;
+    private final long version;
+    private final Path snapshot;
+    private final String jarPath;
+    private final long sourceModifiedMillis;
+    private final long sourceSize;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean superseded = false;
+
+    private Deployment(
+        SimpleRuntime runtime, long version, Path snapshot, BasicFileAttributes sourceAttributes) {
+      this.runtime = runtime;
+      this.version = version;
+      this.snapshot = snapshot;
+      this.jarPath = snapshot.toString();
+      this.sourceModifiedMillis = sourceAttributes.lastModifiedTime().toMillis();
+      this.sourceSize = sourceAttributes.size();
+    }
+
+    private boolean isVersion(BasicFileAttributes sourceAttributes) {
+      return sourceModifiedMillis == sourceAttributes.lastModifiedTime().toMillis()
+          && sourceSize == sourceAttributes.size();
+    }
+
+    private boolean acquire() {
+      while (true) {
+        int count = inFlight.get();
+        if (count < 0) {
+          return false;
+        } else if (inFlight.compareAndSet(count, count + 1)) {
+          return true;
+        }
+      }
+    }
+
+    private void release() {
+      if (inFlight.decrementAndGet() == 0 && superseded) {
+        retire();
+      }
+    }
+
+    private void supersede() {
+      superseded = true;
+      retire();
+    }
+
+    private void retire() {
+      if (!inFlight.compareAndSet(0, -1)) {
+        return;
+      }
+
+      try {
+        runtime.discardJar(jarPath);
+        Files.deleteIfExists(snapshot);
+      } catch (IOException e) {
+        logger.debug("Unable to delete jar snapshot {}", snapshot, e);
+      }
+    }
+  }
+
+  /**
+   * A builder for {@link JarRegistry}.
+   */
+  public static class Builder {
+    private final SimpleRuntime runtime;
+    private Path snapshotDirectory;
+    private long quietPeriodNanos = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private Builder(SimpleRuntime runtime) {
+      if (runtime == null) {
+        throw new NullPointerException("runtime:null");
+      }
+
+      this.runtime = runtime;
+    }
+
+    /**
+     * Sets the directory the snapshots of deployed jars are copied to. The directory must be owned
+     * by the user running the runtime and not writable by other users, and is created with
+     * owner-only permissions if it does not exist. Defaults to a new private directory in the
+     * system's temporary directory.
+     */
+    public Builder snapshotDirectory(Path snapshotDirectory) {
+      if (snapshotDirectory == null) {
+        throw new NullPointerException("snapshotDirectory:null");
+      }
+
+      this.snapshotDirectory = snapshotDirectory;
+      return this;
+    }
+
+    /**
+     * Sets how long a jar must go without changing before its new version is loaded. Defaults to
+     * 500 milliseconds.
+     */
+    public Builder quietPeriod(long duration, TimeUnit unit) {
+      if (duration < 0) {
+        throw new IllegalArgumentException("duration:Must not be negative");
+      }
+
+      this.quietPeriodNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    /**
+     * Creates the registry.
+     */
+    public JarRegistry build() {
+      return new JarRegistry(this);
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package com.leacox.sandbox.runtime.simple;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The channel between a {@link WorkerProcessPool} and one of its worker processes: two ring buffers
+ * in a memory-mapped file, one carrying messages to the worker and one carrying messages back.
+ *
+ * <p>Each ring buffer has a single producer and a single consumer, each in a different process.
+ * The producer writes a message after the tail and then publishes it by advancing the tail with a
+ * release store, and the consumer reads it and then releases the space by advancing the head the
+ * same way. The tail and head are read with acquire loads, so each side sees every byte the other
+ * side wrote before publishing. Both positions only ever grow, and each sits on its own cache line.
+ * The ordered accesses are made through {@link OrderedLongs}.
+ *
+ * <p>The file is laid out as the request ring followed by the response ring, each a 128 byte
+ * header holding the tail and head followed by the data. Messages are stored as a length followed
+ * by the bytes, padded to 8 bytes. A message that does not fit before the end of the data is
+ * preceded by a padding record and written at its start instead. The other process is not trusted
+ * to keep the ring consistent: a record whose length does not fit the ring is rejected with an
+ * {@code IllegalStateException} rather than read.
+ *
+ * @author John Leacox
+ */
+final class JobChannel {
+  private static final int HEADER_BYTES = 128;
+  private static final int TAIL_OFFSET = 0;
+  private static final int HEAD_OFFSET = 64;
+  private static final int PADDING = -1;
+
+  private final RingBuffer requests;
+  private final RingBuffer responses;
+
+  private JobChannel(MappedByteBuffer mapped, int capacity) {
+    this.requests = new RingBuffer(mapped, 0, capacity);
+    this.responses = new RingBuffer(mapped, HEADER_BYTES + capacity, capacity);
+  }
+
+  /**
+   * Maps a channel file, creating it if it does not exist. Both processes must map the file with
+   * the same capacity.
+   *
+   * @param file the channel file
+   * @param capacity the number of bytes of data in each ring buffer, a power of two
+   */
+  static JobChannel map(Path file, int capacity) throws IOException {
+    if (capacity < 1024 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("capacity:Must be a power of two of at least 1024");
+    }
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      // The file stays mapped after the channel is closed
+      return new JobChannel(
+          channel.map(FileChannel.MapMode.READ_WRITE, 0, 2L * (HEADER_BYTES + capacity)),
+          capacity);
+    }
+  }
+
+  /**
+   * Returns the ring buffer of messages to the worker.
+   */
+  RingBuffer requests() {
+    return requests;
+  }
+
+  /**
+   * Returns the ring buffer of messages from the worker.
+   */
+  RingBuffer responses() {
+    return responses;
+  }
+
+  /**
+   * One direction of a {@link JobChannel}. {@link #offer} must only be called by one thread at a
+   * time, and so must {@link #poll}.
+   */
+  static final class RingBuffer {
+    private final int tailOffset;
+    private final int headOffset;
+    private final int dataOffset;
+    private final int capacity;
+    private final ByteBuffer positions;
+    private final ByteBuffer writeView;
+    private final ByteBuffer readView;
+
+    private RingBuffer(MappedByteBuffer mapped, int offset, int capacity) {
+      this.tailOffset = offset + TAIL_OFFSET;
+      this.headOffset = offset + HEAD_OFFSET;
+      this.dataOffset = offset + HEADER_BYTES;
+      this.capacity = capacity;
+      // Each view has its own position and byte order, so the views are never shared
+      this.positions = mapped.duplicate().order(ByteOrder.nativeOrder());
+      this.writeView = mapped.duplicate();
+      this.readView = mapped.duplicate();
+    }
+
+    /**
+     * Returns the largest message that can be offered.
+     */
+    int getMaxMessageBytes() {
+      return capacity / 2 - 8;
+    }
+
+    /**
+     * Appends a message, unless there is not enough free space for it.
+     *
+     * @return {@code true} if the message was appended, {@code false} if the buffer is too full
+     */
+    boolean offer(byte[] message) {
+      if (message.length > getMaxMessageBytes()) {
+        throw new IllegalArgumentException("message:Must not be larger than "
+            + getMaxMessageBytes() + " bytes");
+      }
+
+      int recordBytes = align(4 + message.length);
+      // Only this side writes the tail, so it can be read without ordering
+      long tail = positions.getLong(tailOffset);
+      long head = OrderedLongs.getAcquire(positions, headOffset);
+      int index = (int) (tail & (capacity - 1));
+      int bytesToEnd = capacity - index;
+      int paddingBytes = bytesToEnd < recordBytes ? bytesToEnd : 0;
+      if (tail + paddingBytes + recordBytes - head > capacity) {
+        return false;
+      }
+
+      if (paddingBytes > 0) {
+        writeView.putInt(dataOffset + index, PADDING);
+        index = 0;
+      }
+
+      writeView.putInt(dataOffset + index, message.length);
+      writeView.position(dataOffset + index + 4);
+      writeView.put(message);
+
+      OrderedLongs.setRelease(positions, tailOffset, tail + paddingBytes + recordBytes);
+      return true;
+    }
+
+    /**
+     * Removes and returns the oldest message, or returns {@code null} if there is none.
+     *
+     * @throws IllegalStateException if the ring holds a record that no producer could have written
+     */
+    byte[] poll() {
+      long head = positions.getLong(headOffset);
+      long tail = OrderedLongs.getAcquire(positions, tailOffset);
+      if (head == tail) {
+        return null;
+      } else if (tail - head < 0 || tail - head > capacity) {
+        throw new IllegalStateException("Corrupt ring buffer: head " + head + ", tail " + tail);
+      }
+
+      int index = (int) (head & (capacity - 1));
+      int length = readView.getInt(dataOffset + index);
+      if (length == PADDING) {
+        head += capacity - index;
+        index = 0;
+        length = readView.getInt(dataOffset);
+      }
+
+      // A length the producer could not have written must not size an allocation
+      if (length < 0 || length > getMaxMessageBytes() || index + 4 + length > capacity
+          || head + align(4 + length) - tail > 0) {
+        throw new IllegalStateException(
+            "Corrupt ring buffer: record of " + length + " bytes at " + head + ", tail " + tail);
+      }
+
+      byte[] message = new byte[length];
+      readView.position(dataOffset + index + 4);
+      readView.get(message);
+
+      OrderedLongs.setRelease(positions, headOffset, head + align(4 + length));
+      return message;
+    }
+
+    private static int align(int bytes) {
+      return (bytes + 7) & ~7;
+    }
+  }
+}
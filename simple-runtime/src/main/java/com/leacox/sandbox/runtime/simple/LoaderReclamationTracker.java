@@ -0,0 +1,198 @@
+package com.leacox.sandbox.runtime.simple;
+
+import com.leacox.sandbox.security.UserClassLoader;
+import com.leacox.sandbox.security.metrics.Counter;
+import com.leacox.sandbox.security.metrics.RuntimeMetrics;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks retired user class loaders until the garbage collector reclaims them, and reports the
+ * ones it does not.
+ *
+ * <p>A loader is reachable from each of its classes and every object of them, so anything a runner
+ * leaves registered in runtime or JDK code (a thread, a shutdown hook, a cache entry) keeps all of
+ * the runner's classes in Metaspace. Each retired loader is watched with a phantom reference, which
+ * is enqueued once the loader is gone. A loader that is still reachable after a number of garbage
+ * collections is reported as leaked, together with the live threads that hold it. Any other GC
+ * roots can only be found in a heap dump, so one is written when a leak is first found if a dump
+ * directory is configured.
+ *
+ * <p>Only the collections that can unload classes are counted: full and old generation collections
+ * and the cycles of the concurrent collectors. A young collection never unloads a class, so
+ * counting those would report every loader that has been promoted to the old generation after a
+ * few of them. The cycles of a collector that is not known here are not counted, which can only
+ * delay a report. Before Java 20 the JVM does not count the concurrent cycles of G1, so with G1
+ * only its full collections are counted.
+ *
+ * @author John Leacox
+ */
+final class LoaderReclamationTracker {
+  private static final Logger logger = LoggerFactory.getLogger(LoaderReclamationTracker.class);
+  private static final Set<String> CLASS_UNLOADING_COLLECTORS = new HashSet<>(Arrays.asList(
+      "MarkSweepCompact", "PS MarkSweep", "ConcurrentMarkSweep", "G1 Old Generation",
+      "G1 Concurrent GC", "ZGC", "ZGC Cycles", "ZGC Major Cycles", "Shenandoah Cycles"));
+
+  private final int maxGcCycles;
+  private final Path heapDumpDirectory;
+  private final ReferenceQueue<UserClassLoader> queue = new ReferenceQueue<>();
+  private final Set<TrackedLoader> tracked = ConcurrentHashMap.newKeySet();
+  private final Counter reclaimed;
+  private final Counter leaked;
+
+  private boolean heapDumped = false;
+
+  /**
+   * Creates a new instance of {@code LoaderReclamationTracker}.
+   *
+   * @param maxGcCycles the number of garbage collections after which a loader that has not been
+   *     reclaimed is reported
+   * @param heapDumpDirectory the directory to write a heap dump to when a leak is first found, or
+   *     null to not write one
+   * @param metrics the metrics to count reclaimed and leaked loaders in
+   */
+  LoaderReclamationTracker(int maxGcCycles, Path heapDumpDirectory, RuntimeMetrics metrics) {
+    this.maxGcCycles = maxGcCycles;
+    this.heapDumpDirectory = heapDumpDirectory;
+    this.reclaimed = metrics.counter("classloader.reclaimed");
+    this.leaked = metrics.counter("classloader.leaked");
+  }
+
+  /**
+   * Starts tracking a loader that is no longer used by the runtime.
+   */
+  void track(UserClassLoader loader) {
+    tracked.add(new TrackedLoader(loader, queue, gcCount()));
+  }
+
+  /**
+   * Returns the number of tracked loaders that have not been reclaimed yet.
+   */
+  int getUnreclaimedCount() {
+    return tracked.size();
+  }
+
+  /**
+   * Forgets the loaders that have been reclaimed and reports the ones that have outlived the
+   * allowed number of garbage collections. Only called from the watchdog thread.
+   */
+  void check() {
+    Reference<? extends UserClassLoader> reference;
+    while ((reference = queue.poll()) != null) {
+      tracked.remove(reference);
+      reclaimed.increment();
+    }
+
+    long gcCount = gcCount();
+    List<TrackedLoader> newlyLeaked = new ArrayList<>();
+    for (TrackedLoader loader : tracked) {
+      if (!loader.reported && gcCount - loader.gcCountAtRetirement >= maxGcCycles) {
+        loader.reported = true;
+        newlyLeaked.add(loader);
+      }
+    }
+
+    for (TrackedLoader loader : newlyLeaked) {
+      report(loader, gcCount - loader.gcCountAtRetirement);
+    }
+
+    if (!newlyLeaked.isEmpty() && heapDumpDirectory != null && !heapDumped) {
+      heapDumped = true;
+      dumpHeap();
+    }
+  }
+
+  private void report(TrackedLoader trackedLoader, long gcCycles) {
+    leaked.increment();
+
+    UserClassLoader loader = trackedLoader.loader.get();
+    if (loader == null) {
+      // Only phantom reachable, it is reclaimed as soon as its reference is enqueued
+      return;
+    }
+
+    List<String> holders = new ArrayList<>();
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getContextClassLoader() == loader
+          || thread.getClass().getClassLoader() == loader) {
+        holders.add(thread.getName());
+      }
+    }
+
+    if (holders.isEmpty()) {
+      logger.warn("Class loader for {} was not reclaimed after {} garbage collections and is held"
+          + " by a GC root outside of any live thread", trackedLoader.description, gcCycles);
+    } else {
+      logger.warn("Class loader for {} was not reclaimed after {} garbage collections and is held"
+          + " by threads {}", trackedLoader.description, gcCycles, holders);
+    }
+  }
+
+  private void dumpHeap() {
+    Path dump = heapDumpDirectory.resolve("sandbox-loader-leak-" + System.currentTimeMillis()
+        + ".hprof");
+    try {
+      ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class)
+          .dumpHeap(dump.toString(), true);
+      logger.warn("Wrote a heap dump to {} to find the GC roots of leaked class loaders", dump);
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Unable to write a heap dump to {}", dump, e);
+    }
+  }
+
+  private static long gcCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      if (CLASS_UNLOADING_COLLECTORS.contains(collector.getName())) {
+        count += Math.max(collector.getCollectionCount(), 0);
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * The phantom reference that tells when a loader is reclaimed. The loader is also weakly
+   * referenced, which does not keep it alive any longer, so that a leaked loader can be compared
+   * against the loaders of live threads when it is reported.
+   */
+  private static final class TrackedLoader extends PhantomReference<UserClassLoader> {
+    private final WeakReference<UserClassLoader> loader;
+    private final String description;
+    private final long gcCountAtRetirement;
+    private boolean reported = false;
+
+    private TrackedLoader(
+        UserClassLoader loader, ReferenceQueue<UserClassLoader> queue, long gcCountAtRetirement) {
+      super(loader, queue);
+      this.loader = new WeakReference<>(loader);
+      this.description = describe(loader);
+      this.gcCountAtRetirement = gcCountAtRetirement;
+    }
+
+    private static String describe(UserClassLoader loader) {
+      String location =
+          loader.getURLs().length == 0 ? loader.toString() : loader.getURLs()[0].toString();
+      String tenantId = loader.getTenantId();
+      return tenantId == null ? location : location + " of tenant " + tenantId;
+    }
+  }
+}
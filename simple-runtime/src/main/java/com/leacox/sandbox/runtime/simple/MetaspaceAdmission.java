@@ -0,0 +1,81 @@
+package com.leacox.sandbox.runtime.simple;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Refuses new runners while the JVM's Metaspace use is above a limit.
+ *
+ * <p>Every runner loads its classes into Metaspace. If too many loaders are still waiting to be
+ * collected, or have leaked, loading more classes ends in an {@code OutOfMemoryError} that can hit
+ * any thread of the runtime. Refusing new runners once use crosses a limit below the maximum leaves
+ * room for the runners already admitted and gives the collector a chance to unload the retired
+ * loaders.
+ *
+ * @author John Leacox
+ */
+final class MetaspaceAdmission {
+  private static final double DEFAULT_LIMIT_FRACTION = 0.9;
+
+  private final MemoryPoolMXBean metaspace;
+  private final long limitBytes;
+
+  private MetaspaceAdmission(MemoryPoolMXBean metaspace, long limitBytes) {
+    this.metaspace = metaspace;
+    this.limitBytes = limitBytes;
+  }
+
+  /**
+   * Creates the admission check.
+   *
+   * @param configuredLimitBytes the Metaspace use above which runners are refused, or {@code -1}
+   *     for 90% of the maximum Metaspace size if the JVM has one, and no limit otherwise
+   */
+  static MetaspaceAdmission create(long configuredLimitBytes) {
+    MemoryPoolMXBean metaspace = null;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if ("Metaspace".equals(pool.getName())) {
+        metaspace = pool;
+        break;
+      }
+    }
+
+    if (metaspace == null) {
+      return new MetaspaceAdmission(null, Long.MAX_VALUE);
+    }
+
+    long limitBytes = configuredLimitBytes;
+    if (limitBytes < 0) {
+      long maxBytes = metaspace.getUsage().getMax();
+      limitBytes = maxBytes < 0 ? Long.MAX_VALUE : (long) (maxBytes * DEFAULT_LIMIT_FRACTION);
+    }
+
+    return new MetaspaceAdmission(metaspace, limitBytes);
+  }
+
+  /**
+   * Returns the Metaspace use above which runners are refused, or {@link Long#MAX_VALUE} if there
+   * is no limit.
+   */
+  long getLimitBytes() {
+    return limitBytes;
+  }
+
+  /**
+   * Throws if the Metaspace use is above the limit.
+   *
+   * @throws RejectedExecutionException if the runner must be refused
+   */
+  void checkAdmission() {
+    if (limitBytes == Long.MAX_VALUE) {
+      return;
+    }
+
+    long usedBytes = metaspace.getUsage().getUsed();
+    if (usedBytes > limitBytes) {
+      throw new RejectedExecutionException("Metaspace use of " + usedBytes
+          + " bytes is above the admission limit of " + limitBytes + " bytes");
+    }
+  }
+}
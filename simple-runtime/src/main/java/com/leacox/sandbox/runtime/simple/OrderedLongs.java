@@ -0,0 +1,109 @@
+package com.leacox.sandbox.runtime.simple;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads and writes of longs in a {@link ByteBuffer} with acquire and release semantics, for
+ * positions that are published to another thread or process through shared memory.
+ *
+ * <p>A release write is not reordered with any read or write before it, and an acquire read is not
+ * reordered with any read or write after it, so a reader that sees a position written with
+ * {@link #setRelease} also sees everything written before it. On Java 9 and later this is done with
+ * a byte buffer view {@code VarHandle}, which is looked up reflectively since the runtime is built
+ * for Java 8. On Java 8 the plain read or write is instead fenced by a volatile access, which
+ * relies on HotSpot compiling a volatile access to a barrier that no access moves across.
+ *
+ * <p>The buffer must be a direct buffer in the native byte order, and the index must be aligned to
+ * 8 bytes.
+ *
+ * @author John Leacox
+ */
+final class OrderedLongs {
+  private static final MethodHandle GET_ACQUIRE;
+  private static final MethodHandle SET_RELEASE;
+
+  // Only accessed for its barriers on Java 8
+  private static volatile int fence;
+
+  static {
+    MethodHandle getAcquire = null;
+    MethodHandle setRelease = null;
+    try {
+      Class<?> varHandleType = Class.forName("java.lang.invoke.VarHandle");
+      Class<?> accessModeType = Class.forName("java.lang.invoke.VarHandle$AccessMode");
+      Object varHandle = MethodHandles.class
+          .getMethod("byteBufferViewVarHandle", Class.class, ByteOrder.class)
+          .invoke(null, long[].class, ByteOrder.nativeOrder());
+      Method toMethodHandle = varHandleType.getMethod("toMethodHandle", accessModeType);
+      getAcquire = (MethodHandle) toMethodHandle.invoke(
+          varHandle, enumConstant(accessModeType, "GET_ACQUIRE"));
+      setRelease = (MethodHandle) toMethodHandle.invoke(
+          varHandle, enumConstant(accessModeType, "SET_RELEASE"));
+    } catch (ReflectiveOperationException e) {
+      // Java 8
+      getAcquire = null;
+      setRelease = null;
+    }
+
+    GET_ACQUIRE = getAcquire;
+    SET_RELEASE = setRelease;
+  }
+
+  private OrderedLongs() {
+  }
+
+  /**
+   * Reads the long at the index with acquire semantics.
+   */
+  static long getAcquire(ByteBuffer buffer, int index) {
+    if (GET_ACQUIRE == null) {
+      long value = buffer.getLong(index);
+      int unused = fence;
+      return value;
+    }
+
+    try {
+      return (long) GET_ACQUIRE.invokeExact(buffer, index);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  /**
+   * Writes the long at the index with release semantics.
+   */
+  static void setRelease(ByteBuffer buffer, int index, long value) {
+    if (SET_RELEASE == null) {
+      fence = 0;
+      buffer.putLong(index, value);
+      return;
+    }
+
+    try {
+      SET_RELEASE.invokeExact(buffer, index, value);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  // The enum type is only known at run time, and asSubclass has checked that it is an enum
+  @SuppressWarnings("unchecked")
+  private static Enum<?> enumConstant(Class<?> type, String name) {
+    return Enum.valueOf(type.asSubclass(Enum.class), name);
+  }
+
+  private static RuntimeException rethrow(Throwable t) {
+    if (t instanceof RuntimeException) {
+      throw (RuntimeException) t;
+    } else if (t instanceof Error) {
+      throw (Error) t;
+    }
+
+    // The access modes declare no checked exceptions
+    throw new IllegalStateException(t);
+  }
+}
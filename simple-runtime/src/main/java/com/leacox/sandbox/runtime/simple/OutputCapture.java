@@ -0,0 +1,211 @@
+package com.leacox.sandbox.runtime.simple;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+
+/**
+ * Captures what a single runner writes to {@code System.out} and {@code System.err}.
+ *
+ * <p>The capture is bound to the runner's worker thread, and inherited by any thread the runner
+ * starts, and the {@link RoutingPrintStream}s installed as {@code System.out} and
+ * {@code System.err} write the output of those threads here instead of to the real streams. Each
+ * stream is kept in its own direct buffer, allocated on the first write and grown up to the
+ * runner's output quota, so captured output does not add to the heap the runner is charged for.
+ * Writes only synchronize with other threads of the same runner, never with the runtime or other
+ * runners.
+ *
+ * <p>Output beyond the quota, and output from threads the runner left running after it finished,
+ * is dropped and counted.
+ *
+ * @author John Leacox
+ */
+final class OutputCapture {
+  private static final Logger logger = LoggerFactory.getLogger(OutputCapture.class);
+  private static final InheritableThreadLocal<OutputCapture> current =
+      new InheritableThreadLocal<>();
+  private static final int INITIAL_BUFFER_BYTES = 4096;
+
+  private final String runnerClassName;
+  private final int quotaBytes;
+  private final RunnerOutputListener listener;
+  private final StreamBuffer stdout = new StreamBuffer(RunnerOutput.Stream.STDOUT);
+  private final StreamBuffer stderr = new StreamBuffer(RunnerOutput.Stream.STDERR);
+
+  /**
+   * Creates a new instance of {@code OutputCapture}.
+   *
+   * @param runnerClassName the class name of the runner, passed to the listener
+   * @param quotaBytes the maximum number of bytes captured from each stream
+   * @param listener the listener to pass output to as it is written, or null
+   */
+  OutputCapture(String runnerClassName, int quotaBytes, RunnerOutputListener listener) {
+    this.runnerClassName = runnerClassName;
+    this.quotaBytes = quotaBytes;
+    this.listener = listener;
+  }
+
+  /**
+   * Returns the capture bound to the current thread, or null if the thread is not running a
+   * runner.
+   */
+  static OutputCapture current() {
+    return current.get();
+  }
+
+  /**
+   * Binds the capture to the current thread and the threads it starts.
+   */
+  static void bind(OutputCapture capture) {
+    current.set(capture);
+  }
+
+  /**
+   * Unbinds the capture from the current thread.
+   */
+  static void unbind() {
+    current.remove();
+  }
+
+  /**
+   * Returns the print stream that captures the given stream of the runner. Each runner has its own
+   * print streams, so printing only ever waits for other threads of the same runner.
+   */
+  PrintStream printStream(RunnerOutput.Stream stream) {
+    return (stream == RunnerOutput.Stream.STDOUT ? stdout : stderr).printStream();
+  }
+
+  /**
+   * Returns a copy of the output captured so far.
+   */
+  RunnerOutput snapshot() {
+    return new RunnerOutput(
+        stdout.toByteArray(), stderr.toByteArray(), stdout.dropped() + stderr.dropped());
+  }
+
+  /**
+   * Stops capturing and releases the buffers. Anything written after this is dropped.
+   */
+  void close() {
+    stdout.close();
+    stderr.close();
+  }
+
+  private final class StreamBuffer {
+    private final RunnerOutput.Stream stream;
+    private ByteBuffer buffer;
+    private PrintStream printStream;
+    private long droppedBytes = 0;
+    private boolean closed = false;
+
+    private StreamBuffer(RunnerOutput.Stream stream) {
+      this.stream = stream;
+    }
+
+    synchronized PrintStream printStream() {
+      if (printStream == null) {
+        // Encodes with the default charset, like the JVM's own System.out and System.err
+        printStream = new PrintStream(new OutputStream() {
+          @Override
+          public void write(int b) {
+            StreamBuffer.this.write(b);
+          }
+
+          @Override
+          public void write(byte[] bytes, int offset, int length) {
+            StreamBuffer.this.write(bytes, offset, length);
+          }
+        }, true);
+      }
+
+      return printStream;
+    }
+
+    synchronized void write(int b) {
+      if (reserve(1) == 1) {
+        buffer.put((byte) b);
+        notifyListener(new byte[] {(byte) b}, 0, 1);
+      }
+    }
+
+    synchronized void write(byte[] bytes, int offset, int length) {
+      int accepted = reserve(length);
+      if (accepted > 0) {
+        buffer.put(bytes, offset, accepted);
+        notifyListener(bytes, offset, accepted);
+      }
+    }
+
+    /**
+     * Makes room for up to {@code length} bytes within the quota, counting the rest as dropped,
+     * and returns how many bytes fit.
+     */
+    private int reserve(int length) {
+      int size = buffer == null ? 0 : buffer.position();
+      int accepted = closed ? 0 : Math.min(length, quotaBytes - size);
+      droppedBytes += length - accepted;
+      if (accepted > 0 && (buffer == null || buffer.remaining() < accepted)) {
+        grow(size + accepted);
+      }
+
+      return accepted;
+    }
+
+    private void grow(int minCapacity) {
+      int capacity =
+          buffer == null ? Math.min(INITIAL_BUFFER_BYTES, quotaBytes) : buffer.capacity();
+      while (capacity < minCapacity) {
+        capacity = (int) Math.min((long) capacity * 2, quotaBytes);
+      }
+
+      ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+      if (buffer != null) {
+        buffer.flip();
+        grown.put(buffer);
+      }
+      buffer = grown;
+    }
+
+    private void notifyListener(byte[] bytes, int offset, int length) {
+      if (listener == null) {
+        return;
+      }
+
+      // Don't let the runner's domain on the stack restrict what the listener may do
+      AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+        try {
+          listener.onOutput(runnerClassName, stream, bytes, offset, length);
+        } catch (RuntimeException e) {
+          logger.debug("Output listener of runner {} failed", runnerClassName, e);
+        }
+        return null;
+      });
+    }
+
+    synchronized byte[] toByteArray() {
+      if (buffer == null) {
+        return new byte[0];
+      }
+
+      ByteBuffer written = buffer.duplicate();
+      written.flip();
+      byte[] bytes = new byte[written.remaining()];
+      written.get(bytes);
+      return bytes;
+    }
+
+    synchronized long dropped() {
+      return droppedBytes;
+    }
+
+    synchronized void close() {
+      closed = true;
+      buffer = null;
+    }
+  }
+}
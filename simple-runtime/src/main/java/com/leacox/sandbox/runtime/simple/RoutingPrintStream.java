@@ -0,0 +1,211 @@
+package com.leacox.sandbox.runtime.simple;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * The {@code System.out} or {@code System.err} of a runtime that captures the output of runners.
+ *
+ * <p>Everything printed on a thread with a bound {@link OutputCapture} goes to that runner's own
+ * print stream, and everything else goes to the JVM's original stream. Runners therefore never
+ * share a lock or a buffer with each other or with the runtime's own logging, and a runner cannot
+ * close the JVM's streams.
+ *
+ * @author John Leacox
+ */
+final class RoutingPrintStream extends PrintStream {
+  private final RunnerOutput.Stream stream;
+  private final PrintStream fallback;
+
+  /**
+   * Creates a new instance of {@code RoutingPrintStream}.
+   *
+   * @param stream the stream this replaces
+   * @param fallback the JVM's original stream, used by threads that are not running a runner
+   */
+  RoutingPrintStream(RunnerOutput.Stream stream, PrintStream fallback) {
+    super(fallback, true);
+    this.stream = stream;
+    this.fallback = fallback;
+  }
+
+  /**
+   * Returns the JVM's original stream.
+   */
+  PrintStream getFallback() {
+    return fallback;
+  }
+
+  private PrintStream target() {
+    OutputCapture capture = OutputCapture.current();
+    return capture == null ? fallback : capture.printStream(stream);
+  }
+
+  @Override
+  public void flush() {
+    target().flush();
+  }
+
+  @Override
+  public void close() {
+    target().close();
+  }
+
+  @Override
+  public boolean checkError() {
+    return target().checkError();
+  }
+
+  @Override
+  public void write(int b) {
+    target().write(b);
+  }
+
+  @Override
+  public void write(byte[] buf, int off, int len) {
+    target().write(buf, off, len);
+  }
+
+  @Override
+  public void write(byte[] buf) throws IOException {
+    target().write(buf);
+  }
+
+  @Override
+  public void print(boolean b) {
+    target().print(b);
+  }
+
+  @Override
+  public void print(char c) {
+    target().print(c);
+  }
+
+  @Override
+  public void print(int i) {
+    target().print(i);
+  }
+
+  @Override
+  public void print(long l) {
+    target().print(l);
+  }
+
+  @Override
+  public void print(float f) {
+    target().print(f);
+  }
+
+  @Override
+  public void print(double d) {
+    target().print(d);
+  }
+
+  @Override
+  public void print(char[] s) {
+    target().print(s);
+  }
+
+  @Override
+  public void print(String s) {
+    target().print(s);
+  }
+
+  @Override
+  public void print(Object obj) {
+    target().print(obj);
+  }
+
+  @Override
+  public void println() {
+    target().println();
+  }
+
+  @Override
+  public void println(boolean x) {
+    target().println(x);
+  }
+
+  @Override
+  public void println(char x) {
+    target().println(x);
+  }
+
+  @Override
+  public void println(int x) {
+    target().println(x);
+  }
+
+  @Override
+  public void println(long x) {
+    target().println(x);
+  }
+
+  @Override
+  public void println(float x) {
+    target().println(x);
+  }
+
+  @Override
+  public void println(double x) {
+    target().println(x);
+  }
+
+  @Override
+  public void println(char[] x) {
+    target().println(x);
+  }
+
+  @Override
+  public void println(String x) {
+    target().println(x);
+  }
+
+  @Override
+  public void println(Object x) {
+    target().println(x);
+  }
+
+  @Override
+  public PrintStream printf(String format, Object... args) {
+    target().printf(format, args);
+    return this;
+  }
+
+  @Override
+  public PrintStream printf(Locale l, String format, Object... args) {
+    target().printf(l, format, args);
+    return this;
+  }
+
+  @Override
+  public PrintStream format(String format, Object... args) {
+    target().format(format, args);
+    return this;
+  }
+
+  @Override
+  public PrintStream format(Locale l, String format, Object... args) {
+    target().format(l, format, args);
+    return this;
+  }
+
+  @Override
+  public PrintStream append(CharSequence csq) {
+    target().append(csq);
+    return this;
+  }
+
+  @Override
+  public PrintStream append(CharSequence csq, int start, int end) {
+    target().append(csq, start, end);
+    return this;
+  }
+
+  @Override
+  public PrintStream append(char c) {
+    target().append(c);
+    return this;
+  }
+}
@@ -0,0 +1,307 @@
+package com.leacox.sandbox.runtime.simple;
+
+import com.leacox.sandbox.security.accounting.AllocationAccount;
+import com.leacox.sandbox.security.accounting.AllocationRecorder;
+import com.leacox.sandbox.security.preemption.AbortSignal;
+import com.leacox.sandbox.security.preemption.Checkpoint;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * A single run of a user runner on a sandbox worker thread.
+ *
+ * <p>The runner is created on the worker thread, so its static initializer and constructor run
+ * under the same deadline, budgets and output capture as the runner itself. The outcome of the run
+ * is published through a {@link CompletableFuture} as soon as it is known. The runner's deadline is
+ * armed on the shared {@link RunnerWatchdog} when the runner starts and cancelled when it finishes,
+ * so no thread waits on the runner while it is running. A runner that is still queued once its
+ * timeout has passed since it was queued times out without running, so its result does not wait on
+ * workers that are stuck in code that cannot be stopped.
+ *
+ * <p>While the runner runs, its allocations are charged to an {@link AllocationAccount} bound to
+ * the worker thread. A runner that exceeds its allocation budget is aborted. What the runner prints
+ * is captured by an {@link OutputCapture} bound to the worker thread, if output is captured.
+ *
+ * <p>The CPU time of the worker thread is measured from when the runner starts. Rather than polling
+ * it, the watchdog checks it once the remaining CPU budget has passed in wall clock time, which is
+ * the earliest the budget could have run out, and checks again after whatever budget is left. Where
+ * the JVM does not measure thread CPU time the wall clock time is used instead.
+ *
+ * <p>A runner that times out or runs out of CPU time is stopped by aborting its
+ * {@link AbortSignal}, which the checkpoints compiled into user classes observe, and by
+ * interrupting the worker thread in case the runner is blocked.
+ *
+ * @author John Leacox
+ */
+final class RunnerExecution implements Runnable {
+  private static final Logger logger = LoggerFactory.getLogger(RunnerExecution.class);
+  private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+  private static final long UNWIND_GRACE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final String runnerClassName;
+  private final ClassLoader userLoader;
+  private final Class<?> runnerClass;
+  private final long timeoutNanos;
+  private final long cpuBudgetNanos;
+  private final AllocationAccount allocationAccount;
+  private final AbortSignal abortSignal = new AbortSignal();
+  private final OutputCapture output;
+  private final RunnerWatchdog watchdog;
+  private final RunnerMetrics metrics;
+  private final Consumer<RunnerResult> onFinished;
+  private final long queuedNanos = System.nanoTime();
+  private final CompletableFuture<RunnerResult> result = new CompletableFuture<>();
+  private final AtomicBoolean started = new AtomicBoolean(false);
+  // Held while interrupting the worker and while finishing, so that an abort cannot interrupt
+  // whatever the worker runs next
+  private final Object abortLock = new Object();
+
+  private volatile Thread thread;
+  private volatile long startNanos;
+  private volatile long cpuStartNanos;
+  private volatile boolean cpuBudgetExceeded = false;
+  private volatile boolean finished = false;
+  private volatile ScheduledFuture<?> cpuCheck;
+  private volatile ScheduledFuture<?> queueDeadline;
+
+  /**
+   * Creates a new instance of {@code RunnerExecution}.
+   *
+   * @param runnerClassName the class name of the runner
+   * @param userLoader the loader of the runner, used as the context class loader while it runs
+   * @param runnerClass the class of the runner, which must implement {@link Runnable} and have a
+   *     public no argument constructor
+   * @param timeoutNanos how long the runner may run before it is timed out
+   * @param cpuBudgetNanos how much CPU time the runner may use before it is aborted, or
+   *     {@link Long#MAX_VALUE} for no limit
+   * @param maxAllocatedBytes how many bytes the runner may allocate before it is aborted
+   * @param output the capture of the runner's output, or null if output is not captured
+   * @param watchdog the watchdog to arm the runner's deadline on
+   * @param metrics the metrics to record the run in
+   * @param onFinished called with the runner's result once the runner's code is no longer running,
+   *     on the worker thread, or on the watchdog thread if the runner timed out while queued
+   */
+  RunnerExecution(
+      String runnerClassName, ClassLoader userLoader, Class<?> runnerClass, long timeoutNanos,
+      long cpuBudgetNanos, long maxAllocatedBytes, OutputCapture output, RunnerWatchdog watchdog,
+      RunnerMetrics metrics, Consumer<RunnerResult> onFinished) {
+    this.runnerClassName = runnerClassName;
+    this.userLoader = userLoader;
+    this.runnerClass = runnerClass;
+    this.timeoutNanos = timeoutNanos;
+    this.cpuBudgetNanos = cpuBudgetNanos;
+    this.allocationAccount = new AllocationAccount(maxAllocatedBytes);
+    this.output = output;
+    this.watchdog = watchdog;
+    this.metrics = metrics;
+    this.onFinished = onFinished;
+  }
+
+  /**
+   * Returns a future of the runner's result.
+   */
+  CompletableFuture<RunnerResult> getResult() {
+    return result;
+  }
+
+  /**
+   * Arms the deadline of the runner while it waits for a worker. Called once the runner has been
+   * queued.
+   */
+  void queued() {
+    queueDeadline = watchdog.schedule(this::timeOutQueued, timeoutNanos);
+  }
+
+  @Override
+  public void run() {
+    if (!started.compareAndSet(false, true)) {
+      // Timed out while queued
+      return;
+    }
+
+    ScheduledFuture<?> currentQueueDeadline = queueDeadline;
+    if (currentQueueDeadline != null) {
+      currentQueueDeadline.cancel(false);
+    }
+
+    thread = Thread.currentThread();
+    startNanos = System.nanoTime();
+    cpuStartNanos = currentCpuNanos();
+    metrics.recordQueueWait(startNanos - queuedNanos);
+    ScheduledFuture<?> deadline = watchdog.schedule(this::timeOut, timeoutNanos);
+    if (cpuBudgetNanos != Long.MAX_VALUE) {
+      cpuCheck = watchdog.schedule(this::checkCpuBudget, cpuBudgetNanos);
+    }
+
+    try {
+      thread.setContextClassLoader(userLoader);
+      Checkpoint.bind(abortSignal);
+      AllocationRecorder.bind(allocationAccount);
+      if (output != null) {
+        OutputCapture.bind(output);
+      }
+      try {
+        newRunner().run();
+      } finally {
+        OutputCapture.unbind();
+        AllocationRecorder.unbind();
+        Checkpoint.unbind();
+      }
+
+      complete(isBudgetExceeded() ? RunnerResult.Status.ABORTED : RunnerResult.Status.COMPLETED,
+          null);
+    } catch (Throwable t) {
+      complete(isBudgetExceeded() ? RunnerResult.Status.ABORTED : RunnerResult.Status.FAILED, t);
+    } finally {
+      synchronized (abortLock) {
+        finished = true;
+        // Don't leave an interrupt meant for the runner to whatever runs on the thread next
+        Thread.interrupted();
+      }
+      metrics.recordRunTime(System.nanoTime() - startNanos);
+      deadline.cancel(false);
+      ScheduledFuture<?> currentCpuCheck = cpuCheck;
+      if (currentCpuCheck != null) {
+        currentCpuCheck.cancel(false);
+      }
+
+      if (output != null) {
+        output.close();
+      }
+      onFinished.accept(result.getNow(null));
+    }
+  }
+
+  private Runnable newRunner() throws Throwable {
+    try {
+      return (Runnable) runnerClass.getDeclaredConstructor().newInstance();
+    } catch (InvocationTargetException e) {
+      // Report what the constructor threw rather than the reflective wrapper
+      throw e.getCause();
+    }
+  }
+
+  private boolean isBudgetExceeded() {
+    return cpuBudgetExceeded || allocationAccount.isExceeded();
+  }
+
+  private boolean complete(RunnerResult.Status status, Throwable failure) {
+    if (result.isDone()) {
+      // Don't copy the output of a runner that already has its result
+      return false;
+    }
+
+    boolean completed = result.complete(new RunnerResult(runnerClassName, status,
+        System.nanoTime() - startNanos, cpuUsedNanos(), allocationAccount.getAllocatedBytes(),
+        failure, output != null ? output.snapshot() : RunnerOutput.empty()));
+    if (completed) {
+      metrics.recordResult(status);
+    }
+
+    return completed;
+  }
+
+  private void timeOut() {
+    if (complete(RunnerResult.Status.TIMED_OUT, null)) {
+      abort("Runner timed out after " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms");
+    }
+  }
+
+  private void timeOutQueued() {
+    if (!started.compareAndSet(false, true)) {
+      return;
+    }
+
+    long waitNanos = System.nanoTime() - queuedNanos;
+    metrics.recordQueueWait(waitNanos);
+    logger.warn("Runner {} timed out after waiting {} ms for a worker", runnerClassName,
+        TimeUnit.NANOSECONDS.toMillis(waitNanos));
+    if (result.complete(new RunnerResult(runnerClassName, RunnerResult.Status.TIMED_OUT, 0, 0, 0,
+        null, RunnerOutput.empty()))) {
+      metrics.recordResult(RunnerResult.Status.TIMED_OUT);
+    }
+
+    if (output != null) {
+      output.close();
+    }
+    onFinished.accept(result.getNow(null));
+  }
+
+  private void checkCpuBudget() {
+    if (finished) {
+      return;
+    }
+
+    long remainingNanos = cpuBudgetNanos - cpuUsedNanos();
+    if (remainingNanos > 0) {
+      cpuCheck = watchdog.schedule(this::checkCpuBudget, remainingNanos);
+      return;
+    }
+
+    cpuBudgetExceeded = true;
+    if (complete(RunnerResult.Status.ABORTED, null)) {
+      abort("Runner exceeded its CPU budget of "
+          + TimeUnit.NANOSECONDS.toMillis(cpuBudgetNanos) + " ms");
+    }
+  }
+
+  /**
+   * Aborts the runner. The checkpoints in the runner's code throw from the next method call or loop
+   * iteration, and the interrupt wakes the runner if it is blocked. Neither can stop a runner that
+   * is stuck inside JDK code that ignores interrupts, so a warning is logged if the runner is still
+   * running after a grace period.
+   */
+  private void abort(String reason) {
+    synchronized (abortLock) {
+      if (finished) {
+        return;
+      }
+
+      metrics.recordAbortAttempt();
+      abortSignal.abort(reason);
+      thread.interrupt();
+    }
+    watchdog.schedule(this::checkAborted, UNWIND_GRACE_NANOS);
+  }
+
+  private void checkAborted() {
+    if (!finished) {
+      metrics.recordUnresponsiveAbort();
+      logger.warn("Runner {} is still running {} ms after it was aborted", runnerClassName,
+          TimeUnit.NANOSECONDS.toMillis(UNWIND_GRACE_NANOS));
+    }
+  }
+
+  private long cpuUsedNanos() {
+    long startCpuNanos = cpuStartNanos;
+    long cpuNanos = currentCpuNanos();
+    if (startCpuNanos < 0 || cpuNanos < 0) {
+      return System.nanoTime() - startNanos;
+    }
+
+    return cpuNanos - startCpuNanos;
+  }
+
+  /**
+   * Returns the CPU time of the worker thread, or {@code -1} if it is not measured.
+   */
+  private long currentCpuNanos() {
+    Thread currentThread = thread;
+    if (currentThread == Thread.currentThread()) {
+      return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+    }
+
+    return threads.isThreadCpuTimeSupported()
+        ? threads.getThreadCpuTime(currentThread.getId()) : -1;
+  }
+}
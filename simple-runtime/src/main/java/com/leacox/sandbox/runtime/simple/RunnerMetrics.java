@@ -0,0 +1,82 @@
+package com.leacox.sandbox.runtime.simple;
+
+import com.leacox.sandbox.security.metrics.Counter;
+import com.leacox.sandbox.security.metrics.Histogram;
+import com.leacox.sandbox.security.metrics.RuntimeMetrics;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The metrics of the runners of a {@link SimpleRuntime}, looked up once so that recording them
+ * does not build metric names.
+ *
+ * <p>Latencies are recorded in nanoseconds:
+ *
+ * <ul>
+ *   <li>{@code runner.queue.wait} is how long a runner waited between being submitted and
+ *       starting on a worker thread, including waiting for a slot of its tenant.
+ *   <li>{@code runner.run} is how long a runner ran for.
+ * </ul>
+ *
+ * <p>The counters are {@code runner.status.<status>} for how runners finished,
+ * {@code runner.abort.attempts} for the runners that were aborted, and
+ * {@code runner.abort.unresponsive} for the aborted runners still running after the grace period.
+ * The classes each runner's loader defined are recorded in the
+ * {@code classloader.classes.perLoader} histogram and counted in
+ * {@code classloader.classes.defined}.
+ *
+ * @author John Leacox
+ */
+final class RunnerMetrics {
+  private final Histogram queueWait;
+  private final Histogram runTime;
+  private final Map<RunnerResult.Status, Counter> statuses =
+      new EnumMap<>(RunnerResult.Status.class);
+  private final Counter abortAttempts;
+  private final Counter unresponsiveAborts;
+  private final Histogram classesPerLoader;
+  private final Counter classesDefined;
+
+  /**
+   * Creates a new instance of {@code RunnerMetrics}.
+   */
+  RunnerMetrics(RuntimeMetrics metrics) {
+    this.queueWait = metrics.histogram("runner.queue.wait");
+    this.runTime = metrics.histogram("runner.run");
+    for (RunnerResult.Status status : RunnerResult.Status.values()) {
+      statuses.put(status,
+          metrics.counter("runner.status." + status.name().toLowerCase(Locale.ROOT)));
+    }
+    this.abortAttempts = metrics.counter("runner.abort.attempts");
+    this.unresponsiveAborts = metrics.counter("runner.abort.unresponsive");
+    this.classesPerLoader = metrics.histogram("classloader.classes.perLoader");
+    this.classesDefined = metrics.counter("classloader.classes.defined");
+  }
+
+  void recordQueueWait(long nanos) {
+    queueWait.record(nanos);
+  }
+
+  void recordRunTime(long nanos) {
+    runTime.record(nanos);
+  }
+
+  void recordResult(RunnerResult.Status status) {
+    statuses.get(status).increment();
+  }
+
+  void recordAbortAttempt() {
+    abortAttempts.increment();
+  }
+
+  void recordUnresponsiveAbort() {
+    unresponsiveAborts.increment();
+  }
+
+  void recordDefinedClasses(int count) {
+    classesPerLoader.record(count);
+    classesDefined.add(count);
+  }
+}
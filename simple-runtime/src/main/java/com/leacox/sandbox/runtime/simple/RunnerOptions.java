@@ -0,0 +1,201 @@
+package com.leacox.sandbox.runtime.simple;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Options for running a single user runner.
+ *
+ * @author John Leacox
+ */
+public class RunnerOptions {
+  private static final RunnerOptions DEFAULTS = builder().build();
+
+  private final long timeoutNanos;
+  private final String tenantId;
+  private final long cpuBudgetNanos;
+  private final long maxAllocatedBytes;
+  private final int outputQuota;
+  private final RunnerOutputListener outputListener;
+
+  private RunnerOptions(Builder builder) {
+    this.timeoutNanos = builder.timeoutNanos;
+    this.tenantId = builder.tenantId;
+    this.cpuBudgetNanos = builder.cpuBudgetNanos;
+    this.maxAllocatedBytes = builder.maxAllocatedBytes;
+    this.outputQuota = builder.outputQuota;
+    this.outputListener = builder.outputListener;
+  }
+
+  /**
+   * Returns options that use the runtime defaults for everything.
+   */
+  public static RunnerOptions defaults() {
+    return DEFAULTS;
+  }
+
+  /**
+   * Returns a new builder initialized with the runtime defaults.
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns how long the runner may run before it is timed out, or {@code -1} to use the runtime
+   * default.
+   */
+  public long getTimeoutNanos() {
+    return timeoutNanos;
+  }
+
+  /**
+   * Returns the tenant the runner belongs to, or {@code null} to use the runner's jar path.
+   */
+  public String getTenantId() {
+    return tenantId;
+  }
+
+  /**
+   * Returns how much CPU time the runner may use before it is aborted, or {@code -1} to use the
+   * runtime default.
+   */
+  public long getCpuBudgetNanos() {
+    return cpuBudgetNanos;
+  }
+
+  /**
+   * Returns how many bytes the runner may allocate before it is aborted, or {@code -1} to use the
+   * runtime default.
+   */
+  public long getMaxAllocatedBytes() {
+    return maxAllocatedBytes;
+  }
+
+  /**
+   * Returns how many bytes of each of {@code System.out} and {@code System.err} are captured, or
+   * {@code -1} to use the runtime default.
+   */
+  public int getOutputQuota() {
+    return outputQuota;
+  }
+
+  /**
+   * Returns the listener that is passed the runner's output as it is written, or {@code null} if
+   * there is none.
+   */
+  public RunnerOutputListener getOutputListener() {
+    return outputListener;
+  }
+
+  /**
+   * Returns a copy of these options with the tenant set.
+   */
+  RunnerOptions withTenantId(String tenantId) {
+    Builder builder = builder().tenantId(tenantId);
+    builder.timeoutNanos = timeoutNanos;
+    builder.cpuBudgetNanos = cpuBudgetNanos;
+    builder.maxAllocatedBytes = maxAllocatedBytes;
+    builder.outputQuota = outputQuota;
+    builder.outputListener = outputListener;
+    return builder.build();
+  }
+
+  /**
+   * A builder for {@link RunnerOptions}.
+   */
+  public static class Builder {
+    private long timeoutNanos = -1;
+    private String tenantId = null;
+    private long cpuBudgetNanos = -1;
+    private long maxAllocatedBytes = -1;
+    private int outputQuota = -1;
+    private RunnerOutputListener outputListener = null;
+
+    private Builder() {}
+
+    /**
+     * Sets how long the runner may run, once it has a worker thread, before it is timed out.
+     * Defaults to the runtime's default runner timeout.
+     */
+    public Builder timeout(long duration, TimeUnit unit) {
+      if (duration < 1) {
+        throw new IllegalArgumentException("duration:Must be greater than 0");
+      }
+
+      this.timeoutNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    /**
+     * Sets the tenant the runner belongs to, which the per-tenant concurrency limit is applied to.
+     * Defaults to the runner's jar path.
+     */
+    public Builder tenantId(String tenantId) {
+      if (tenantId == null) {
+        throw new NullPointerException("tenantId:null");
+      }
+
+      this.tenantId = tenantId;
+      return this;
+    }
+
+    /**
+     * Sets how much CPU time the runner may use before it is aborted. Defaults to the runtime's
+     * default CPU budget.
+     */
+    public Builder cpuBudget(long duration, TimeUnit unit) {
+      if (duration < 1) {
+        throw new IllegalArgumentException("duration:Must be greater than 0");
+      }
+
+      this.cpuBudgetNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    /**
+     * Sets how many bytes the runner may allocate on the heap before it is aborted. Defaults to the
+     * runtime's default allocation budget.
+     */
+    public Builder maxAllocatedBytes(long maxAllocatedBytes) {
+      if (maxAllocatedBytes < 0) {
+        throw new IllegalArgumentException("maxAllocatedBytes:Must not be negative");
+      }
+
+      this.maxAllocatedBytes = maxAllocatedBytes;
+      return this;
+    }
+
+    /**
+     * Sets how many bytes of each of {@code System.out} and {@code System.err} are captured. Output
+     * beyond the quota is dropped. Defaults to the runtime's default output quota.
+     */
+    public Builder outputQuota(int bytes) {
+      if (bytes < 0) {
+        throw new IllegalArgumentException("bytes:Must not be negative");
+      }
+
+      this.outputQuota = bytes;
+      return this;
+    }
+
+    /**
+     * Sets a listener that is passed the runner's captured output as it is written, for example to
+     * stream it to a client. Defaults to no listener.
+     */
+    public Builder outputListener(RunnerOutputListener outputListener) {
+      if (outputListener == null) {
+        throw new NullPointerException("outputListener:null");
+      }
+
+      this.outputListener = outputListener;
+      return this;
+    }
+
+    /**
+     * Creates the options.
+     */
+    public RunnerOptions build() {
+      return new RunnerOptions(this);
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package com.leacox.sandbox.runtime.simple;
+
+import java.nio.charset.Charset;
+
+/**
+ * What a runner wrote to {@code System.out} and {@code System.err}.
+ *
+ * <p>Each stream is captured up to the runner's output quota. Anything the runner writes once a
+ * stream's quota is used up, or after the runner has finished, is dropped and only counted.
+ *
+ * @author John Leacox
+ */
+public final class RunnerOutput {
+  private static final RunnerOutput EMPTY = new RunnerOutput(new byte[0], new byte[0], 0);
+
+  /**
+   * A standard stream of a runner.
+   */
+  public enum Stream {
+    /**
+     * {@code System.out}.
+     */
+    STDOUT,
+
+    /**
+     * {@code System.err}.
+     */
+    STDERR
+  }
+
+  private final byte[] stdout;
+  private final byte[] stderr;
+  private final long droppedBytes;
+
+  /**
+   * Creates a new instance of {@code RunnerOutput}.
+   *
+   * @param stdout the captured bytes of {@code System.out}
+   * @param stderr the captured bytes of {@code System.err}
+   * @param droppedBytes the number of bytes that were written to either stream but not captured
+   */
+  public RunnerOutput(byte[] stdout, byte[] stderr, long droppedBytes) {
+    if (stdout == null) {
+      throw new NullPointerException("stdout:null");
+    } else if (stderr == null) {
+      throw new NullPointerException("stderr:null");
+    }
+
+    this.stdout = stdout;
+    this.stderr = stderr;
+    this.droppedBytes = droppedBytes;
+  }
+
+  /**
+   * Returns output with nothing captured.
+   */
+  public static RunnerOutput empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Returns the captured bytes of {@code System.out}.
+   */
+  public byte[] getStdoutBytes() {
+    return stdout.clone();
+  }
+
+  /**
+   * Returns the captured bytes of {@code System.err}.
+   */
+  public byte[] getStderrBytes() {
+    return stderr.clone();
+  }
+
+  /**
+   * Returns the captured {@code System.out} decoded with the default charset, which is the charset
+   * the runner's {@code PrintStream} encoded it with.
+   */
+  public String getStdout() {
+    return new String(stdout, Charset.defaultCharset());
+  }
+
+  /**
+   * Returns the captured {@code System.err} decoded with the default charset, which is the charset
+   * the runner's {@code PrintStream} encoded it with.
+   */
+  public String getStderr() {
+    return new String(stderr, Charset.defaultCharset());
+  }
+
+  /**
+   * Returns the number of bytes that were written to either stream but not captured.
+   */
+  public long getDroppedBytes() {
+    return droppedBytes;
+  }
+
+  /**
+   * Returns {@code true} if any output was dropped, {@code false} otherwise.
+   */
+  public boolean isTruncated() {
+    return droppedBytes > 0;
+  }
+
+  @Override
+  public String toString() {
+    return "RunnerOutput{"
+        + "stdoutBytes=" + stdout.length
+        + ", stderrBytes=" + stderr.length
+        + ", droppedBytes=" + droppedBytes
+        + '}';
+  }
+}
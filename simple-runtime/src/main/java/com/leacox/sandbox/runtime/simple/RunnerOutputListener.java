@@ -0,0 +1,25 @@
+package com.leacox.sandbox.runtime.simple;
+
+/**
+ * Receives the output of a runner as it is written.
+ *
+ * <p>The listener is called on the thread of the runner that wrote the output, while the runner
+ * waits, so it should hand the bytes off rather than do slow work. It runs with the runtime's
+ * permissions rather than the runner's. Only output that fits in the runner's output quota is
+ * passed to the listener.
+ *
+ * @author John Leacox
+ */
+public interface RunnerOutputListener {
+  /**
+   * Called with each chunk of output the runner writes.
+   *
+   * @param runnerClassName the class name of the runner
+   * @param stream the stream the runner wrote to
+   * @param bytes the buffer holding the output, which must not be retained or modified
+   * @param offset the offset of the output in the buffer
+   * @param length the number of bytes of output
+   */
+  void onOutput(
+      String runnerClassName, RunnerOutput.Stream stream, byte[] bytes, int offset, int length);
+}
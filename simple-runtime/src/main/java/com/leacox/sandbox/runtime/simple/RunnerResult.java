@@ -0,0 +1,139 @@
+package com.leacox.sandbox.runtime.simple;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of running a single user runner.
+ *
+ * @author John Leacox
+ */
+public final class RunnerResult {
+  /**
+   * How a runner finished.
+   */
+  public enum Status {
+    /**
+     * The runner returned normally.
+     */
+    COMPLETED,
+
+    /**
+     * The runner threw an exception, or could not be created or scheduled.
+     */
+    FAILED,
+
+    /**
+     * The runner did not finish before its timeout.
+     */
+    TIMED_OUT,
+
+    /**
+     * The runner was stopped for exceeding one of its resource budgets.
+     */
+    ABORTED
+  }
+
+  private final String runnerClassName;
+  private final Status status;
+  private final long elapsedNanos;
+  private final long cpuNanos;
+  private final long allocatedBytes;
+  private final Throwable failure;
+  private final RunnerOutput output;
+
+  /**
+   * Creates a new instance of {@code RunnerResult}.
+   *
+   * @param runnerClassName the class name of the runner
+   * @param status how the runner finished
+   * @param elapsedNanos how long the runner ran for
+   * @param cpuNanos how much CPU time the runner used
+   * @param allocatedBytes how many bytes the runner allocated on the heap
+   * @param failure the reason the runner failed, or null if it did not fail
+   * @param output what the runner wrote to {@code System.out} and {@code System.err}
+   */
+  public RunnerResult(
+      String runnerClassName, Status status, long elapsedNanos, long cpuNanos,
+      long allocatedBytes, Throwable failure, RunnerOutput output) {
+    if (runnerClassName == null) {
+      throw new NullPointerException("runnerClassName:null");
+    } else if (status == null) {
+      throw new NullPointerException("status:null");
+    } else if (output == null) {
+      throw new NullPointerException("output:null");
+    }
+
+    this.runnerClassName = runnerClassName;
+    this.status = status;
+    this.elapsedNanos = elapsedNanos;
+    this.cpuNanos = cpuNanos;
+    this.allocatedBytes = allocatedBytes;
+    this.failure = failure;
+    this.output = output;
+  }
+
+  /**
+   * Returns the class name of the runner.
+   */
+  public String getRunnerClassName() {
+    return runnerClassName;
+  }
+
+  /**
+   * Returns how the runner finished.
+   */
+  public Status getStatus() {
+    return status;
+  }
+
+  /**
+   * Returns how long the runner ran for, in nanoseconds. This does not include the time spent
+   * waiting for a worker thread.
+   */
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  /**
+   * Returns how much CPU time the runner used, as far as was known when the result was produced.
+   */
+  public long getCpuNanos() {
+    return cpuNanos;
+  }
+
+  /**
+   * Returns how many bytes the runner allocated on the heap, as far as was known when the result
+   * was produced. For runners that timed out this may not include their most recent allocations.
+   */
+  public long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  /**
+   * Returns the reason the runner failed, or {@code null} if it did not fail.
+   */
+  public Throwable getFailure() {
+    return failure;
+  }
+
+  /**
+   * Returns what the runner wrote to {@code System.out} and {@code System.err}, as far as was known
+   * when the result was produced. Output is not captured if the runtime is configured not to.
+   */
+  public RunnerOutput getOutput() {
+    return output;
+  }
+
+  @Override
+  public String toString() {
+    return "RunnerResult{"
+        + "runnerClassName=" + runnerClassName
+        + ", status=" + status
+        + ", elapsedMillis=" + TimeUnit.NANOSECONDS.toMillis(elapsedNanos)
+        + ", cpuMillis=" + TimeUnit.NANOSECONDS.toMillis(cpuNanos)
+        + ", allocatedBytes=" + allocatedBytes
+        + (failure != null ? ", failure=" + failure : "")
+        + ", output=" + output
+        + '}';
+  }
+}
@@ -0,0 +1,47 @@
+package com.leacox.sandbox.runtime.simple;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single shared scheduler for the deadlines of all running runners.
+ *
+ * <p>Deadlines are kept in a priority queue ordered by expiry and served by one daemon thread, so
+ * the cost of tracking runners does not grow with the number of runners and nothing polls while no
+ * deadline is due. Cancelled deadlines are removed from the queue immediately.
+ *
+ * @author John Leacox
+ */
+class RunnerWatchdog {
+  private final ScheduledThreadPoolExecutor scheduler;
+
+  /**
+   * Creates a new instance of {@code RunnerWatchdog} and starts its thread.
+   */
+  RunnerWatchdog() {
+    this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+      Thread thread = new Thread(runnable, "runner-watchdog");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.scheduler.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * Runs the action on the watchdog thread once the delay has passed. Actions must be short, as
+   * they delay every other deadline.
+   *
+   * @return a future that can be used to cancel the deadline
+   */
+  ScheduledFuture<?> schedule(Runnable action, long delayNanos) {
+    return scheduler.schedule(action, delayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Stops the watchdog. Pending deadlines are discarded.
+   */
+  void shutdown() {
+    scheduler.shutdownNow();
+  }
+}
@@ -0,0 +1,355 @@
+package com.leacox.sandbox.runtime.simple;
+
+import com.leacox.sandbox.security.SandboxThreadGroup;
+
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded executor for running user code.
+ *
+ * <p>By default user code runs on a fixed pool of worker threads that belong to a
+ * {@link SandboxThreadGroup}. The number of tasks admitted to the executor, running or waiting, is
+ * limited to the number of workers plus the queue capacity. Once that limit is reached a submission
+ * is either rejected immediately or blocks until there is room, depending on the
+ * {@link RejectionPolicy}.
+ *
+ * <p>With the {@link ThreadMode#VIRTUAL} thread mode each task instead starts at once on a virtual
+ * thread of its own, so the same limit applies to the tasks running at the same time. Virtual
+ * threads cannot be created in a thread group, so each one is adopted by the sandbox thread group
+ * while it runs, and user code on it cannot start virtual threads of its own. Virtual threads also
+ * inherit no permissions under a security manager, so the runtime code that runs the task is
+ * privileged, which leaves user code on the thread with exactly the permissions it has on a worker
+ * thread.
+ *
+ * <p>Each task belongs to a tenant, and at most a configured number of tasks of a tenant run at the
+ * same time. The remaining tasks of a busy tenant wait in a per-tenant queue, without holding a
+ * worker, and are handed to the pool as the tenant's running tasks finish.
+ *
+ * @author John Leacox
+ */
+public class SandboxExecutor {
+  /**
+   * What happens to a submission when the executor is full.
+   */
+  public enum RejectionPolicy {
+    /**
+     * The submission is rejected immediately with a {@link RejectedExecutionException}.
+     */
+    ABORT,
+
+    /**
+     * The submitting thread blocks until there is room, or until the submit timeout passes, after
+     * which the submission is rejected with a {@link RejectedExecutionException}.
+     */
+    BLOCK
+  }
+
+  /**
+   * The kind of threads user code runs on.
+   */
+  public enum ThreadMode {
+    /**
+     * A fixed pool of platform threads, one for each worker.
+     */
+    PLATFORM,
+
+    /**
+     * A new virtual thread for each task. Requires Java 21 to 23, started with
+     * {@code -Djava.security.manager=allow}; Java 24 and later cannot install a security manager.
+     */
+    VIRTUAL
+  }
+
+  private final ExecutorService pool;
+  private final int capacity;
+  private final Semaphore admissions;
+  private final RejectionPolicy rejectionPolicy;
+  private final long submitTimeoutNanos;
+  private final int maxConcurrentPerTenant;
+  private final ConcurrentHashMap<String, TenantSlots> tenants = new ConcurrentHashMap<>();
+  private final AtomicInteger activeTasks = new AtomicInteger();
+
+  /**
+   * Creates a new instance of {@code SandboxExecutor} and starts its worker threads.
+   *
+   * @throws UnsupportedOperationException if the virtual thread mode is configured and the JVM
+   *     does not have virtual threads
+   */
+  public SandboxExecutor(SimpleRuntimeConfig config) {
+    this.rejectionPolicy = config.getRejectionPolicy();
+    this.submitTimeoutNanos = config.getSubmitTimeoutNanos();
+    this.maxConcurrentPerTenant = config.getMaxConcurrentRunnersPerTenant();
+    this.capacity = config.getWorkerThreads() + config.getQueueCapacity();
+    this.admissions = new Semaphore(capacity);
+
+    SandboxThreadGroup group = new SandboxThreadGroup("sandbox");
+    if (config.getThreadMode() == ThreadMode.VIRTUAL) {
+      this.pool = VirtualThreads.newThreadPerTaskExecutor(new VirtualSandboxThreadFactory(group));
+    } else {
+      // The admissions semaphore bounds the number of queued tasks, so the queue itself never
+      // fills.
+      ThreadPoolExecutor workers = new ThreadPoolExecutor(
+          config.getWorkerThreads(), config.getWorkerThreads(), 0L, TimeUnit.MILLISECONDS,
+          new LinkedBlockingQueue<>(), new SandboxThreadFactory(group),
+          new ThreadPoolExecutor.AbortPolicy());
+      workers.prestartAllCoreThreads();
+      this.pool = workers;
+    }
+  }
+
+  /**
+   * Submits a task on behalf of a tenant.
+   *
+   * @param tenantId the tenant the task belongs to
+   * @param task the task to run
+   * @return a future that completes when the task finishes
+   * @throws RejectedExecutionException if the executor is full or has been shut down
+   */
+  public Future<?> submit(String tenantId, Runnable task) {
+    if (tenantId == null) {
+      throw new NullPointerException("tenantId:null");
+    } else if (task == null) {
+      throw new NullPointerException("task:null");
+    } else if (pool.isShutdown()) {
+      throw new RejectedExecutionException("Sandbox executor has been shut down");
+    }
+
+    admit();
+
+    SandboxTask sandboxTask;
+    boolean dispatch;
+    while (true) {
+      TenantSlots slots = tenants.computeIfAbsent(tenantId, TenantSlots::new);
+      sandboxTask = new SandboxTask(slots, task);
+      synchronized (slots) {
+        if (slots.retired) {
+          // The tenant went idle and was removed after we looked it up
+          continue;
+        }
+        dispatch = slots.tryStart(sandboxTask);
+      }
+      break;
+    }
+
+    if (dispatch) {
+      dispatch(sandboxTask);
+    }
+
+    return sandboxTask;
+  }
+
+  private void admit() {
+    if (rejectionPolicy == RejectionPolicy.ABORT) {
+      if (!admissions.tryAcquire()) {
+        throw new RejectedExecutionException("Sandbox executor is full");
+      }
+
+      return;
+    }
+
+    try {
+      if (!admissions.tryAcquire(submitTimeoutNanos, TimeUnit.NANOSECONDS)) {
+        throw new RejectedExecutionException("Timed out waiting for room in the sandbox executor");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RejectedExecutionException("Interrupted waiting for room in the sandbox executor");
+    }
+  }
+
+  private void dispatch(SandboxTask task) {
+    try {
+      pool.execute(task);
+    } catch (RejectedExecutionException e) {
+      task.cancel(false);
+    }
+  }
+
+  /**
+   * Returns the number of tasks that have been admitted and not yet finished.
+   */
+  public int getAdmittedTaskCount() {
+    return capacity - admissions.availablePermits();
+  }
+
+  /**
+   * Returns the approximate number of tasks that are running.
+   */
+  public int getActiveTaskCount() {
+    return activeTasks.get();
+  }
+
+  /**
+   * Stops accepting new tasks. Tasks that have already been submitted still run.
+   */
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  /**
+   * Blocks until all tasks have finished after a shutdown, or the timeout passes.
+   *
+   * @return {@code true} if the executor terminated, {@code false} if the timeout passed first
+   */
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return pool.awaitTermination(timeout, unit);
+  }
+
+  private final class SandboxTask extends FutureTask<Void> {
+    private final TenantSlots slots;
+
+    /**
+     * Whether the task was handed to the pool, guarded by the tenant slots.
+     */
+    private boolean started = false;
+
+    private SandboxTask(TenantSlots slots, Runnable task) {
+      super(task, null);
+      this.slots = slots;
+    }
+
+    @Override
+    public void run() {
+      Thread thread = Thread.currentThread();
+      ClassLoader contextLoader = thread.getContextClassLoader();
+      activeTasks.incrementAndGet();
+      try {
+        super.run();
+      } finally {
+        activeTasks.decrementAndGet();
+        // User code sets its own context class loader, which must not leak into the next task
+        thread.setContextClassLoader(contextLoader);
+      }
+    }
+
+    @Override
+    protected void done() {
+      SandboxTask next;
+      synchronized (slots) {
+        next = slots.finish(this);
+      }
+
+      admissions.release();
+
+      if (next != null) {
+        dispatch(next);
+      }
+    }
+  }
+
+  private final class TenantSlots {
+    private final String tenantId;
+    private final Deque<SandboxTask> waiting = new ArrayDeque<>();
+    private int running = 0;
+    private boolean retired = false;
+
+    private TenantSlots(String tenantId) {
+      this.tenantId = tenantId;
+    }
+
+    /**
+     * Marks the task as started and returns {@code true} if the tenant has a free slot, otherwise
+     * queues the task and returns {@code false}. Must be called while holding this lock.
+     */
+    private boolean tryStart(SandboxTask task) {
+      if (running < maxConcurrentPerTenant) {
+        running++;
+        task.started = true;
+        return true;
+      }
+
+      waiting.addLast(task);
+      return false;
+    }
+
+    /**
+     * Releases the slot of a finished task and returns the next waiting task to start, if any. Must
+     * be called while holding this lock.
+     */
+    private SandboxTask finish(SandboxTask task) {
+      if (!task.started) {
+        // Cancelled while waiting for a slot
+        waiting.remove(task);
+        retireIfIdle();
+        return null;
+      }
+
+      running--;
+      SandboxTask next;
+      while ((next = waiting.pollFirst()) != null) {
+        if (!next.isDone()) {
+          running++;
+          next.started = true;
+          return next;
+        }
+      }
+
+      retireIfIdle();
+      return null;
+    }
+
+    private void retireIfIdle() {
+      if (running == 0 && waiting.isEmpty()) {
+        retired = true;
+        tenants.remove(tenantId, this);
+      }
+    }
+  }
+
+  private static final class SandboxThreadFactory implements ThreadFactory {
+    private final ThreadGroup group;
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    private SandboxThreadFactory(ThreadGroup group) {
+      this.group = group;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread =
+          new Thread(group, runnable, "sandbox-worker-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+  private static final class VirtualSandboxThreadFactory implements ThreadFactory {
+    private final SandboxThreadGroup group;
+    private final ThreadFactory virtualThreads = VirtualThreads.factory("sandbox-virtual-");
+
+    private VirtualSandboxThreadFactory(SandboxThreadGroup group) {
+      this.group = group;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      // The runtime's own code on the thread must not fall back to the empty permissions virtual
+      // threads inherit, while user code further down the stack is still checked as usual. The
+      // thread adopts itself, so that user code on it cannot start virtual threads of its own.
+      return virtualThreads.newThread(() -> AccessController.doPrivileged(
+          (PrivilegedAction<Void>) () -> {
+            group.adopt(Thread.currentThread());
+            try {
+              runnable.run();
+            } finally {
+              group.release(Thread.currentThread());
+            }
+            return null;
+          }));
+    }
+  }
+}
@@ -1,21 +1,34 @@
 package com.leacox.sandbox.runtime.simple;
 
 import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.dynamic.DynamicType;
 import net.bytebuddy.utility.JavaModule;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * A ByteBuddy agent {@link AgentBuilder.Listener} that logs and tracks errors.
  *
- * <p>By tracking when an error occurs, it allows stopping execution if an error occurs.
+ * <p>By tracking when an error occurs, it allows stopping execution if an error occurs. It also
+ * counts the transformations that were applied.
  *
  * @author John Leacox
  */
 public class SimpleByteBuddyListener extends AgentBuilder.Listener.Adapter {
   private static final Logger logger = LoggerFactory.getLogger(SimpleByteBuddyListener.class);
-  private boolean errorDuringInstrumentation = false;
+  private final AtomicInteger transformedCount = new AtomicInteger();
+  private volatile boolean errorDuringInstrumentation = false;
+
+  @Override
+  public void onTransformation(
+      TypeDescription typeDescription, ClassLoader classLoader, JavaModule javaModule,
+      DynamicType dynamicType) {
+    transformedCount.incrementAndGet();
+  }
 
   @Override
   public void onError(
@@ -30,4 +43,11 @@ public class SimpleByteBuddyListener extends AgentBuilder.Listener.Adapter {
   public boolean hadErrorDuringInstrumentation() {
     return errorDuringInstrumentation;
   }
+
+  /**
+   * Returns the number of classes that have been transformed.
+   */
+  public int getTransformedCount() {
+    return transformedCount.get();
+  }
 }
@@ -1,13 +1,17 @@
 package com.leacox.sandbox.runtime.simple;
 
+import static net.bytebuddy.matcher.ElementMatchers.any;
 import static net.bytebuddy.matcher.ElementMatchers.none;
 
 import com.leacox.sandbox.runtime.security.transform.BootstrapTransformationContext;
 import com.leacox.sandbox.runtime.security.transform.BootstrapTransformationDefinition;
 
+import com.leacox.sandbox.security.JarContentCache;
 import com.leacox.sandbox.security.RuntimePolicy;
 import com.leacox.sandbox.security.RuntimeSecurityManager;
 import com.leacox.sandbox.security.UserClassLoader;
+import com.leacox.sandbox.security.accounting.AllocationRecorder;
+import com.leacox.sandbox.security.metrics.RuntimeMetrics;
 
 import net.bytebuddy.agent.ByteBuddyAgent;
 import net.bytebuddy.agent.builder.AgentBuilder;
@@ -19,12 +23,26 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.instrument.ClassDefinition;
 import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.Policy;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.JarFile;
 
 /**
@@ -34,140 +52,471 @@ import java.util.jar.JarFile;
  */
 public class SimpleRuntime {
   private static final Logger logger = LoggerFactory.getLogger(SimpleRuntime.class);
+  private static final long RECLAMATION_CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
 
   /**
    * A class loader that is shared between both the runtime and user environment. This class loader
    * includes everything on the bootstrap and system class path in addition to any shared jars.
    */
   private ClassLoader commonLoader;
-  private boolean isStarted = false;
+  private final SimpleRuntimeConfig config;
+  private final JarContentCache jarContentCache = new JarContentCache();
+  private final RunnerMetrics runnerMetrics;
+  private final WarmPool warmPool;
+  private final LoaderReclamationTracker reclamationTracker;
+  private final MetaspaceAdmission metaspaceAdmission;
+  private RuntimePolicy policy;
+  private SandboxExecutor executor;
+  private RunnerWatchdog watchdog;
+  private volatile InstrumentationStats instrumentationStats;
+  private volatile boolean isStarted = false;
+
+  /**
+   * Creates a new instance of {@code SimpleRuntime} with the default configuration.
+   */
+  public SimpleRuntime() {
+    this(SimpleRuntimeConfig.defaults());
+  }
+
+  /**
+   * Creates a new instance of {@code SimpleRuntime}.
+   */
+  public SimpleRuntime(SimpleRuntimeConfig config) {
+    if (config == null) {
+      throw new NullPointerException("config:null");
+    }
+
+    this.config = config;
+    this.runnerMetrics = new RunnerMetrics(config.getMetrics());
+    this.warmPool = new WarmPool(config.getWarmPoolSize(), config.getWarmPoolMaxUses(),
+        config.getWarmPoolIdleTtlNanos(), jarContentCache, this::newUserClassLoader,
+        this::finished, config.getMetrics());
+    this.reclamationTracker = new LoaderReclamationTracker(config.getLoaderLeakGcCycles(),
+        config.getLoaderLeakHeapDumpDirectory(), config.getMetrics());
+    this.metaspaceAdmission = MetaspaceAdmission.create(config.getMetaspaceAdmissionLimitBytes());
+  }
 
   public void start(ClassLoader commonLoader) {
+    if (config.getThreadMode() == SandboxExecutor.ThreadMode.VIRTUAL
+        && !VirtualThreads.isSupported()) {
+      throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+    }
+
     this.commonLoader = commonLoader;
 
-    Policy.setPolicy(new RuntimePolicy());
+    this.policy = new RuntimePolicy(config.getMetrics());
+    Policy.setPolicy(policy);
+    if (config.isCaptureOutput()) {
+      System.setOut(new RoutingPrintStream(RunnerOutput.Stream.STDOUT, System.out));
+      System.setErr(new RoutingPrintStream(RunnerOutput.Stream.STDERR, System.err));
+    }
     System.setSecurityManager(new RuntimeSecurityManager());
 
     instrument();
+
+    this.executor = new SandboxExecutor(config);
+    this.watchdog = new RunnerWatchdog();
+    if (config.getWarmPoolSize() > 0) {
+      scheduleWarmPoolEviction();
+    }
+    scheduleReclamationCheck();
+
+    isStarted = true;
+  }
+
+  private void scheduleWarmPoolEviction() {
+    watchdog.schedule(() -> {
+      warmPool.evictIdle();
+      scheduleWarmPoolEviction();
+    }, Math.max(config.getWarmPoolIdleTtlNanos() / 2, TimeUnit.SECONDS.toNanos(1)));
+  }
+
+  private void scheduleReclamationCheck() {
+    watchdog.schedule(() -> {
+      reclamationTracker.check();
+      scheduleReclamationCheck();
+    }, RECLAMATION_CHECK_INTERVAL_NANOS);
   }
 
   private void instrument() {
     Instrumentation instrumentation = ByteBuddyAgent.install();
 
-    File file = new File("runtime-stubs/target/runtime-stubs-1.0-SNAPSHOT.jar");
-    String path = file.getAbsolutePath();
-    if (!file.exists()) {
-      throw new RuntimeException("Unable to find stubs jar");
-    }
-
-    JarFile jarFile;
+    StubsJar stubsJar;
+    ClassFileLocator stubsLocator;
     try {
-      jarFile = new JarFile(file);
-      instrumentation.appendToBootstrapClassLoaderSearch(jarFile);
+      stubsJar = StubsJar.locate(config.getStubsJar(), config.getStubsJarSha256());
+      stubsLocator = stubsJar.toClassFileLocator();
+
+      // Only the path of the jar is appended, so the jar does not need to stay open here. The path
+      // is the new file just written to a private directory, so no other user can replace it.
+      Path stubsJarPath = stubsJar.materialize(config.getStubsJarDirectory());
+      try (JarFile jarFile = new JarFile(stubsJarPath.toFile())) {
+        instrumentation.appendToBootstrapClassLoaderSearch(jarFile);
+      }
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
 
+    AllocationRecorder.install(instrumentation);
+
+    long startNanos = System.nanoTime();
+    List<BootstrapTransformationDefinition> definitions = new ArrayList<>();
+    for (BootstrapTransformationDefinition definition : ServiceLoader
+        .load(BootstrapTransformationDefinition.class)) {
+      definitions.add(definition);
+    }
+
+    Set<String> targetTypeNames = new HashSet<>();
+    boolean untargeted = false;
+    for (BootstrapTransformationDefinition definition : definitions) {
+      Set<String> definitionTargets = definition.getTargetTypeNames();
+      if (definitionTargets.isEmpty()) {
+        logger.warn("{} does not declare its target types; every class will be matched against it",
+            definition.getClass().getName());
+        untargeted = true;
+      }
+      targetTypeNames.addAll(definitionTargets);
+    }
+
+    Class<?>[] loadedClasses = instrumentation.getAllLoadedClasses();
+    Map<String, Class<?>> loadedTargets = new HashMap<>();
+    for (Class<?> loadedClass : loadedClasses) {
+      if ((untargeted || targetTypeNames.contains(loadedClass.getName()))
+          && instrumentation.isModifiableClass(loadedClass)) {
+        loadedTargets.put(loadedClass.getName(), loadedClass);
+      }
+    }
+
+    // Classes restored from the cache are already transformed, so ByteBuddy never needs to see them
+    TransformationCache transformationCache =
+        untargeted ? null : openTransformationCache(stubsJar.getSha256(), definitions);
+    Set<String> cachedTypeNames =
+        applyCachedTransformations(instrumentation, transformationCache, loadedTargets);
+    Set<String> remainingTargetTypeNames = new HashSet<>(targetTypeNames);
+    remainingTargetTypeNames.removeAll(cachedTypeNames);
+
     SimpleByteBuddyListener listener = new SimpleByteBuddyListener();
 
+    // The targeted transformer below decides which classes ByteBuddy sees, so nothing is ignored
     AgentBuilder agentBuilder = new AgentBuilder.Default()
         .disableClassFormatChanges()
-        .with(AgentBuilder.RedefinitionStrategy.RETRANSFORMATION)
         .with(listener)
         .ignore(none());
 
     TypePool bootstrapTypePool = TypePool.Default.of(new ClassFileLocator.Compound(
-        new ClassFileLocator.ForJarFile(jarFile),
-        ClassFileLocator.ForClassLoader.of(null)));
+        stubsLocator, ClassFileLocator.ForClassLoader.of(null)));
     BootstrapTransformationContext context = new BootstrapTransformationContext(bootstrapTypePool);
-    for (BootstrapTransformationDefinition definition : ServiceLoader
-        .load(BootstrapTransformationDefinition.class)) {
+    for (BootstrapTransformationDefinition definition : definitions) {
       agentBuilder = agentBuilder
           .type(definition.getRawMatcher(context))
           .transform(definition.getTransformer(context));
     }
 
-    agentBuilder.installOnByteBuddyAgent();
+    // Charge the allocations made by user code to the runner that made them, and give the runtime
+    // a way to stop user code that runs for too long
+    agentBuilder = agentBuilder
+        .type(any(), classLoader -> classLoader instanceof UserClassLoader)
+        .transform((builder, typeDescription, classLoader) -> builder
+            .visit(AllocationInstrumentation.asmVisitorWrapper())
+            .visit(CheckpointInstrumentation.asmVisitorWrapper()));
+
+    TargetedClassFileTransformer transformer = new TargetedClassFileTransformer(
+        agentBuilder.makeRaw(), remainingTargetTypeNames, untargeted);
+    instrumentation.addTransformer(transformer, true);
+
+    List<Class<?>> targets = new ArrayList<>();
+    for (Map.Entry<String, Class<?>> loadedTarget : loadedTargets.entrySet()) {
+      if (!cachedTypeNames.contains(loadedTarget.getKey())) {
+        targets.add(loadedTarget.getValue());
+      }
+    }
+
+    try {
+      if (!targets.isEmpty()) {
+        instrumentation.retransformClasses(targets.toArray(new Class<?>[targets.size()]));
+      }
+    } catch (UnmodifiableClassException e) {
+      throw new RuntimeException(e);
+    }
 
     if (listener.hadErrorDuringInstrumentation()) {
       throw new RuntimeException("Some transformations failed; not continuing");
     }
 
-    isStarted = true;
+    if (transformationCache != null && cachedTypeNames.isEmpty()) {
+      Map<String, byte[]> transformedTargets = transformer.getTransformedTargets();
+      if (!transformedTargets.isEmpty()) {
+        transformationCache.store(transformedTargets);
+      }
+    }
+
+    instrumentationStats = new InstrumentationStats(loadedClasses.length, targets.size(),
+        cachedTypeNames.size(), listener.getTransformedCount(), System.nanoTime() - startNanos);
+    logger.info("Instrumented the runtime: {}", instrumentationStats);
+  }
+
+  private TransformationCache openTransformationCache(
+      String stubsSha256, List<BootstrapTransformationDefinition> definitions) {
+    Path cacheDirectory = config.getTransformationCacheDirectory();
+    if (cacheDirectory == null) {
+      return null;
+    }
+
+    return TransformationCache.open(cacheDirectory, stubsSha256, definitions);
+  }
+
+  /**
+   * Redefines the loaded target classes with their cached transformed bytes.
+   *
+   * @return the names of the classes that were redefined
+   */
+  private Set<String> applyCachedTransformations(
+      Instrumentation instrumentation, TransformationCache transformationCache,
+      Map<String, Class<?>> loadedTargets) {
+    if (transformationCache == null || !instrumentation.isRedefineClassesSupported()) {
+      return Collections.emptySet();
+    }
+
+    List<ClassDefinition> classDefinitions = new ArrayList<>();
+    Set<String> cachedTypeNames = new HashSet<>();
+    for (Map.Entry<String, byte[]> cachedClass : transformationCache.load().entrySet()) {
+      Class<?> loadedTarget = loadedTargets.get(cachedClass.getKey());
+      if (loadedTarget != null) {
+        classDefinitions.add(new ClassDefinition(loadedTarget, cachedClass.getValue()));
+        cachedTypeNames.add(cachedClass.getKey());
+      }
+    }
+
+    if (classDefinitions.isEmpty()) {
+      return Collections.emptySet();
+    }
+
+    try {
+      instrumentation.redefineClasses(
+          classDefinitions.toArray(new ClassDefinition[classDefinitions.size()]));
+      return cachedTypeNames;
+    } catch (ClassNotFoundException | UnmodifiableClassException | RuntimeException
+        | LinkageError e) {
+      logger.warn("Unable to apply cached transformations; regenerating them", e);
+      transformationCache.invalidate();
+      return Collections.emptySet();
+    }
+  }
+
+  /**
+   * Returns statistics of the instrumentation performed when the runtime started, or null if it has
+   * not been started.
+   */
+  public InstrumentationStats getInstrumentationStats() {
+    return instrumentationStats;
+  }
+
+  /**
+   * Returns the number of retired user class loaders that the garbage collector has not reclaimed
+   * yet.
+   */
+  public int getUnreclaimedLoaderCount() {
+    return reclamationTracker.getUnreclaimedCount();
+  }
+
+  /**
+   * Returns the metrics the runtime records its runners and permission checks in.
+   */
+  public RuntimeMetrics getMetrics() {
+    return config.getMetrics();
+  }
+
+  /**
+   * Run the supplied runners with the default runner options.
+   *
+   * @return the result of each runner, keyed by runner class name
+   */
+  public Map<String, RunnerResult> run(Map<String, String> runnerJarsByMainClass) {
+    return run(runnerJarsByMainClass, Collections.emptyMap());
   }
 
   /**
-   * Run the supplied runners.
+   * Run the supplied runners, returning as soon as every runner has completed, failed or timed out.
+   *
+   * @param runnerJarsByMainClass the jar path of each runner, keyed by runner class name
+   * @param optionsByMainClass the options of each runner, keyed by runner class name; runners
+   *     without options use the defaults
+   * @return the result of each runner, keyed by runner class name
    */
-  public void run(Map<String, String> runnerJarsByMainClass) {
+  public Map<String, RunnerResult> run(
+      Map<String, String> runnerJarsByMainClass, Map<String, RunnerOptions> optionsByMainClass) {
     if (!isStarted) {
       throw new RuntimeException("Cannot run user jars until the runtime has been started.");
     }
 
-    List<Thread> threads = new ArrayList<>();
+    Map<String, CompletableFuture<RunnerResult>> futures = new LinkedHashMap<>();
     for (Map.Entry<String, String> entry : runnerJarsByMainClass.entrySet()) {
       String runnerClassName = entry.getKey();
-      String jarPath = entry.getValue();
-      File jarFile = new File(jarPath);
-      if (!jarFile.exists()) {
-        logger.error("Unable to find runner jar file: {}", jarPath);
-      }
+      RunnerOptions options =
+          optionsByMainClass.getOrDefault(runnerClassName, RunnerOptions.defaults());
+      futures.put(runnerClassName, submit(runnerClassName, entry.getValue(), options));
+    }
 
-      try {
-        ClassLoader userLoader = new UserClassLoader(jarFile.toURI().toURL(), commonLoader);
-        Class<? extends Runnable> runnerClass =
-            (Class<? extends Runnable>) userLoader.loadClass(runnerClassName);
-        Runnable runner = runnerClass.newInstance();
-        Runnable runnerRunnable = new Runnable() {
-          @Override
-          public void run() {
-            Thread.currentThread().setContextClassLoader(userLoader);
-            runner.run();
-          }
-        };
-
-        Thread thread = new Thread(runnerRunnable);
-        threads.add(thread);
-        thread.start();
-      } catch (Exception e) {
-        logger.error("Error creating user runner", e);
-      }
+    CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).join();
+
+    Map<String, RunnerResult> results = new LinkedHashMap<>();
+    for (Map.Entry<String, CompletableFuture<RunnerResult>> entry : futures.entrySet()) {
+      RunnerResult result = entry.getValue().join();
+      logger.info("Runner finished: {}", result);
+      results.put(entry.getKey(), result);
     }
 
-    // Give runners 20 seconds to finish
-    for (int i = 0; i < 5; i++) {
-      List<Thread> finishedThreads = new ArrayList<>();
-      for (Thread thread : threads) {
-        if (thread.getState().equals(Thread.State.TERMINATED)) {
-          finishedThreads.add(thread);
-        }
-      }
-      threads.removeAll(finishedThreads);
-      try {
-        Thread.sleep(1000);
-      } catch (InterruptedException e) {
-        e.printStackTrace();
-      }
+    return results;
+  }
+
+  /**
+   * Submits a runner without waiting for it to run.
+   *
+   * <p>The runner's class is loaded on the calling thread without being initialized, and the runner
+   * is then queued on the sandbox executor, which creates it on a worker thread. Problems loading,
+   * creating or queueing the runner are reported through
+   * the returned future as a {@link RunnerResult.Status#FAILED} result rather than thrown, so the
+   * returned future always completes with a result. Submitting only blocks if the executor is full
+   * and configured with the {@link SandboxExecutor.RejectionPolicy#BLOCK} policy.
+   *
+   * @param runnerClassName the class name of the runner, which must implement {@link Runnable}
+   * @param jarPath the path of the jar containing the runner
+   * @param options the options for this run
+   * @return a future of the runner's result
+   */
+  public CompletableFuture<RunnerResult> submit(
+      String runnerClassName, String jarPath, RunnerOptions options) {
+    if (!isStarted) {
+      throw new RuntimeException("Cannot run user jars until the runtime has been started.");
     }
 
-    // Kill any remaining runners. Stop is deprecated, but this is the only way to force stop a
-    // thread. Since each runner has it's own classloader there shouldn't be any shared state
-    // between different runners, except if there is some sort of static state on standard JVM
-    // classes of which a preliminary glance through the OpenJDK source code does not show too many
-    // of. For instance, registering shutdown hooks uses a static map, but the runners don't have
-    // permission for either creating a thread or registering shutdown hooks, both of which would
-    // be required, so that state will never be modified by a runner.
-    for (Thread thread : threads) {
-      int i = 0;
-      while (thread.isAlive()) {
-        thread.stop();
-        if (thread.isAlive() && i % 1000 == 0) {
-          System.out.println("thread is still alive after " + i + " attempts.");
-        }
-        i++;
-      }
+    File jarFile = new File(jarPath);
+    if (!jarFile.exists()) {
+      logger.error("Unable to find runner jar file: {}", jarPath);
     }
 
-    System.out.println("end");
+    String tenantId = tenantId(jarPath, options);
+    WarmPool.Lease lease = null;
+    try {
+      metaspaceAdmission.checkAdmission();
+      lease = warmPool.lease(tenantId, jarFile.toURI().toURL(), runnerClassName);
+      WarmPool.Lease executionLease = lease;
+      RunnerExecution execution = new RunnerExecution(
+          runnerClassName, lease.getLoader(), lease.getRunnerClass(), timeoutNanos(options),
+          cpuBudgetNanos(options), maxAllocatedBytes(options),
+          outputCapture(runnerClassName, options), watchdog, runnerMetrics,
+          result -> warmPool.release(executionLease, isReusable(result)));
+
+      executor.submit(tenantId, execution);
+      execution.queued();
+      return execution.getResult();
+    } catch (RejectedExecutionException e) {
+      logger.error("User runner rejected: {}", runnerClassName, e);
+      return failed(runnerClassName, lease, e);
+    } catch (Throwable t) {
+      logger.error("Error creating user runner", t);
+      return failed(runnerClassName, lease, t);
+    }
+  }
+
+  /**
+   * Fills the warm pool with loaders that have already loaded the runner's class, so that the next
+   * runs of the runner can skip class loading. Does nothing if the warm pool is disabled.
+   *
+   * @param runnerClassName the class name of the runner
+   * @param jarPath the path of the jar containing the runner
+   * @param options the options the runner will be submitted with, which determine its tenant
+   * @throws ClassNotFoundException if the runner's class cannot be loaded
+   * @throws MalformedURLException if the jar path cannot be turned into a URL
+   */
+  public void prewarm(String runnerClassName, String jarPath, RunnerOptions options)
+      throws ClassNotFoundException, MalformedURLException {
+    if (!isStarted) {
+      throw new RuntimeException("Cannot run user jars until the runtime has been started.");
+    }
+
+    warmPool.prewarm(
+        tenantId(jarPath, options), new File(jarPath).toURI().toURL(), runnerClassName);
+  }
+
+  /**
+   * Forgets a jar that will not be run again, retiring its idle warm loaders and dropping its
+   * cached index so that neither keeps the jar's mapping reachable.
+   *
+   * @throws MalformedURLException if the jar path cannot be turned into a URL
+   */
+  void discardJar(String jarPath) throws MalformedURLException {
+    URL jarUrl = new File(jarPath).toURI().toURL();
+    warmPool.evictJar(jarUrl);
+    jarContentCache.invalidate(jarUrl);
+  }
+
+  private UserClassLoader newUserClassLoader(String tenantId, URL jarUrl) {
+    return new UserClassLoader(jarUrl, commonLoader, jarContentCache, config.getClassNameRules(),
+        tenantId, config.getPermissionProfiles().forTenant(tenantId));
+  }
+
+  private static boolean isReusable(RunnerResult result) {
+    // A runner that failed or was stopped may have left its static state half updated
+    return result != null && result.getStatus() == RunnerResult.Status.COMPLETED;
+  }
+
+  private OutputCapture outputCapture(String runnerClassName, RunnerOptions options) {
+    if (!config.isCaptureOutput()) {
+      return null;
+    }
+
+    int quota = options.getOutputQuota() >= 0
+        ? options.getOutputQuota() : config.getDefaultOutputQuota();
+    return new OutputCapture(runnerClassName, quota, options.getOutputListener());
+  }
+
+  private String tenantId(String jarPath, RunnerOptions options) {
+    // Unless told otherwise each jar is treated as its own tenant
+    return options.getTenantId() != null ? options.getTenantId() : jarPath;
+  }
+
+  private long timeoutNanos(RunnerOptions options) {
+    return options.getTimeoutNanos() > 0
+        ? options.getTimeoutNanos() : config.getDefaultRunnerTimeoutNanos();
+  }
+
+  private long cpuBudgetNanos(RunnerOptions options) {
+    return options.getCpuBudgetNanos() > 0
+        ? options.getCpuBudgetNanos() : config.getDefaultCpuBudgetNanos();
+  }
+
+  private long maxAllocatedBytes(RunnerOptions options) {
+    return options.getMaxAllocatedBytes() >= 0
+        ? options.getMaxAllocatedBytes() : config.getDefaultMaxAllocatedBytes();
+  }
+
+  /**
+   * Retires a loader that will not run any more runners. The loader is closed so that it releases
+   * its jar, and tracked until it is reclaimed.
+   */
+  private void finished(UserClassLoader userLoader) {
+    policy.discard(userLoader);
+    runnerMetrics.recordDefinedClasses(userLoader.getDefinedClassCount());
+    try {
+      userLoader.close();
+    } catch (IOException e) {
+      logger.debug("Unable to close user class loader {}", userLoader, e);
+    }
+
+    reclamationTracker.track(userLoader);
+  }
+
+  private CompletableFuture<RunnerResult> failed(
+      String runnerClassName, WarmPool.Lease lease, Throwable failure) {
+    if (lease != null) {
+      warmPool.release(lease, false);
+    }
+
+    runnerMetrics.recordResult(RunnerResult.Status.FAILED);
+
+    return CompletableFuture.completedFuture(
+        new RunnerResult(runnerClassName, RunnerResult.Status.FAILED, 0, 0, 0, failure,
+            RunnerOutput.empty()));
   }
 }
@@ -0,0 +1,626 @@
+package com.leacox.sandbox.runtime.simple;
+
+import com.leacox.sandbox.security.ClassNameRules;
+import com.leacox.sandbox.security.PermissionProfiles;
+import com.leacox.sandbox.security.metrics.RuntimeMetrics;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The configuration of a {@link SimpleRuntime}.
+ *
+ * @author John Leacox
+ */
+public class SimpleRuntimeConfig {
+  private final int workerThreads;
+  private final int queueCapacity;
+  private final SandboxExecutor.RejectionPolicy rejectionPolicy;
+  private final SandboxExecutor.ThreadMode threadMode;
+  private final long submitTimeoutNanos;
+  private final int maxConcurrentRunnersPerTenant;
+  private final long defaultRunnerTimeoutNanos;
+  private final long defaultCpuBudgetNanos;
+  private final long defaultMaxAllocatedBytes;
+  private final ClassNameRules classNameRules;
+  private final PermissionProfiles permissionProfiles;
+  private final Path transformationCacheDirectory;
+  private final Path stubsJar;
+  private final String stubsJarSha256;
+  private final Path stubsJarDirectory;
+  private final RuntimeMetrics metrics;
+  private final int warmPoolSize;
+  private final int warmPoolMaxUses;
+  private final long warmPoolIdleTtlNanos;
+  private final int loaderLeakGcCycles;
+  private final Path loaderLeakHeapDumpDirectory;
+  private final long metaspaceAdmissionLimitBytes;
+  private final boolean captureOutput;
+  private final int defaultOutputQuota;
+
+  private SimpleRuntimeConfig(Builder builder) {
+    this.workerThreads = builder.workerThreads;
+    this.queueCapacity = builder.queueCapacity;
+    this.rejectionPolicy = builder.rejectionPolicy;
+    this.threadMode = builder.threadMode;
+    this.submitTimeoutNanos = builder.submitTimeoutNanos;
+    this.maxConcurrentRunnersPerTenant = builder.maxConcurrentRunnersPerTenant;
+    this.defaultRunnerTimeoutNanos = builder.defaultRunnerTimeoutNanos;
+    this.defaultCpuBudgetNanos = builder.defaultCpuBudgetNanos;
+    this.defaultMaxAllocatedBytes = builder.defaultMaxAllocatedBytes;
+    this.classNameRules = builder.classNameRules;
+    this.permissionProfiles = builder.permissionProfiles;
+    this.transformationCacheDirectory = builder.transformationCacheDirectory;
+    this.stubsJar = builder.stubsJar;
+    this.stubsJarSha256 = builder.stubsJarSha256;
+    this.stubsJarDirectory = builder.stubsJarDirectory;
+    this.metrics = builder.metrics;
+    this.warmPoolSize = builder.warmPoolSize;
+    this.warmPoolMaxUses = builder.warmPoolMaxUses;
+    this.warmPoolIdleTtlNanos = builder.warmPoolIdleTtlNanos;
+    this.loaderLeakGcCycles = builder.loaderLeakGcCycles;
+    this.loaderLeakHeapDumpDirectory = builder.loaderLeakHeapDumpDirectory;
+    this.metaspaceAdmissionLimitBytes = builder.metaspaceAdmissionLimitBytes;
+    this.captureOutput = builder.captureOutput;
+    this.defaultOutputQuota = builder.defaultOutputQuota;
+  }
+
+  /**
+   * Returns a configuration with all of the default values.
+   */
+  public static SimpleRuntimeConfig defaults() {
+    return builder().build();
+  }
+
+  /**
+   * Returns a new builder initialized with the default values.
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns the number of worker threads that run user code.
+   */
+  public int getWorkerThreads() {
+    return workerThreads;
+  }
+
+  /**
+   * Returns the number of runners that can wait for a worker thread before new submissions are
+   * subject to the rejection policy.
+   */
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  /**
+   * Returns what happens to a submission when the queue is full.
+   */
+  public SandboxExecutor.RejectionPolicy getRejectionPolicy() {
+    return rejectionPolicy;
+  }
+
+  /**
+   * Returns the kind of threads user code runs on.
+   */
+  public SandboxExecutor.ThreadMode getThreadMode() {
+    return threadMode;
+  }
+
+  /**
+   * Returns how long a submission blocks waiting for room in the queue under the
+   * {@link SandboxExecutor.RejectionPolicy#BLOCK} policy before it is rejected.
+   */
+  public long getSubmitTimeoutNanos() {
+    return submitTimeoutNanos;
+  }
+
+  /**
+   * Returns the maximum number of runners of a single tenant that can run at the same time.
+   */
+  public int getMaxConcurrentRunnersPerTenant() {
+    return maxConcurrentRunnersPerTenant;
+  }
+
+  /**
+   * Returns how long a runner may run before it is timed out, unless its options say otherwise.
+   */
+  public long getDefaultRunnerTimeoutNanos() {
+    return defaultRunnerTimeoutNanos;
+  }
+
+  /**
+   * Returns how much CPU time a runner may use before it is aborted, unless its options say
+   * otherwise. {@link Long#MAX_VALUE} means there is no limit.
+   */
+  public long getDefaultCpuBudgetNanos() {
+    return defaultCpuBudgetNanos;
+  }
+
+  /**
+   * Returns how many bytes a runner may allocate before it is aborted, unless its options say
+   * otherwise.
+   */
+  public long getDefaultMaxAllocatedBytes() {
+    return defaultMaxAllocatedBytes;
+  }
+
+  /**
+   * Returns the rules for which classes runners may load.
+   */
+  public ClassNameRules getClassNameRules() {
+    return classNameRules;
+  }
+
+  /**
+   * Returns the permission profiles of the tenants whose runners are run.
+   */
+  public PermissionProfiles getPermissionProfiles() {
+    return permissionProfiles;
+  }
+
+  /**
+   * Returns the directory transformed bootstrap classes are cached in between runs, or null if
+   * they are not cached.
+   */
+  public Path getTransformationCacheDirectory() {
+    return transformationCacheDirectory;
+  }
+
+  /**
+   * Returns the path of the runtime stubs jar, or null to discover it.
+   */
+  public Path getStubsJar() {
+    return stubsJar;
+  }
+
+  /**
+   * Returns the expected SHA-256 hash of the runtime stubs jar, or null to use the hash bundled
+   * with the runtime if there is one.
+   */
+  public String getStubsJarSha256() {
+    return stubsJarSha256;
+  }
+
+  /**
+   * Returns the directory the verified stubs jar is written to before it is appended to the
+   * bootstrap class path, or null to write it to a new private temporary directory.
+   */
+  public Path getStubsJarDirectory() {
+    return stubsJarDirectory;
+  }
+
+  /**
+   * Returns the metrics the runtime records its runners and permission checks in.
+   */
+  public RuntimeMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Returns the number of idle loaders the warm pool keeps for each tenant, jar and runner, where
+   * {@code 0} means the warm pool is disabled.
+   */
+  public int getWarmPoolSize() {
+    return warmPoolSize;
+  }
+
+  /**
+   * Returns the number of runs after which a pooled loader is retired.
+   */
+  public int getWarmPoolMaxUses() {
+    return warmPoolMaxUses;
+  }
+
+  /**
+   * Returns how long a pooled loader may sit idle before it is retired.
+   */
+  public long getWarmPoolIdleTtlNanos() {
+    return warmPoolIdleTtlNanos;
+  }
+
+  /**
+   * Returns the number of full or old generation garbage collections after which a retired user
+   * class loader that has not been reclaimed is reported as leaked.
+   */
+  public int getLoaderLeakGcCycles() {
+    return loaderLeakGcCycles;
+  }
+
+  /**
+   * Returns the directory a heap dump is written to when a leaked loader is first found, or null if
+   * no heap dump is written.
+   */
+  public Path getLoaderLeakHeapDumpDirectory() {
+    return loaderLeakHeapDumpDirectory;
+  }
+
+  /**
+   * Returns the Metaspace use in bytes above which new runners are refused, or {@code -1} for 90%
+   * of the JVM's maximum Metaspace size if it has one.
+   */
+  public long getMetaspaceAdmissionLimitBytes() {
+    return metaspaceAdmissionLimitBytes;
+  }
+
+  /**
+   * Returns whether what runners write to {@code System.out} and {@code System.err} is captured
+   * into their results.
+   */
+  public boolean isCaptureOutput() {
+    return captureOutput;
+  }
+
+  /**
+   * Returns how many bytes of each of {@code System.out} and {@code System.err} are captured for
+   * runners that do not set their own quota.
+   */
+  public int getDefaultOutputQuota() {
+    return defaultOutputQuota;
+  }
+
+  /**
+   * A builder for {@link SimpleRuntimeConfig}.
+   */
+  public static class Builder {
+    private int workerThreads = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = 1024;
+    private SandboxExecutor.RejectionPolicy rejectionPolicy =
+        SandboxExecutor.RejectionPolicy.BLOCK;
+    private SandboxExecutor.ThreadMode threadMode = SandboxExecutor.ThreadMode.PLATFORM;
+    private long submitTimeoutNanos = TimeUnit.SECONDS.toNanos(30);
+    private int maxConcurrentRunnersPerTenant = Integer.MAX_VALUE;
+    private long defaultRunnerTimeoutNanos = TimeUnit.SECONDS.toNanos(5);
+    private long defaultCpuBudgetNanos = Long.MAX_VALUE;
+    private long defaultMaxAllocatedBytes = Long.MAX_VALUE;
+    private ClassNameRules classNameRules = ClassNameRules.defaults();
+    private PermissionProfiles permissionProfiles = PermissionProfiles.none();
+    private Path transformationCacheDirectory = null;
+    private Path stubsJar = null;
+    private String stubsJarSha256 = null;
+    private Path stubsJarDirectory = null;
+    private RuntimeMetrics metrics = RuntimeMetrics.disabled();
+    private int warmPoolSize = 0;
+    private int warmPoolMaxUses = 100;
+    private long warmPoolIdleTtlNanos = TimeUnit.MINUTES.toNanos(5);
+    private int loaderLeakGcCycles = 10;
+    private Path loaderLeakHeapDumpDirectory = null;
+    private long metaspaceAdmissionLimitBytes = -1;
+    private boolean captureOutput = true;
+    private int defaultOutputQuota = 64 * 1024;
+
+    private Builder() {}
+
+    /**
+     * Sets the number of worker threads that run user code. Defaults to the number of available
+     * processors.
+     */
+    public Builder workerThreads(int workerThreads) {
+      if (workerThreads < 1) {
+        throw new IllegalArgumentException("workerThreads:Must be greater than 0");
+      }
+
+      this.workerThreads = workerThreads;
+      return this;
+    }
+
+    /**
+     * Sets the number of runners that can wait for a worker thread. Defaults to 1024.
+     */
+    public Builder queueCapacity(int queueCapacity) {
+      if (queueCapacity < 0) {
+        throw new IllegalArgumentException("queueCapacity:Must not be negative");
+      }
+
+      this.queueCapacity = queueCapacity;
+      return this;
+    }
+
+    /**
+     * Sets what happens to a submission when the queue is full. Defaults to
+     * {@link SandboxExecutor.RejectionPolicy#BLOCK}.
+     */
+    public Builder rejectionPolicy(SandboxExecutor.RejectionPolicy rejectionPolicy) {
+      if (rejectionPolicy == null) {
+        throw new NullPointerException("rejectionPolicy:null");
+      }
+
+      this.rejectionPolicy = rejectionPolicy;
+      return this;
+    }
+
+    /**
+     * Sets the kind of threads user code runs on. Defaults to
+     * {@link SandboxExecutor.ThreadMode#PLATFORM}.
+     *
+     * <p>With {@link SandboxExecutor.ThreadMode#VIRTUAL} every admitted runner runs at once on a
+     * virtual thread of its own, so the worker threads plus the queue capacity is the number of
+     * runners in flight. This suits many short runners that mostly wait. The JVM does not measure
+     * the CPU time of virtual threads, so CPU budgets are measured in wall clock time instead.
+     * Requires Java 21 to 23, started with {@code -Djava.security.manager=allow}; Java 24 and later
+     * cannot install the security manager the runtime relies on.
+     */
+    public Builder threadMode(SandboxExecutor.ThreadMode threadMode) {
+      if (threadMode == null) {
+        throw new NullPointerException("threadMode:null");
+      }
+
+      this.threadMode = threadMode;
+      return this;
+    }
+
+    /**
+     * Sets how long a blocked submission waits for room in the queue. Defaults to 30 seconds.
+     */
+    public Builder submitTimeout(long duration, TimeUnit unit) {
+      if (duration < 0) {
+        throw new IllegalArgumentException("duration:Must not be negative");
+      }
+
+      this.submitTimeoutNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of runners of a single tenant that can run at the same time. Further
+     * runners of the tenant wait, without holding a worker thread, until one finishes. Defaults to
+     * no limit.
+     */
+    public Builder maxConcurrentRunnersPerTenant(int maxConcurrentRunnersPerTenant) {
+      if (maxConcurrentRunnersPerTenant < 1) {
+        throw new IllegalArgumentException("maxConcurrentRunnersPerTenant:Must be greater than 0");
+      }
+
+      this.maxConcurrentRunnersPerTenant = maxConcurrentRunnersPerTenant;
+      return this;
+    }
+
+    /**
+     * Sets how long a runner may run, once it has a worker thread, before it is timed out. This can
+     * be overridden per runner with {@link RunnerOptions}. Defaults to 5 seconds.
+     */
+    public Builder defaultRunnerTimeout(long duration, TimeUnit unit) {
+      if (duration < 1) {
+        throw new IllegalArgumentException("duration:Must be greater than 0");
+      }
+
+      this.defaultRunnerTimeoutNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    /**
+     * Sets how much CPU time a runner may use before it is aborted. This can be overridden per
+     * runner with {@link RunnerOptions}. Defaults to no limit.
+     */
+    public Builder defaultCpuBudget(long duration, TimeUnit unit) {
+      if (duration < 1) {
+        throw new IllegalArgumentException("duration:Must be greater than 0");
+      }
+
+      this.defaultCpuBudgetNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    /**
+     * Sets how many bytes a runner may allocate on the heap before it is aborted. This can be
+     * overridden per runner with {@link RunnerOptions}. Defaults to no limit.
+     */
+    public Builder defaultMaxAllocatedBytes(long defaultMaxAllocatedBytes) {
+      if (defaultMaxAllocatedBytes < 0) {
+        throw new IllegalArgumentException("defaultMaxAllocatedBytes:Must not be negative");
+      }
+
+      this.defaultMaxAllocatedBytes = defaultMaxAllocatedBytes;
+      return this;
+    }
+
+    /**
+     * Sets the rules for which classes runners may load. Defaults to
+     * {@link ClassNameRules#defaults()}.
+     */
+    public Builder classNameRules(ClassNameRules classNameRules) {
+      if (classNameRules == null) {
+        throw new NullPointerException("classNameRules:null");
+      }
+
+      this.classNameRules = classNameRules;
+      return this;
+    }
+
+    /**
+     * Sets the permission profiles of tenants. The runners of a tenant are granted the permissions
+     * of the tenant's profile. Defaults to {@link PermissionProfiles#none()}, which grants no
+     * tenant any permissions.
+     */
+    public Builder permissionProfiles(PermissionProfiles permissionProfiles) {
+      if (permissionProfiles == null) {
+        throw new NullPointerException("permissionProfiles:null");
+      }
+
+      this.permissionProfiles = permissionProfiles;
+      return this;
+    }
+
+    /**
+     * Sets the directory to cache transformed bootstrap classes in, so that later runtimes can
+     * apply them without generating them again. The cached classes are loaded into the bootstrap
+     * class loader, so the directory must only be writable by the user the runtime runs as.
+     * Defaults to no caching.
+     */
+    public Builder transformationCacheDirectory(Path transformationCacheDirectory) {
+      if (transformationCacheDirectory == null) {
+        throw new NullPointerException("transformationCacheDirectory:null");
+      }
+
+      this.transformationCacheDirectory = transformationCacheDirectory;
+      return this;
+    }
+
+    /**
+     * Sets the path of the runtime stubs jar. Defaults to the path in the
+     * {@code sandbox.runtime.stubsJar} system property, then the stubs jar bundled with the
+     * runtime.
+     */
+    public Builder stubsJar(Path stubsJar) {
+      if (stubsJar == null) {
+        throw new NullPointerException("stubsJar:null");
+      }
+
+      this.stubsJar = stubsJar;
+      return this;
+    }
+
+    /**
+     * Sets the hex encoded SHA-256 hash the runtime stubs jar must have. Defaults to the hash
+     * bundled with the runtime, if the bundled stubs jar is used.
+     */
+    public Builder stubsJarSha256(String stubsJarSha256) {
+      if (stubsJarSha256 == null) {
+        throw new NullPointerException("stubsJarSha256:null");
+      }
+
+      this.stubsJarSha256 = stubsJarSha256;
+      return this;
+    }
+
+    /**
+     * Sets the directory the verified stubs jar is written to before it is appended to the
+     * bootstrap class path. The directory must be owned by the user running the runtime and not
+     * writable by other users, and is created with owner-only permissions if it does not exist.
+     * Defaults to a new private directory in the system's temporary directory.
+     */
+    public Builder stubsJarDirectory(Path stubsJarDirectory) {
+      if (stubsJarDirectory == null) {
+        throw new NullPointerException("stubsJarDirectory:null");
+      }
+
+      this.stubsJarDirectory = stubsJarDirectory;
+      return this;
+    }
+
+    /**
+     * Sets the metrics the runtime records its runners and permission checks in. Defaults to
+     * {@link RuntimeMetrics#disabled()}.
+     */
+    public Builder metrics(RuntimeMetrics metrics) {
+      if (metrics == null) {
+        throw new NullPointerException("metrics:null");
+      }
+
+      this.metrics = metrics;
+      return this;
+    }
+
+    /**
+     * Sets the number of idle loaders the warm pool keeps for each tenant, jar and runner. A
+     * pooled loader has already loaded and linked the runner's classes, and is reused by later runs
+     * of the same runner from the same tenant and jar, one run at a time. Reused loaders keep the
+     * static state of the runner's classes between runs. Defaults to {@code 0}, which disables the
+     * warm pool.
+     */
+    public Builder warmPoolSize(int warmPoolSize) {
+      if (warmPoolSize < 0) {
+        throw new IllegalArgumentException("warmPoolSize:Must not be negative");
+      }
+
+      this.warmPoolSize = warmPoolSize;
+      return this;
+    }
+
+    /**
+     * Sets the number of runs after which a pooled loader is retired. Defaults to 100.
+     */
+    public Builder warmPoolMaxUses(int warmPoolMaxUses) {
+      if (warmPoolMaxUses < 1) {
+        throw new IllegalArgumentException("warmPoolMaxUses:Must be greater than 0");
+      }
+
+      this.warmPoolMaxUses = warmPoolMaxUses;
+      return this;
+    }
+
+    /**
+     * Sets how long a pooled loader may sit idle before it is retired. Defaults to 5 minutes.
+     */
+    public Builder warmPoolIdleTtl(long duration, TimeUnit unit) {
+      if (duration < 1) {
+        throw new IllegalArgumentException("duration:Must be greater than 0");
+      }
+
+      this.warmPoolIdleTtlNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    /**
+     * Sets the number of full or old generation garbage collections after which a retired user
+     * class loader that has not been reclaimed is reported as leaked. Young collections are not
+     * counted, as they never unload classes. Defaults to 10.
+     */
+    public Builder loaderLeakGcCycles(int loaderLeakGcCycles) {
+      if (loaderLeakGcCycles < 1) {
+        throw new IllegalArgumentException("loaderLeakGcCycles:Must be greater than 0");
+      }
+
+      this.loaderLeakGcCycles = loaderLeakGcCycles;
+      return this;
+    }
+
+    /**
+     * Sets the directory to write a heap dump to when a leaked loader is first found, so that the
+     * GC roots holding it can be found. Only one heap dump is written per runtime. Defaults to not
+     * writing a heap dump.
+     */
+    public Builder loaderLeakHeapDumpDirectory(Path loaderLeakHeapDumpDirectory) {
+      if (loaderLeakHeapDumpDirectory == null) {
+        throw new NullPointerException("loaderLeakHeapDumpDirectory:null");
+      }
+
+      this.loaderLeakHeapDumpDirectory = loaderLeakHeapDumpDirectory;
+      return this;
+    }
+
+    /**
+     * Sets the Metaspace use in bytes above which new runners are refused with a
+     * {@link RunnerResult.Status#FAILED} result. Defaults to 90% of the JVM's maximum Metaspace
+     * size if it has one ({@code -XX:MaxMetaspaceSize}), and no limit otherwise.
+     */
+    public Builder metaspaceAdmissionLimit(long metaspaceAdmissionLimitBytes) {
+      if (metaspaceAdmissionLimitBytes < 1) {
+        throw new IllegalArgumentException("metaspaceAdmissionLimitBytes:Must be greater than 0");
+      }
+
+      this.metaspaceAdmissionLimitBytes = metaspaceAdmissionLimitBytes;
+      return this;
+    }
+
+    /**
+     * Sets whether what runners write to {@code System.out} and {@code System.err} is captured into
+     * their results instead of being written to the JVM's streams. Defaults to {@code true}.
+     */
+    public Builder captureOutput(boolean captureOutput) {
+      this.captureOutput = captureOutput;
+      return this;
+    }
+
+    /**
+     * Sets how many bytes of each of {@code System.out} and {@code System.err} are captured for
+     * runners that do not set their own quota. Defaults to 64 KiB.
+     */
+    public Builder defaultOutputQuota(int defaultOutputQuota) {
+      if (defaultOutputQuota < 0) {
+        throw new IllegalArgumentException("defaultOutputQuota:Must not be negative");
+      }
+
+      this.defaultOutputQuota = defaultOutputQuota;
+      return this;
+    }
+
+    /**
+     * Creates the configuration.
+     */
+    public SimpleRuntimeConfig build() {
+      return new SimpleRuntimeConfig(this);
+    }
+  }
+}
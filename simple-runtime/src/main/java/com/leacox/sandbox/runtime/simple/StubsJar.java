@@ -0,0 +1,204 @@
+package com.leacox.sandbox.runtime.simple;
+
+import com.leacox.sandbox.security.PrivateDirectories;
+
+import net.bytebuddy.dynamic.ClassFileLocator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+
+/**
+ * The runtime stubs jar, read into memory and verified before it is appended to the bootstrap class
+ * path.
+ *
+ * <p>The jar is looked for in this order:
+ *
+ * <ol>
+ * <li>the path set in the {@link SimpleRuntimeConfig}
+ * <li>the path in the {@value #PATH_PROPERTY} system property
+ * <li>the {@value #RESOURCE} resource bundled with the runtime, along with its expected SHA-256 in
+ *     the {@value #SHA256_RESOURCE} resource
+ * <li>the jar in the {@code runtime-stubs} module's build directory, relative to the working
+ *     directory, for running from a source checkout
+ * </ol>
+ *
+ * <p>The instrumentation API can only append jar files on disk to the bootstrap class path, so the
+ * verified bytes are written to a new file in a directory that only the user running the runtime
+ * can write to, and that file is the one appended. Files that are already on disk are never
+ * reused, since anything appended to the bootstrap class path runs with all permissions. The stub
+ * classes themselves are resolved from the bytes in memory, so no jar file is held open by the
+ * runtime.
+ *
+ * @author John Leacox
+ */
+final class StubsJar {
+  private static final Logger logger = LoggerFactory.getLogger(StubsJar.class);
+
+  static final String PATH_PROPERTY = "sandbox.runtime.stubsJar";
+  static final String RESOURCE = "/runtime-stubs.jar";
+  static final String SHA256_RESOURCE = "/runtime-stubs.jar.sha256";
+  private static final Path SOURCE_CHECKOUT_PATH =
+      Paths.get("runtime-stubs", "target", "runtime-stubs-1.0-SNAPSHOT.jar");
+
+  private final String source;
+  private final byte[] bytes;
+  private final String sha256;
+
+  private StubsJar(String source, byte[] bytes) {
+    this.source = source;
+    this.bytes = bytes;
+    this.sha256 = hex(sha256().digest(bytes));
+  }
+
+  /**
+   * Finds and reads the stubs jar.
+   *
+   * @param configuredPath the path set in the runtime configuration, or null
+   * @param expectedSha256 the expected hash of the jar, or null to use the bundled hash if there
+   *     is one
+   * @throws IOException if the jar cannot be found or read
+   * @throws SecurityException if the jar does not have the expected hash
+   */
+  static StubsJar locate(Path configuredPath, String expectedSha256) throws IOException {
+    StubsJar stubsJar;
+    String bundledSha256 = null;
+    String propertyPath = System.getProperty(PATH_PROPERTY);
+    if (configuredPath != null) {
+      stubsJar = new StubsJar(configuredPath.toString(), Files.readAllBytes(configuredPath));
+    } else if (propertyPath != null) {
+      stubsJar = new StubsJar(propertyPath, Files.readAllBytes(Paths.get(propertyPath)));
+    } else if (StubsJar.class.getResource(RESOURCE) != null) {
+      stubsJar = new StubsJar(RESOURCE, readResource(RESOURCE));
+      if (StubsJar.class.getResource(SHA256_RESOURCE) != null) {
+        bundledSha256 = new String(readResource(SHA256_RESOURCE), StandardCharsets.US_ASCII);
+      }
+    } else if (Files.exists(SOURCE_CHECKOUT_PATH)) {
+      stubsJar = new StubsJar(SOURCE_CHECKOUT_PATH.toString(),
+          Files.readAllBytes(SOURCE_CHECKOUT_PATH));
+    } else {
+      throw new IOException("Unable to find stubs jar");
+    }
+
+    String expected = expectedSha256 != null ? expectedSha256 : bundledSha256;
+    if (expected != null) {
+      // Checksum files may carry the file name after the hash
+      String expectedHash = expected.trim().split("\\s+")[0];
+      if (!expectedHash.equalsIgnoreCase(stubsJar.sha256)) {
+        throw new SecurityException("Stubs jar " + stubsJar.source + " has SHA-256 "
+            + stubsJar.sha256 + " but " + expectedHash + " was expected");
+      }
+    } else {
+      logger.debug("No expected SHA-256 for stubs jar {}, not verifying it", stubsJar.source);
+    }
+
+    return stubsJar;
+  }
+
+  /**
+   * Returns the hex encoded SHA-256 hash of the jar.
+   */
+  String getSha256() {
+    return sha256;
+  }
+
+  /**
+   * Returns a class file locator for the stub classes that reads from memory.
+   *
+   * @throws IOException if the jar is corrupt
+   */
+  ClassFileLocator toClassFileLocator() throws IOException {
+    Map<String, byte[]> classes = new HashMap<>();
+    try (JarInputStream in = new JarInputStream(new ByteArrayInputStream(bytes))) {
+      JarEntry entry;
+      while ((entry = in.getNextJarEntry()) != null) {
+        String name = entry.getName();
+        if (!entry.isDirectory() && name.endsWith(".class")) {
+          String typeName = name.substring(0, name.length() - ".class".length()).replace('/', '.');
+          classes.put(typeName, readFully(in));
+        }
+      }
+    }
+
+    return new ClassFileLocator.Simple(classes);
+  }
+
+  /**
+   * Writes the jar to a new file in the directory, which is deleted when the JVM exits.
+   *
+   * @param directory the directory to write the jar to, which is created if it does not exist, or
+   *     null to write it to a new private temporary directory
+   * @return the path of the jar file
+   * @throws IOException if the file cannot be written
+   * @throws SecurityException if the directory or the written file can be written by another user
+   */
+  Path materialize(Path directory) throws IOException {
+    Path privateDirectory;
+    if (directory == null) {
+      privateDirectory = PrivateDirectories.createTemporary("sandbox-runtime-");
+      privateDirectory.toFile().deleteOnExit();
+    } else {
+      privateDirectory = PrivateDirectories.ensurePrivate(directory);
+    }
+
+    // A new file, created with owner-only permissions, that no other user could have prepared
+    Path jar = Files.createTempFile(privateDirectory, "runtime-stubs-" + sha256 + "-", ".jar");
+    jar.toFile().deleteOnExit();
+    Files.write(jar, bytes);
+    PrivateDirectories.checkPrivateFile(jar);
+    return jar;
+  }
+
+  private static byte[] readResource(String name) throws IOException {
+    try (InputStream in = StubsJar.class.getResourceAsStream(name)) {
+      if (in == null) {
+        throw new IOException("Missing resource " + name);
+      }
+
+      return readFully(in);
+    }
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+
+    return out.toByteArray();
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every JVM is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+
+    return hex.toString();
+  }
+}
@@ -0,0 +1,79 @@
+package com.leacox.sandbox.runtime.simple;
+
+import com.leacox.sandbox.security.UserClassLoader;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.security.ProtectionDomain;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A name pre-filter in front of the runtime's ByteBuddy transformer.
+ *
+ * <p>ByteBuddy describes every class it is given before it can match it, which means parsing the
+ * class file. This filter only hands over the classes of user class loaders and the classes the
+ * bootstrap transformation definitions target, using nothing more than an {@code instanceof} check
+ * and a hash lookup of the class name. Every other class is left untransformed without ByteBuddy
+ * ever seeing it.
+ *
+ * <p>The transformed bytes of the targeted classes are kept so that they can be stored in the
+ * {@link TransformationCache}.
+ *
+ * @author John Leacox
+ */
+final class TargetedClassFileTransformer implements ClassFileTransformer {
+  private final ClassFileTransformer delegate;
+  private final Set<String> targetInternalNames;
+  private final boolean untargeted;
+  private final Map<String, byte[]> transformedTargets = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a new instance of {@code TargetedClassFileTransformer}.
+   *
+   * @param delegate the transformer to hand the matching classes to
+   * @param targetTypeNames the binary names of the targeted types
+   * @param untargeted whether every class should be handed to the delegate
+   */
+  TargetedClassFileTransformer(
+      ClassFileTransformer delegate, Set<String> targetTypeNames, boolean untargeted) {
+    this.delegate = delegate;
+    this.targetInternalNames = new HashSet<>();
+    for (String targetTypeName : targetTypeNames) {
+      targetInternalNames.add(targetTypeName.replace('.', '/'));
+    }
+    this.untargeted = untargeted;
+  }
+
+  @Override
+  public byte[] transform(
+      ClassLoader loader, String className, Class<?> classBeingRedefined,
+      ProtectionDomain protectionDomain, byte[] classfileBuffer)
+      throws IllegalClassFormatException {
+    if (loader instanceof UserClassLoader || untargeted) {
+      return delegate.transform(
+          loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
+    } else if (className != null && targetInternalNames.contains(className)) {
+      byte[] transformed = delegate.transform(
+          loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
+      if (transformed != null) {
+        transformedTargets.put(className.replace('/', '.'), transformed);
+      }
+
+      return transformed;
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns the transformed bytes of the targeted classes transformed so far, keyed by binary name.
+   */
+  Map<String, byte[]> getTransformedTargets() {
+    return Collections.unmodifiableMap(new HashMap<>(transformedTargets));
+  }
+}
@@ -0,0 +1,277 @@
+package com.leacox.sandbox.runtime.simple;
+
+import com.leacox.sandbox.runtime.security.transform.BootstrapTransformationDefinition;
+import com.leacox.sandbox.security.PrivateDirectories;
+
+import net.bytebuddy.ByteBuddy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.CodeSource;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * An on-disk cache of the bootstrap classes transformed by the runtime, so that later runtimes can
+ * apply the stored bytes directly instead of resolving types and generating the transformations
+ * again.
+ *
+ * <p>Entries are keyed by everything the transformed bytes depend on: the JVM version, the hash of
+ * the stubs jar, the code of ByteBuddy and the set of {@link BootstrapTransformationDefinition}s
+ * with their code. The code of a class is hashed as the jar it was loaded from, or as its class
+ * file if it was not loaded from a jar, so a rebuilt definition or an upgraded ByteBuddy never
+ * reuses an entry generated by the old one. Each key is a directory of class files named by the
+ * binary names of the transformed classes. A new entry is written to a temporary directory first
+ * and moved into place, so a reader never sees a partial entry.
+ *
+ * <p>The cached bytes are redefined into bootstrap classes, so the cache directory must only be
+ * writable by the user the runtime runs as. The cache is not used if it is not, and an entry is not
+ * applied unless its directory and each of its class files are private to that user as well.
+ *
+ * @author John Leacox
+ */
+final class TransformationCache {
+  private static final Logger logger = LoggerFactory.getLogger(TransformationCache.class);
+  private static final String FORMAT_VERSION = "1";
+  private static final String CLASS_FILE_SUFFIX = ".class";
+
+  private final Path root;
+  private final Path entryDirectory;
+
+  private TransformationCache(Path root, String key) {
+    this.root = root;
+    this.entryDirectory = root.resolve(key);
+  }
+
+  /**
+   * Opens the cache entry for the current JVM, stubs jar, ByteBuddy and definitions.
+   *
+   * @param root the directory of the cache
+   * @param stubsSha256 the hash of the stubs jar that was appended to the bootstrap class path
+   * @param definitions the transformation definitions in use
+   * @return the cache, or null if the cache directory is not private to the user running the
+   *     runtime, or if the code of ByteBuddy or of a definition cannot be read, in which case no
+   *     entry could be told apart from one generated by other code
+   */
+  static TransformationCache open(
+      Path root, String stubsSha256, Collection<BootstrapTransformationDefinition> definitions) {
+    try {
+      PrivateDirectories.ensurePrivate(root);
+    } catch (IOException | SecurityException e) {
+      logger.warn("Transformation cache directory {} is not private, not caching", root, e);
+      return null;
+    }
+
+    MessageDigest key = sha256();
+    update(key, "format=" + FORMAT_VERSION);
+    update(key, "java.version=" + System.getProperty("java.version"));
+    update(key, "java.vm.name=" + System.getProperty("java.vm.name"));
+    update(key, "java.vm.version=" + System.getProperty("java.vm.version"));
+    update(key, "stubs=" + stubsSha256);
+
+    Map<String, Class<?>> definitionTypes = new TreeMap<>();
+    for (BootstrapTransformationDefinition definition : definitions) {
+      definitionTypes.put(definition.getClass().getName(), definition.getClass());
+    }
+
+    // The hashes of jars that several classes were loaded from
+    Map<Path, String> jarHashes = new HashMap<>();
+    try {
+      update(key, "bytebuddy=" + codeSha256(ByteBuddy.class, jarHashes));
+      for (Map.Entry<String, Class<?>> definitionType : definitionTypes.entrySet()) {
+        update(key, "definition=" + definitionType.getKey() + " "
+            + codeSha256(definitionType.getValue(), jarHashes));
+      }
+    } catch (IOException e) {
+      logger.warn("Unable to read the code of the transformations, not caching them", e);
+      return null;
+    }
+
+    return new TransformationCache(root, hex(key.digest()));
+  }
+
+  /**
+   * Returns the hash of the jar the class was loaded from, or of its class file if it was not
+   * loaded from a jar.
+   */
+  private static String codeSha256(Class<?> type, Map<Path, String> jarHashes)
+      throws IOException {
+    Path jar = codeSourceJar(type);
+    if (jar != null) {
+      String jarHash = jarHashes.get(jar);
+      if (jarHash == null) {
+        try (InputStream in = Files.newInputStream(jar)) {
+          jarHash = "jar:" + sha256(in);
+        }
+        jarHashes.put(jar, jarHash);
+      }
+      return jarHash;
+    }
+
+    String resourceName = type.getName().replace('.', '/') + CLASS_FILE_SUFFIX;
+    ClassLoader loader = type.getClassLoader();
+    try (InputStream in = loader == null
+        ? ClassLoader.getSystemResourceAsStream(resourceName)
+        : loader.getResourceAsStream(resourceName)) {
+      if (in == null) {
+        throw new IOException("Unable to find the class file of " + type.getName());
+      }
+
+      return "class:" + sha256(in);
+    }
+  }
+
+  private static Path codeSourceJar(Class<?> type) {
+    CodeSource codeSource = type.getProtectionDomain().getCodeSource();
+    URL location = codeSource == null ? null : codeSource.getLocation();
+    if (location == null || !"file".equals(location.getProtocol())) {
+      return null;
+    }
+
+    try {
+      Path path = Paths.get(location.toURI());
+      return Files.isRegularFile(path) ? path : null;
+    } catch (URISyntaxException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private static String sha256(InputStream in) throws IOException {
+    MessageDigest digest = sha256();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      digest.update(buffer, 0, read);
+    }
+
+    return hex(digest.digest());
+  }
+
+  /**
+   * Returns the cached bytes of the transformed classes keyed by binary name, or an empty map if
+   * there is no entry or it could have been written by another user.
+   */
+  Map<String, byte[]> load() {
+    if (!Files.isDirectory(entryDirectory)) {
+      return Collections.emptyMap();
+    }
+
+    Map<String, byte[]> classes = new HashMap<>();
+    try (DirectoryStream<Path> files =
+        Files.newDirectoryStream(entryDirectory, "*" + CLASS_FILE_SUFFIX)) {
+      PrivateDirectories.ensurePrivate(entryDirectory);
+      for (Path file : files) {
+        PrivateDirectories.checkPrivateFile(file);
+        String fileName = file.getFileName().toString();
+        String typeName = fileName.substring(0, fileName.length() - CLASS_FILE_SUFFIX.length());
+        classes.put(typeName, Files.readAllBytes(file));
+      }
+    } catch (IOException e) {
+      logger.warn("Unable to read transformation cache entry {}", entryDirectory, e);
+      return Collections.emptyMap();
+    } catch (SecurityException e) {
+      logger.warn("Transformation cache entry {} is not private, not applying it", entryDirectory,
+          e);
+      return Collections.emptyMap();
+    }
+
+    return classes;
+  }
+
+  /**
+   * Stores the bytes of the transformed classes, keyed by binary name. Nothing is stored if another
+   * runtime stored the entry first.
+   */
+  void store(Map<String, byte[]> classes) {
+    Path temporaryDirectory = null;
+    try {
+      PrivateDirectories.ensurePrivate(root);
+      temporaryDirectory = Files.createTempDirectory(root, ".entry-");
+      for (Map.Entry<String, byte[]> transformedClass : classes.entrySet()) {
+        Files.write(temporaryDirectory.resolve(transformedClass.getKey() + CLASS_FILE_SUFFIX),
+            transformedClass.getValue());
+      }
+
+      Files.move(temporaryDirectory, entryDirectory, StandardCopyOption.ATOMIC_MOVE);
+      temporaryDirectory = null;
+      logger.info("Stored {} transformed classes in {}", classes.size(), entryDirectory);
+    } catch (FileAlreadyExistsException | DirectoryNotEmptyException
+        | AtomicMoveNotSupportedException e) {
+      logger.debug("Not storing transformation cache entry {}", entryDirectory, e);
+    } catch (IOException | SecurityException e) {
+      logger.warn("Unable to store transformation cache entry {}", entryDirectory, e);
+    } finally {
+      if (temporaryDirectory != null) {
+        delete(temporaryDirectory);
+      }
+    }
+  }
+
+  /**
+   * Deletes the entry, for when its bytes could not be applied.
+   */
+  void invalidate() {
+    delete(entryDirectory);
+  }
+
+  private static void delete(Path directory) {
+    if (!Files.exists(directory)) {
+      return;
+    }
+
+    try (Stream<Path> files = Files.list(directory)) {
+      files.forEach(file -> {
+        try {
+          Files.deleteIfExists(file);
+        } catch (IOException e) {
+          logger.debug("Unable to delete {}", file, e);
+        }
+      });
+      Files.deleteIfExists(directory);
+    } catch (IOException e) {
+      logger.warn("Unable to delete transformation cache directory {}", directory, e);
+    }
+  }
+
+  private static void update(MessageDigest digest, String line) {
+    digest.update((line + '\n').getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every JVM is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+
+    return hex.toString();
+  }
+}
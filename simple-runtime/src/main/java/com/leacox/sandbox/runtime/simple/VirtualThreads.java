@@ -0,0 +1,89 @@
+package com.leacox.sandbox.runtime.simple;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to the virtual threads of Java 21 and later.
+ *
+ * <p>The runtime is built for Java 8, so virtual threads are created through reflection on the
+ * {@code Thread.Builder} API. The methods are looked up once, when this class is initialized.
+ *
+ * @author John Leacox
+ */
+final class VirtualThreads {
+  private static final Method ofVirtual;
+  private static final Method name;
+  private static final Method factory;
+  private static final Method newThreadPerTaskExecutor;
+
+  static {
+    Method ofVirtualMethod = null;
+    Method nameMethod = null;
+    Method factoryMethod = null;
+    Method newThreadPerTaskExecutorMethod = null;
+    try {
+      Class<?> builder = Class.forName("java.lang.Thread$Builder");
+      ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+      nameMethod = builder.getMethod("name", String.class, long.class);
+      factoryMethod = builder.getMethod("factory");
+      newThreadPerTaskExecutorMethod =
+          Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+    } catch (ReflectiveOperationException e) {
+      // Not supported by this JVM
+    }
+
+    ofVirtual = ofVirtualMethod;
+    name = nameMethod;
+    factory = factoryMethod;
+    newThreadPerTaskExecutor = newThreadPerTaskExecutorMethod;
+  }
+
+  private VirtualThreads() {}
+
+  /**
+   * Returns {@code true} if the JVM has virtual threads, {@code false} otherwise.
+   */
+  static boolean isSupported() {
+    return newThreadPerTaskExecutor != null;
+  }
+
+  /**
+   * Returns a factory of virtual threads named with the prefix followed by a counter.
+   *
+   * @throws UnsupportedOperationException if the JVM does not have virtual threads
+   */
+  static ThreadFactory factory(String namePrefix) {
+    return (ThreadFactory) invoke(factory, invoke(name, invoke(ofVirtual, null), namePrefix, 1L));
+  }
+
+  /**
+   * Returns an executor that starts a new thread from the factory for each task.
+   *
+   * @throws UnsupportedOperationException if the JVM does not have virtual threads
+   */
+  static ExecutorService newThreadPerTaskExecutor(ThreadFactory threadFactory) {
+    return (ExecutorService) invoke(newThreadPerTaskExecutor, null, threadFactory);
+  }
+
+  private static Object invoke(Method method, Object target, Object... args) {
+    if (!isSupported()) {
+      throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+    }
+
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      // Thrown directly by the JDK, for example when virtual threads are a disabled preview feature
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
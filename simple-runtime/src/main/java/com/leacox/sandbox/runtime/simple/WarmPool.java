@@ -0,0 +1,328 @@
+package com.leacox.sandbox.runtime.simple;
+
+import com.leacox.sandbox.security.JarContentCache;
+import com.leacox.sandbox.security.UserClassLoader;
+import com.leacox.sandbox.security.metrics.Counter;
+import com.leacox.sandbox.security.metrics.RuntimeMetrics;
+
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * A pool of user class loaders that already loaded a runner class, so that running the same jar
+ * again does not repeat class loading, linking and JIT warm-up.
+ *
+ * <p>Loaders are pooled per tenant, jar path, jar contents and runner class. A loader is leased to
+ * a single execution at a time and is only returned to the pool after a run that completed
+ * normally, so the static state of a runner is only ever seen by later runs of the same tenant and
+ * jar. Loaders are retired after a number of uses, after sitting idle for too long, and when the
+ * contents of their jar change.
+ *
+ * <p>A pool with no idle loaders per key is disabled, and leases a new loader every time.
+ *
+ * <p>The most recently returned loader is leased first, since its code is the most likely to still
+ * be compiled and in the CPU caches. Idle loaders past their time to live are therefore always at
+ * the end of a key's queue.
+ *
+ * @author John Leacox
+ */
+final class WarmPool {
+  private final int maxIdlePerKey;
+  private final int maxUses;
+  private final long idleTtlNanos;
+  private final JarContentCache jarContentCache;
+  private final BiFunction<String, URL, UserClassLoader> loaderFactory;
+  private final Consumer<UserClassLoader> retire;
+  private final Counter hits;
+  private final Counter misses;
+  private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a new instance of {@code WarmPool}.
+   *
+   * @param maxIdlePerKey the maximum number of idle loaders kept for each key
+   * @param maxUses the number of runs after which a loader is retired
+   * @param idleTtlNanos how long a loader may sit idle before it is retired
+   * @param jarContentCache the cache to get the hash of the current contents of jars from
+   * @param loaderFactory creates a new loader for a tenant's jar
+   * @param retire called with each loader that leaves the pool for good
+   * @param metrics the metrics to count pool hits and misses in
+   */
+  WarmPool(
+      int maxIdlePerKey, int maxUses, long idleTtlNanos, JarContentCache jarContentCache,
+      BiFunction<String, URL, UserClassLoader> loaderFactory, Consumer<UserClassLoader> retire,
+      RuntimeMetrics metrics) {
+    this.maxIdlePerKey = maxIdlePerKey;
+    this.maxUses = maxUses;
+    this.idleTtlNanos = idleTtlNanos;
+    this.jarContentCache = jarContentCache;
+    this.loaderFactory = loaderFactory;
+    this.retire = retire;
+    this.hits = metrics.counter("runner.warmPool.hits");
+    this.misses = metrics.counter("runner.warmPool.misses");
+  }
+
+  /**
+   * Leases a loader that has loaded the runner class, creating one if the pool has none idle for
+   * the key. Jars whose contents cannot be hashed are never pooled.
+   *
+   * @throws ClassNotFoundException if the runner class cannot be loaded by a new loader
+   */
+  Lease lease(String tenantId, URL jarUrl, String runnerClassName)
+      throws ClassNotFoundException {
+    String sha256 = maxIdlePerKey == 0 ? null : jarContentCache.getSha256(jarUrl);
+    if (sha256 == null) {
+      return newLease(null, null, tenantId, jarUrl, runnerClassName);
+    }
+
+    Key key = new Key(tenantId, jarUrl.toString(), runnerClassName);
+    Entry entry;
+    Lease lease = null;
+    List<Lease> stale = null;
+    while (true) {
+      entry = entries.computeIfAbsent(key, k -> new Entry(k.jarUrl));
+      synchronized (entry) {
+        if (entry.removed) {
+          // Evicted while this thread was looking it up
+          continue;
+        }
+
+        if (!sha256.equals(entry.sha256)) {
+          stale = new ArrayList<>(entry.idle);
+          entry.idle.clear();
+          entry.sha256 = sha256;
+        } else {
+          lease = entry.idle.pollFirst();
+        }
+        entry.leased++;
+      }
+      break;
+    }
+
+    if (stale != null) {
+      stale.forEach(this::retire);
+    }
+
+    if (lease == null) {
+      misses.increment();
+      try {
+        lease = newLease(key, sha256, tenantId, jarUrl, runnerClassName);
+      } catch (ClassNotFoundException | RuntimeException e) {
+        synchronized (entry) {
+          entry.leased--;
+        }
+        throw e;
+      }
+    } else {
+      hits.increment();
+    }
+
+    lease.uses++;
+    return lease;
+  }
+
+  private Lease newLease(
+      Key key, String sha256, String tenantId, URL jarUrl, String runnerClassName)
+      throws ClassNotFoundException {
+    UserClassLoader loader = loaderFactory.apply(tenantId, jarUrl);
+    try {
+      return new Lease(key, sha256, loader, loader.loadClass(runnerClassName));
+    } catch (ClassNotFoundException | RuntimeException e) {
+      retire.accept(loader);
+      throw e;
+    }
+  }
+
+  /**
+   * Fills the pool with idle loaders for the key, up to the maximum per key.
+   *
+   * @throws ClassNotFoundException if the runner class cannot be loaded by a new loader
+   */
+  void prewarm(String tenantId, URL jarUrl, String runnerClassName)
+      throws ClassNotFoundException {
+    List<Lease> leases = new ArrayList<>(maxIdlePerKey);
+    try {
+      for (int i = 0; i < maxIdlePerKey; i++) {
+        Lease lease = lease(tenantId, jarUrl, runnerClassName);
+        // Warming a loader up does not count as a use
+        lease.uses--;
+        leases.add(lease);
+      }
+    } finally {
+      for (Lease lease : leases) {
+        release(lease, true);
+      }
+    }
+  }
+
+  /**
+   * Returns a leased loader to the pool, or retires it if it is not pooled, has been used up, its
+   * jar has changed or the pool is full.
+   *
+   * @param lease the lease to return
+   * @param reusable whether the run left the loader in a state it can be used again from
+   */
+  void release(Lease lease, boolean reusable) {
+    if (lease.key == null) {
+      retire(lease);
+      return;
+    }
+
+    // The entry is not evicted while it has loaders leased out
+    Entry entry = entries.get(lease.key);
+    synchronized (entry) {
+      entry.leased--;
+      if (reusable && lease.uses < maxUses && lease.sha256.equals(entry.sha256)
+          && entry.idle.size() < maxIdlePerKey) {
+        lease.idleSinceNanos = System.nanoTime();
+        entry.idle.addFirst(lease);
+        return;
+      }
+    }
+
+    retire(lease);
+  }
+
+  /**
+   * Retires the loaders that have been idle for longer than their time to live and forgets the
+   * keys that no longer have any loaders, idle or leased.
+   */
+  void evictIdle() {
+    long now = System.nanoTime();
+    List<Lease> expired = new ArrayList<>();
+    for (Iterator<Entry> entryIterator = entries.values().iterator(); entryIterator.hasNext(); ) {
+      Entry entry = entryIterator.next();
+      synchronized (entry) {
+        Lease oldest;
+        while ((oldest = entry.idle.peekLast()) != null
+            && now - oldest.idleSinceNanos >= idleTtlNanos) {
+          expired.add(entry.idle.pollLast());
+        }
+
+        if (entry.idle.isEmpty() && entry.leased == 0) {
+          entry.removed = true;
+          entryIterator.remove();
+        }
+      }
+    }
+
+    expired.forEach(this::retire);
+  }
+
+  /**
+   * Retires the idle loaders of the jar and forgets its keys. Loaders of the jar that are leased
+   * are retired when they are released.
+   */
+  void evictJar(URL jarUrl) {
+    String url = jarUrl.toString();
+    List<Lease> evicted = new ArrayList<>();
+    for (Iterator<Entry> entryIterator = entries.values().iterator(); entryIterator.hasNext(); ) {
+      Entry entry = entryIterator.next();
+      synchronized (entry) {
+        if (!entry.jarUrl.equals(url)) {
+          continue;
+        }
+
+        evicted.addAll(entry.idle);
+        entry.idle.clear();
+        // Leased loaders no longer match the contents of the entry, so they are not pooled again
+        entry.sha256 = null;
+        if (entry.leased == 0) {
+          entry.removed = true;
+          entryIterator.remove();
+        }
+      }
+    }
+
+    evicted.forEach(this::retire);
+  }
+
+  private void retire(Lease lease) {
+    retire.accept(lease.loader);
+  }
+
+  /**
+   * A loader leased to a single execution.
+   */
+  static final class Lease {
+    private final Key key;
+    private final String sha256;
+    private final UserClassLoader loader;
+    private final Class<?> runnerClass;
+    private int uses;
+    private long idleSinceNanos;
+
+    private Lease(Key key, String sha256, UserClassLoader loader, Class<?> runnerClass) {
+      this.key = key;
+      this.sha256 = sha256;
+      this.loader = loader;
+      this.runnerClass = runnerClass;
+    }
+
+    /**
+     * Returns the leased loader.
+     */
+    UserClassLoader getLoader() {
+      return loader;
+    }
+
+    /**
+     * Returns the runner class, loaded by the leased loader.
+     */
+    Class<?> getRunnerClass() {
+      return runnerClass;
+    }
+  }
+
+  private static final class Entry {
+    private final String jarUrl;
+    private final Deque<Lease> idle = new ArrayDeque<>();
+    private String sha256;
+    private int leased = 0;
+    private boolean removed = false;
+
+    private Entry(String jarUrl) {
+      this.jarUrl = jarUrl;
+    }
+  }
+
+  private static final class Key {
+    private final String tenantId;
+    private final String jarUrl;
+    private final String runnerClassName;
+
+    private Key(String tenantId, String jarUrl, String runnerClassName) {
+      this.tenantId = tenantId;
+      this.jarUrl = jarUrl;
+      this.runnerClassName = runnerClassName;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+
+      Key other = (Key) o;
+      return tenantId.equals(other.tenantId) && jarUrl.equals(other.jarUrl)
+          && runnerClassName.equals(other.runnerClassName);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(tenantId, jarUrl, runnerClassName);
+    }
+  }
+}
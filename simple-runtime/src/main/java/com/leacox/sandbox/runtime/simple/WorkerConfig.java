@@ -0,0 +1,271 @@
+package com.leacox.sandbox.runtime.simple;
+
+import com.leacox.sandbox.security.ClassNameRules;
+import com.leacox.sandbox.security.PermissionProfiles;
+import com.leacox.sandbox.security.PrivateDirectories;
+import com.leacox.sandbox.security.metrics.RuntimeMetrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The files a {@link WorkerProcessPool} passes the configuration of the workers' runtimes in.
+ *
+ * <p>The configuration is written to a properties file, and the permission profiles to a profiles
+ * file next to it in the format {@link PermissionProfiles#load} reads. Both are created readable
+ * and writable only by the user running the pool, since a worker grants its tenants whatever they
+ * say, and a worker refuses a configuration file that another user could have written.
+ *
+ * <p>Everything in a {@link SimpleRuntimeConfig} is passed on except the metrics exporter, which
+ * is an object of the supervisor. Workers record metrics if the supervisor's configuration does,
+ * and register them under the same JMX object name in their own JVM.
+ *
+ * @author John Leacox
+ */
+final class WorkerConfig {
+  private static final String CLASS_RULE_PREFIX = "classNameRules.class.";
+  private static final String PACKAGE_RULE_PREFIX = "classNameRules.package.";
+
+  private final Path file;
+  private final Path profilesFile;
+
+  private WorkerConfig(Path file, Path profilesFile) {
+    this.file = file;
+    this.profilesFile = profilesFile;
+  }
+
+  /**
+   * Writes the configuration to new files in the directory.
+   *
+   * @param config the configuration of the workers' runtimes
+   * @param workerThreads the number of worker threads of each worker, which replaces the one of
+   *     the configuration
+   * @param defaultRunnerTimeoutNanos the default runner timeout of the pool, which replaces the one
+   *     of the configuration
+   * @param directory the directory to create the files in
+   * @throws IOException if the files cannot be written
+   */
+  static WorkerConfig write(SimpleRuntimeConfig config, int workerThreads,
+      long defaultRunnerTimeoutNanos, Path directory) throws IOException {
+    Path file = Files.createTempFile(directory, "sandbox-worker-", ".properties");
+    Path profilesFile = null;
+    try {
+      profilesFile = Files.createTempFile(directory, "sandbox-worker-", ".profiles");
+      PrivateDirectories.checkPrivateFile(file);
+      PrivateDirectories.checkPrivateFile(profilesFile);
+      config.getPermissionProfiles().store(profilesFile);
+
+      Properties properties = new Properties();
+      properties.setProperty("workerThreads", Integer.toString(workerThreads));
+      properties.setProperty("queueCapacity", Integer.toString(config.getQueueCapacity()));
+      properties.setProperty("rejectionPolicy", config.getRejectionPolicy().name());
+      properties.setProperty("threadMode", config.getThreadMode().name());
+      properties.setProperty("submitTimeoutNanos", Long.toString(config.getSubmitTimeoutNanos()));
+      properties.setProperty("maxConcurrentRunnersPerTenant",
+          Integer.toString(config.getMaxConcurrentRunnersPerTenant()));
+      properties.setProperty("defaultRunnerTimeoutNanos", Long.toString(defaultRunnerTimeoutNanos));
+      properties.setProperty("defaultCpuBudgetNanos",
+          Long.toString(config.getDefaultCpuBudgetNanos()));
+      properties.setProperty("defaultMaxAllocatedBytes",
+          Long.toString(config.getDefaultMaxAllocatedBytes()));
+      properties.setProperty("permissionProfiles", profilesFile.toString());
+      setPath(properties, "transformationCacheDirectory", config.getTransformationCacheDirectory());
+      setPath(properties, "stubsJar", config.getStubsJar());
+      if (config.getStubsJarSha256() != null) {
+        properties.setProperty("stubsJarSha256", config.getStubsJarSha256());
+      }
+      setPath(properties, "stubsJarDirectory", config.getStubsJarDirectory());
+      properties.setProperty("metrics", Boolean.toString(config.getMetrics().isEnabled()));
+      if (config.getMetrics().getJmxObjectName() != null) {
+        properties.setProperty("metrics.jmxObjectName", config.getMetrics().getJmxObjectName());
+      }
+      properties.setProperty("warmPoolSize", Integer.toString(config.getWarmPoolSize()));
+      properties.setProperty("warmPoolMaxUses", Integer.toString(config.getWarmPoolMaxUses()));
+      properties.setProperty("warmPoolIdleTtlNanos",
+          Long.toString(config.getWarmPoolIdleTtlNanos()));
+      properties.setProperty("loaderLeakGcCycles",
+          Integer.toString(config.getLoaderLeakGcCycles()));
+      setPath(properties, "loaderLeakHeapDumpDirectory", config.getLoaderLeakHeapDumpDirectory());
+      properties.setProperty("metaspaceAdmissionLimitBytes",
+          Long.toString(config.getMetaspaceAdmissionLimitBytes()));
+      properties.setProperty("captureOutput", Boolean.toString(config.isCaptureOutput()));
+      properties.setProperty("defaultOutputQuota",
+          Integer.toString(config.getDefaultOutputQuota()));
+
+      ClassNameRules rules = config.getClassNameRules();
+      properties.setProperty("classNameRules.allowedByDefault",
+          Boolean.toString(rules.isAllowedByDefault()));
+      for (Map.Entry<String, Boolean> rule : rules.getClassRules().entrySet()) {
+        properties.setProperty(CLASS_RULE_PREFIX + rule.getKey(), verdict(rule.getValue()));
+      }
+      for (Map.Entry<String, Boolean> rule : rules.getPackageRules().entrySet()) {
+        properties.setProperty(PACKAGE_RULE_PREFIX + rule.getKey(), verdict(rule.getValue()));
+      }
+
+      try (OutputStream out = Files.newOutputStream(file)) {
+        properties.store(out, "Sandbox worker process configuration");
+      }
+
+      return new WorkerConfig(file, profilesFile);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(file);
+      if (profilesFile != null) {
+        Files.deleteIfExists(profilesFile);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Reads the configuration a worker's runtime is started with.
+   *
+   * @throws IOException if the files cannot be read
+   * @throws SecurityException if another user could have written the files
+   * @throws IllegalArgumentException if the files are not valid
+   */
+  static SimpleRuntimeConfig read(Path file) throws IOException {
+    PrivateDirectories.checkPrivateFile(file);
+    Properties properties = new Properties();
+    try (InputStream in = Files.newInputStream(file)) {
+      properties.load(in);
+    }
+
+    Path profilesFile = Paths.get(required(properties, "permissionProfiles"));
+    PrivateDirectories.checkPrivateFile(profilesFile);
+
+    SimpleRuntimeConfig.Builder builder = SimpleRuntimeConfig.builder()
+        .workerThreads(intValue(properties, "workerThreads"))
+        .queueCapacity(intValue(properties, "queueCapacity"))
+        .rejectionPolicy(SandboxExecutor.RejectionPolicy.valueOf(
+            required(properties, "rejectionPolicy")))
+        .threadMode(SandboxExecutor.ThreadMode.valueOf(required(properties, "threadMode")))
+        .submitTimeout(longValue(properties, "submitTimeoutNanos"), TimeUnit.NANOSECONDS)
+        .maxConcurrentRunnersPerTenant(intValue(properties, "maxConcurrentRunnersPerTenant"))
+        .defaultRunnerTimeout(
+            longValue(properties, "defaultRunnerTimeoutNanos"), TimeUnit.NANOSECONDS)
+        .defaultCpuBudget(longValue(properties, "defaultCpuBudgetNanos"), TimeUnit.NANOSECONDS)
+        .defaultMaxAllocatedBytes(longValue(properties, "defaultMaxAllocatedBytes"))
+        .permissionProfiles(PermissionProfiles.load(profilesFile))
+        .warmPoolSize(intValue(properties, "warmPoolSize"))
+        .warmPoolMaxUses(intValue(properties, "warmPoolMaxUses"))
+        .warmPoolIdleTtl(longValue(properties, "warmPoolIdleTtlNanos"), TimeUnit.NANOSECONDS)
+        .loaderLeakGcCycles(intValue(properties, "loaderLeakGcCycles"))
+        .captureOutput(Boolean.parseBoolean(required(properties, "captureOutput")))
+        .defaultOutputQuota(intValue(properties, "defaultOutputQuota"));
+
+    String transformationCacheDirectory = properties.getProperty("transformationCacheDirectory");
+    if (transformationCacheDirectory != null) {
+      builder.transformationCacheDirectory(Paths.get(transformationCacheDirectory));
+    }
+    String stubsJar = properties.getProperty("stubsJar");
+    if (stubsJar != null) {
+      builder.stubsJar(Paths.get(stubsJar));
+    }
+    String stubsJarSha256 = properties.getProperty("stubsJarSha256");
+    if (stubsJarSha256 != null) {
+      builder.stubsJarSha256(stubsJarSha256);
+    }
+    String stubsJarDirectory = properties.getProperty("stubsJarDirectory");
+    if (stubsJarDirectory != null) {
+      builder.stubsJarDirectory(Paths.get(stubsJarDirectory));
+    }
+    String loaderLeakHeapDumpDirectory = properties.getProperty("loaderLeakHeapDumpDirectory");
+    if (loaderLeakHeapDumpDirectory != null) {
+      builder.loaderLeakHeapDumpDirectory(Paths.get(loaderLeakHeapDumpDirectory));
+    }
+    long metaspaceAdmissionLimitBytes = longValue(properties, "metaspaceAdmissionLimitBytes");
+    if (metaspaceAdmissionLimitBytes > 0) {
+      builder.metaspaceAdmissionLimit(metaspaceAdmissionLimitBytes);
+    }
+
+    if (Boolean.parseBoolean(required(properties, "metrics"))) {
+      RuntimeMetrics.Builder metrics = RuntimeMetrics.builder();
+      String jmxObjectName = properties.getProperty("metrics.jmxObjectName");
+      if (jmxObjectName != null) {
+        metrics.jmxObjectName(jmxObjectName);
+      }
+      builder.metrics(metrics.build());
+    }
+
+    ClassNameRules.Builder rules = ClassNameRules.builder().allowedByDefault(
+        Boolean.parseBoolean(required(properties, "classNameRules.allowedByDefault")));
+    for (String name : properties.stringPropertyNames()) {
+      if (name.startsWith(CLASS_RULE_PREFIX)) {
+        String className = name.substring(CLASS_RULE_PREFIX.length());
+        if (isAllowed(properties, name)) {
+          rules.allowClass(className);
+        } else {
+          rules.denyClass(className);
+        }
+      } else if (name.startsWith(PACKAGE_RULE_PREFIX)) {
+        String packageName = name.substring(PACKAGE_RULE_PREFIX.length());
+        if (isAllowed(properties, name)) {
+          rules.allowPackage(packageName);
+        } else {
+          rules.denyPackage(packageName);
+        }
+      }
+    }
+    builder.classNameRules(rules.build());
+
+    return builder.build();
+  }
+
+  /**
+   * Returns the configuration file, which is passed to the worker processes.
+   */
+  Path getFile() {
+    return file;
+  }
+
+  /**
+   * Deletes the files, once no more worker processes will be started.
+   */
+  void delete() throws IOException {
+    Files.deleteIfExists(file);
+    Files.deleteIfExists(profilesFile);
+  }
+
+  private static void setPath(Properties properties, String name, Path path) {
+    if (path != null) {
+      properties.setProperty(name, path.toAbsolutePath().toString());
+    }
+  }
+
+  private static String verdict(boolean allowed) {
+    return allowed ? "allow" : "deny";
+  }
+
+  private static boolean isAllowed(Properties properties, String name) {
+    String verdict = properties.getProperty(name);
+    if (!verdict.equals("allow") && !verdict.equals("deny")) {
+      throw new IllegalArgumentException(name + ":Must be allow or deny");
+    }
+
+    return verdict.equals("allow");
+  }
+
+  private static String required(Properties properties, String name) {
+    String value = properties.getProperty(name);
+    if (value == null) {
+      throw new IllegalArgumentException(name + ":Must be set");
+    }
+
+    return value;
+  }
+
+  private static int intValue(Properties properties, String name) {
+    return Integer.parseInt(required(properties, name));
+  }
+
+  private static long longValue(Properties properties, String name) {
+    return Long.parseLong(required(properties, name));
+  }
+}
@@ -0,0 +1,120 @@
+package com.leacox.sandbox.runtime.simple;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Paths;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The main class of a worker process launched by a {@link WorkerProcessPool}.
+ *
+ * <p>The worker starts a {@link SimpleRuntime}, which installs the security manager and
+ * instruments the JVM just like an in-process runtime, and reports that it is ready. It then runs
+ * every job it reads from its {@link JobChannel} and writes each result back. Results are written
+ * by a single sender thread, so that neither the runtime's worker threads nor its watchdog ever
+ * wait for room in the channel.
+ *
+ * <p>The worker exits once it has finished its jobs after a shutdown request, and immediately if
+ * its standard input is closed, which happens when the supervisor process exits.
+ *
+ * <p>Arguments: the channel file, the channel capacity and the configuration file of the runtime,
+ * written by {@link WorkerConfig}.
+ *
+ * @author John Leacox
+ */
+public final class WorkerMain {
+  private static final Logger logger = LoggerFactory.getLogger(WorkerMain.class);
+
+  private WorkerMain() {}
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3) {
+      throw new IllegalArgumentException(
+          "Usage: WorkerMain <channel file> <channel capacity> <config file>");
+    }
+
+    exitWithSupervisor();
+
+    JobChannel channel = JobChannel.map(Paths.get(args[0]), Integer.parseInt(args[1]));
+    SimpleRuntime runtime = new SimpleRuntime(WorkerConfig.read(Paths.get(args[2])));
+    runtime.start(new URLClassLoader(new URL[] {}, null));
+
+    // Jobs whose result has not been written to the channel yet
+    AtomicInteger unfinished = new AtomicInteger();
+    BlockingQueue<byte[]> responses = new LinkedBlockingQueue<>();
+    startSender(channel.responses(), responses, unfinished);
+    responses.add(WorkerMessages.ready());
+
+    int maxMessageBytes = channel.responses().getMaxMessageBytes();
+    Backoff backoff = new Backoff();
+    byte[] message;
+    while ((message = channel.requests().poll()) == null
+        || WorkerMessages.type(message) != WorkerMessages.SHUTDOWN) {
+      if (message == null) {
+        backoff.idle();
+        continue;
+      }
+
+      backoff.reset();
+      WorkerMessages.Job job = WorkerMessages.Job.decode(message);
+      unfinished.incrementAndGet();
+      runtime.submit(job.runnerClassName, job.jarPath, job.options).thenAccept(result ->
+          responses.add(WorkerMessages.result(job.jobId, result, maxMessageBytes)));
+    }
+
+    while (unfinished.get() > 0) {
+      backoff.idle();
+    }
+
+    logger.info("Worker process shut down");
+    System.exit(0);
+  }
+
+  private static void startSender(
+      JobChannel.RingBuffer ring, BlockingQueue<byte[]> responses, AtomicInteger unfinished) {
+    Thread sender = new Thread(() -> {
+      Backoff backoff = new Backoff();
+      try {
+        while (true) {
+          byte[] response = responses.take();
+          while (!ring.offer(response)) {
+            backoff.idle();
+          }
+          backoff.reset();
+          if (WorkerMessages.type(response) == WorkerMessages.RESULT) {
+            unfinished.decrementAndGet();
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }, "worker-process-sender");
+    sender.setDaemon(true);
+    sender.start();
+  }
+
+  private static void exitWithSupervisor() {
+    Thread watcher = new Thread(() -> {
+      InputStream in = System.in;
+      try {
+        while (in.read() != -1) {
+          // The supervisor never writes, the stream only ends
+        }
+      } catch (IOException e) {
+        // Treated the same as the end of the stream
+      }
+
+      logger.warn("Supervisor process is gone, exiting");
+      System.exit(1);
+    }, "worker-process-supervisor-watch");
+    watcher.setDaemon(true);
+    watcher.start();
+  }
+}
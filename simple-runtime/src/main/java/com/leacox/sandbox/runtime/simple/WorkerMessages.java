@@ -0,0 +1,206 @@
+package com.leacox.sandbox.runtime.simple;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The messages sent over a {@link JobChannel}, and their encoding.
+ *
+ * <p>Each message starts with a type byte. The supervisor sends jobs and a shutdown request, and a
+ * worker sends that it is ready once its runtime has started and then the result of each job.
+ *
+ * @author John Leacox
+ */
+final class WorkerMessages {
+  static final byte READY = 1;
+  static final byte JOB = 2;
+  static final byte RESULT = 3;
+  static final byte SHUTDOWN = 4;
+
+  private WorkerMessages() {}
+
+  /**
+   * Returns the type of a message.
+   */
+  static byte type(byte[] message) {
+    return message[0];
+  }
+
+  static byte[] ready() {
+    return new byte[] {READY};
+  }
+
+  static byte[] shutdown() {
+    return new byte[] {SHUTDOWN};
+  }
+
+  static byte[] job(long jobId, String runnerClassName, String jarPath, RunnerOptions options) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeByte(JOB);
+      out.writeLong(jobId);
+      out.writeUTF(runnerClassName);
+      out.writeUTF(jarPath);
+      out.writeBoolean(options.getTenantId() != null);
+      if (options.getTenantId() != null) {
+        out.writeUTF(options.getTenantId());
+      }
+      out.writeLong(options.getTimeoutNanos());
+      out.writeLong(options.getCpuBudgetNanos());
+      out.writeLong(options.getMaxAllocatedBytes());
+      out.writeInt(options.getOutputQuota());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Encodes the result of a job. A failure is sent as its string form. If the output does not fit
+   * in the maximum message size it is left out and counted as dropped.
+   */
+  static byte[] result(long jobId, RunnerResult result, int maxMessageBytes) {
+    byte[] message = result(jobId, result, result.getOutput());
+    if (message.length <= maxMessageBytes) {
+      return message;
+    }
+
+    RunnerOutput output = result.getOutput();
+    long outputBytes = output.getStdoutBytes().length + output.getStderrBytes().length;
+    return result(jobId, result,
+        new RunnerOutput(new byte[0], new byte[0], output.getDroppedBytes() + outputBytes));
+  }
+
+  private static byte[] result(long jobId, RunnerResult result, RunnerOutput output) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeByte(RESULT);
+      out.writeLong(jobId);
+      out.writeUTF(result.getRunnerClassName());
+      out.writeByte(result.getStatus().ordinal());
+      out.writeLong(result.getElapsedNanos());
+      out.writeLong(result.getCpuNanos());
+      out.writeLong(result.getAllocatedBytes());
+      out.writeBoolean(result.getFailure() != null);
+      if (result.getFailure() != null) {
+        writeLongUtf(out, result.getFailure().toString());
+      }
+      writeBytes(out, output.getStdoutBytes());
+      writeBytes(out, output.getStderrBytes());
+      out.writeLong(output.getDroppedBytes());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    return bytes.toByteArray();
+  }
+
+  /**
+   * A decoded job.
+   */
+  static final class Job {
+    final long jobId;
+    final String runnerClassName;
+    final String jarPath;
+    final RunnerOptions options;
+
+    private Job(long jobId, String runnerClassName, String jarPath, RunnerOptions options) {
+      this.jobId = jobId;
+      this.runnerClassName = runnerClassName;
+      this.jarPath = jarPath;
+      this.options = options;
+    }
+
+    static Job decode(byte[] message) {
+      try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(message, 1,
+          message.length - 1))) {
+        long jobId = in.readLong();
+        String runnerClassName = in.readUTF();
+        String jarPath = in.readUTF();
+        RunnerOptions.Builder options = RunnerOptions.builder();
+        if (in.readBoolean()) {
+          options.tenantId(in.readUTF());
+        }
+        long timeoutNanos = in.readLong();
+        if (timeoutNanos > 0) {
+          options.timeout(timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+        long cpuBudgetNanos = in.readLong();
+        if (cpuBudgetNanos > 0) {
+          options.cpuBudget(cpuBudgetNanos, TimeUnit.NANOSECONDS);
+        }
+        long maxAllocatedBytes = in.readLong();
+        if (maxAllocatedBytes >= 0) {
+          options.maxAllocatedBytes(maxAllocatedBytes);
+        }
+        int outputQuota = in.readInt();
+        if (outputQuota >= 0) {
+          options.outputQuota(outputQuota);
+        }
+
+        return new Job(jobId, runnerClassName, jarPath, options.build());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /**
+   * A decoded result, with the ID of its job.
+   */
+  static final class Result {
+    final long jobId;
+    final RunnerResult result;
+
+    private Result(long jobId, RunnerResult result) {
+      this.jobId = jobId;
+      this.result = result;
+    }
+
+    static Result decode(byte[] message) {
+      try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(message, 1,
+          message.length - 1))) {
+        long jobId = in.readLong();
+        String runnerClassName = in.readUTF();
+        RunnerResult.Status status = RunnerResult.Status.values()[in.readByte()];
+        long elapsedNanos = in.readLong();
+        long cpuNanos = in.readLong();
+        long allocatedBytes = in.readLong();
+        Throwable failure = in.readBoolean() ? new WorkerProcessException(readLongUtf(in)) : null;
+        RunnerOutput output = new RunnerOutput(readBytes(in), readBytes(in), in.readLong());
+
+        return new Result(jobId, new RunnerResult(runnerClassName, status, elapsedNanos, cpuNanos,
+            allocatedBytes, failure, output));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  private static void writeLongUtf(DataOutputStream out, String value) throws IOException {
+    // writeUTF is limited to 64 KiB, which the message of a failure can exceed
+    writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String readLongUtf(DataInputStream in) throws IOException {
+    return new String(readBytes(in), StandardCharsets.UTF_8);
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+    out.writeInt(value.length);
+    out.write(value);
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    byte[] value = new byte[in.readInt()];
+    in.readFully(value);
+    return value;
+  }
+}
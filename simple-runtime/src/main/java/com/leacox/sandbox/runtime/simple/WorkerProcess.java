@@ -0,0 +1,315 @@
+package com.leacox.sandbox.runtime.simple;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The supervisor's side of one worker process of a {@link WorkerProcessPool}.
+ *
+ * <p>At most as many jobs as the worker has threads are sent to it at a time, and the rest wait
+ * here. A job sent to the worker therefore starts running right away, and its deadline is counted
+ * from when it was sent, or from when the worker became ready if it was sent before that.
+ *
+ * <p>Nothing here waits for the worker. A job that does not fit in the channel because the worker
+ * has not read the ones before it is held until there is room, which the supervisor checks every
+ * time it polls, so a worker that stops reading never blocks the supervisor or the submitters.
+ *
+ * @author John Leacox
+ */
+final class WorkerProcess {
+  private static final Logger logger = LoggerFactory.getLogger(WorkerProcess.class);
+
+  private final String name;
+  private final Process process;
+  private final Path channelFile;
+  private final JobChannel channel;
+  private final int maxInFlight;
+  private final Map<Long, Job> inFlight = new HashMap<>();
+  private final Deque<Job> queued = new ArrayDeque<>();
+  // Jobs counted in flight that have not fit in the channel yet, in the order they were sent
+  private final Deque<Job> unsent = new ArrayDeque<>();
+
+  private volatile long readyNanos = -1;
+  private volatile boolean corrupt = false;
+  private boolean killed = false;
+
+  private WorkerProcess(
+      String name, Process process, Path channelFile, JobChannel channel, int maxInFlight) {
+    this.name = name;
+    this.process = process;
+    this.channelFile = channelFile;
+    this.channel = channel;
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   * Creates the channel file and starts the worker process.
+   *
+   * @param name the name of the worker, used in logs and failures
+   * @param command the command that starts a JVM running {@link WorkerMain}, without the worker's
+   *     arguments
+   * @param channelDirectory the directory to create the channel file in
+   * @param channelCapacity the capacity of each direction of the channel
+   * @param workerThreads the number of worker threads of the worker's runtime
+   * @param configFile the file the configuration of the worker's runtime was written to by
+   *     {@link WorkerConfig}
+   */
+  static WorkerProcess launch(String name, List<String> command, Path channelDirectory,
+      int channelCapacity, int workerThreads, Path configFile) throws IOException {
+    Path channelFile = Files.createTempFile(channelDirectory, name + "-", ".channel");
+    try {
+      JobChannel channel = JobChannel.map(channelFile, channelCapacity);
+
+      List<String> workerCommand = new ArrayList<>(command);
+      workerCommand.add(channelFile.toString());
+      workerCommand.add(Integer.toString(channelCapacity));
+      workerCommand.add(configFile.toString());
+      // Standard input stays a pipe, which the worker watches to exit with the supervisor
+      Process process = new ProcessBuilder(workerCommand)
+          .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+          .redirectError(ProcessBuilder.Redirect.INHERIT)
+          .start();
+
+      return new WorkerProcess(name, process, channelFile, channel, workerThreads);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(channelFile);
+      throw e;
+    }
+  }
+
+  String getName() {
+    return name;
+  }
+
+  /**
+   * Returns {@code true} once the worker's runtime has started, {@code false} before.
+   */
+  boolean isReady() {
+    return readyNanos >= 0;
+  }
+
+  /**
+   * Returns {@code true} if the worker process is running, has not been killed and has not written
+   * anything that could not be read.
+   */
+  synchronized boolean isAlive() {
+    return !killed && !corrupt && process.isAlive();
+  }
+
+  /**
+   * Returns {@code true} if the worker has written a response that could not be read, after which
+   * nothing more is read from it.
+   */
+  boolean isCorrupt() {
+    return corrupt;
+  }
+
+  /**
+   * Sends the job to the worker, or queues it if the worker is running as many jobs as it has
+   * threads. Must not be called once the worker is dead.
+   */
+  synchronized void submit(Job job) {
+    if (inFlight.size() < maxInFlight) {
+      send(job);
+    } else {
+      queued.addLast(job);
+    }
+  }
+
+  private void send(Job job) {
+    inFlight.put(job.jobId, job);
+    unsent.addLast(job);
+    flush();
+  }
+
+  /**
+   * Writes the jobs that have not fit in the channel yet, for as long as they fit.
+   */
+  private void flush() {
+    // Never more than one job per worker thread is in the channel, so it only fills if the jobs
+    // are huge and the worker is slow to start or has stopped reading
+    Job job;
+    while ((job = unsent.peekFirst()) != null && channel.requests().offer(job.message)) {
+      unsent.pollFirst();
+      job.sentNanos = System.nanoTime();
+      job.sent = true;
+    }
+  }
+
+  /**
+   * Reads everything the worker has sent, completing the results of finished jobs and sending
+   * queued jobs in their place, and writes the jobs that did not fit in the channel before. Only
+   * called from the supervisor thread.
+   *
+   * @return {@code true} if anything was read, {@code false} otherwise
+   */
+  boolean poll() {
+    synchronized (this) {
+      if (!killed && !unsent.isEmpty()) {
+        flush();
+      }
+    }
+
+    boolean read = false;
+    byte[] message;
+    while ((message = nextResponse()) != null) {
+      read = true;
+      WorkerMessages.Result result;
+      try {
+        if (WorkerMessages.type(message) == WorkerMessages.READY) {
+          readyNanos = System.nanoTime();
+          logger.info("Worker process {} is ready", name);
+          continue;
+        }
+
+        result = WorkerMessages.Result.decode(message);
+      } catch (RuntimeException e) {
+        logger.error("Worker process {} wrote a message that could not be decoded", name, e);
+        corrupt = true;
+        break;
+      }
+
+      Job job;
+      synchronized (this) {
+        job = inFlight.remove(result.jobId);
+        Job next = queued.pollFirst();
+        if (next != null) {
+          send(next);
+        }
+      }
+
+      if (job != null) {
+        job.result.complete(result.result);
+      }
+    }
+
+    return read;
+  }
+
+  private byte[] nextResponse() {
+    if (corrupt) {
+      return null;
+    }
+
+    try {
+      return channel.responses().poll();
+    } catch (IllegalStateException e) {
+      // The worker's memory is not trusted, so it is killed rather than the supervisor failing
+      logger.error("Worker process {} wrote to its channel out of order", name, e);
+      corrupt = true;
+      return null;
+    }
+  }
+
+  /**
+   * Returns {@code true} if a job sent to the worker has not finished within its timeout plus the
+   * grace period, which means the worker no longer makes progress on it.
+   */
+  synchronized boolean hasOverdueJob(long graceNanos) {
+    if (!isReady()) {
+      return false;
+    }
+
+    long now = System.nanoTime();
+    for (Job job : inFlight.values()) {
+      if (!job.sent) {
+        // Held back because the jobs before it are overdue or not read yet
+        continue;
+      }
+
+      long startNanos = job.sentNanos - readyNanos < 0 ? readyNanos : job.sentNanos;
+      if (now - startNanos > job.timeoutNanos + graceNanos) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Sends a shutdown request. The worker exits once its running jobs have finished.
+   */
+  synchronized void requestShutdown() {
+    channel.requests().offer(WorkerMessages.shutdown());
+  }
+
+  /**
+   * Kills the worker process, fails the jobs that were sent to it and returns the jobs that were
+   * still queued or did not fit in the channel, so they can be sent to another worker.
+   */
+  synchronized List<Job> kill(String reason) {
+    killed = true;
+    process.destroyForcibly();
+
+    List<Job> remaining = new ArrayList<>(unsent.size() + queued.size());
+    for (Job job : unsent) {
+      inFlight.remove(job.jobId);
+      remaining.add(job);
+    }
+    unsent.clear();
+
+    for (Job job : inFlight.values()) {
+      job.failed(new WorkerProcessException(
+          "Worker process " + name + " was stopped: " + reason));
+    }
+    inFlight.clear();
+
+    remaining.addAll(queued);
+    queued.clear();
+    try {
+      Files.deleteIfExists(channelFile);
+    } catch (IOException e) {
+      logger.debug("Unable to delete channel file {}", channelFile, e);
+    }
+
+    return remaining;
+  }
+
+  /**
+   * Waits for the worker process to exit.
+   */
+  void awaitExit(long timeoutNanos) throws InterruptedException {
+    process.waitFor(timeoutNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * A job submitted to the pool.
+   */
+  static final class Job {
+    private final long jobId;
+    private final String runnerClassName;
+    private final byte[] message;
+    private final long timeoutNanos;
+    private final CompletableFuture<RunnerResult> result = new CompletableFuture<>();
+    private long sentNanos;
+    private boolean sent = false;
+
+    Job(long jobId, String runnerClassName, byte[] message, long timeoutNanos) {
+      this.jobId = jobId;
+      this.runnerClassName = runnerClassName;
+      this.message = message;
+      this.timeoutNanos = timeoutNanos;
+    }
+
+    CompletableFuture<RunnerResult> getResult() {
+      return result;
+    }
+
+    void failed(Throwable failure) {
+      result.complete(new RunnerResult(runnerClassName, RunnerResult.Status.FAILED, 0, 0, 0,
+          failure, RunnerOutput.empty()));
+    }
+  }
+}
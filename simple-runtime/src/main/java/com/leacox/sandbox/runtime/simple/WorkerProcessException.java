@@ -0,0 +1,21 @@
+package com.leacox.sandbox.runtime.simple;
+
+/**
+ * The failure of a runner that ran in a worker process of a {@link WorkerProcessPool}, or of the
+ * worker process itself. A runner's own exception stays in the worker process, and is described by
+ * the message of this exception.
+ *
+ * @author John Leacox
+ */
+public class WorkerProcessException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Creates a new instance of {@code WorkerProcessException}.
+   *
+   * @param message the description of the failure
+   */
+  public WorkerProcessException(String message) {
+    super(message);
+  }
+}
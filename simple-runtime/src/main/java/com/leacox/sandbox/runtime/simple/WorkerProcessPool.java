@@ -0,0 +1,513 @@
+package com.leacox.sandbox.runtime.simple;
+
+import com.leacox.sandbox.security.metrics.Counter;
+import com.leacox.sandbox.security.metrics.RuntimeMetrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Runs runners in a pool of worker processes, each a separate JVM running its own
+ * {@link SimpleRuntime}.
+ *
+ * <p>Within a single JVM a runner that is stuck in JDK code, that exhausts the heap or that makes
+ * {@code Thread.stop} hang can take the whole runtime down with it. Here the supervisor, which runs
+ * no user code itself, kills the worker process instead: a worker that exits, or that has not
+ * finished a job within the job's timeout plus a grace period, is destroyed. The jobs running in
+ * it fail, the jobs waiting for it move to its replacement, and a spare worker that has already
+ * started its runtime takes its place while a new spare starts. A misbehaving tenant therefore
+ * costs one worker process rather than the service.
+ *
+ * <p>Jobs and results are exchanged through a {@link JobChannel} per worker, a pair of ring buffers
+ * in a memory-mapped file, rather than through sockets or pipes. Each tenant is assigned to one
+ * worker by the hash of its ID, which keeps the warm state of a tenant's runners in one process and
+ * limits which other tenants a worker being killed affects.
+ *
+ * <p>The workers' runtimes are configured with the pool's runtime configuration, which is passed
+ * to them in a file only the user running the pool can write. Runner options are sent to the
+ * worker, except for the output listener, which cannot be called across processes. The output
+ * captured by the worker is returned in the result.
+ *
+ * @author John Leacox
+ */
+public final class WorkerProcessPool {
+  private static final Logger logger = LoggerFactory.getLogger(WorkerProcessPool.class);
+  // The supervisor replaces a dead worker on its next pass, unless a new process cannot be started
+  private static final long REPLACEMENT_WAIT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+  private final int workers;
+  private final int spareWorkers;
+  private final int workerThreads;
+  private final int channelCapacity;
+  private final Path channelDirectory;
+  private final SimpleRuntimeConfig runtimeConfig;
+  private final List<String> command;
+  private final long defaultRunnerTimeoutNanos;
+  private final long killGraceNanos;
+  private final Counter restartCounter;
+  private final AtomicLong restarts = new AtomicLong();
+  private final AtomicReferenceArray<WorkerProcess> slots;
+  private final Deque<WorkerProcess> spares = new ArrayDeque<>();
+  private final AtomicLong jobIds = new AtomicLong();
+  private final AtomicLong workerIds = new AtomicLong();
+
+  private volatile boolean isStarted = false;
+  private volatile boolean isShutdown = false;
+  private Thread supervisor;
+  private WorkerConfig workerConfig;
+
+  private WorkerProcessPool(Builder builder) {
+    this.workers = builder.workers;
+    this.spareWorkers = builder.spareWorkers;
+    this.workerThreads = builder.workerThreads;
+    this.channelCapacity = builder.channelCapacity;
+    this.channelDirectory = builder.channelDirectory;
+    this.runtimeConfig = builder.runtimeConfig;
+    this.defaultRunnerTimeoutNanos = builder.defaultRunnerTimeoutNanos;
+    this.killGraceNanos = builder.killGraceNanos;
+    this.restartCounter = builder.metrics.counter("worker.process.restarts");
+    this.slots = new AtomicReferenceArray<>(builder.workers);
+
+    List<String> command = new ArrayList<>();
+    command.add(builder.javaCommand);
+    command.addAll(builder.jvmOptions);
+    command.add("-cp");
+    command.add(builder.classpath);
+    command.add(WorkerMain.class.getName());
+    this.command = Collections.unmodifiableList(command);
+  }
+
+  /**
+   * Returns a new builder initialized with the default values.
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Starts the worker processes and the spare workers, and the supervisor thread that watches
+   * them. Jobs can be submitted as soon as this returns, and run once their worker is ready.
+   *
+   * @throws IOException if a worker process cannot be started
+   */
+  public synchronized void start() throws IOException {
+    if (isStarted) {
+      throw new IllegalStateException("The worker process pool has already been started");
+    }
+
+    workerConfig = WorkerConfig.write(
+        runtimeConfig, workerThreads, defaultRunnerTimeoutNanos, channelDirectory);
+    for (int i = 0; i < workers; i++) {
+      slots.set(i, launch());
+    }
+    for (int i = 0; i < spareWorkers; i++) {
+      spares.addLast(launch());
+    }
+
+    supervisor = new Thread(this::supervise, "worker-process-supervisor");
+    supervisor.setDaemon(true);
+    supervisor.start();
+    isStarted = true;
+  }
+
+  private WorkerProcess launch() throws IOException {
+    return WorkerProcess.launch("sandbox-worker-process-" + workerIds.incrementAndGet(), command,
+        channelDirectory, channelCapacity, workerThreads, workerConfig.getFile());
+  }
+
+  /**
+   * Submits a runner to the worker process of its tenant. Like {@link SimpleRuntime#submit}, the
+   * returned future always completes with a result. If the tenant's worker has died and is not
+   * replaced within a few seconds, the job fails.
+   *
+   * @param runnerClassName the class name of the runner, which must implement {@link Runnable}
+   * @param jarPath the path of the jar containing the runner
+   * @param options the options for this run
+   * @return a future of the runner's result
+   */
+  public CompletableFuture<RunnerResult> submit(
+      String runnerClassName, String jarPath, RunnerOptions options) {
+    if (!isStarted) {
+      throw new IllegalStateException("The worker process pool has not been started");
+    }
+
+    long jobId = jobIds.incrementAndGet();
+    long timeoutNanos = options.getTimeoutNanos() > 0
+        ? options.getTimeoutNanos() : defaultRunnerTimeoutNanos;
+    WorkerProcess.Job job = new WorkerProcess.Job(jobId, runnerClassName,
+        WorkerMessages.job(jobId, runnerClassName, jarPath, options), timeoutNanos);
+
+    if (isShutdown) {
+      job.failed(new WorkerProcessException("The worker process pool has been shut down"));
+      return job.getResult();
+    }
+
+    String tenantId = options.getTenantId() != null ? options.getTenantId() : jarPath;
+    int slot = Math.floorMod(tenantId.hashCode(), workers);
+    // A worker being replaced hands its queued jobs to its replacement, so retry until the job is
+    // in the hands of a worker that is alive
+    long deadline = System.nanoTime() + REPLACEMENT_WAIT_NANOS;
+    Backoff backoff = new Backoff();
+    while (true) {
+      WorkerProcess worker = slots.get(slot);
+      synchronized (worker) {
+        if (worker.isAlive()) {
+          worker.submit(job);
+          return job.getResult();
+        }
+      }
+
+      if (isShutdown) {
+        job.failed(new WorkerProcessException("The worker process pool has been shut down"));
+        return job.getResult();
+      } else if (System.nanoTime() - deadline > 0) {
+        job.failed(new WorkerProcessException(
+            "Worker process " + worker.getName() + " died and was not replaced in time"));
+        return job.getResult();
+      }
+      backoff.idle();
+    }
+  }
+
+  /**
+   * Returns the number of worker processes that have been replaced after they exited or were
+   * killed.
+   */
+  public long getRestartCount() {
+    return restarts.get();
+  }
+
+  private void supervise() {
+    Backoff backoff = new Backoff();
+    while (!isShutdown) {
+      boolean read = false;
+      for (int i = 0; i < workers; i++) {
+        WorkerProcess worker = slots.get(i);
+        read |= worker.poll();
+        if (worker.isCorrupt()) {
+          replace(i, worker, "its channel is corrupt");
+        } else if (!worker.isAlive()) {
+          replace(i, worker, "the process exited");
+        } else if (worker.hasOverdueJob(killGraceNanos)) {
+          replace(i, worker, "a job did not finish in time");
+        }
+      }
+
+      synchronized (this) {
+        for (WorkerProcess spare : spares) {
+          // Spares only ever send that they are ready
+          read |= spare.poll();
+        }
+      }
+
+      if (read) {
+        backoff.reset();
+      } else {
+        backoff.idle();
+      }
+    }
+  }
+
+  private void replace(int slot, WorkerProcess worker, String reason) {
+    logger.warn("Replacing worker process {} because {}", worker.getName(), reason);
+    restarts.incrementAndGet();
+    restartCounter.increment();
+
+    List<WorkerProcess.Job> queued;
+    synchronized (worker) {
+      queued = worker.kill(reason);
+    }
+
+    WorkerProcess replacement;
+    try {
+      synchronized (this) {
+        replacement = takeSpare();
+        if (replacement == null) {
+          replacement = launch();
+        }
+        if (spares.size() < spareWorkers) {
+          spares.addLast(launch());
+        }
+      }
+    } catch (IOException e) {
+      // Retried when the supervisor next finds the slot's worker dead
+      logger.error("Unable to start a worker process", e);
+      for (WorkerProcess.Job job : queued) {
+        job.failed(new WorkerProcessException("Unable to start a worker process: " + e));
+      }
+      return;
+    }
+
+    synchronized (replacement) {
+      for (WorkerProcess.Job job : queued) {
+        replacement.submit(job);
+      }
+    }
+    slots.set(slot, replacement);
+  }
+
+  /**
+   * Returns a spare that is alive, preferring one that is ready, or null if there is none.
+   */
+  private WorkerProcess takeSpare() {
+    spares.removeIf(spare -> {
+      if (!spare.isAlive()) {
+        spare.kill("the process exited");
+        return true;
+      }
+      return false;
+    });
+
+    for (WorkerProcess spare : spares) {
+      if (spare.isReady()) {
+        spares.remove(spare);
+        return spare;
+      }
+    }
+
+    return spares.pollFirst();
+  }
+
+  /**
+   * Stops the pool. The workers finish the jobs they are running and exit, and any that have not
+   * exited after the timeout are killed. Jobs that were not finished fail.
+   */
+  public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+    if (!isStarted || isShutdown) {
+      return;
+    }
+
+    isShutdown = true;
+    supervisor.join();
+
+    List<WorkerProcess> all = new ArrayList<>();
+    for (int i = 0; i < workers; i++) {
+      all.add(slots.get(i));
+    }
+    synchronized (this) {
+      all.addAll(spares);
+      spares.clear();
+    }
+
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (WorkerProcess worker : all) {
+      worker.requestShutdown();
+    }
+    for (WorkerProcess worker : all) {
+      worker.awaitExit(Math.max(deadline - System.nanoTime(), 0));
+      worker.poll();
+      for (WorkerProcess.Job job : worker.kill("the pool was shut down")) {
+        job.failed(new WorkerProcessException("The worker process pool has been shut down"));
+      }
+    }
+
+    try {
+      workerConfig.delete();
+    } catch (IOException e) {
+      logger.warn("Unable to delete the worker configuration {}", workerConfig.getFile(), e);
+    }
+  }
+
+  /**
+   * A builder for {@link WorkerProcessPool}.
+   */
+  public static class Builder {
+    private int workers = 2;
+    private int spareWorkers = 1;
+    private int workerThreads = Runtime.getRuntime().availableProcessors();
+    private int channelCapacity = 1 << 20;
+    private Path channelDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+    private SimpleRuntimeConfig runtimeConfig = SimpleRuntimeConfig.defaults();
+    private String javaCommand =
+        Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    private List<String> jvmOptions = Collections.emptyList();
+    private String classpath = System.getProperty("java.class.path");
+    private long defaultRunnerTimeoutNanos = TimeUnit.SECONDS.toNanos(5);
+    private long killGraceNanos = TimeUnit.SECONDS.toNanos(5);
+    private RuntimeMetrics metrics = RuntimeMetrics.disabled();
+
+    private Builder() {}
+
+    /**
+     * Sets the number of worker processes jobs are distributed over. Defaults to 2.
+     */
+    public Builder workers(int workers) {
+      if (workers < 1) {
+        throw new IllegalArgumentException("workers:Must be greater than 0");
+      }
+
+      this.workers = workers;
+      return this;
+    }
+
+    /**
+     * Sets the number of started worker processes kept ready to replace a worker that is killed.
+     * Defaults to 1.
+     */
+    public Builder spareWorkers(int spareWorkers) {
+      if (spareWorkers < 0) {
+        throw new IllegalArgumentException("spareWorkers:Must not be negative");
+      }
+
+      this.spareWorkers = spareWorkers;
+      return this;
+    }
+
+    /**
+     * Sets the number of worker threads of each worker process, which is also the number of jobs a
+     * worker runs at a time. Defaults to the number of available processors.
+     */
+    public Builder workerThreads(int workerThreads) {
+      if (workerThreads < 1) {
+        throw new IllegalArgumentException("workerThreads:Must be greater than 0");
+      }
+
+      this.workerThreads = workerThreads;
+      return this;
+    }
+
+    /**
+     * Sets the size in bytes of each direction of a worker's channel, which must be a power of two.
+     * A result with more output than fits in half of it is returned without its output. Defaults
+     * to 1 MiB.
+     */
+    public Builder channelCapacity(int channelCapacity) {
+      if (channelCapacity < 1024 || Integer.bitCount(channelCapacity) != 1) {
+        throw new IllegalArgumentException(
+            "channelCapacity:Must be a power of two of at least 1024");
+      }
+
+      this.channelCapacity = channelCapacity;
+      return this;
+    }
+
+    /**
+     * Sets the directory the channel files are created in. A memory-backed file system, such as
+     * {@code /dev/shm} on Linux, keeps the channels from ever being written to disk. Defaults to
+     * the temporary directory.
+     */
+    public Builder channelDirectory(Path channelDirectory) {
+      if (channelDirectory == null) {
+        throw new NullPointerException("channelDirectory:null");
+      }
+
+      this.channelDirectory = channelDirectory;
+      return this;
+    }
+
+    /**
+     * Sets the configuration of the workers' runtimes, such as their permission profiles, class
+     * name rules and output quotas. The number of worker threads and the default runner timeout
+     * are the pool's own, and the metrics exporter is not passed on, but workers record metrics
+     * and register them under the same JMX object name in their own JVM if the configuration's
+     * metrics do. Defaults to {@link SimpleRuntimeConfig#defaults()}.
+     */
+    public Builder runtimeConfig(SimpleRuntimeConfig runtimeConfig) {
+      if (runtimeConfig == null) {
+        throw new NullPointerException("runtimeConfig:null");
+      }
+
+      this.runtimeConfig = runtimeConfig;
+      return this;
+    }
+
+    /**
+     * Sets the {@code java} executable worker processes are started with. Defaults to the one of
+     * the current JVM.
+     */
+    public Builder javaCommand(String javaCommand) {
+      if (javaCommand == null) {
+        throw new NullPointerException("javaCommand:null");
+      }
+
+      this.javaCommand = javaCommand;
+      return this;
+    }
+
+    /**
+     * Sets the JVM options worker processes are started with, for example their heap size.
+     * Defaults to none.
+     */
+    public Builder jvmOptions(List<String> jvmOptions) {
+      if (jvmOptions == null) {
+        throw new NullPointerException("jvmOptions:null");
+      }
+
+      this.jvmOptions = new ArrayList<>(jvmOptions);
+      return this;
+    }
+
+    /**
+     * Sets the class path of worker processes, which must contain the simple runtime and its
+     * dependencies. Defaults to the class path of the current JVM.
+     */
+    public Builder classpath(String classpath) {
+      if (classpath == null) {
+        throw new NullPointerException("classpath:null");
+      }
+
+      this.classpath = classpath;
+      return this;
+    }
+
+    /**
+     * Sets the timeout of runners that do not set their own, which is also the default runner
+     * timeout of the workers' runtimes. Defaults to 5 seconds.
+     */
+    public Builder defaultRunnerTimeout(long duration, TimeUnit unit) {
+      if (duration < 1) {
+        throw new IllegalArgumentException("duration:Must be greater than 0");
+      }
+
+      this.defaultRunnerTimeoutNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    /**
+     * Sets how long past its timeout a job may go without a result before its worker process is
+     * killed. The worker's own runtime normally times the runner out well before. Defaults to 5
+     * seconds.
+     */
+    public Builder killGrace(long duration, TimeUnit unit) {
+      if (duration < 0) {
+        throw new IllegalArgumentException("duration:Must not be negative");
+      }
+
+      this.killGraceNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    /**
+     * Sets the metrics the pool counts worker restarts in. Defaults to
+     * {@link RuntimeMetrics#disabled()}.
+     */
+    public Builder metrics(RuntimeMetrics metrics) {
+      if (metrics == null) {
+        throw new NullPointerException("metrics:null");
+      }
+
+      this.metrics = metrics;
+      return this;
+    }
+
+    /**
+     * Creates the pool. The worker processes are started by {@link WorkerProcessPool#start()}.
+     */
+    public WorkerProcessPool build() {
+      return new WorkerProcessPool(this);
+    }
+  }
+}
@@ -0,0 +1,224 @@
+package com.leacox.sandbox.runtime.simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * @author John Leacox
+ */
+public class JarRegistryTest {
+  private static final String TENANT = "acme";
+  private static final String RUNNER = "com.example.Runner";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final FakeRuntime runtime = new FakeRuntime();
+  private JarRegistry registry;
+  private Path jar;
+
+  @Before
+  public void start() throws IOException {
+    jar = folder.newFolder("deploy").toPath().resolve("tenant.jar");
+    writeJar(jar, "version 1");
+    registry = JarRegistry.builder(runtime)
+        .snapshotDirectory(folder.getRoot().toPath().resolve("snapshots"))
+        .quietPeriod(10, TimeUnit.MILLISECONDS)
+        .build();
+    registry.start();
+  }
+
+  @After
+  public void shutdown() {
+    registry.shutdown();
+  }
+
+  @Test
+  public void runsFromASnapshotOfTheJar() throws Exception {
+    registry.register(TENANT, jar, RUNNER);
+
+    registry.submit(TENANT, RUNNER, RunnerOptions.builder().build());
+
+    assertEquals(1, registry.getVersion(TENANT));
+    assertEquals(1, runtime.submitted.size());
+    assertTrue(Files.isRegularFile(Paths.get(runtime.submitted.get(0))));
+    assertNotEquals(jar.toString(), runtime.submitted.get(0));
+    assertTrue(runtime.prewarmed.contains(runtime.submitted.get(0)));
+  }
+
+  @Test
+  public void switchesToNewVersionAndDiscardsIdleOldVersion() throws Exception {
+    registry.register(TENANT, jar, RUNNER);
+    String first = submit();
+    runtime.results.get(0).complete(null);
+
+    writeJar(jar, "version 2 of the jar");
+    awaitVersion(2);
+    // The old version is superseded right after the switch
+    awaitDiscarded(1);
+
+    assertEquals(1, runtime.discarded.size());
+    assertEquals(first, runtime.discarded.get(0));
+    assertFalse(Files.exists(Paths.get(first)));
+    assertNotEquals(first, submit());
+  }
+
+  @Test
+  public void releasesSupersededVersionOnceItsLastRunnerFinishes() throws Exception {
+    registry.register(TENANT, jar, RUNNER);
+    String first = submit();
+
+    writeJar(jar, "version 2 of the jar");
+    awaitVersion(2);
+
+    // The runner in flight keeps its version
+    assertTrue(runtime.discarded.isEmpty());
+    assertTrue(Files.exists(Paths.get(first)));
+
+    runtime.results.get(0).complete(null);
+
+    assertEquals(1, runtime.discarded.size());
+    assertEquals(first, runtime.discarded.get(0));
+    assertFalse(Files.exists(Paths.get(first)));
+  }
+
+  @Test
+  public void releasesVersionWhenSubmittingThrows() throws Exception {
+    registry.register(TENANT, jar, RUNNER);
+    String first = runtime.prewarmed.get(0);
+    runtime.failSubmit = true;
+
+    try {
+      registry.submit(TENANT, RUNNER, RunnerOptions.builder().build());
+      fail("Expected an IllegalStateException");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+    registry.unregister(TENANT);
+
+    assertEquals(1, runtime.discarded.size());
+    assertEquals(first, runtime.discarded.get(0));
+  }
+
+  @Test
+  public void keepsVersionThatCannotBeWarmedUp() throws Exception {
+    registry.register(TENANT, jar, RUNNER);
+    runtime.failPrewarm = true;
+
+    writeJar(jar, "version 2 of the jar");
+    awaitDiscarded(1);
+
+    assertEquals(1, registry.getVersion(TENANT));
+    assertEquals(1, runtime.discarded.size());
+    assertEquals(runtime.prewarmed.get(1), runtime.discarded.get(0));
+  }
+
+  @Test
+  public void unregisterDiscardsVersionOnceItsLastRunnerFinishes() throws Exception {
+    registry.register(TENANT, jar, RUNNER);
+    String first = submit();
+
+    registry.unregister(TENANT);
+    assertTrue(runtime.discarded.isEmpty());
+
+    runtime.results.get(0).complete(null);
+    assertEquals(1, runtime.discarded.size());
+    assertEquals(first, runtime.discarded.get(0));
+  }
+
+  private String submit() {
+    registry.submit(TENANT, RUNNER, RunnerOptions.builder().build());
+    return runtime.submitted.get(runtime.submitted.size() - 1);
+  }
+
+  private void awaitVersion(long version) throws InterruptedException {
+    for (int i = 0; i < 1000 && registry.getVersion(TENANT) != version; i++) {
+      Thread.sleep(10);
+    }
+
+    assertEquals(version, registry.getVersion(TENANT));
+  }
+
+  private void awaitDiscarded(int count) throws InterruptedException {
+    for (int i = 0; i < 1000 && runtime.discarded.size() < count; i++) {
+      Thread.sleep(10);
+    }
+  }
+
+  private static void writeJar(Path jar, String comment) throws IOException {
+    FileTime previous = Files.exists(jar) ? Files.getLastModifiedTime(jar) : null;
+    try (OutputStream out = Files.newOutputStream(jar);
+        JarOutputStream jarOut = new JarOutputStream(out)) {
+      jarOut.setComment(comment);
+      jarOut.putNextEntry(new JarEntry("com/example/Runner.class"));
+      jarOut.write(new byte[] {(byte) 0xca, (byte) 0xfe, (byte) 0xba, (byte) 0xbe});
+      jarOut.closeEntry();
+    }
+
+    if (previous != null) {
+      // A new version is told apart by its size and modification time
+      Files.setLastModifiedTime(jar, FileTime.fromMillis(previous.toMillis() + 1000));
+    }
+  }
+
+  /**
+   * A runtime that records what the registry asks of it, and whose runs finish when the test
+   * completes their results.
+   */
+  private static final class FakeRuntime extends SimpleRuntime {
+    private final List<String> prewarmed = new CopyOnWriteArrayList<>();
+    private final List<String> submitted = new CopyOnWriteArrayList<>();
+    private final List<CompletableFuture<RunnerResult>> results = new CopyOnWriteArrayList<>();
+    private final List<String> discarded = new CopyOnWriteArrayList<>();
+    private volatile boolean failPrewarm = false;
+    private volatile boolean failSubmit = false;
+
+    @Override
+    public void prewarm(String runnerClassName, String jarPath, RunnerOptions options) {
+      prewarmed.add(jarPath);
+      if (failPrewarm) {
+        throw new IllegalStateException("prewarm");
+      }
+    }
+
+    @Override
+    public CompletableFuture<RunnerResult> submit(
+        String runnerClassName, String jarPath, RunnerOptions options) {
+      if (failSubmit) {
+        throw new IllegalStateException("submit");
+      }
+
+      CompletableFuture<RunnerResult> result = new CompletableFuture<>();
+      submitted.add(jarPath);
+      results.add(result);
+      return result;
+    }
+
+    @Override
+    void discardJar(String jarPath) {
+      discarded.add(jarPath);
+    }
+  }
+}
@@ -0,0 +1,229 @@
+package com.leacox.sandbox.runtime.simple;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * @author John Leacox
+ */
+public class JobChannelTest {
+  private static final int CAPACITY = 1024;
+  private static final int HEADER_BYTES = 128;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Path file;
+  private JobChannel producer;
+  private JobChannel consumer;
+
+  @Before
+  public void setUp() throws IOException {
+    file = temporaryFolder.newFile().toPath();
+    // Two mappings of one file, the same as the supervisor and the worker
+    producer = JobChannel.map(file, CAPACITY);
+    consumer = JobChannel.map(file, CAPACITY);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsCapacityThatIsNotPowerOfTwo() throws IOException {
+    JobChannel.map(temporaryFolder.newFile().toPath(), 1500);
+  }
+
+  @Test
+  public void pollReturnsNullWhenEmpty() {
+    assertNull(consumer.requests().poll());
+    assertNull(consumer.responses().poll());
+  }
+
+  @Test
+  public void deliversMessagesInOrder() {
+    assertTrue(producer.requests().offer(message(10, 1)));
+    assertTrue(producer.requests().offer(message(0, 2)));
+    assertTrue(producer.requests().offer(message(3, 3)));
+
+    assertArrayEquals(message(10, 1), consumer.requests().poll());
+    assertArrayEquals(message(0, 2), consumer.requests().poll());
+    assertArrayEquals(message(3, 3), consumer.requests().poll());
+    assertNull(consumer.requests().poll());
+  }
+
+  @Test
+  public void directionsAreIndependent() {
+    assertTrue(producer.requests().offer(message(5, 1)));
+    assertTrue(consumer.responses().offer(message(6, 2)));
+
+    assertArrayEquals(message(6, 2), producer.responses().poll());
+    assertNull(producer.responses().poll());
+    assertArrayEquals(message(5, 1), consumer.requests().poll());
+  }
+
+  @Test
+  public void offerRejectsWhenFullAndAcceptsOnceSpaceIsFreed() {
+    byte[] message = message(CAPACITY / 4 - 4, 1);
+    for (int i = 0; i < 4; i++) {
+      assertTrue(producer.requests().offer(message));
+    }
+    assertFalse(producer.requests().offer(message(0, 2)));
+
+    assertArrayEquals(message, consumer.requests().poll());
+    assertTrue(producer.requests().offer(message(0, 2)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void offerRejectsMessageLargerThanMax() {
+    producer.requests().offer(new byte[producer.requests().getMaxMessageBytes() + 1]);
+  }
+
+  @Test
+  public void acceptsMessageOfMaxSize() {
+    byte[] message = message(producer.requests().getMaxMessageBytes(), 7);
+
+    for (int i = 0; i < 10; i++) {
+      assertTrue(producer.requests().offer(message));
+      assertArrayEquals(message, consumer.requests().poll());
+    }
+  }
+
+  @Test
+  public void wrapsAroundWithPadding() {
+    // Sizes that do not divide the capacity, so records regularly fall short of the end
+    for (int i = 0; i < 2000; i++) {
+      byte[] message = message((i * 37) % 300, i);
+      assertTrue(producer.requests().offer(message));
+      assertArrayEquals("message " + i, message, consumer.requests().poll());
+    }
+    assertNull(consumer.requests().poll());
+  }
+
+  @Test
+  public void wrapsAroundWhileFull() {
+    int sent = 0;
+    int received = 0;
+    for (int round = 0; round < 200; round++) {
+      while (producer.requests().offer(message((sent * 13) % 200, sent))) {
+        sent++;
+      }
+      byte[] message = consumer.requests().poll();
+      assertArrayEquals(message((received * 13) % 200, received), message);
+      received++;
+    }
+
+    byte[] message;
+    while ((message = consumer.requests().poll()) != null) {
+      assertArrayEquals(message((received * 13) % 200, received), message);
+      received++;
+    }
+    assertEquals(sent, received);
+  }
+
+  @Test
+  public void deliversEveryMessageAcrossThreads() throws InterruptedException {
+    int count = 100000;
+    Thread producerThread = new Thread(() -> {
+      for (int i = 0; i < count; i++) {
+        byte[] message = message(i % 100, i);
+        while (!producer.requests().offer(message)) {
+          Thread.yield();
+        }
+      }
+    });
+    // Does not keep the JVM alive if the consumer fails and stops reading
+    producerThread.setDaemon(true);
+    producerThread.start();
+
+    for (int i = 0; i < count; i++) {
+      byte[] message;
+      while ((message = consumer.requests().poll()) == null) {
+        Thread.yield();
+      }
+      assertArrayEquals("message " + i, message(i % 100, i), message);
+    }
+
+    producerThread.join();
+  }
+
+  @Test
+  public void pollRejectsNegativeLength() throws IOException {
+    assertTrue(producer.requests().offer(message(8, 1)));
+    corruptLengthAtHead(-2);
+
+    assertCorrupt();
+  }
+
+  @Test
+  public void pollRejectsLengthLargerThanMax() throws IOException {
+    assertTrue(producer.requests().offer(message(8, 1)));
+    corruptLengthAtHead(Integer.MAX_VALUE);
+
+    assertCorrupt();
+  }
+
+  @Test
+  public void pollRejectsRecordExtendingPastTail() throws IOException {
+    assertTrue(producer.requests().offer(message(8, 1)));
+    corruptLengthAtHead(100);
+
+    assertCorrupt();
+  }
+
+  @Test
+  public void pollRejectsTailTooFarAheadOfHead() throws IOException {
+    assertTrue(producer.requests().offer(message(8, 1)));
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+      mapped.order(ByteOrder.nativeOrder()).putLong(0, CAPACITY * 2L);
+    }
+
+    assertCorrupt();
+  }
+
+  private void corruptLengthAtHead(int length) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      MappedByteBuffer mapped =
+          channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + CAPACITY);
+      long head = mapped.duplicate().order(ByteOrder.nativeOrder()).getLong(64);
+      mapped.putInt(HEADER_BYTES + (int) (head & (CAPACITY - 1)), length);
+    }
+  }
+
+  private void assertCorrupt() {
+    try {
+      consumer.requests().poll();
+      fail("Expected an IllegalStateException");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+  }
+
+  private static byte[] message(int length, int seed) {
+    byte[] message = new byte[length];
+    Arrays.fill(message, (byte) seed);
+    if (length >= 4) {
+      message[0] = (byte) (seed >>> 24);
+      message[1] = (byte) (seed >>> 16);
+      message[2] = (byte) (seed >>> 8);
+      message[3] = (byte) seed;
+    }
+    return message;
+  }
+}
@@ -0,0 +1,164 @@
+package com.leacox.sandbox.runtime.simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.leacox.sandbox.security.metrics.RuntimeMetrics;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author John Leacox
+ */
+public class RunnerExecutionTest {
+  private static final long TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+  private final RunnerWatchdog watchdog = new RunnerWatchdog();
+  private final RunnerMetrics metrics = new RunnerMetrics(RuntimeMetrics.disabled());
+  private final AtomicReference<RunnerResult> finished = new AtomicReference<>();
+
+  @After
+  public void shutdown() {
+    watchdog.shutdown();
+  }
+
+  @Test
+  public void completesRunner() {
+    CountingRunner.runs.set(0);
+    RunnerExecution execution = execution(CountingRunner.class, TimeUnit.SECONDS.toNanos(10));
+    execution.queued();
+
+    execution.run();
+
+    RunnerResult result = execution.getResult().join();
+    assertEquals(RunnerResult.Status.COMPLETED, result.getStatus());
+    assertEquals(1, CountingRunner.runs.get());
+    assertSame(result, finished.get());
+  }
+
+  @Test
+  public void reportsWhatConstructorThrows() {
+    RunnerExecution execution = execution(ThrowingRunner.class, TimeUnit.SECONDS.toNanos(10));
+
+    execution.run();
+
+    RunnerResult result = execution.getResult().join();
+    assertEquals(RunnerResult.Status.FAILED, result.getStatus());
+    assertTrue(result.getFailure() instanceof IllegalStateException);
+    assertSame(result, finished.get());
+  }
+
+  @Test
+  public void reportsRunnerThatIsNotRunnable() {
+    RunnerExecution execution = execution(String.class, TimeUnit.SECONDS.toNanos(10));
+
+    execution.run();
+
+    RunnerResult result = execution.getResult().join();
+    assertEquals(RunnerResult.Status.FAILED, result.getStatus());
+    assertTrue(result.getFailure() instanceof ClassCastException);
+  }
+
+  @Test
+  public void timesOutRunnerThatNeverStarts() throws Exception {
+    RunnerExecution execution = execution(CountingRunner.class, TIMEOUT_NANOS);
+
+    execution.queued();
+
+    RunnerResult result = execution.getResult().get(10, TimeUnit.SECONDS);
+    assertEquals(RunnerResult.Status.TIMED_OUT, result.getStatus());
+    assertNull(result.getFailure());
+    assertSame(result, awaitFinished());
+  }
+
+  @Test
+  public void doesNotRunRunnerThatTimedOutWhileQueued() throws Exception {
+    CountingRunner.runs.set(0);
+    RunnerExecution execution = execution(CountingRunner.class, TIMEOUT_NANOS);
+    execution.queued();
+    execution.getResult().get(10, TimeUnit.SECONDS);
+
+    execution.run();
+
+    assertEquals(0, CountingRunner.runs.get());
+    assertEquals(RunnerResult.Status.TIMED_OUT, execution.getResult().join().getStatus());
+  }
+
+  @Test
+  public void queueDeadlineDoesNotTimeOutStartedRunner() throws Exception {
+    CountingRunner.runs.set(0);
+    RunnerExecution execution = execution(CountingRunner.class, TIMEOUT_NANOS);
+    execution.run();
+
+    // Armed after the runner already started, as when a worker picks it up straight away
+    execution.queued();
+    Thread.sleep(TimeUnit.NANOSECONDS.toMillis(TIMEOUT_NANOS) * 3);
+
+    assertEquals(RunnerResult.Status.COMPLETED, execution.getResult().join().getStatus());
+    assertEquals(1, CountingRunner.runs.get());
+  }
+
+  @Test
+  public void timesOutRunnerThatDoesNotStop() throws Exception {
+    RunnerExecution execution = execution(SleepingRunner.class, TIMEOUT_NANOS);
+    Thread worker = new Thread(execution);
+    worker.start();
+
+    CompletableFuture<RunnerResult> result = execution.getResult();
+    assertEquals(RunnerResult.Status.TIMED_OUT, result.get(10, TimeUnit.SECONDS).getStatus());
+    worker.join(TimeUnit.SECONDS.toMillis(10));
+    assertFalse(worker.isAlive());
+  }
+
+  private RunnerExecution execution(Class<?> runnerClass, long timeoutNanos) {
+    return new RunnerExecution(runnerClass.getName(), getClass().getClassLoader(), runnerClass,
+        timeoutNanos, Long.MAX_VALUE, Long.MAX_VALUE, null, watchdog, metrics, finished::set);
+  }
+
+  private RunnerResult awaitFinished() throws InterruptedException {
+    for (int i = 0; i < 1000 && finished.get() == null; i++) {
+      Thread.sleep(10);
+    }
+
+    return finished.get();
+  }
+
+  public static final class CountingRunner implements Runnable {
+    static final AtomicInteger runs = new AtomicInteger();
+
+    @Override
+    public void run() {
+      runs.incrementAndGet();
+    }
+  }
+
+  public static final class ThrowingRunner implements Runnable {
+    public ThrowingRunner() {
+      throw new IllegalStateException("constructor");
+    }
+
+    @Override
+    public void run() {
+    }
+  }
+
+  public static final class SleepingRunner implements Runnable {
+    @Override
+    public void run() {
+      try {
+        Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+      } catch (InterruptedException e) {
+        // Stopped by the abort
+      }
+    }
+  }
+}
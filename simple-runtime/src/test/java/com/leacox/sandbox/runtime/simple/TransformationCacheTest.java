@@ -0,0 +1,90 @@
+package com.leacox.sandbox.runtime.simple;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * @author John Leacox
+ */
+public class TransformationCacheTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void loadsWhatWasStored() throws IOException {
+    Path root = folder.getRoot().toPath().resolve("cache");
+    TransformationCache cache = open(root);
+    cache.store(Collections.singletonMap("java.lang.Foo", new byte[] {1, 2, 3}));
+
+    Map<String, byte[]> classes = open(root).load();
+
+    assertEquals(1, classes.size());
+    assertArrayEquals(new byte[] {1, 2, 3}, classes.get("java.lang.Foo"));
+  }
+
+  @Test
+  public void openCreatesAPrivateRoot() throws IOException {
+    Path root = folder.getRoot().toPath().resolve("cache");
+
+    assertNotNull(open(root));
+    assertEquals(PosixFilePermissions.fromString("rwx------"),
+        Files.getPosixFilePermissions(root));
+  }
+
+  @Test
+  public void refusesARootOthersCanWrite() throws IOException {
+    Path root = folder.newFolder("cache").toPath();
+    Files.setPosixFilePermissions(root, PosixFilePermissions.fromString("rwxrwxrwx"));
+
+    assertNull(open(root));
+  }
+
+  @Test
+  public void doesNotLoadAnEntryFileOthersCanWrite() throws IOException {
+    Path root = folder.getRoot().toPath().resolve("cache");
+    TransformationCache cache = open(root);
+    cache.store(Collections.singletonMap("java.lang.Foo", new byte[] {1, 2, 3}));
+    Files.setPosixFilePermissions(entryFile(root), PosixFilePermissions.fromString("rw-rw-rw-"));
+
+    assertTrue(cache.load().isEmpty());
+  }
+
+  @Test
+  public void doesNotLoadAnEntryFileThatIsALink() throws IOException {
+    Path root = folder.getRoot().toPath().resolve("cache");
+    TransformationCache cache = open(root);
+    cache.store(Collections.singletonMap("java.lang.Foo", new byte[] {1, 2, 3}));
+    Path entryFile = entryFile(root);
+    Path target = folder.newFile("Foo.class").toPath();
+    Files.delete(entryFile);
+    Files.createSymbolicLink(entryFile, target);
+
+    assertTrue(cache.load().isEmpty());
+  }
+
+  private static TransformationCache open(Path root) {
+    return TransformationCache.open(root, "stubs", Collections.emptyList());
+  }
+
+  private static Path entryFile(Path root) throws IOException {
+    try (Stream<Path> entries = Files.list(root)) {
+      Path entry = entries.findFirst().get();
+      return entry.resolve("java.lang.Foo.class");
+    }
+  }
+}
@@ -0,0 +1,245 @@
+package com.leacox.sandbox.runtime.simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.leacox.sandbox.security.JarContentCache;
+import com.leacox.sandbox.security.UserClassLoader;
+import com.leacox.sandbox.security.metrics.RuntimeMetrics;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * @author John Leacox
+ */
+public class WarmPoolTest {
+  private static final String TENANT = "acme";
+  private static final String RUNNER = Runner.class.getName();
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final JarContentCache jarContentCache = new JarContentCache();
+  private final List<UserClassLoader> created = new ArrayList<>();
+  private final List<UserClassLoader> retired = new ArrayList<>();
+  private Path jar;
+  private URL jarUrl;
+
+  @Before
+  public void createJar() throws IOException {
+    jar = folder.newFile("runner.jar").toPath();
+    writeJar(jar, "version 1");
+    jarUrl = jar.toUri().toURL();
+  }
+
+  @Test
+  public void reusesReleasedLoader() throws Exception {
+    WarmPool pool = pool(2, 10, TimeUnit.MINUTES.toNanos(1));
+
+    WarmPool.Lease first = pool.lease(TENANT, jarUrl, RUNNER);
+    pool.release(first, true);
+    WarmPool.Lease second = pool.lease(TENANT, jarUrl, RUNNER);
+
+    assertSame(first.getLoader(), second.getLoader());
+    assertSame(second.getLoader(), second.getRunnerClass().getClassLoader());
+    assertEquals(1, created.size());
+    assertTrue(retired.isEmpty());
+  }
+
+  @Test
+  public void retiresLoaderAfterMaxUses() throws Exception {
+    WarmPool pool = pool(2, 2, TimeUnit.MINUTES.toNanos(1));
+
+    WarmPool.Lease first = pool.lease(TENANT, jarUrl, RUNNER);
+    pool.release(first, true);
+    WarmPool.Lease second = pool.lease(TENANT, jarUrl, RUNNER);
+    pool.release(second, true);
+    WarmPool.Lease third = pool.lease(TENANT, jarUrl, RUNNER);
+
+    assertSame(first.getLoader(), second.getLoader());
+    assertNotSame(first.getLoader(), third.getLoader());
+    assertEquals(2, created.size());
+    assertEquals(1, retired.size());
+    assertSame(first.getLoader(), retired.get(0));
+  }
+
+  @Test
+  public void retiresLoaderReleasedAsNotReusable() throws Exception {
+    WarmPool pool = pool(2, 10, TimeUnit.MINUTES.toNanos(1));
+
+    WarmPool.Lease first = pool.lease(TENANT, jarUrl, RUNNER);
+    pool.release(first, false);
+    WarmPool.Lease second = pool.lease(TENANT, jarUrl, RUNNER);
+
+    assertNotSame(first.getLoader(), second.getLoader());
+    assertEquals(1, retired.size());
+    assertSame(first.getLoader(), retired.get(0));
+  }
+
+  @Test
+  public void retiresIdleLoadersWhenJarChanges() throws Exception {
+    WarmPool pool = pool(2, 10, TimeUnit.MINUTES.toNanos(1));
+    WarmPool.Lease first = pool.lease(TENANT, jarUrl, RUNNER);
+    pool.release(first, true);
+
+    writeJar(jar, "version 2 of the jar");
+    WarmPool.Lease second = pool.lease(TENANT, jarUrl, RUNNER);
+
+    assertNotSame(first.getLoader(), second.getLoader());
+    assertEquals(1, retired.size());
+    assertSame(first.getLoader(), retired.get(0));
+  }
+
+  @Test
+  public void retiresLeasedLoaderOfOldContentsOnRelease() throws Exception {
+    WarmPool pool = pool(2, 10, TimeUnit.MINUTES.toNanos(1));
+    WarmPool.Lease old = pool.lease(TENANT, jarUrl, RUNNER);
+
+    writeJar(jar, "version 2 of the jar");
+    WarmPool.Lease current = pool.lease(TENANT, jarUrl, RUNNER);
+    pool.release(old, true);
+    pool.release(current, true);
+
+    assertEquals(1, retired.size());
+    assertSame(old.getLoader(), retired.get(0));
+    assertSame(current.getLoader(), pool.lease(TENANT, jarUrl, RUNNER).getLoader());
+  }
+
+  @Test
+  public void evictsLoadersIdlePastTheirTimeToLive() throws Exception {
+    WarmPool pool = pool(2, 10, 0);
+    WarmPool.Lease first = pool.lease(TENANT, jarUrl, RUNNER);
+    pool.release(first, true);
+
+    pool.evictIdle();
+
+    assertEquals(1, retired.size());
+    assertSame(first.getLoader(), retired.get(0));
+    assertNotSame(first.getLoader(), pool.lease(TENANT, jarUrl, RUNNER).getLoader());
+  }
+
+  @Test
+  public void keepsLoadersIdleWithinTheirTimeToLive() throws Exception {
+    WarmPool pool = pool(2, 10, TimeUnit.MINUTES.toNanos(1));
+    WarmPool.Lease first = pool.lease(TENANT, jarUrl, RUNNER);
+    pool.release(first, true);
+
+    pool.evictIdle();
+
+    assertTrue(retired.isEmpty());
+    assertSame(first.getLoader(), pool.lease(TENANT, jarUrl, RUNNER).getLoader());
+  }
+
+  @Test
+  public void evictJarRetiresIdleLoadersAndLeasedOnesOnRelease() throws Exception {
+    WarmPool pool = pool(2, 10, TimeUnit.MINUTES.toNanos(1));
+    WarmPool.Lease idle = pool.lease(TENANT, jarUrl, RUNNER);
+    WarmPool.Lease leased = pool.lease(TENANT, jarUrl, RUNNER);
+    pool.release(idle, true);
+
+    pool.evictJar(jarUrl);
+    assertEquals(1, retired.size());
+    assertSame(idle.getLoader(), retired.get(0));
+
+    pool.release(leased, true);
+    assertEquals(2, retired.size());
+    assertSame(leased.getLoader(), retired.get(1));
+  }
+
+  @Test
+  public void prewarmFillsThePoolWithoutUsingLoaders() throws Exception {
+    WarmPool pool = pool(2, 1, TimeUnit.MINUTES.toNanos(1));
+
+    pool.prewarm(TENANT, jarUrl, RUNNER);
+    WarmPool.Lease lease = pool.lease(TENANT, jarUrl, RUNNER);
+
+    assertEquals(2, created.size());
+    assertTrue(retired.isEmpty());
+    assertTrue(created.contains(lease.getLoader()));
+  }
+
+  @Test
+  public void disabledPoolLeasesNewLoaderEveryTime() throws Exception {
+    WarmPool pool = pool(0, 10, TimeUnit.MINUTES.toNanos(1));
+
+    WarmPool.Lease first = pool.lease(TENANT, jarUrl, RUNNER);
+    pool.release(first, true);
+    WarmPool.Lease second = pool.lease(TENANT, jarUrl, RUNNER);
+
+    assertNotSame(first.getLoader(), second.getLoader());
+    assertEquals(1, retired.size());
+  }
+
+  @Test
+  public void retiresLoaderThatCannotLoadTheRunner() throws Exception {
+    WarmPool pool = pool(2, 10, TimeUnit.MINUTES.toNanos(1));
+
+    try {
+      pool.lease(TENANT, jarUrl, "com.example.Missing");
+      fail("Expected a ClassNotFoundException");
+    } catch (ClassNotFoundException e) {
+      // Expected
+    }
+
+    assertEquals(1, retired.size());
+    assertSame(created.get(0), retired.get(0));
+  }
+
+  private WarmPool pool(int maxIdlePerKey, int maxUses, long idleTtlNanos) {
+    return new WarmPool(maxIdlePerKey, maxUses, idleTtlNanos, jarContentCache,
+        (tenantId, url) -> {
+          // No parent that can see the runner, so each loader defines it from the jar
+          UserClassLoader loader = new UserClassLoader(url, null, jarContentCache);
+          created.add(loader);
+          return loader;
+        },
+        retired::add, RuntimeMetrics.disabled());
+  }
+
+  private static void writeJar(Path jar, String comment) throws IOException {
+    FileTime previous = Files.exists(jar) ? Files.getLastModifiedTime(jar) : null;
+    try (OutputStream out = Files.newOutputStream(jar);
+        JarOutputStream jarOut = new JarOutputStream(out);
+        InputStream runner = WarmPoolTest.class.getResourceAsStream(
+            "/" + RUNNER.replace('.', '/') + ".class")) {
+      jarOut.setComment(comment);
+      jarOut.putNextEntry(new JarEntry(RUNNER.replace('.', '/') + ".class"));
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = runner.read(buffer)) != -1) {
+        jarOut.write(buffer, 0, read);
+      }
+      jarOut.closeEntry();
+    }
+
+    if (previous != null) {
+      // A new version is told apart by its size and modification time
+      Files.setLastModifiedTime(jar, FileTime.fromMillis(previous.toMillis() + 1000));
+    }
+  }
+
+  public static final class Runner implements Runnable {
+    @Override
+    public void run() {
+    }
+  }
+}
@@ -0,0 +1,156 @@
+package com.leacox.sandbox.runtime.simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.leacox.sandbox.security.ClassNameRules;
+import com.leacox.sandbox.security.PermissionProfile;
+import com.leacox.sandbox.security.PermissionProfiles;
+import com.leacox.sandbox.security.metrics.RuntimeMetrics;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author John Leacox
+ */
+public class WorkerConfigTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void readsBackWhatWasWritten() throws IOException {
+    Path stubs = folder.newFolder("stubs").toPath();
+    SimpleRuntimeConfig config = SimpleRuntimeConfig.builder()
+        .workerThreads(3)
+        .queueCapacity(7)
+        .rejectionPolicy(SandboxExecutor.RejectionPolicy.ABORT)
+        .submitTimeout(2, TimeUnit.SECONDS)
+        .maxConcurrentRunnersPerTenant(4)
+        .defaultRunnerTimeout(9, TimeUnit.SECONDS)
+        .defaultCpuBudget(1, TimeUnit.SECONDS)
+        .defaultMaxAllocatedBytes(1 << 20)
+        .classNameRules(ClassNameRules.builder()
+            .allowedByDefault(false)
+            .allowPackage("java.util")
+            .denyClass("java.util.Timer")
+            .build())
+        .permissionProfiles(PermissionProfiles.builder()
+            .profile(PermissionProfile.builder("exit")
+                .grant(new RuntimePermission("exitVM"))
+                .build())
+            .assign("acme", "exit")
+            .build())
+        .stubsJarDirectory(stubs)
+        .stubsJarSha256("abc123")
+        .warmPoolSize(2)
+        .warmPoolMaxUses(5)
+        .warmPoolIdleTtl(1, TimeUnit.MINUTES)
+        .loaderLeakGcCycles(3)
+        .metaspaceAdmissionLimit(1 << 30)
+        .captureOutput(false)
+        .defaultOutputQuota(512)
+        .build();
+
+    WorkerConfig written =
+        WorkerConfig.write(config, 6, TimeUnit.SECONDS.toNanos(11), folder.getRoot().toPath());
+    SimpleRuntimeConfig read = WorkerConfig.read(written.getFile());
+
+    // The pool's own worker threads and timeout replace those of the configuration
+    assertEquals(6, read.getWorkerThreads());
+    assertEquals(TimeUnit.SECONDS.toNanos(11), read.getDefaultRunnerTimeoutNanos());
+    assertEquals(7, read.getQueueCapacity());
+    assertEquals(SandboxExecutor.RejectionPolicy.ABORT, read.getRejectionPolicy());
+    assertEquals(SandboxExecutor.ThreadMode.PLATFORM, read.getThreadMode());
+    assertEquals(TimeUnit.SECONDS.toNanos(2), read.getSubmitTimeoutNanos());
+    assertEquals(4, read.getMaxConcurrentRunnersPerTenant());
+    assertEquals(TimeUnit.SECONDS.toNanos(1), read.getDefaultCpuBudgetNanos());
+    assertEquals(1 << 20, read.getDefaultMaxAllocatedBytes());
+    assertEquals(stubs.toAbsolutePath(), read.getStubsJarDirectory());
+    assertEquals("abc123", read.getStubsJarSha256());
+    assertNull(read.getStubsJar());
+    assertNull(read.getTransformationCacheDirectory());
+    assertEquals(2, read.getWarmPoolSize());
+    assertEquals(5, read.getWarmPoolMaxUses());
+    assertEquals(TimeUnit.MINUTES.toNanos(1), read.getWarmPoolIdleTtlNanos());
+    assertEquals(3, read.getLoaderLeakGcCycles());
+    assertEquals(1 << 30, read.getMetaspaceAdmissionLimitBytes());
+    assertFalse(read.isCaptureOutput());
+    assertEquals(512, read.getDefaultOutputQuota());
+    assertFalse(read.getMetrics().isEnabled());
+
+    ClassNameRules rules = read.getClassNameRules();
+    assertTrue(rules.isAllowed("java.util.List"));
+    assertFalse(rules.isAllowed("java.util.Timer"));
+    assertFalse(rules.isAllowed("java.io.File"));
+
+    assertEquals("exit", read.getPermissionProfiles().forTenant("acme").getName());
+    assertTrue(read.getPermissionProfiles().forTenant("acme").getPermissions()
+        .implies(new RuntimePermission("exitVM")));
+    assertEquals("none", read.getPermissionProfiles().forTenant("globex").getName());
+  }
+
+  @Test
+  public void keepsDefaults() throws IOException {
+    WorkerConfig written = WorkerConfig.write(SimpleRuntimeConfig.defaults(), 1,
+        TimeUnit.SECONDS.toNanos(5), folder.getRoot().toPath());
+    SimpleRuntimeConfig read = WorkerConfig.read(written.getFile());
+
+    assertEquals(Long.MAX_VALUE, read.getDefaultCpuBudgetNanos());
+    assertEquals(Long.MAX_VALUE, read.getDefaultMaxAllocatedBytes());
+    assertEquals(-1, read.getMetaspaceAdmissionLimitBytes());
+    assertTrue(read.isCaptureOutput());
+    assertFalse(read.getClassNameRules().isAllowed("net.bytebuddy.ByteBuddy"));
+    assertFalse(read.getClassNameRules().isAllowed("java.io.ObjectInputStream"));
+    assertTrue(read.getClassNameRules().isAllowed("java.lang.String"));
+  }
+
+  @Test
+  public void passesOnMetrics() throws IOException {
+    try (RuntimeMetrics metrics = RuntimeMetrics.builder().build()) {
+      WorkerConfig written = WorkerConfig.write(
+          SimpleRuntimeConfig.builder().metrics(metrics).build(), 1, TimeUnit.SECONDS.toNanos(5),
+          folder.getRoot().toPath());
+
+      try (RuntimeMetrics read = WorkerConfig.read(written.getFile()).getMetrics()) {
+        assertTrue(read.isEnabled());
+        assertNull(read.getJmxObjectName());
+      }
+    }
+  }
+
+  @Test
+  public void deleteRemovesFiles() throws IOException {
+    WorkerConfig written = WorkerConfig.write(SimpleRuntimeConfig.defaults(), 1,
+        TimeUnit.SECONDS.toNanos(5), folder.getRoot().toPath());
+
+    written.delete();
+
+    assertFalse(Files.exists(written.getFile()));
+    assertEquals(0, folder.getRoot().list().length);
+  }
+
+  @Test
+  public void readRefusesFileOthersCanWrite() throws IOException {
+    WorkerConfig written = WorkerConfig.write(SimpleRuntimeConfig.defaults(), 1,
+        TimeUnit.SECONDS.toNanos(5), folder.getRoot().toPath());
+    Files.setPosixFilePermissions(written.getFile(), PosixFilePermissions.fromString("rw-rw-rw-"));
+
+    try {
+      WorkerConfig.read(written.getFile());
+      fail("Expected SecurityException");
+    } catch (SecurityException e) {
+      // Expected
+    }
+  }
+}